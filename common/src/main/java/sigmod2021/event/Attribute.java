@@ -235,6 +235,33 @@ public class Attribute implements Serializable {
         setProperty(SchemaProperty.NULLABLE.key, Boolean.toString(value));
     }
 
+    /**
+     * Returns the encoding selected for the values of this attribute in the
+     * leaves of a primary index.
+     *
+     * @return the selected encoding, or null if none is selected
+     */
+    public Encoding getEncoding() {
+        String encoding = getProperty(SchemaProperty.ENCODING.key);
+        return encoding == null ? null : Encoding.valueOf(encoding.toUpperCase());
+    }
+
+    /**
+     * Selects the encoding for the values of this attribute in the leaves of
+     * a primary index.
+     *
+     * @param encoding the encoding, null to use the default of the data type
+     * @return this attribute
+     * @throws SchemaException if the encoding does not apply to the data type
+     */
+    public Attribute setEncoding(Encoding encoding) {
+        if (encoding == null)
+            return removeProperty(SchemaProperty.ENCODING.key);
+        if (!encoding.isApplicable(type))
+            throw new SchemaException("Encoding " + encoding + " does not apply to " + this);
+        return setProperty(SchemaProperty.ENCODING.key, encoding.name());
+    }
+
     public String getProperty(String property) {
         return properties.get(property);
     }
@@ -349,7 +376,8 @@ public class Attribute implements Serializable {
         IS_KEY("IsKey"),
         MAX_STRING_SIZE("MaxStringSize"),
         QUALIFIER("q_id"),
-        NULLABLE("nullable");
+        NULLABLE("nullable"),
+        ENCODING("encoding");
 
         public final String key;
 
@@ -357,4 +385,49 @@ public class Attribute implements Serializable {
             this.key = key;
         }
     }
+
+    /**
+     * Encodings of the values of an attribute within a leaf.
+     */
+    public static enum Encoding {
+        /**
+         * The values as they are
+         */
+        PLAIN,
+        /**
+         * The differences of the differences of consecutive values, for
+         * integral types
+         */
+        DELTA,
+        /**
+         * The XOR of consecutive values, for decimal types
+         */
+        XOR,
+        /**
+         * The differences to the minimum value, packed into as few bits as
+         * possible, for integral types
+         */
+        FRAME_OF_REFERENCE,
+        /**
+         * The indexes of the values in a dictionary of the distinct values,
+         * for strings and geometries
+         */
+        DICTIONARY;
+
+        public boolean isApplicable(DataType type) {
+            switch (this) {
+                case PLAIN:
+                    return true;
+                case DELTA:
+                case FRAME_OF_REFERENCE:
+                    return type.isIntegral();
+                case XOR:
+                    return type.isDecimal();
+                case DICTIONARY:
+                    return type == DataType.STRING || type == DataType.GEOMETRY;
+                default:
+                    return false;
+            }
+        }
+    }
 }
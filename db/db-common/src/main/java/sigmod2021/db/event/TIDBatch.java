@@ -0,0 +1,139 @@
+package sigmod2021.db.event;
+
+import java.util.Arrays;
+
+/**
+ * The {@link TID}s of a batch of inserted events, stored in primitive arrays
+ * instead of one object per event. The i-th entry belongs to the i-th event
+ * of the batch. Events, whose location is not known at insertion time (e.g.,
+ * out-of-order events residing in the appender's queue), have a block id of
+ * {@link #UNKNOWN}.
+ */
+public class TIDBatch {
+
+    /** Block id of events without a known location */
+    public static final long UNKNOWN = -1L;
+
+    /** The block ids */
+    private long[] blockIds;
+
+    /** The offsets within the blocks */
+    private int[] offsets;
+
+    /** The number of entries */
+    private int size;
+
+    /**
+     * Creates a new empty batch
+     *
+     * @param capacity the initial capacity
+     */
+    public TIDBatch(final int capacity) {
+        this.blockIds = new long[capacity];
+        this.offsets = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a batch backed by the given arrays.
+     *
+     * @param blockIds the block ids
+     * @param offsets  the offsets, must have the same length as blockIds
+     */
+    public TIDBatch(final long[] blockIds, final int[] offsets) {
+        if (blockIds.length != offsets.length)
+            throw new IllegalArgumentException("Block ids and offsets must have the same length.");
+        this.blockIds = blockIds;
+        this.offsets = offsets;
+        this.size = blockIds.length;
+    }
+
+    /**
+     * Appends a single entry
+     *
+     * @param blockId the block id
+     * @param offset  the offset within the block
+     */
+    public void add(final long blockId, final int offset) {
+        ensureCapacity(this.size + 1);
+        this.blockIds[this.size] = blockId;
+        this.offsets[this.size] = offset;
+        this.size++;
+    }
+
+    /**
+     * Appends all entries of the given batch
+     *
+     * @param other the batch to append
+     */
+    public void addAll(final TIDBatch other) {
+        ensureCapacity(this.size + other.size);
+        System.arraycopy(other.blockIds, 0, this.blockIds, this.size, other.size);
+        System.arraycopy(other.offsets, 0, this.offsets, this.size, other.size);
+        this.size += other.size;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the block id of the entry
+     */
+    public long getBlockId(final int index) {
+        checkIndex(index);
+        return this.blockIds[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return the offset of the entry
+     */
+    public int getOffset(final int index) {
+        checkIndex(index);
+        return this.offsets[index];
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return true if the location of the entry is known
+     */
+    public boolean isKnown(final int index) {
+        return getBlockId(index) != UNKNOWN;
+    }
+
+    /**
+     * Materializes the entry at the given index.
+     *
+     * @param index the index of the entry
+     * @return the {@link TID} of the entry, or null if it is unknown
+     */
+    public TID get(final int index) {
+        return isKnown(index) ? new TID(this.blockIds[index], this.offsets[index]) : null;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > this.blockIds.length) {
+            final int newCapacity = Math.max(capacity, Math.max(16, this.blockIds.length * 2));
+            this.blockIds = Arrays.copyOf(this.blockIds, newCapacity);
+            this.offsets = Arrays.copyOf(this.offsets, newCapacity);
+        }
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("TIDBatch [size=%d]", this.size);
+    }
+}
@@ -11,6 +11,14 @@ public interface HistogramAccess {
 
     Aggregation getAggregates(String attribute);
 
+    default double getMin(String attribute) {
+        return getAggregates(attribute).getValues()[1].doubleValue();
+    }
+
+    default double getMax(String attribute) {
+        return getAggregates(attribute).getValues()[2].doubleValue();
+    }
+
     TimeInterval getCoveredTimeInterval();
 
     long getEventCount();
@@ -3,6 +3,7 @@ package sigmod2021.db.core.primaryindex;
 import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
 import sigmod2021.db.event.PersistentEvent;
 import sigmod2021.db.event.TID;
+import sigmod2021.db.event.TIDBatch;
 import sigmod2021.db.queries.NoSuchEventException;
 import sigmod2021.db.util.TimeInterval;
 import sigmod2021.event.Event;
@@ -12,7 +13,10 @@ import xxl.core.cursor.DoubleCursor;
 import xxl.core.cursors.Cursor;
 import xxl.core.indexStructures.AggregateIndex.Aggregation;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /**
@@ -20,6 +24,9 @@ import java.util.concurrent.Future;
  */
 public interface PrimaryIndex {
 
+    /** The number of events per chunk used by {@link #insertAll(Iterator)} */
+    int BATCH_SIZE = 8192;
+
     /**
      * @return an interval [a,b] describing the range of timestamps stored in this tree
      */
@@ -54,6 +61,37 @@ public interface PrimaryIndex {
      */
     Future<TID> insert(Event event);
 
+    /**
+     * Inserts the given events into this TAB+-Tree. Implementations may
+     * amortize the per-event overhead of {@link #insert(Event)} over the whole
+     * batch.
+     *
+     * @param events
+     *            the events to insert
+     * @return the {@link TID}s of the inserted events, in the order of the
+     *         given events. The TID of an event, whose location is not known
+     *         yet (e.g., due to out-of-order arrival), is unknown.
+     */
+    default TIDBatch insertBatch(Event[] events) {
+        final TIDBatch result = new TIDBatch(events.length);
+        for (Event e : events) {
+            final Future<TID> f = insert(e);
+            TID tid = null;
+            if (f.isDone()) {
+                try {
+                    tid = f.get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    // Location unknown
+                }
+            }
+            if (tid != null)
+                result.add(tid.getBlockId(), tid.getOffset());
+            else
+                result.add(TIDBatch.UNKNOWN, 0);
+        }
+        return result;
+    }
+
     /**
      * Finds the event with the given it and returns a cursor pointing to it
      * @param id the id of the first event
@@ -133,6 +171,31 @@ public interface PrimaryIndex {
         }
     }
 
+    /**
+     * Inserts all events from the given iterator, using {@link #insertBatch(Event[])}
+     * on chunks of the input.
+     *
+     * @param events
+     *            the events to insert
+     * @return the {@link TID}s of the inserted events, in the order of the
+     *         given events
+     */
+    default TIDBatch insertAll(final Iterator<? extends Event> events) {
+        final TIDBatch result = new TIDBatch(BATCH_SIZE);
+        final Event[] chunk = new Event[BATCH_SIZE];
+        int size = 0;
+        while (events.hasNext()) {
+            chunk[size++] = events.next();
+            if (size == chunk.length) {
+                result.addAll(insertBatch(chunk));
+                size = 0;
+            }
+        }
+        if (size > 0)
+            result.addAll(insertBatch(Arrays.copyOf(chunk, size)));
+        return result;
+    }
+
     /**
      * @return All events stored in this tree in chronological order
      */
@@ -0,0 +1,299 @@
+package sigmod2021.db.core.primaryindex.impl;
+
+import sigmod2021.db.DBRuntimeException;
+import sigmod2021.db.util.TimeInterval;
+import xxl.core.cursors.Cursor;
+import xxl.core.indexStructures.BPlusTree.IndexEntry;
+import xxl.core.indexStructures.BPlusTree.Node;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads the leaves of upcoming query intervals ahead of a
+ * {@link MultiIntervalCursor}. The intervals are pulled from the query's
+ * interval cursor before the consumer asks for them. For each interval, the
+ * leaves overlapping it are determined from the level above the leaves and
+ * loaded by the workers shared by the queries of the index, keeping at most a given number of leaves in
+ * flight. Thus, reading and decoding leaves overlaps with processing the
+ * events of the current ones.
+ * <p>
+ * The consumer takes the loaded leaves by {@link #take(IndexEntry)}; leaves
+ * not read ahead are loaded directly. Since the consumer seeks the next
+ * interval before reading the current one, the leaves of the two intervals
+ * handed out last are kept, while those of earlier intervals are released.
+ * All methods must be called by the consuming thread.
+ */
+class LeafPrefetcher {
+
+    private final Cursor<TimeInterval> intervals;
+
+    private final Node root;
+
+    private final int depth;
+
+    /** The intervals read from the cursor, but not handed to the consumer */
+    private final Deque<TimeInterval> upcoming = new ArrayDeque<>();
+
+    /** The intervals read from the cursor, whose leaves are not scheduled yet */
+    private final Deque<TimeInterval> unplanned = new ArrayDeque<>();
+
+    /** The leaves in flight, in the order of their intervals */
+    private final LinkedHashMap<Object, Pending> pending = new LinkedHashMap<>();
+
+    private final ExecutorService workers;
+
+    /** The number of intervals read from the cursor */
+    private long read;
+
+    /** The number of intervals handed to the consumer */
+    private long handed;
+
+    /** The number of the interval whose leaves are scheduled */
+    private long planned = -1L;
+
+    /** The end of the interval whose leaves are scheduled */
+    private long planEnd;
+
+    /** Tells whether leaves of the planned interval remain to be scheduled */
+    private boolean active;
+
+    /**
+     * The node above the leaves last scheduled, null if none. It is kept
+     * after an interval is done, since the next one mostly starts within the
+     * same node.
+     */
+    private IndexEntry levelOneEntry;
+
+    private Node levelOneNode;
+
+    private int levelOnePosition;
+
+    private Object lastScheduled;
+
+    /**
+     * Creates a new LeafPrefetcher instance
+     *
+     * @param intervals the query intervals, opened and closed by the consumer
+     * @param root      the root of the tree
+     * @param depth     the maximum number of leaves in flight
+     * @param workers   the workers reading the leaves, shared with other queries
+     */
+    LeafPrefetcher(Cursor<TimeInterval> intervals, Node root, int depth, ExecutorService workers) {
+        this.intervals = intervals;
+        this.root = root;
+        this.depth = depth;
+        this.workers = workers;
+    }
+
+    /**
+     * Releases all leaves in flight.
+     */
+    void close() {
+        for (Pending p : pending.values())
+            p.release();
+        pending.clear();
+        releaseLevelOne();
+    }
+
+    /**
+     * @return the next query interval, null if there are no more intervals
+     */
+    TimeInterval nextInterval() {
+        if (upcoming.isEmpty()) {
+            if (!intervals.hasNext())
+                return null;
+            read();
+        }
+        handed++;
+        releaseStale();
+        fill();
+        return upcoming.poll();
+    }
+
+    /**
+     * Returns the given leaf, fixed like by <tt>entry.get(false)</tt>.
+     *
+     * @param entry the entry of the leaf
+     * @return the leaf
+     */
+    Node take(IndexEntry entry) {
+        final Pending p = pending.remove(entry.id());
+        if (p == null)
+            return (Node) entry.get(false);
+
+        final Node result = p.await();
+        fill();
+        return result;
+    }
+
+    private void read() {
+        final TimeInterval interval = intervals.next();
+        upcoming.add(interval);
+        unplanned.add(interval);
+        read++;
+    }
+
+    /**
+     * Releases the leaves of the intervals before the last two handed out.
+     */
+    private void releaseStale() {
+        for (Iterator<Map.Entry<Object, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            final Pending p = it.next().getValue();
+            if (p.interval < handed - 2) {
+                it.remove();
+                p.release();
+            }
+        }
+        if (planned < handed - 2)
+            active = false;
+    }
+
+    /**
+     * Schedules leaves until the maximum number of leaves is in flight or
+     * all intervals are planned.
+     */
+    private void fill() {
+        while (pending.size() < depth) {
+            if (!active) {
+                if (unplanned.isEmpty()) {
+                    if (!intervals.hasNext())
+                        return;
+                    read();
+                }
+                final TimeInterval interval = unplanned.poll();
+                planned = read - unplanned.size() - 1;
+                // Skip intervals passed by the consumer
+                if (planned >= handed - 2)
+                    plan(interval);
+                continue;
+            }
+            if (levelOnePosition >= levelOneNode.number()) {
+                final IndexEntry next = (IndexEntry) levelOneNode.nextNeighbor;
+                releaseLevelOne();
+                if (next != null) {
+                    levelOneEntry = next;
+                    levelOneNode = (Node) next.get(false);
+                    levelOnePosition = 0;
+                } else
+                    active = false;
+                continue;
+            }
+            final IndexEntry leaf = (IndexEntry) levelOneNode.getEntry(levelOnePosition++);
+            if (!leaf.id().equals(lastScheduled))
+                schedule(leaf);
+            // The consumer reads up to the first event after the interval
+            if ((Long) leaf.separator().sepValue() > planEnd)
+                active = false;
+        }
+    }
+
+    /**
+     * Positions at the first leaf of the given interval.
+     */
+    private void plan(TimeInterval interval) {
+        if (root.level() == 0)
+            return;
+
+        planEnd = interval.getT2();
+        final ToLongFunction<Object> keyOf = e -> (Long) ((IndexEntry) e).separator().sepValue();
+
+        // Continue within the current node, starting at the leaf last scheduled
+        if (levelOneNode != null && levelOneNode.number() > 0 &&
+                keyOf.applyAsLong(levelOneNode.getEntry(levelOneNode.number() - 1)) >= interval.getT1()) {
+            levelOnePosition = MultiIntervalCursor.search(levelOneNode, Math.max(0, levelOnePosition - 1),
+                    interval.getT1(), keyOf);
+            active = true;
+            return;
+        }
+        releaseLevelOne();
+
+        IndexEntry entry = null;
+        Node node = root;
+        while (true) {
+            final int idx = MultiIntervalCursor.search(node, 0, interval.getT1(), keyOf);
+            if (node.level() == 1 || idx >= node.number()) {
+                if (idx >= node.number()) {
+                    if (entry != null)
+                        entry.unfix();
+                    return;
+                }
+                levelOneEntry = entry;
+                levelOneNode = node;
+                levelOnePosition = idx;
+                active = true;
+                return;
+            }
+            final IndexEntry child = (IndexEntry) node.getEntry(idx);
+            final Node childNode = (Node) child.get(false);
+            if (entry != null)
+                entry.unfix();
+            entry = child;
+            node = childNode;
+        }
+    }
+
+    private void releaseLevelOne() {
+        // The root is fixed by the consumer
+        if (levelOneEntry != null)
+            levelOneEntry.unfix();
+        levelOneEntry = null;
+        levelOneNode = null;
+    }
+
+    private void schedule(IndexEntry leaf) {
+        pending.put(leaf.id(), new Pending(planned, leaf, workers.submit(() -> (Node) leaf.get(false))));
+        lastScheduled = leaf.id();
+    }
+
+    /**
+     * A leaf in flight.
+     */
+    private static class Pending {
+
+        /** The number of the interval the leaf was scheduled for */
+        final long interval;
+
+        final IndexEntry entry;
+
+        final Future<Node> node;
+
+        Pending(long interval, IndexEntry entry, Future<Node> node) {
+            this.interval = interval;
+            this.entry = entry;
+            this.node = node;
+        }
+
+        Node await() {
+            try {
+                return node.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBRuntimeException("Interrupted while waiting for leaf.", e);
+            } catch (ExecutionException e) {
+                throw new DBRuntimeException("Could not read leaf.", e.getCause());
+            }
+        }
+
+        void release() {
+            // A leaf not read yet has not been fixed
+            if (node.cancel(false))
+                return;
+            try {
+                node.get();
+                entry.unfix();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Nothing was fixed
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@ import xxl.core.util.Triple;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ToLongFunction;
 
 /**
  *
@@ -22,6 +24,7 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
 
     private final Cursor<TimeInterval> intervals;
     private final long minTs;
+    private final LeafPrefetcher prefetcher;
     private final Deque<Triple<Integer, IndexEntry, Node>> path = new ArrayDeque<>();
     private long intervalCount = 0L;
     private Cursor<PersistentEvent> next;
@@ -37,6 +40,24 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
         this.intervals = intervals;
         this.minTs = minTs;
         this.path.push(new Triple<>(0, root.getElement1(), root.getElement2()));
+        this.prefetcher = null;
+    }
+
+    /**
+     * Creates a new MultiIntervalCursor instance
+     *
+     * @param intervals
+     * @param minTs
+     * @param root
+     * @param prefetchDepth the number of leaves to read ahead in the background
+     * @param workers the workers reading the leaves, shared with other queries
+     */
+    public MultiIntervalCursor(Cursor<TimeInterval> intervals, long minTs, Pair<? extends IndexEntry, ? extends Node> root,
+                               int prefetchDepth, ExecutorService workers) {
+        this.intervals = intervals;
+        this.minTs = minTs;
+        this.path.push(new Triple<>(0, root.getElement1(), root.getElement2()));
+        this.prefetcher = new LeafPrefetcher(intervals, root.getElement2(), prefetchDepth, workers);
     }
 
     /**
@@ -56,6 +77,8 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
         while (!path.isEmpty())
             path.pop().getElement2().unfix();
 //		System.err.println("Processed: " + intervalCount + " intervals.");
+        if (prefetcher != null)
+            prefetcher.close();
         intervals.close();
     }
 
@@ -90,13 +113,8 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
         }
 
         do {
-            int idx = current.getElement1();
-            IndexEntry next = null;
-            while (idx < current.getElement3().number() &&
-                    (Long) (next = (IndexEntry) current.getElement3().getEntry(idx)).separator().sepValue() < interval
-                            .getT1()) {
-                idx++;
-            }
+            final int idx = search(current.getElement3(), current.getElement1(), interval.getT1(),
+                    e -> (Long) ((IndexEntry) e).separator().sepValue());
 
             // Go to next node
             if (idx >= current.getElement3().number()) {
@@ -104,9 +122,10 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
                 current = path.isEmpty() ? null : path.peek();
             } else {
                 current.setElement1(idx);
+                final IndexEntry next = (IndexEntry) current.getElement3().getEntry(idx);
 
                 // Next level
-                current = new Triple<>(0, next, (Node) next.get(false));
+                current = new Triple<>(0, next, current.getElement3().level() == 1 ? load(next) : (Node) next.get(false));
                 path.push(current);
             }
         } while (current != null && current.getElement3().level() > 0);
@@ -115,11 +134,46 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
 
     }
 
-    private Cursor<PersistentEvent> computeNext() {
-        if (!intervals.hasNext())
-            return null;
+    /**
+     * Binary search for the first entry of the given node at or after the given position, whose key
+     * is not less than the given one. The node's entries must be sorted by key.
+     *
+     * @param node  the node
+     * @param from  the position to start at
+     * @param key   the key to search for
+     * @param keyOf extracts the key of an entry
+     * @return the position of the first matching entry, or the number of entries, if there is none
+     */
+    static int search(Node node, int from, long key, ToLongFunction<Object> keyOf) {
+        int low = from;
+        int high = node.number();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keyOf.applyAsLong(node.getEntry(mid)) < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
 
-        final TimeInterval interval = intervals.next();
+    /**
+     * Loads the given leaf, taking it from the read-ahead if enabled.
+     */
+    private Node load(IndexEntry leaf) {
+        return prefetcher != null ? prefetcher.take(leaf) : (Node) leaf.get(false);
+    }
+
+    private Cursor<PersistentEvent> computeNext() {
+        final TimeInterval interval;
+        if (prefetcher != null) {
+            if ((interval = prefetcher.nextInterval()) == null)
+                return null;
+        } else {
+            if (!intervals.hasNext())
+                return null;
+            interval = intervals.next();
+        }
         final var current = seekInterval(interval);
 
         if (current == null) {
@@ -132,6 +186,9 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
 
             @Override
             public void open() {
+                // Skip entries starting before the interval without materializing them
+                current.setElement1(search(current.getElement3(), current.getElement1(), interval.getT1(),
+                        e -> ((Event) e).getT1()));
                 while ((next = computeNext()) != null && next.getT1() < interval.getT1()) ;
             }
 
@@ -152,7 +209,7 @@ public class MultiIntervalCursor implements MinimalCursor<Cursor<PersistentEvent
 
                     idx = 0;
                     current.setElement2(nn);
-                    current.setElement3((Node) nn.get(false));
+                    current.setElement3(load(nn));
                 }
 
                 Event tmp = (Event) current.getElement3().getEntry(idx);
@@ -8,27 +8,32 @@ import sigmod2021.db.core.primaryindex.HistogramAccess;
 import sigmod2021.db.core.primaryindex.PrimaryIndex;
 import sigmod2021.db.core.primaryindex.impl.legacy.*;
 import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
+import sigmod2021.db.core.primaryindex.queries.range.AttributeRangeFilter;
 import sigmod2021.db.core.primaryindex.queries.range.DoubleAttributeRange;
 import sigmod2021.db.core.wal.Log;
 import sigmod2021.db.core.wal.NoLog;
+import sigmod2021.db.core.wal.SegmentedLog;
 import sigmod2021.db.event.PersistentEvent;
 import sigmod2021.db.event.TID;
+import sigmod2021.db.event.TIDBatch;
 import sigmod2021.db.queries.NoSuchEventException;
 import sigmod2021.db.util.TimeInterval;
 import sigmod2021.event.*;
 import sigmod2021.event.Attribute.DataType;
 import xxl.core.collections.containers.AbstractContainer;
 import xxl.core.collections.containers.Container;
+import xxl.core.collections.containers.compression.CodecCompressor;
 import xxl.core.collections.containers.compression.Compressor;
 import xxl.core.collections.containers.compression.FastCompressionContainer;
 import xxl.core.collections.containers.compression.LZ4Compressor;
 import xxl.core.collections.containers.compression.NoCompressor;
+import xxl.core.collections.containers.compression.ParallelCompressionContainer;
 import xxl.core.collections.containers.io.FCBlockFileContainer;
+import xxl.core.collections.containers.io.SuspendableCachingContainer;
 import xxl.core.collections.containers.io.SuspendableContainer;
 import xxl.core.collections.containers.io.SuspendableConverterContainer;
 import xxl.core.cursor.DoubleCursor;
 import xxl.core.cursors.Cursor;
-import xxl.core.cursors.filters.Filter;
 import xxl.core.functions.AbstractFunction;
 import xxl.core.functions.Functional.BinaryFunction;
 import xxl.core.indexStructures.AggregateIndex.Aggregation;
@@ -37,6 +42,7 @@ import xxl.core.indexStructures.BPlusLink.Node;
 import xxl.core.indexStructures.FastAggregatedAppender;
 import xxl.core.indexStructures.FastAggregatedBPlusTree;
 import xxl.core.indexStructures.FastAggregatedBPlusTree.IndexEntry;
+import xxl.core.io.ClockBuffer;
 import xxl.core.io.converters.Converter;
 import xxl.core.io.converters.Converters.SerializationMode;
 import xxl.core.io.converters.FixedSizeConverter;
@@ -49,7 +55,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -74,6 +83,12 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
     public static final String META_FILENAME = "meta.mf";
     /** The name of the working meta-data file */
     public static final String META_FILENAME_TMP = "meta.mf.tmp";
+    /** The number of leaves filled per chunk during bulk loading */
+    public static final int BULK_LOAD_LEAVES = 64;
+    /** The name of the directory holding the write-ahead log */
+    public static final String WAL_DIRECTORY = "wal";
+    /** The name of the directory holding the out-of-order queue mirror */
+    public static final String OOLOG_DIRECTORY = "oolog";
     /** The logger */
     static final Logger log = LoggerFactory
             .getLogger(PrimaryIndexImpl.class);
@@ -146,6 +161,16 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
     /** The appender */
     FastAggregatedAppender<Event, PersistentEvent> appender;
     SuspendableContainer container;
+    /** The log of in-order inserts */
+    private Log<Event> wal;
+    /** The disk mirror of the out-of-order queue */
+    private Log<Event> ooLog;
+    /** The buffer of decoded tree nodes, shared with the secondary indexes, null if disabled */
+    private ClockBuffer<Object, Object, Object> nodeBuffer;
+    /** The copy of the level walked last, null if not walked yet or disabled */
+    private SummaryLevelCache summaryCache;
+    /** The workers reading leaves ahead of multi interval queries, created on first use */
+    private ExecutorService prefetchPool;
     /** The {@link State} of this tree */
     private State state = State.OPENING;
 
@@ -168,6 +193,8 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                 loadDirty(tmpMetaFile, cfg);
                 // Write temp meta-data stating we are opened
                 this.metaData.persist(tmpMetaFile);
+                state = State.OPEN;
+                replayLogs();
             }
             // Tree is clean -> Load
             else if (Files.exists(metaFile)) {
@@ -251,12 +278,11 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                     cause);
         }
 
-        // TODO: Config params
-        final Log<Event> WAL = new NoLog<>();
-        final Log<Event> OOLog = new NoLog<>();
+        this.wal = createLog(WAL_DIRECTORY);
+        this.ooLog = createLog(OOLOG_DIRECTORY);
 
-        this.tree = createTree(WAL);
-        this.appender = createAppender(this.tree, WAL, OOLog);
+        this.tree = createTree(this.wal);
+        this.appender = createAppender(this.tree, this.wal, this.ooLog);
         state = State.OPEN;
 
         log.info(
@@ -424,6 +450,128 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         return result;
     }
 
+    /**
+     * Runs of in-order events are appended leaf-wise, out-of-order events go
+     * through the out-of-order queue as usual.
+     *
+     * @{inheritDoc}
+     */
+    @Override
+    public TIDBatch insertBatch(final Event[] events) {
+        return insertBatch(events, events.length);
+    }
+
+    /**
+     * Inserts the first <tt>length</tt> events of the given array.
+     *
+     * @param events
+     *            the events
+     * @param length
+     *            the number of events to insert
+     * @return the {@link TID}s of the inserted events
+     */
+    private TIDBatch insertBatch(final Event[] events, final int length) {
+        ensureState(State.OPEN);
+
+        final long[] blockIds = new long[length];
+        final int[] offsets = new int[length];
+
+        long max = this.metaData.getMaxTimestamp();
+        long min = this.metaData.getMinTimestamp();
+
+        int i = 0;
+        while (i < length) {
+            // Determine the run of in-order events
+            int end = i;
+            while (end < length && events[end].getT1() >= max) {
+                max = events[end++].getT1();
+            }
+            this.appender.insertBatch(events, i, end, blockIds, offsets);
+
+            if (end < length) {
+                this.appender.outOfOrderInsert(events[end]);
+                blockIds[end] = TIDBatch.UNKNOWN;
+                min = Math.min(min, events[end].getT1());
+                end++;
+            }
+            i = end;
+        }
+        if (length > 0) {
+            min = Math.min(min, events[0].getT1());
+            this.metaData.setTimestamps(min, max);
+            this.metaData.increaseEventCount(length);
+        }
+        return new TIDBatch(blockIds, offsets);
+    }
+
+    /**
+     * Loads the given time-sorted events into this empty tree. The events
+     * are appended in chunks of {@value #BULK_LOAD_LEAVES} leaves, so leaves
+     * are filled directly, their aggregates are computed once per chunk and
+     * full nodes are written out sequentially, level by level as they fill
+     * up. The events are not written to the write-ahead log, the tree is
+     * flushed once afterwards instead. Thus, the loaded events are not
+     * recovered if the process crashes before this method returns.
+     *
+     * @param events
+     *            the events, sorted by their start timestamp
+     * @param listener
+     *            informed about the location of every loaded event (e.g., to
+     *            populate secondary indexes). May be null.
+     * @return the number of loaded events
+     * @throws IllegalStateException
+     *             if the tree already contains events
+     * @throws IllegalArgumentException
+     *             if the events are not sorted by time
+     */
+    public long bulkLoad(final Iterator<? extends Event> events, final BulkLoadListener listener) {
+        ensureState(State.OPEN);
+        if (getNumberOfEvents() > 0)
+            throw new IllegalStateException("Bulk loading requires an empty tree.");
+
+        log.info("Bulk loading TABPlusTree at: {}", this.storageDirectory);
+        final long time = System.currentTimeMillis();
+
+        final Event[] chunk = new Event[this.appender.getMaxLeafEntries() * BULK_LOAD_LEAVES];
+        long count = 0L;
+        long lastTimestamp = Long.MIN_VALUE;
+        // The timestamp of the last event passed to the listener and the number of events preceding it with this timestamp
+        long rankTimestamp = 0L;
+        int rank = 0;
+
+        this.appender.setLogging(false);
+        try {
+            while (events.hasNext()) {
+                int size = 0;
+                while (size < chunk.length && events.hasNext()) {
+                    final Event e = events.next();
+                    if (e.getT1() < lastTimestamp)
+                        throw new IllegalArgumentException(String.format(
+                                "Bulk load input is not sorted by time: %d follows %d.", e.getT1(), lastTimestamp));
+                    lastTimestamp = e.getT1();
+                    chunk[size++] = e;
+                }
+
+                final TIDBatch tids = insertBatch(chunk, size);
+                if (listener != null) {
+                    for (int i = 0; i < size; i++) {
+                        rank = count + i > 0 && chunk[i].getT1() == rankTimestamp ? rank + 1 : 0;
+                        rankTimestamp = chunk[i].getT1();
+                        listener.loaded(chunk[i], tids.get(i), rank, count + i);
+                    }
+                }
+                count += size;
+            }
+        } finally {
+            this.appender.setLogging(true);
+        }
+        Arrays.fill(chunk, null);
+        flush();
+
+        log.info("Finished bulk loading {} events in {}ms.", count, System.currentTimeMillis() - time);
+        return count;
+    }
+
     ///////////////////////////////////////////////////////////////////////
     //
     // Temporal queries
@@ -474,8 +622,10 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
             log.debug("Executing multi interval query");
         }
 
+        final int prefetchDepth = metaData.getMutableParams().getLeafPrefetchDepth();
         var root = appender.getTempRoot(true);
-        final Cursor<Cursor<PersistentEvent>> queryResult =
+        final Cursor<Cursor<PersistentEvent>> queryResult = prefetchDepth > 0 ?
+                new MultiIntervalCursor(intervals, metaData.getMinTimestamp(), root, prefetchDepth, prefetchPool()) :
                 new MultiIntervalCursor(intervals, metaData.getMinTimestamp(), root);
 
         if (log.isDebugEnabled()) {
@@ -485,6 +635,22 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         return queryResult;
     }
 
+    /**
+     * @return the workers reading leaves ahead of multi interval queries. The
+     * pool is shared by all queries and bounded by the number of processors.
+     */
+    private synchronized ExecutorService prefetchPool() {
+        if (prefetchPool == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            prefetchPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "leaf-prefetch-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return prefetchPool;
+    }
+
     ///////////////////////////////////////////////////////////////////////
     //
     // Aggregate Queries
@@ -532,33 +698,9 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                 log.warn("Range {} not supported.", r);
         }
 
-        final Cursor<PersistentEvent> queryResult = this.appender.queryAttributes(keys, transformed);
-
-        // We need to filter invalid entries, since the cursor returns all results of a leaf
-        // which interects the given ranges
-
-        final AttributeRange.EventMatcher[] matchers = new AttributeRange.EventMatcher[ranges.length];
-        for (int i = 0; i < ranges.length; i++) {
-            matchers[i] = ranges[i].getMatcher(getSchema());
-        }
-
-        final Cursor<PersistentEvent> filtered =
-                new Filter<>(queryResult, new xxl.core.functions.AbstractFunction<PersistentEvent, Boolean>() {
-
-                    private static final long serialVersionUID = 1L;
-
-                    @Override
-                    public Boolean invoke(final PersistentEvent argument) {
-                        if (argument.getT1() < minKey || argument.getT1() > maxKey)
-                            return false;
-
-                        for (final AttributeRange.EventMatcher matcher : matchers) {
-                            if (!matcher.matches(argument))
-                                return false;
-                        }
-                        return true;
-                    }
-                });
+        // Leaves of the query result are filtered column-wise, so only qualifying entries are materialized
+        final AttributeRangeFilter filter = new AttributeRangeFilter(getSchema(), minKey, maxKey, ranges);
+        final Cursor<PersistentEvent> filtered = this.appender.queryAttributes(keys, transformed, filter);
 
         if (log.isDebugEnabled()) {
             log.debug(
@@ -627,7 +769,9 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
     @Override
     public void flush() {
         ensureState(State.OPEN);
+        final long lsn = wal.getLSN();
         appender.flushPath();
+        wal.truncate(lsn);
     }
 
     /**
@@ -641,11 +785,18 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
 
         log.info("Closing TABPlusTree at: {}", this.storageDirectory);
 
+        synchronized (this) {
+            if (this.prefetchPool != null)
+                this.prefetchPool.shutdownNow();
+        }
+
         log.debug("Flushing appender.");
         this.appender.flushPathAndClose();
 
         log.debug("Closing container.");
         this.tree.container().close();
+        if (this.nodeBuffer != null)
+            log.debug("Node buffer statistics: {}", this.nodeBuffer);
 
         final Path tmpMetaFile = this.storageDirectory.resolve(META_FILENAME_TMP);
         final Path metaFile = this.storageDirectory.resolve(META_FILENAME);
@@ -657,11 +808,16 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
             this.metaData.persist(tmpMetaFile);
             // Replace existing file atomically
             Files.move(tmpMetaFile, metaFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // All logged events are contained in the tree now
+            this.wal.clear();
+            this.ooLog.clear();
             state = State.CLOSED;
         } catch (final IOException ioex) {
             log.error("Could not write state information to " + META_FILENAME + ". Some data might get lost.", ioex);
             state = State.ERROR;
         }
+        this.wal.close();
+        this.ooLog.close();
         log.info("Finished closing TABPlusTree at: {}", this.storageDirectory);
     }
 
@@ -697,7 +853,8 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         // Create a tree
         final FastAggregatedBPlusTree tree = new FastAggregatedBPlusTree(this.metaData.getSchema(),
                 this.metaData.getTimeRepresentation(),
-                this.metaData.getImmutableParams().getBlockSize(), true, wal);
+                this.metaData.getImmutableParams().getBlockSize(), true, 0.5,
+                this.metaData.getImmutableParams().isLeafEncoding(), wal);
 
         // Create a container
         final Path path = this.storageDirectory.resolve(CONTAINER_FILE);
@@ -754,27 +911,49 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
 
         SuspendableContainer raw = null;
 
-        if (ip.getContainerType() == ImmutableParams.ContainerType.FCC) {
+        if (ip.getContainerType() == ImmutableParams.ContainerType.FCC
+                || ip.getContainerType() == ImmutableParams.ContainerType.PARALLEL_FCC) {
 
             Compressor comp = null;
             switch (ip.getCompression()) {
                 case LZ4:
                     comp = new LZ4Compressor();
                     break;
+                case LZ4_HC:
+                    comp = new CodecCompressor(CodecCompressor.Codec.LZ4_HC);
+                    break;
+                case ZSTD:
+                    // The dictionary is stored in the container's preamble
+                    comp = new CodecCompressor(CodecCompressor.Codec.ZSTD, CodecCompressor.DEFAULT_ZSTD_LEVEL,
+                            ip.getBlockSize() / 2, CodecCompressor.DEFAULT_TRAINING_BLOCKS);
+                    break;
                 default:
                     comp = new NoCompressor();
                     break;
             }
 
-            raw = new FastCompressionContainer(
-                    containerPath.toString(),
-                    ip.getMacroBlockSize(),
-                    ip.getBlockSize(),
-                    comp,
-                    ip.getContainerSpare(),
-                    mp.getMacroBlockBufferSize(),
-                    mp.isUseDirectIO(),
-                    mp.isUseBlockBuffer());
+            if (ip.getContainerType() == ImmutableParams.ContainerType.PARALLEL_FCC)
+                raw = new ParallelCompressionContainer(
+                        containerPath.toString(),
+                        ip.getMacroBlockSize(),
+                        ip.getBlockSize(),
+                        comp,
+                        ip.getContainerSpare(),
+                        mp.getMacroBlockBufferSize(),
+                        mp.isUseDirectIO(),
+                        mp.isUseBlockBuffer(),
+                        mp.getCompressionThreads(),
+                        mp.getCompressionQueueDepth());
+            else
+                raw = new FastCompressionContainer(
+                        containerPath.toString(),
+                        ip.getMacroBlockSize(),
+                        ip.getBlockSize(),
+                        comp,
+                        ip.getContainerSpare(),
+                        mp.getMacroBlockBufferSize(),
+                        mp.isUseDirectIO(),
+                        mp.isUseBlockBuffer());
 
             //		final FastCompressionContainer fcc = new FastCompressionContainer(containerPath.toString(),
             //			4*blockSize, blockSize, new NoCompressor(), this.metaData.getTreeConfig().getContainerSpare());
@@ -787,8 +966,8 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                 throw new DBRuntimeException("Could not create container.", e);
             }
         }
-        return new SuspendableConverterContainer(raw, treeNodeConverter, SerializationMode.UNSAFE,
-                this.metaData.getImmutableParams().getBlockSize());
+        return withNodeBuffer(new SuspendableConverterContainer(raw, treeNodeConverter, SerializationMode.UNSAFE,
+                this.metaData.getImmutableParams().getBlockSize()));
     }
 
     /**
@@ -804,12 +983,11 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         this.metaData = PrimaryIndexMetaData.load(metaDataFile, cfg);
         log.debug("Tree meta data: {}", metaDataFile);
 
-        // TODO: Config params
-        final Log<Event> WAL = new NoLog<>();
-        final Log<Event> OOLog = new NoLog<>();
+        this.wal = createLog(WAL_DIRECTORY);
+        this.ooLog = createLog(OOLOG_DIRECTORY);
 
-        this.tree = loadTree(WAL);
-        this.appender = createAppender(this.tree, WAL, OOLog);
+        this.tree = loadTree(this.wal);
+        this.appender = createAppender(this.tree, this.wal, this.ooLog);
     }
 
     /**
@@ -827,13 +1005,12 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
 
         log.debug("Tree meta data: {}", this.metaData);
 
-        // TODO: Config params
-        final Log<Event> WAL = new NoLog<>();
-        final Log<Event> OOLog = new NoLog<>();
+        this.wal = createLog(WAL_DIRECTORY);
+        this.ooLog = createLog(OOLOG_DIRECTORY);
 
         // Execute recovery
         final Pair<FastAggregatedBPlusTree, FastAggregatedAppender<Event, PersistentEvent>> recoveryResult =
-                recover(WAL, OOLog);
+                recover(this.wal, this.ooLog);
 
         this.tree = recoveryResult.getFirst();
         this.appender = recoveryResult.getSecond();
@@ -850,6 +1027,71 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
 
     }
 
+    /**
+     * Re-inserts all events, that were logged but did not reach the container
+     * before the tree was shut down uncleanly. Afterwards, the replayed log
+     * segments are dropped.
+     */
+    private void replayLogs() {
+        final long durable = this.appender.getFirst() == null ? -1L : this.appender.getDurableLSN();
+        final long walLSN = this.wal.getLSN();
+        final long ooLSN = this.ooLog.getLSN();
+
+        // Out-of-order events replayed from the WAL are mirrored again, so the
+        // mirror must be read before. It never exceeds the out-of-order queue.
+        final List<Event> outOfOrder = new ArrayList<>();
+        this.ooLog.replay(-1L, outOfOrder::add);
+        this.wal.replay(durable, this::insert);
+        outOfOrder.forEach(this::insert);
+
+        this.wal.truncate(walLSN);
+        this.ooLog.truncate(ooLSN);
+    }
+
+    /**
+     * Creates the log stored in the given sub-directory. If logging is
+     * disabled, a {@link NoLog} is returned.
+     *
+     * @param name
+     *            the name of the log's directory
+     * @return the log
+     */
+    private Log<Event> createLog(final String name) {
+        final MutableParams mp = this.metaData.getMutableParams();
+        if (!mp.isUseWriteAheadLog())
+            return new NoLog<>();
+        return new SegmentedLog<>(this.storageDirectory.resolve(name), logConverter(),
+                mp.getLogSegmentSize(), mp.getLogCommitInterval());
+    }
+
+    /**
+     * The data converter omits the timestamps when writing, since the leaves
+     * store them separately. Log records must be self-contained though.
+     *
+     * @return a converter writing events including their timestamps
+     */
+    private Converter<Event> logConverter() {
+        final TimeRepresentation rep = this.metaData.getTimeRepresentation();
+        final MeasuredConverter<Event> data = SchemaManager.getDataConverter(this.metaData.getSchema(), rep);
+        return new Converter<Event>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Event read(final DataInput dataInput, final Event object) throws IOException {
+                return data.read(dataInput, object);
+            }
+
+            @Override
+            public void write(final DataOutput dataOutput, final Event event) throws IOException {
+                data.write(dataOutput, event);
+                dataOutput.writeLong(event.getT1());
+                if (rep == TimeRepresentation.INTERVAL)
+                    dataOutput.writeLong(event.getT2());
+            }
+        };
+    }
+
     /**
      * Load a clean tres
      *
@@ -860,7 +1102,8 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
     private FastAggregatedBPlusTree loadTree(final Log<Event> wal) {
         // Create a tree
         final FastAggregatedBPlusTree tree = new FastAggregatedBPlusTree(metaData.getSchema(),
-                metaData.getTimeRepresentation(), this.metaData.getImmutableParams().getBlockSize(), true, wal);
+                metaData.getTimeRepresentation(), this.metaData.getImmutableParams().getBlockSize(), true, 0.5,
+                this.metaData.getImmutableParams().isLeafEncoding(), wal);
 
         // Loads the container
         final Path path = this.storageDirectory.resolve(CONTAINER_FILE);
@@ -919,6 +1162,14 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                     mp.getMacroBlockBufferSize(),
                     mp.isUseDirectIO(),
                     mp.isUseBlockBuffer());
+        } else if (ip.getContainerType() == ImmutableParams.ContainerType.PARALLEL_FCC) {
+            raw = new ParallelCompressionContainer(
+                    containerPath.toString(),
+                    mp.getMacroBlockBufferSize(),
+                    mp.isUseDirectIO(),
+                    mp.isUseBlockBuffer(),
+                    mp.getCompressionThreads(),
+                    mp.getCompressionQueueDepth());
         } else if (ip.getContainerType() == ImmutableParams.ContainerType.BLOCK) {
             Path dir = containerPath.getParent();
             String name = containerPath.getFileName().toString();
@@ -928,8 +1179,41 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                 throw new DBRuntimeException("Could not create container.", e);
             }
         }
-        return new SuspendableConverterContainer(raw, treeNodeConverter, SerializationMode.UNSAFE,
-                this.metaData.getImmutableParams().getBlockSize());
+        return withNodeBuffer(new SuspendableConverterContainer(raw, treeNodeConverter, SerializationMode.UNSAFE,
+                this.metaData.getImmutableParams().getBlockSize()));
+    }
+
+    /**
+     * Decorates the given container with the node buffer, if enabled. The
+     * buffered nodes are shared by all readers; out-of-order inserts modify
+     * copies of them, see {@link xxl.core.indexStructures.FastAppender}.
+     *
+     * @param nodeContainer
+     *            the container holding the tree nodes
+     * @return the container to use for the tree
+     */
+    private SuspendableContainer withNodeBuffer(final SuspendableContainer nodeContainer) {
+        final ClockBuffer<Object, Object, Object> buffer = getNodeBuffer();
+        if (buffer == null)
+            return nodeContainer;
+        return new SuspendableCachingContainer(nodeContainer, buffer, this.metaData.getImmutableParams().getBlockSize());
+    }
+
+    /**
+     * Returns the buffer of decoded tree nodes. It is bounded by
+     * {@link MutableParams#getNodeBufferSize()} and may be shared with the
+     * trees of secondary indexes.
+     *
+     * @return the node buffer, or null if disabled
+     */
+    public ClockBuffer<Object, Object, Object> getNodeBuffer() {
+        final long size = this.metaData.getMutableParams().getNodeBufferSize();
+        if (this.nodeBuffer == null && size > 0) {
+            final int blockSize = this.metaData.getImmutableParams().getBlockSize();
+            this.nodeBuffer = new ClockBuffer<>((int) Math.min(Integer.MAX_VALUE, Math.max(1, size / blockSize)),
+                    (int) Math.min(Integer.MAX_VALUE, size));
+        }
+        return this.nodeBuffer;
     }
 
     ///////////////////////////////////////////////////
@@ -978,7 +1262,8 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         // Create a tree
         final FastAggregatedBPlusTree tree =
                 new FastAggregatedBPlusTree(metaData.getSchema(), metaData.getTimeRepresentation(),
-                        this.metaData.getImmutableParams().getBlockSize(), true, wal);
+                        this.metaData.getImmutableParams().getBlockSize(), true, 0.5,
+                        this.metaData.getImmutableParams().isLeafEncoding(), wal);
 
         // Load the container
         final Path path = this.storageDirectory.resolve(CONTAINER_FILE);
@@ -1069,6 +1354,10 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
     @SuppressWarnings("unchecked")
     public void walkLevel(int level, Consumer<HistogramAccess> consumer) {
         ensureState(State.OPEN);
+        if (metaData.getMutableParams().isUseSummaryCache()) {
+            summaryCache(level).walk(metaData.getMinTimestamp(), consumer);
+            return;
+        }
         var p = appender.getTempRoot(true);
 
         IndexEntry entry = (IndexEntry) p.getElement1();
@@ -1097,58 +1386,85 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
                 final TimeInterval interval = new TimeInterval(minTS.get(), maxTS);
                 minTS.set(maxTS + 1);
 
-                consumer.accept(new HistogramAccess() {
+                consumer.accept(new EntryAccess(counter.getAndIncrement(), current, interval, metaData.getSchema()));
+            } else {
+                entry.unfix();
+                entry = (IndexEntry) node.nextNeighbor;
+                node = entry.get(false);
+                entryIter = node.entries();
+            }
+        }
+    }
 
-                    final long index = counter.getAndIncrement();
+    /**
+     * @return the cache for the given level, replacing a cache of another
+     * level or appender
+     */
+    private synchronized SummaryLevelCache summaryCache(int level) {
+        SummaryLevelCache result = this.summaryCache;
+        if (result == null || result.getLevel() != level || result.getAppender() != appender)
+            this.summaryCache = result = new SummaryLevelCache(appender, metaData.getSchema(), level);
+        return result;
+    }
 
-                    public long getIndex() {
-                        return index;
-                    }
+    /**
+     * Access to an index entry of the tree.
+     */
+    static class EntryAccess implements HistogramAccess {
 
-                    @Override
-                    public Aggregation getAggregates(String attribute) {
-                        return current.getAggregation(attribute);
-                    }
+        private final long index;
 
-                    @Override
-                    public TimeInterval getCoveredTimeInterval() {
-                        return interval;
-                    }
+        private final IndexEntry current;
 
-                    @Override
-                    public boolean intersects(List<? extends AttributeRange<? extends Number>> ranges) {
-                        return intersectsAll(current, ranges);
-                    }
+        private final TimeInterval interval;
 
-                    @Override
-                    public long getEventCount() {
-                        for (var a : metaData.getSchema())
-                            if (a.getProperty("index") != null && a.getProperty("index").equalsIgnoreCase("true"))
-                                return current.getAggregation(a.getName()).getValues()[3].longValue();
-                        throw new SchemaException("No attribute is indexed, cannot count events.");
-                    }
+        private final EventSchema schema;
 
-                    @Override
-                    public boolean intersects(AttributeRange<? extends Number> range) {
-                        return intersectsSingle(current, range);
-                    }
+        EntryAccess(long index, IndexEntry current, TimeInterval interval, EventSchema schema) {
+            this.index = index;
+            this.current = current;
+            this.interval = interval;
+            this.schema = schema;
+        }
 
-                    /**
-                     * @{inheritDoc}
-                     */
-                    @Override
-                    public String toString() {
-                        return current.plot();
-                    }
+        public long getIndex() {
+            return index;
+        }
 
+        @Override
+        public Aggregation getAggregates(String attribute) {
+            return current.getAggregation(attribute);
+        }
 
-                });
-            } else {
-                entry.unfix();
-                entry = (IndexEntry) node.nextNeighbor;
-                node = entry.get(false);
-                entryIter = node.entries();
-            }
+        @Override
+        public TimeInterval getCoveredTimeInterval() {
+            return interval;
+        }
+
+        @Override
+        public boolean intersects(List<? extends AttributeRange<? extends Number>> ranges) {
+            return intersectsAll(current, ranges);
+        }
+
+        @Override
+        public long getEventCount() {
+            for (var a : schema)
+                if (a.getProperty("index") != null && a.getProperty("index").equalsIgnoreCase("true"))
+                    return current.getAggregation(a.getName()).getValues()[3].longValue();
+            throw new SchemaException("No attribute is indexed, cannot count events.");
+        }
+
+        @Override
+        public boolean intersects(AttributeRange<? extends Number> range) {
+            return intersectsSingle(current, range);
+        }
+
+        /**
+         * @{inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return current.plot();
         }
     }
 
@@ -1156,6 +1472,27 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
         OPENING, RECOVERING, OPEN, CLOSED, ERROR
     }
 
+    /**
+     * Receives the location of every event loaded via
+     * {@link PrimaryIndexImpl#bulkLoad(Iterator, BulkLoadListener)}.
+     */
+    @FunctionalInterface
+    public interface BulkLoadListener {
+
+        /**
+         * @param event
+         *            the loaded event
+         * @param tid
+         *            the event's location
+         * @param rank
+         *            the number of loaded events with the same timestamp
+         *            preceding the event
+         * @param sequenceId
+         *            the event's position in the input
+         */
+        void loaded(Event event, TID tid, int rank, long sequenceId);
+    }
+
     static class BFWrapper extends AbstractContainer implements SuspendableContainer {
         final FCBlockFileContainer src;
 
@@ -1228,6 +1565,14 @@ public class PrimaryIndexImpl implements Closeable, AutoCloseable, PrimaryIndex
             src.update(convertIdIn(id), object, unfix);
         }
 
+        @Override
+        public void prefetch(long[] ids, int count) {
+            final long[] offsets = new long[count];
+            for (int i = 0; i < count; i++)
+                offsets[i] = ids[i] * src.blockSize();
+            src.prefetch(offsets, count);
+        }
+
         @Override
         public void suspend() {
         }
@@ -1,7 +1,10 @@
 package sigmod2021.db.core.primaryindex.impl;
 
 import sigmod2021.db.DBException;
+import sigmod2021.db.DBRuntimeException;
 import sigmod2021.db.core.secondaryindex.LSMTimeIndex;
+import sigmod2021.db.core.secondaryindex.SecondaryIndexParams;
+import sigmod2021.db.core.secondaryindex.SecondaryIndexUpdater;
 import sigmod2021.db.core.secondaryindex.SecondaryTimeIndex;
 import sigmod2021.db.core.secondaryindex.SecondaryTimeIndexWrapper;
 import sigmod2021.db.core.primaryindex.PrimaryIndex;
@@ -10,18 +13,25 @@ import sigmod2021.db.core.primaryindex.impl.legacy.MutableParams;
 import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
 import sigmod2021.db.event.PersistentEvent;
 import sigmod2021.db.event.TID;
+import sigmod2021.db.event.TIDBatch;
 import sigmod2021.db.queries.NoSuchEventException;
 import sigmod2021.db.util.TimeInterval;
 import sigmod2021.event.*;
 import xxl.core.cursor.DoubleCursor;
+import xxl.core.cursors.AbstractCursor;
 import xxl.core.cursors.Cursor;
 import xxl.core.cursors.sources.EmptyCursor;
 import xxl.core.indexStructures.AggregateIndex;
 import xxl.core.indexStructures.FastAggregatedBPlusTree;
 
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -29,6 +39,14 @@ public class PrimaryWithSecondaryIndexImpl implements PrimaryIndex {
 
     private PrimaryIndexImpl primary;
     private Map<String, SecondaryTimeIndex<?>> secondaryTimeIndices;
+    /** Maintains the secondary indexes in the background, one worker per index */
+    private Map<String, SecondaryIndexUpdater> updaters;
+    /** Out-of-order events still queued by the primary index, in insertion order */
+    private final Queue<UnlocatedEvent> unlocated = new ArrayDeque<>();
+    /** The timestamp of the last in-order event */
+    private long lastTimestamp;
+    /** The number of events preceding the last in-order event with its timestamp, -1 if there is none */
+    private int lastRank = -1;
 
     public PrimaryWithSecondaryIndexImpl(final Path storageDirectory, final EventSchema schema, final TimeRepresentation timeRepresentation,
                                          final ImmutableParams ip, MutableParams mp) throws DBException {
@@ -43,11 +61,20 @@ public class PrimaryWithSecondaryIndexImpl implements PrimaryIndex {
                                 storageDirectory,
                                 primary.getSchema(),
                                 attribute.getName(),
-                                primary.getTree().BLOCK_SIZE));
+                                primary.getTree().BLOCK_SIZE,
+                                false,
+                                primary.getNodeBuffer()));
                 System.out.println("Created a LSM Index...");
             }
         }
         System.out.println("Created " + secondaryTimeIndices.size() + " LSM Indices");
+        this.updaters = new HashMap<>();
+        for (SecondaryTimeIndex<?> sti : secondaryTimeIndices.values())
+            updaters.put(sti.getAttributeName(), new SecondaryIndexUpdater(sti, SecondaryIndexParams.UPDATE_QUEUE_SIZE));
+        if (primary.getNumberOfEvents() > 0) {
+            lastTimestamp = primary.getCoveredTimeInterval().getT2();
+            lastRank = count(primary.query(lastTimestamp, lastTimestamp)) - 1;
+        }
     }
 
     @Override
@@ -91,18 +118,127 @@ public class PrimaryWithSecondaryIndexImpl implements PrimaryIndex {
         // TODO: This is a hack
         final long seqNumber = primary.getNumberOfEvents() - 1;
 
-        try {
-            TID tid = result.get();
+        if (result.isDone()) {
+            try {
+                TID tid = result.get();
+                final int rank = inOrderRank(event.getT1());
 
-            for (SecondaryTimeIndex<?> secondaryTimeIndex : secondaryTimeIndices.values()) {
-                secondaryTimeIndex.insertEvent(event, tid, seqNumber);
+                for (SecondaryIndexUpdater updater : updaters.values()) {
+                    updater.submit(event, tid, rank, seqNumber);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+        } else {
+            unlocated.add(new UnlocatedEvent(event, seqNumber));
         }
+        indexLocatedEvents();
         return result;
     }
 
+    @Override
+    public TIDBatch insertBatch(Event[] events) {
+        final long firstSeqNumber = primary.getNumberOfEvents();
+        final TIDBatch result = primary.insertBatch(events);
+
+        // Callers may reuse the array
+        final Event[] copy = events.clone();
+        final int[] ranks = new int[copy.length];
+        for (int i = 0; i < copy.length; i++) {
+            if (result.isKnown(i))
+                ranks[i] = inOrderRank(copy[i].getT1());
+        }
+        for (SecondaryIndexUpdater updater : updaters.values()) {
+            updater.submit(copy, result, ranks, firstSeqNumber);
+        }
+        for (int i = 0; i < copy.length; i++) {
+            if (!result.isKnown(i))
+                unlocated.add(new UnlocatedEvent(copy[i], firstSeqNumber + i));
+        }
+        indexLocatedEvents();
+        return result;
+    }
+
+    /**
+     * Returns the rank of an in-order event, i.e., the number of events with
+     * its timestamp preceding it. Out-of-order events with a timestamp arrive
+     * after all in-order events with this timestamp, so only the latter are
+     * counted.
+     *
+     * @param timestamp the timestamp of the event
+     * @return the rank of the event
+     */
+    private int inOrderRank(long timestamp) {
+        if (lastRank >= 0 && timestamp == lastTimestamp) {
+            lastRank++;
+        } else {
+            lastTimestamp = timestamp;
+            lastRank = 0;
+        }
+        return lastRank;
+    }
+
+    /**
+     * Indexes the out-of-order events the primary index moved from its
+     * out-of-order queue into the tree. The queue is pushed as a whole, so
+     * all but the most recent unlocated events, which are still queued, got
+     * their location. The primary index inserts an event behind all events
+     * with its timestamp, and pushes events with equal timestamps in the
+     * order of their arrival. Thus, the k located events with a timestamp
+     * are the last k events with this timestamp in the tree, in the order
+     * of their arrival. This yields their locations and ranks.
+     */
+    private void indexLocatedEvents() {
+        int located = unlocated.size() - primary.appender.getOutOfOrderQueueLength();
+        if (located <= 0)
+            return;
+        final Map<Long, List<UnlocatedEvent>> byTimestamp = new LinkedHashMap<>();
+        for (; located > 0; located--) {
+            final UnlocatedEvent u = unlocated.poll();
+            byTimestamp.computeIfAbsent(u.event.getT1(), t -> new ArrayList<>()).add(u);
+        }
+        for (Map.Entry<Long, List<UnlocatedEvent>> entry : byTimestamp.entrySet()) {
+            final List<UnlocatedEvent> events = entry.getValue();
+            // The locations of the last events with the timestamp
+            final Queue<TID> tids = new ArrayDeque<>(events.size());
+            int count = 0;
+            // Leaves the queue as it is, a push would place further events with the timestamp
+            final DoubleCursor<PersistentEvent> cursor = primary.appender.query(entry.getKey(), entry.getKey(), false);
+            try {
+                while (cursor.hasNext()) {
+                    if (tids.size() == events.size())
+                        tids.poll();
+                    tids.add(cursor.next().getId());
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+            if (tids.size() < events.size())
+                throw new DBRuntimeException("Out-of-order events with timestamp " + entry.getKey() + " not found in primary index.");
+
+            int rank = count - events.size();
+            for (UnlocatedEvent u : events) {
+                final TID tid = tids.poll();
+                for (SecondaryIndexUpdater updater : updaters.values()) {
+                    updater.submit(u.event, tid, rank, u.sequenceId);
+                }
+                rank++;
+            }
+        }
+    }
+
+    private static int count(Cursor<?> cursor) {
+        try {
+            int result = 0;
+            for (; cursor.hasNext(); cursor.next())
+                result++;
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public DoubleCursor<PersistentEvent> find(TID id) throws NoSuchEventException {
         return primary.find(id);
@@ -140,18 +276,86 @@ public class PrimaryWithSecondaryIndexImpl implements PrimaryIndex {
 
     private Cursor<PersistentEvent> querySecondaryIndexAttribute(long minKey, long maxKey, AttributeRange<?> range) {
         System.out.println("Querying heavyweight index for " + range.getName());
+        // Pushes the out-of-order queue, so the queued events get their location
         primary.appender.getTempRoot(true);
-        SecondaryTimeIndex<?> secondaryTimeIndex = secondaryTimeIndices.get(range.getName());
-        Cursor<PersistentEvent> eventIterator = new SecondaryTimeIndexWrapper(primary.getTree(), secondaryTimeIndex).rangeQuery(range.getLower(), range.getUpper());
-        return eventIterator;
+        indexLocatedEvents();
+        final SecondaryTimeIndex.Snapshot snapshot = updaters.get(range.getName()).snapshot();
+        final SecondaryTimeIndexWrapper wrapper = new SecondaryTimeIndexWrapper(primary.getTree(), snapshot,
+                t -> primary.query(t, t));
+        return new SecondaryIndexCursor(snapshot, wrapper.rangeQuery(range.getLower(), range.getUpper()));
     }
 
     private Cursor<PersistentEvent> querySecondaryIndexAttributeValueOrderd(long minKey, long maxKey, AttributeRange<?> range) {
         System.out.println("Querying heavyweight index for " + range.getName());
+        // Pushes the out-of-order queue, so the queued events get their location
         primary.appender.getTempRoot(true);
-        SecondaryTimeIndex<?> secondaryTimeIndex = secondaryTimeIndices.get(range.getName());
-        Cursor<PersistentEvent> eventIterator = new SecondaryTimeIndexWrapper(primary.getTree(), secondaryTimeIndex).rangeQueryValueOrderd(range.getLower(), range.getUpper());
-        return eventIterator;
+        indexLocatedEvents();
+        final SecondaryTimeIndex.Snapshot snapshot = updaters.get(range.getName()).snapshot();
+        final SecondaryTimeIndexWrapper wrapper = new SecondaryTimeIndexWrapper(primary.getTree(), snapshot,
+                t -> primary.query(t, t));
+        return new SecondaryIndexCursor(snapshot, wrapper.rangeQueryValueOrderd(range.getLower(), range.getUpper()));
+    }
+
+    /**
+     * An out-of-order event waiting for its location in the primary index
+     */
+    private static class UnlocatedEvent {
+
+        private final Event event;
+
+        private final long sequenceId;
+
+        UnlocatedEvent(Event event, long sequenceId) {
+            this.event = event;
+            this.sequenceId = sequenceId;
+        }
+    }
+
+    /**
+     * Reads a snapshot of a secondary index, taken when the query was issued,
+     * and closes the snapshot along with the cursor. The index keeps being
+     * updated while the cursor is open.
+     */
+    private static class SecondaryIndexCursor extends AbstractCursor<PersistentEvent> {
+
+        private final SecondaryTimeIndex.Snapshot<?> snapshot;
+
+        private final Cursor<PersistentEvent> events;
+
+        SecondaryIndexCursor(SecondaryTimeIndex.Snapshot<?> snapshot, Cursor<PersistentEvent> events) {
+            this.snapshot = snapshot;
+            this.events = events;
+        }
+
+        @Override
+        public void open() {
+            if (isOpened)
+                return;
+            super.open();
+            events.open();
+        }
+
+        @Override
+        public void close() {
+            if (isClosed)
+                return;
+            super.close();
+            try {
+                events.close();
+            } finally {
+                snapshot.close();
+            }
+        }
+
+        @Override
+        protected boolean hasNextObject() {
+            return events.hasNext();
+        }
+
+        @Override
+        protected PersistentEvent nextObject() {
+            return events.next();
+        }
     }
 
     @Override
@@ -163,13 +367,35 @@ public class PrimaryWithSecondaryIndexImpl implements PrimaryIndex {
         return primary.getState();
     }
 
+    /**
+     * Returns the visibility watermark of the secondary indexes. All events
+     * with a sequence id up to the watermark are contained in every secondary
+     * index, except out-of-order events still queued by the primary index.
+     *
+     * @return the highest sequence id visible in all secondary indexes
+     */
+    public long getSecondaryWatermark() {
+        long result = primary.getNumberOfEvents() - 1;
+        for (SecondaryIndexUpdater updater : updaters.values())
+            result = Math.min(result, updater.getWatermark());
+        return result;
+    }
+
     @Override
     public void flush() {
         primary.flush();
+        indexLocatedEvents();
+        for (SecondaryIndexUpdater updater : updaters.values())
+            updater.sync();
     }
 
     @Override
     public void close() {
+        // Closing the primary index pushes the out-of-order queue, index its events before
+        primary.appender.getTempRoot(true);
+        indexLocatedEvents();
+        for (SecondaryIndexUpdater updater : updaters.values())
+            updater.close();
         primary.close();
         for (SecondaryTimeIndex<?> sti : secondaryTimeIndices.values())
             sti.close();
@@ -0,0 +1,282 @@
+package sigmod2021.db.core.primaryindex.impl;
+
+import sigmod2021.db.core.primaryindex.HistogramAccess;
+import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
+import sigmod2021.db.core.primaryindex.queries.range.DoubleAttributeRange;
+import sigmod2021.db.util.TimeInterval;
+import sigmod2021.event.Attribute;
+import sigmod2021.event.EventSchema;
+import sigmod2021.event.SchemaException;
+import xxl.core.indexStructures.AggregateIndex.Aggregation;
+import xxl.core.indexStructures.BPlusLink;
+import xxl.core.indexStructures.FastAggregatedAppender;
+import xxl.core.indexStructures.FastAggregatedBPlusTree;
+import xxl.core.indexStructures.FastAggregatedBPlusTree.AggregationEntry;
+import xxl.core.indexStructures.FastAggregatedBPlusTree.IndexEntry;
+import xxl.core.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An in-memory, columnar copy of the index entries of one tree level: time
+ * bounds, event counts and the min, max and sum of each aggregated attribute
+ * are kept in primitive arrays.
+ * <p>
+ * Only sealed entries are cached, i.e., all but the last entry of the level,
+ * whose subtree is still filled by the appender. Each walk extends the copy by
+ * the entries sealed since the previous walk. Since out-of-order inserts may modify and split nodes left of the
+ * appender's right flank, the copy is rebuilt after the out-of-order queue was
+ * merged into the tree.
+ */
+class SummaryLevelCache {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FastAggregatedAppender<?, ?> appender;
+
+    private final EventSchema schema;
+
+    private final int level;
+
+    /** The names of the aggregated attributes */
+    private final String[] attributes;
+
+    /** The position of each aggregated attribute in the arrays */
+    private final Map<String, Integer> attributeIndex = new HashMap<>();
+
+    /** The out-of-order merges the copy reflects */
+    private long outOfOrderPushes = -1L;
+
+    private int size;
+
+    private long[] t2 = new long[INITIAL_CAPACITY];
+
+    private long[] counts = new long[INITIAL_CAPACITY];
+
+    private double[][] min;
+
+    private double[][] max;
+
+    private double[][] sum;
+
+    /** The id of the node holding the entry left open, null to walk from the beginning */
+    private Object resumeId;
+
+    /** The position of the entry left open in its node */
+    private int resumeIndex;
+
+    SummaryLevelCache(FastAggregatedAppender<?, ?> appender, EventSchema schema, int level) {
+        this.appender = appender;
+        this.schema = schema;
+        this.level = level;
+        final List<String> aggregated = new ArrayList<>();
+        for (Attribute a : schema)
+            if (a.getType().isNumeric() && "true".equalsIgnoreCase(a.getProperty("index")))
+                aggregated.add(a.getName());
+        this.attributes = aggregated.toArray(new String[0]);
+        if (attributes.length == 0)
+            throw new SchemaException("No attribute is indexed, cannot count events.");
+        for (int i = 0; i < attributes.length; i++)
+            attributeIndex.put(attributes[i], i);
+        this.min = new double[attributes.length][INITIAL_CAPACITY];
+        this.max = new double[attributes.length][INITIAL_CAPACITY];
+        this.sum = new double[attributes.length][INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return the level this cache copies
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the appender this cache reads from
+     */
+    FastAggregatedAppender<?, ?> getAppender() {
+        return appender;
+    }
+
+    /**
+     * Walks the level: first the cached entries, then the entry still filled
+     * by the appender. The access passed to the consumer is only valid during
+     * the call.
+     *
+     * @param minTimestamp the minimum timestamp of the tree
+     * @param consumer     the consumer of the entries
+     */
+    synchronized void walk(long minTimestamp, Consumer<HistogramAccess> consumer) {
+        final Pair<BPlusLink.IndexEntry, BPlusLink.Node> root = appender.getTempRoot(true);
+        if (root.getElement1().level() < level || level < 1) {
+            root.getElement1().unfix();
+            throw new IllegalArgumentException(
+                    "Can only walk tree-levels between " + root.getElement2().level() + " (tree height) and 1");
+        }
+        if (appender.getOutOfOrderPushes() != outOfOrderPushes) {
+            resumeId = null;
+            outOfOrderPushes = appender.getOutOfOrderPushes();
+        }
+        final IndexEntry tail = refresh(root);
+
+        final Access access = new Access(minTimestamp);
+        for (int i = 0; i < size; i++) {
+            access.position = i;
+            consumer.accept(access);
+        }
+        if (tail != null) {
+            final long from = size == 0 ? minTimestamp : t2[size - 1] + 1;
+            consumer.accept(new PrimaryIndexImpl.EntryAccess(size, tail,
+                    new TimeInterval(from, (Long) tail.separator().sepValue()), schema));
+        }
+    }
+
+    /**
+     * Appends the entries sealed since the last refresh. Like an uncached
+     * walk, the level is traversed along the neighbor links, starting at the
+     * node holding the entry left open by the last refresh. If that node is
+     * the first of the level, it may still be a temporary copy of the
+     * appender's right flank, so the level is traversed from its beginning.
+     *
+     * @return the last entry of the level, which is not sealed yet
+     */
+    private IndexEntry refresh(Pair<BPlusLink.IndexEntry, BPlusLink.Node> root) {
+        IndexEntry entry = (IndexEntry) root.getElement1();
+        FastAggregatedBPlusTree.Node node = (FastAggregatedBPlusTree.Node) root.getElement2();
+        int index = 0;
+        if (resumeId == null) {
+            size = 0;
+            // Down to first node of level
+            while (node.level() > level) {
+                final IndexEntry tmp = (IndexEntry) node.getEntry(0);
+                entry.unfix();
+                entry = tmp;
+                node = entry.get(false);
+            }
+        } else {
+            entry.unfix();
+            entry = (IndexEntry) appender.getTree().createIndexEntry(level).initialize(resumeId);
+            node = entry.get(false);
+            index = resumeIndex;
+        }
+
+        boolean first = resumeId == null;
+        IndexEntry pending = null;
+        while (true) {
+            if (index == node.number()) {
+                if (node.nextNeighbor() == null)
+                    break;
+                entry.unfix();
+                entry = (IndexEntry) node.nextNeighbor();
+                node = entry.get(false);
+                index = 0;
+                first = false;
+                continue;
+            }
+            final IndexEntry current = (IndexEntry) node.getEntry(index);
+            if (pending != null)
+                append(pending);
+            pending = current;
+            resumeId = first ? null : entry.id();
+            resumeIndex = index++;
+        }
+        entry.unfix();
+        return pending;
+    }
+
+    private void append(IndexEntry e) {
+        if (size == t2.length)
+            grow();
+        t2[size] = (Long) e.separator().sepValue();
+        for (int a = 0; a < attributes.length; a++) {
+            final AggregationEntry agg = (AggregationEntry) e.getAggregation(attributes[a]);
+            min[a][size] = agg.getMin();
+            max[a][size] = agg.getMax();
+            sum[a][size] = agg.getSum();
+            if (a == 0)
+                counts[size] = agg.getCount();
+        }
+        size++;
+    }
+
+    private void grow() {
+        final int capacity = t2.length * 2;
+        t2 = Arrays.copyOf(t2, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        for (int a = 0; a < attributes.length; a++) {
+            min[a] = Arrays.copyOf(min[a], capacity);
+            max[a] = Arrays.copyOf(max[a], capacity);
+            sum[a] = Arrays.copyOf(sum[a], capacity);
+        }
+    }
+
+    /**
+     * Access to a cached entry, moved along the arrays.
+     */
+    private class Access implements HistogramAccess {
+
+        private final long minTimestamp;
+
+        int position;
+
+        Access(long minTimestamp) {
+            this.minTimestamp = minTimestamp;
+        }
+
+        private int attribute(String name) {
+            final Integer a = attributeIndex.get(name);
+            if (a == null)
+                throw new SchemaException("Attribute " + name + " is not aggregated.");
+            return a;
+        }
+
+        @Override
+        public long getIndex() {
+            return position;
+        }
+
+        @Override
+        public Aggregation getAggregates(String attribute) {
+            final int a = attribute(attribute);
+            return new AggregationEntry(sum[a][position], min[a][position], max[a][position], counts[position]);
+        }
+
+        @Override
+        public double getMin(String attribute) {
+            return min[attribute(attribute)][position];
+        }
+
+        @Override
+        public double getMax(String attribute) {
+            return max[attribute(attribute)][position];
+        }
+
+        @Override
+        public TimeInterval getCoveredTimeInterval() {
+            return new TimeInterval(position == 0 ? minTimestamp : t2[position - 1] + 1, t2[position]);
+        }
+
+        @Override
+        public long getEventCount() {
+            return counts[position];
+        }
+
+        @Override
+        public boolean intersects(List<? extends AttributeRange<? extends Number>> ranges) {
+            return ranges.stream().allMatch(this::intersects);
+        }
+
+        @Override
+        public boolean intersects(AttributeRange<? extends Number> range) {
+            final int a = attribute(range.getName());
+            var idxRange = new DoubleAttributeRange(range.getName(), min[a][position], max[a][position], true, true);
+            var givenRange = new DoubleAttributeRange(range.getName(), range.getLower().doubleValue(),
+                    range.getUpper().doubleValue(), range.isLowerInclusive(), range.isUpperInclusive());
+            return givenRange.intersects(idxRange);
+        }
+    }
+}
@@ -14,7 +14,8 @@ public class ImmutableParams {
     ;
     private static final byte VERSION_2 = 2;
     private static final byte VERSION_3 = 3;
-    public static final byte CURRENT_VERSION = VERSION_3;
+    private static final byte VERSION_4 = 4;
+    public static final byte CURRENT_VERSION = VERSION_4;
     /**
      * Defines the logical size of a memory page on disk.
      */
@@ -38,6 +39,10 @@ public class ImmutableParams {
     private Compression compression = Compression.LZ4;
     /** The container type to use */
     private ContainerType containerType = ContainerType.FCC;
+    /**
+     * Encode the columns of the leaves according to the attributes' encodings
+     */
+    private boolean leafEncoding = true;
 
     public static ImmutableParams load(final DataInput in) throws IOException {
         // Read version
@@ -55,12 +60,14 @@ public class ImmutableParams {
         else
             result.compression = Compression.valueOf(in.readUTF());
 
-        if (version == VERSION_3) {
+        if (version >= VERSION_3) {
             result.containerType = ContainerType.valueOf(in.readUTF());
         } else {
             result.containerType = ContainerType.FCC;
         }
 
+        result.leafEncoding = version >= VERSION_4 && in.readBoolean();
+
         return result;
     }
 
@@ -146,14 +153,31 @@ public class ImmutableParams {
         this.containerType = containerType;
     }
 
+    /**
+     * @return true if the columns of the leaves are encoded
+     */
+    public boolean isLeafEncoding() {
+        return leafEncoding;
+    }
+
+    /**
+     * @param leafEncoding
+     *            true to encode the columns of the leaves, false to store
+     *            them as they are
+     */
+    public void setLeafEncoding(boolean leafEncoding) {
+        this.leafEncoding = leafEncoding;
+    }
+
     /**
      * @{inheritDoc}
      */
     @Override
     public String toString() {
         return String.format(
-                "ImmutableParams [%n  blockSize=%s%n  macroBlockSize=%s%n  containerSpare=%s%n  treeSpare=%s%n, containerType=%s%n, compression=%s]",
-                this.blockSize, this.macroBlockSize, this.containerSpare, this.treeSpare, this.containerType, this.compression);
+                "ImmutableParams [%n  blockSize=%s%n  macroBlockSize=%s%n  containerSpare=%s%n  treeSpare=%s%n, containerType=%s%n, compression=%s%n, leafEncoding=%s]",
+                this.blockSize, this.macroBlockSize, this.containerSpare, this.treeSpare, this.containerType, this.compression,
+                this.leafEncoding);
     }
 
     public void persist(final DataOutput dout) throws IOException {
@@ -165,14 +189,20 @@ public class ImmutableParams {
         dout.writeInt(this.macroBlockSize);
         dout.writeUTF(this.compression.name());
         dout.writeUTF(this.containerType.name());
+        dout.writeBoolean(this.leafEncoding);
     }
 
+    /**
+     * The compression of the blocks. LZ4_HC and ZSTD record the codec with
+     * each block, ZSTD additionally trains a dictionary stored in the
+     * container's header.
+     */
     public static enum Compression {
-        NO_COMPRESSION, LZ4
+        NO_COMPRESSION, LZ4, LZ4_HC, ZSTD
     }
 
     public static enum ContainerType {
-        FCC, BLOCK
+        FCC, BLOCK, PARALLEL_FCC
     }
 
 }
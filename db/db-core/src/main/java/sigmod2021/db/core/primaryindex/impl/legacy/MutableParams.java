@@ -10,8 +10,13 @@ import java.io.IOException;
 public class MutableParams {
 
     private static final byte VERSION_1 = 1;
+    private static final byte VERSION_2 = 2;
+    private static final byte VERSION_3 = 3;
+    private static final byte VERSION_4 = 4;
+    private static final byte VERSION_5 = 5;
+    private static final byte VERSION_6 = 6;
 
-    public static final byte CURRENT_VERSION = VERSION_1;
+    public static final byte CURRENT_VERSION = VERSION_6;
 
     //////////////////////////////////////////////////////////////////////////
     //
@@ -59,10 +64,65 @@ public class MutableParams {
      */
     private boolean useBlockBuffer = true;
 
+    /**
+     * The size in bytes of the buffer of decoded tree nodes, shared by the
+     * primary index and its secondary indexes. A value of 0 disables the buffer.
+     */
+    private long nodeBufferSize = 64L * 1024 * 1024;
+
+    /**
+     * Keep an in-memory copy of the summary level scanned by histogram-based
+     * estimations, instead of walking the tree for every estimation.
+     */
+    private boolean useSummaryCache = false;
+
+    /**
+     * The number of leaves read ahead by background threads while a query
+     * over multiple intervals processes the current leaf. A value of 0
+     * disables the read-ahead.
+     */
+    private int leafPrefetchDepth = 0;
+
+    /**
+     * The number of threads compressing blocks of a container of type
+     * {@link ImmutableParams.ContainerType#PARALLEL_FCC}.
+     */
+    private int compressionThreads = 4;
+
+    /**
+     * The maximum number of blocks of a container of type
+     * {@link ImmutableParams.ContainerType#PARALLEL_FCC} being compressed or
+     * waiting to be written. Further updates block until a slot is free.
+     */
+    private int compressionQueueDepth = 32;
+
+    //////////////////////////////////////////////////////////////////////////
+    //
+    // Logging Stuff
+    //
+    //////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Tells whether in-order inserts and the out-of-order queue are written to
+     * a durable log, allowing to recover events not yet persisted in the
+     * container after a crash.
+     */
+    private boolean useWriteAheadLog = false;
+
+    /**
+     * The interval in milliseconds between two group commits of the log. A
+     * value of 0 forces every single insert to disk.
+     */
+    private long logCommitInterval = 50L;
+
+    /**
+     * The size of a single log segment in bytes
+     */
+    private long logSegmentSize = 64L * 1024 * 1024;
+
     public static MutableParams load(final DataInput in) throws IOException {
         // Read version
-        /*byte version = */
-        in.readByte();
+        byte version = in.readByte();
 
         final MutableParams result = new MutableParams();
         // This is for version 1 -- apply a switch on version increase
@@ -73,6 +133,29 @@ public class MutableParams {
         result.useDirectIO = in.readBoolean();
         result.useBlockBuffer = in.readBoolean();
 
+        if (version >= VERSION_2) {
+            result.useWriteAheadLog = in.readBoolean();
+            result.logCommitInterval = in.readLong();
+            result.logSegmentSize = in.readLong();
+        }
+
+        if (version >= VERSION_3) {
+            result.nodeBufferSize = in.readLong();
+        }
+
+        if (version >= VERSION_4) {
+            result.useSummaryCache = in.readBoolean();
+        }
+
+        if (version >= VERSION_5) {
+            result.leafPrefetchDepth = in.readInt();
+        }
+
+        if (version >= VERSION_6) {
+            result.compressionThreads = in.readInt();
+            result.compressionQueueDepth = in.readInt();
+        }
+
         return result;
     }
 
@@ -160,15 +243,128 @@ public class MutableParams {
         this.useBlockBuffer = useBlockBuffer;
     }
 
+    /**
+     * @return the nodeBufferSize
+     */
+    public long getNodeBufferSize() {
+        return this.nodeBufferSize;
+    }
+
+    /**
+     * @param nodeBufferSize the nodeBufferSize to set
+     */
+    public void setNodeBufferSize(long nodeBufferSize) {
+        this.nodeBufferSize = nodeBufferSize;
+    }
+
+    /**
+     * @return the useSummaryCache
+     */
+    public boolean isUseSummaryCache() {
+        return this.useSummaryCache;
+    }
+
+    /**
+     * @param useSummaryCache the useSummaryCache to set
+     */
+    public void setUseSummaryCache(boolean useSummaryCache) {
+        this.useSummaryCache = useSummaryCache;
+    }
+
+    /**
+     * @return the leafPrefetchDepth
+     */
+    public int getLeafPrefetchDepth() {
+        return this.leafPrefetchDepth;
+    }
+
+    /**
+     * @param leafPrefetchDepth the leafPrefetchDepth to set
+     */
+    public void setLeafPrefetchDepth(int leafPrefetchDepth) {
+        this.leafPrefetchDepth = leafPrefetchDepth;
+    }
+
+    /**
+     * @return the compressionThreads
+     */
+    public int getCompressionThreads() {
+        return this.compressionThreads;
+    }
+
+    /**
+     * @param compressionThreads the compressionThreads to set
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * @return the compressionQueueDepth
+     */
+    public int getCompressionQueueDepth() {
+        return this.compressionQueueDepth;
+    }
+
+    /**
+     * @param compressionQueueDepth the compressionQueueDepth to set
+     */
+    public void setCompressionQueueDepth(int compressionQueueDepth) {
+        this.compressionQueueDepth = compressionQueueDepth;
+    }
+
+    /**
+     * @return the useWriteAheadLog
+     */
+    public boolean isUseWriteAheadLog() {
+        return this.useWriteAheadLog;
+    }
+
+    /**
+     * @param useWriteAheadLog the useWriteAheadLog to set
+     */
+    public void setUseWriteAheadLog(boolean useWriteAheadLog) {
+        this.useWriteAheadLog = useWriteAheadLog;
+    }
+
+    /**
+     * @return the logCommitInterval
+     */
+    public long getLogCommitInterval() {
+        return this.logCommitInterval;
+    }
+
+    /**
+     * @param logCommitInterval the logCommitInterval to set
+     */
+    public void setLogCommitInterval(long logCommitInterval) {
+        this.logCommitInterval = logCommitInterval;
+    }
+
+    /**
+     * @return the logSegmentSize
+     */
+    public long getLogSegmentSize() {
+        return this.logSegmentSize;
+    }
+
+    /**
+     * @param logSegmentSize the logSegmentSize to set
+     */
+    public void setLogSegmentSize(long logSegmentSize) {
+        this.logSegmentSize = logSegmentSize;
+    }
+
     /**
      * @{inheritDoc}
      */
     @Override
     public String toString() {
         return String.format(
-                "MutableParams [%n  outOfOrderQueueSize=%s%n  treeBufferSize=%s%n  leafBufferNodes=%s%n  macroBlockBufferSize=%s%n  useDirectIO=%s%n  useBlockBuffer=%s]",
+                "MutableParams [%n  outOfOrderQueueSize=%s%n  treeBufferSize=%s%n  leafBufferNodes=%s%n  macroBlockBufferSize=%s%n  useDirectIO=%s%n  useBlockBuffer=%s%n  nodeBufferSize=%s%n  useSummaryCache=%s%n  leafPrefetchDepth=%s%n  compressionThreads=%s%n  compressionQueueDepth=%s%n  useWriteAheadLog=%s%n  logCommitInterval=%s%n  logSegmentSize=%s]",
                 this.outOfOrderQueueSize, this.treeBufferSize, this.leafBufferNodes, this.macroBlockBufferSize,
-                this.useDirectIO, this.useBlockBuffer);
+                this.useDirectIO, this.useBlockBuffer, this.nodeBufferSize, this.useSummaryCache, this.leafPrefetchDepth, this.compressionThreads, this.compressionQueueDepth, this.useWriteAheadLog, this.logCommitInterval,
+                this.logSegmentSize);
     }
 
     public void persist(final DataOutput dout) throws IOException {
@@ -180,6 +376,14 @@ public class MutableParams {
         dout.writeInt(this.macroBlockBufferSize);
         dout.writeBoolean(this.useDirectIO);
         dout.writeBoolean(this.useBlockBuffer);
+        dout.writeBoolean(this.useWriteAheadLog);
+        dout.writeLong(this.logCommitInterval);
+        dout.writeLong(this.logSegmentSize);
+        dout.writeLong(this.nodeBufferSize);
+        dout.writeBoolean(this.useSummaryCache);
+        dout.writeInt(this.leafPrefetchDepth);
+        dout.writeInt(this.compressionThreads);
+        dout.writeInt(this.compressionQueueDepth);
     }
 
 }
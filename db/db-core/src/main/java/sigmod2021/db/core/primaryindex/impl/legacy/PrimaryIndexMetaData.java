@@ -140,6 +140,10 @@ public class PrimaryIndexMetaData {
         eventCount++;
     }
 
+    public void increaseEventCount(final long count) {
+        eventCount += count;
+    }
+
     /**
      * Stores the current root of the tree
      *
@@ -0,0 +1,177 @@
+package sigmod2021.db.core.primaryindex.queries.range;
+
+import sigmod2021.event.Event;
+import sigmod2021.event.EventSchema;
+import sigmod2021.event.SchemaException;
+import xxl.core.indexStructures.ColumnarLeaf;
+
+/**
+ * The conjunction of a key-range and a set of attribute ranges. Besides
+ * matching single events, the filter evaluates all rows of a columnar leaf at
+ * once: each range is applied to the primitive column of its attribute,
+ * narrowing down a selection bitmap. Thus, only qualifying rows are
+ * materialized.
+ */
+public class AttributeRangeFilter {
+
+    private final long minKey;
+
+    private final long maxKey;
+
+    private final AttributeRange<?>[] ranges;
+
+    private final int[] indices;
+
+    private final AttributeRange.EventMatcher[] matchers;
+
+    /**
+     * Creates a new AttributeRangeFilter instance
+     *
+     * @param schema the schema of the events
+     * @param minKey the minimum start timestamp (inclusive)
+     * @param maxKey the maximum start timestamp (inclusive)
+     * @param ranges the attribute ranges
+     * @throws SchemaException if a range does not match the schema
+     */
+    public AttributeRangeFilter(final EventSchema schema, final long minKey, final long maxKey,
+                                final AttributeRange<?>... ranges) throws SchemaException {
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.ranges = ranges;
+        this.indices = new int[ranges.length];
+        this.matchers = new AttributeRange.EventMatcher[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            this.matchers[i] = ranges[i].getMatcher(schema);
+            this.indices[i] = schema.getAttributeIndex(ranges[i].getName());
+        }
+    }
+
+    /**
+     * Checks a single event.
+     *
+     * @param event the event
+     * @return true if the event satisfies the key-range and all attribute ranges
+     */
+    public boolean matches(final Event event) {
+        if (event.getT1() < minKey || event.getT1() > maxKey)
+            return false;
+        for (final AttributeRange.EventMatcher matcher : matchers) {
+            if (!matcher.matches(event))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the filter on all rows of the given leaf. Bit <tt>i % 64</tt>
+     * of word <tt>i / 64</tt> is set iff row <tt>i</tt> qualifies.
+     *
+     * @param leaf the leaf, which must still be columnar
+     * @return the selection bitmap
+     */
+    public long[] select(final ColumnarLeaf leaf) {
+        final int number = leaf.size();
+        final long[] selection = new long[(number + 63) >>> 6];
+        if (!selectKeys(leaf, number, selection))
+            return selection;
+        for (int i = 0; i < ranges.length; i++) {
+            if (!selectRange(ranges[i], leaf.getColumn(indices[i]), number, selection))
+                break;
+        }
+        return selection;
+    }
+
+    private boolean selectKeys(final ColumnarLeaf leaf, final int number, final long[] selection) {
+        long any = 0L;
+        for (int w = 0; w < selection.length; w++) {
+            final int base = w << 6;
+            final int end = Math.min(64, number - base);
+            long bits = 0L;
+            for (int j = 0; j < end; j++) {
+                final long t1 = leaf.getT1(base + j);
+                bits |= (t1 >= minKey & t1 <= maxKey ? 1L : 0L) << j;
+            }
+            selection[w] = bits;
+            any |= bits;
+        }
+        return any != 0L;
+    }
+
+    /**
+     * Narrows down the selection to the rows contained in the given range.
+     * Like {@link AttributeRange#contains(Comparable)}, both bounds are
+     * inclusive.
+     *
+     * @return false if no row remains selected
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean selectRange(final AttributeRange range, final Object column, final int number,
+                                       final long[] selection) {
+        long any = 0L;
+        for (int w = 0; w < selection.length; w++) {
+            if (selection[w] == 0L)
+                continue;
+            final int base = w << 6;
+            final int end = Math.min(64, number - base);
+            long bits = 0L;
+            if (column instanceof double[]) {
+                final double[] values = (double[]) column;
+                final double lower = ((Number) range.getLower()).doubleValue();
+                final double upper = ((Number) range.getUpper()).doubleValue();
+                for (int j = 0; j < end; j++) {
+                    final double v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else if (column instanceof float[]) {
+                final float[] values = (float[]) column;
+                final float lower = ((Number) range.getLower()).floatValue();
+                final float upper = ((Number) range.getUpper()).floatValue();
+                for (int j = 0; j < end; j++) {
+                    final float v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else if (column instanceof long[]) {
+                final long[] values = (long[]) column;
+                final long lower = ((Number) range.getLower()).longValue();
+                final long upper = ((Number) range.getUpper()).longValue();
+                for (int j = 0; j < end; j++) {
+                    final long v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else if (column instanceof int[]) {
+                final int[] values = (int[]) column;
+                final int lower = ((Number) range.getLower()).intValue();
+                final int upper = ((Number) range.getUpper()).intValue();
+                for (int j = 0; j < end; j++) {
+                    final int v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else if (column instanceof short[]) {
+                final short[] values = (short[]) column;
+                final short lower = ((Number) range.getLower()).shortValue();
+                final short upper = ((Number) range.getUpper()).shortValue();
+                for (int j = 0; j < end; j++) {
+                    final short v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else if (column instanceof byte[]) {
+                final byte[] values = (byte[]) column;
+                final byte lower = ((Number) range.getLower()).byteValue();
+                final byte upper = ((Number) range.getUpper()).byteValue();
+                for (int j = 0; j < end; j++) {
+                    final byte v = values[base + j];
+                    bits |= (v >= lower & v <= upper ? 1L : 0L) << j;
+                }
+            } else {
+                final Object[] values = (Object[]) column;
+                for (int j = 0; j < end; j++) {
+                    if (range.contains((Comparable) values[base + j]))
+                        bits |= 1L << j;
+                }
+            }
+            selection[w] &= bits;
+            any |= selection[w];
+        }
+        return any != 0L;
+    }
+}
@@ -9,7 +9,12 @@ import java.io.IOException;
 /**
  * Represents the location of an entry in the secondary time index.
  * The location is composed of the id of the block on the container
- * the entry is stored and the offset within this block.
+ * the entry is stored and the offset within this block. Out-of-order
+ * inserts shift events within their blocks, so the location may become
+ * outdated. The event is then identified by its timestamp and its rank,
+ * i.e., the number of events with the same timestamp preceding it in the
+ * primary index. The rank does not change, since events are always
+ * inserted behind the events with an equal timestamp.
  */
 public class EventID implements Comparable<EventID> {
 
@@ -29,6 +34,11 @@ public class EventID implements Comparable<EventID> {
      */
     private final long timestamp;
 
+    /**
+     * The number of events with the same timestamp preceding the event
+     */
+    private final int rank;
+
     /**
      * The absolute position of the corresponding event in the stream.
      */
@@ -47,12 +57,14 @@ public class EventID implements Comparable<EventID> {
      * @param blockId    the block of the event
      * @param offset     the event`s offset within the block
      * @param timestamp  the timestamp for fallback lookups
+     * @param rank       the number of events with the same timestamp preceding the event
      * @param sequenceId The absolute position of the corresponding event in the stream.
      */
-    public EventID(Long blockId, int offset, long timestamp, long sequenceId) {
+    public EventID(Long blockId, int offset, long timestamp, int rank, long sequenceId) {
         this.blockId = blockId;
         this.offset = offset;
         this.timestamp = timestamp;
+        this.rank = rank;
         this.sequenceId = sequenceId;
     }
 
@@ -67,7 +79,8 @@ public class EventID implements Comparable<EventID> {
 
             @Override
             public EventID read(DataInput dataInput, EventID object) throws IOException {
-                return new EventID(dataInput.readLong(), dataInput.readInt(), dataInput.readLong(), dataInput.readLong());
+                return new EventID(dataInput.readLong(), dataInput.readInt(), dataInput.readLong(), dataInput.readInt(),
+                        dataInput.readLong());
             }
 
             @Override
@@ -75,12 +88,13 @@ public class EventID implements Comparable<EventID> {
                 dataOutput.writeLong(object.blockId);
                 dataOutput.writeInt(object.offset);
                 dataOutput.writeLong(object.timestamp);
+                dataOutput.writeInt(object.rank);
                 dataOutput.writeLong(object.sequenceId);
             }
 
             @Override
             public int getMaxObjectSize() {
-                return 28;
+                return 32;
             }
 
         };
@@ -107,6 +121,13 @@ public class EventID implements Comparable<EventID> {
         return this.timestamp;
     }
 
+    /**
+     * @return the rank
+     */
+    public int getRank() {
+        return this.rank;
+    }
+
     /**
      * @return the sequenceId
      */
@@ -118,7 +139,7 @@ public class EventID implements Comparable<EventID> {
 
     @Override
     public String toString() {
-        return "blockId: " + blockId + ", offset: " + offset + ", timestamp:" + timestamp + ", sequenceId:" + sequenceId;
+        return "blockId: " + blockId + ", offset: " + offset + ", timestamp:" + timestamp + ", rank:" + rank + ", sequenceId:" + sequenceId;
     }
 
     // =============================================================================================================
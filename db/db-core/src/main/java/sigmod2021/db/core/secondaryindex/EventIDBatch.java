@@ -0,0 +1,259 @@
+package sigmod2021.db.core.secondaryindex;
+
+import sigmod2021.db.util.TimeInterval;
+import xxl.core.cursors.Cursor;
+import xxl.core.util.Pair;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The event ids of a secondary index query, stored column-wise in primitive
+ * arrays: the i-th event is located at offset <tt>offsets[i]</tt> of block
+ * <tt>blockIds[i]</tt>, starts at <tt>timestamps[i]</tt>, is preceded by
+ * <tt>ranks[i]</tt> events with the same timestamp and has the position
+ * <tt>sequenceIds[i]</tt> in the stream. Compared to a list of
+ * {@link EventID}s, a batch needs neither an object per hit nor boxing when
+ * being sorted.
+ */
+public class EventIDBatch {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Ranges up to this size are sorted by insertion sort */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private long[] sequenceIds;
+
+    private long[] timestamps;
+
+    private int[] ranks;
+
+    private long[] blockIds;
+
+    private int[] offsets;
+
+    private int size;
+
+    /**
+     * Creates a new, empty EventIDBatch instance
+     */
+    public EventIDBatch() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty EventIDBatch instance
+     *
+     * @param capacity the initial capacity
+     */
+    public EventIDBatch(int capacity) {
+        capacity = Math.max(1, capacity);
+        this.sequenceIds = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.ranks = new int[capacity];
+        this.blockIds = new long[capacity];
+        this.offsets = new int[capacity];
+    }
+
+    /**
+     * Drains the given query result into a new batch. The cursor is opened
+     * and closed by this method.
+     *
+     * @param queryResult the result of a secondary index query
+     * @return the event ids of the result, in the order of the cursor
+     */
+    public static EventIDBatch read(Cursor<? extends Pair<?, EventID>> queryResult) {
+        final EventIDBatch result = new EventIDBatch();
+        queryResult.open();
+        try {
+            while (queryResult.hasNext())
+                result.add(queryResult.next().getElement2());
+        } finally {
+            queryResult.close();
+        }
+        return result;
+    }
+
+    /**
+     * Appends an event id.
+     *
+     * @param id the event id
+     */
+    public void add(EventID id) {
+        add(id.getSequenceId(), id.getTimestamp(), id.getRank(), id.getBlockId(), id.getOffset());
+    }
+
+    /**
+     * Appends an event id.
+     *
+     * @param sequenceId the position of the event in the stream
+     * @param timestamp  the start timestamp of the event
+     * @param rank       the number of events with the same timestamp preceding the event
+     * @param blockId    the block holding the event
+     * @param offset     the offset of the event within its block
+     */
+    public void add(long sequenceId, long timestamp, int rank, long blockId, int offset) {
+        if (size == sequenceIds.length)
+            grow();
+        sequenceIds[size] = sequenceId;
+        timestamps[size] = timestamp;
+        ranks[size] = rank;
+        blockIds[size] = blockId;
+        offsets[size] = offset;
+        size++;
+    }
+
+    private void grow() {
+        final int capacity = sequenceIds.length * 2;
+        sequenceIds = Arrays.copyOf(sequenceIds, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        ranks = Arrays.copyOf(ranks, capacity);
+        blockIds = Arrays.copyOf(blockIds, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+    }
+
+    /**
+     * Removes all event ids, keeping the capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of event ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i the position in the batch
+     * @return the position of the i-th event in the stream
+     */
+    public long getSequenceId(int i) {
+        return sequenceIds[i];
+    }
+
+    /**
+     * @param i the position in the batch
+     * @return the start timestamp of the i-th event
+     */
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * @param i the position in the batch
+     * @return the number of events with the same timestamp preceding the i-th event
+     */
+    public int getRank(int i) {
+        return ranks[i];
+    }
+
+    /**
+     * @param i the position in the batch
+     * @return the block holding the i-th event
+     */
+    public long getBlockId(int i) {
+        return blockIds[i];
+    }
+
+    /**
+     * @param i the position in the batch
+     * @return the offset of the i-th event within its block
+     */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Sorts the event ids by their sequence id, i.e., in the order of the
+     * stream, like {@link EventID#compareTo(EventID)}.
+     */
+    public void sortBySequenceId() {
+        sort(0, size - 1);
+    }
+
+    /**
+     * Removes all event ids whose timestamp is not contained in any of the
+     * given intervals. The batch must be sorted by sequence id, and the
+     * intervals must be ordered by time. Like a merge, each interval is
+     * dropped as soon as a timestamp passes its end, so all event ids beyond
+     * the last interval are removed.
+     *
+     * @param filter the intervals to retain
+     */
+    public void retainTimestamps(Iterator<TimeInterval> filter) {
+        TimeInterval current = filter.hasNext() ? filter.next() : null;
+        int retained = 0;
+        for (int i = 0; i < size && current != null; i++) {
+            while (current != null && timestamps[i] > current.getT2())
+                current = filter.hasNext() ? filter.next() : null;
+            if (current != null && current.contains(timestamps[i])) {
+                sequenceIds[retained] = sequenceIds[i];
+                timestamps[retained] = timestamps[i];
+                ranks[retained] = ranks[i];
+                blockIds[retained] = blockIds[i];
+                offsets[retained] = offsets[i];
+                retained++;
+            }
+        }
+        size = retained;
+    }
+
+    private void sort(int lo, int hi) {
+        while (hi - lo > INSERTION_SORT_THRESHOLD) {
+            // Median of three as pivot
+            final int mid = (lo + hi) >>> 1;
+            if (sequenceIds[mid] < sequenceIds[lo])
+                swap(mid, lo);
+            if (sequenceIds[hi] < sequenceIds[lo])
+                swap(hi, lo);
+            if (sequenceIds[hi] < sequenceIds[mid])
+                swap(hi, mid);
+            final long pivot = sequenceIds[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (sequenceIds[i] < pivot)
+                    i++;
+                while (sequenceIds[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            // Recurse into the smaller part, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && sequenceIds[j] < sequenceIds[j - 1]; j--)
+                swap(j, j - 1);
+        }
+    }
+
+    private void swap(int a, int b) {
+        final long s = sequenceIds[a];
+        sequenceIds[a] = sequenceIds[b];
+        sequenceIds[b] = s;
+        final long t = timestamps[a];
+        timestamps[a] = timestamps[b];
+        timestamps[b] = t;
+        final int r = ranks[a];
+        ranks[a] = ranks[b];
+        ranks[b] = r;
+        final long bid = blockIds[a];
+        blockIds[a] = blockIds[b];
+        blockIds[b] = bid;
+        final int o = offsets[a];
+        offsets[a] = offsets[b];
+        offsets[b] = o;
+    }
+}
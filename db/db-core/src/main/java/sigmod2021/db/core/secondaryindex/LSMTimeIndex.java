@@ -7,10 +7,11 @@ import sigmod2021.event.Event;
 import sigmod2021.event.EventSchema;
 import xxl.core.collections.containers.Container;
 import xxl.core.collections.containers.io.BufferedContainer;
+import xxl.core.collections.containers.io.CachingContainer;
 import xxl.core.collections.containers.io.ConverterContainer;
 import xxl.core.collections.containers.io.FCBlockFileContainer;
 import xxl.core.cursors.Cursor;
-import xxl.core.cursors.Cursors;
+import xxl.core.cursors.AbstractCursor;
 import xxl.core.functions.Functional;
 import xxl.core.functions.Functions;
 import xxl.core.indexStructures.BPlusTree;
@@ -19,6 +20,7 @@ import xxl.core.indexStructures.LogStructuredMergeBPlusTree.LSMMeta;
 import xxl.core.indexStructures.Separator;
 import xxl.core.indexStructures.separators.ComparableKeyRange;
 import xxl.core.indexStructures.separators.ComparableSeparator;
+import xxl.core.io.Buffer;
 import xxl.core.io.LRUBuffer;
 import xxl.core.io.converters.MeasuredConverter;
 import xxl.core.util.Pair;
@@ -27,9 +29,12 @@ import xxl.core.util.WrappingRuntimeException;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiFunction;
 
 /**
@@ -52,6 +57,11 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
     private final MeasuredConverter<K> keyConverter;
     private final String attributeName;
     private final int blockSize;
+    /**
+     * The buffer of decoded nodes shared with other trees, null to use a private LRU buffer per level
+     */
+    @SuppressWarnings("rawtypes")
+    private final Buffer nodeBuffer;
     /**
      * The secondary index
      */
@@ -83,13 +93,29 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
         this(databasePath, schema, attribute, blockSize, false);
     }
 
-    @SuppressWarnings("unchecked")
     public LSMTimeIndex(
             Path databasePath,
             EventSchema schema,
             String attribute,
             final int blockSize,
             final boolean directIO) {
+        this(databasePath, schema, attribute, blockSize, directIO, null);
+    }
+
+    /**
+     * Creates a new secondary index, whose levels keep their nodes in the given buffer.
+     *
+     * @param nodeBuffer the buffer of decoded nodes shared with other trees, null to use a private
+     *                   LRU buffer per level
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LSMTimeIndex(
+            Path databasePath,
+            EventSchema schema,
+            String attribute,
+            final int blockSize,
+            final boolean directIO,
+            final Buffer nodeBuffer) {
 
 
         this.column = schema.getAttributeIndex(attribute);
@@ -97,6 +123,7 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
         this.path = databasePath.resolve("lsm_column_" + column);
         this.keyConverter = (MeasuredConverter) SchemaManager.getObjectConverter(schema.byName(attribute));
         this.blockSize = blockSize;
+        this.nodeBuffer = nodeBuffer;
         MeasuredConverter<EventID> eventIdConverter = EventID.getConverter();
 
         java.util.function.Function<K, Separator> separatorGenerator = new java.util.function.Function<K, Separator>() {
@@ -167,6 +194,7 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
             System.out.println("Loading LSM Index");
             try {
                 LSMMeta<K> meta = LSMMeta.load(path, keyConverter);
+                deleteUnusedLevels(meta);
                 lsm = new LogStructuredMergeBPlusTree<>(meta, containerLoader, containerFactory, bPlusTreeConfigurationFactory, (long) Math.pow(2, SecondaryIndexParams.COLA_CHACHE_SIZE));
             } catch (IOException e) {
                 throw new DBRuntimeException("Could not load LSM state.", e);
@@ -181,6 +209,11 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
             }
 
         }
+        lsm.setMergePolicy(SecondaryIndexParams.LSM_MERGE_POLICY);
+        lsm.setLevelSizeRatio(SecondaryIndexParams.LSM_LEVEL_SIZE_RATIO);
+        lsm.setCompactionRate(SecondaryIndexParams.LSM_COMPACTION_RATE);
+        lsm.setBloomFilterBitsPerKey(SecondaryIndexParams.BLOOM_FILTER_BITS_PER_KEY);
+        lsm.setBackgroundCompaction(SecondaryIndexParams.LSM_BACKGROUND_COMPACTION);
     }
 
     /**
@@ -192,7 +225,8 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
 
         for (int i = 1; i <= lsm.getMaxLevel(); i++) {
             if (lsm.levelExists(i)) {
-                double numEvents = lsm.getLevel0Size() * Math.pow(2, i - 1);
+                long entryCount = lsm.getEntryCount(i);
+                double numEvents = entryCount >= 0 ? entryCount : lsm.getLevel0Size() * Math.pow(2, i - 1);
                 totalLeaves += Math.ceil(numEvents / lsm.getNumberOfLeafEntries());
             }
         }
@@ -214,13 +248,13 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
             @Override
             public Container apply(BPlusTree.NodeConverter converter, Integer number) {
                 try {
-                    return new BufferedContainer(
-                            new ConverterContainer(
-                                    new FCBlockFileContainer(path, "level_" + number, blockSize, directIO),
-                                    converter
-                            ),
-                            new LRUBuffer(bufferSize)
+                    Container level = new ConverterContainer(
+                            new FCBlockFileContainer(path, "level_" + number, blockSize, directIO),
+                            converter
                     );
+                    if (nodeBuffer != null)
+                        return new CachingContainer(level, nodeBuffer, blockSize);
+                    return new BufferedContainer(level, new LRUBuffer(bufferSize));
                 } catch (IOException e) {
                     throw new WrappingRuntimeException(e);
                 }
@@ -235,13 +269,13 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
             @Override
             public Container apply(BPlusTree.NodeConverter converter, Integer number) {
                 try {
-                    return new BufferedContainer(
-                            new ConverterContainer(
-                                    new FCBlockFileContainer(path, "level_" + number, directIO),
-                                    converter
-                            ),
-                            new LRUBuffer(bufferSize)
+                    Container level = new ConverterContainer(
+                            new FCBlockFileContainer(path, "level_" + number, directIO),
+                            converter
                     );
+                    if (nodeBuffer != null)
+                        return new CachingContainer(level, nodeBuffer, blockSize);
+                    return new BufferedContainer(level, new LRUBuffer(bufferSize));
                 } catch (IOException e) {
                     throw new WrappingRuntimeException(e);
                 }
@@ -258,25 +292,88 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
         LSMMeta<K> meta = lsm.close();
         try {
             meta.write(path, keyConverter);
+            deleteUnusedLevels(meta);
         } catch (IOException e) {
             throw new DBRuntimeException("Could not persists LSM state.", e);
         }
     }
 
+    /**
+     * Deletes the files of all level containers not referenced by the given meta data, i.e., of
+     * levels replaced by merges or written after the meta data was persisted.
+     *
+     * @param meta the persisted meta data
+     * @throws IOException if a file could not be deleted
+     */
+    private void deleteUnusedLevels(LSMMeta<K> meta) throws IOException {
+        final Set<Integer> used = meta.getRunIds();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "level_*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int end = name.indexOf('.');
+                try {
+                    if (end > 0 && !used.contains(Integer.parseInt(name.substring("level_".length(), end))))
+                        Files.delete(file);
+                } catch (NumberFormatException e) {
+                    // Not a level container
+                }
+            }
+        }
+    }
+
     /**
      * @{inheritDoc}
      */
     @Override
     public Cursor<Pair<K, EventID>> rangeQueryID(K minKey, K maxKey) {
-        return Cursors.wrap(lsm.query(minKey, maxKey));
+        final LogStructuredMergeBPlusTree<K, Pair<K, EventID>>.Snapshot snapshot = lsm.snapshot();
+        return new SnapshotCursor<>(snapshot.query(minKey, maxKey), snapshot);
+    }
+
+    /**
+     * Scans the leaves of the levels of a snapshot directly, appending the ids to the batch
+     * without merging the levels by key. The index holds no deletions.
+     */
+    @Override
+    public EventIDBatch rangeQueryIDBatch(K minKey, K maxKey) {
+        final EventIDBatch result = new EventIDBatch();
+        lsm.scan(minKey, maxKey, entry -> result.add(entry.getElement2()));
+        return result;
+    }
+
+    /**
+     * Pins the levels of the LSM tree and freezes its in-memory level, so inserts do not affect
+     * the snapshot's queries.
+     */
+    @Override
+    public Snapshot<K> snapshot() {
+        final LogStructuredMergeBPlusTree<K, Pair<K, EventID>>.Snapshot snapshot = lsm.snapshot();
+        return new Snapshot<K>() {
+            @Override
+            public Cursor<Pair<K, EventID>> rangeQueryID(K minKey, K maxKey) {
+                return new SnapshotCursor<>(snapshot.query(minKey, maxKey), null);
+            }
+
+            @Override
+            public EventIDBatch rangeQueryIDBatch(K minKey, K maxKey) {
+                final EventIDBatch result = new EventIDBatch();
+                snapshot.scan(minKey, maxKey, entry -> result.add(entry.getElement2()));
+                return result;
+            }
+
+            @Override
+            public void close() {
+                snapshot.close();
+            }
+        };
     }
 
 
     @SuppressWarnings("unchecked")
     @Override
-    public void insertEvent(Event event, TID tid, long sequenceId) {
+    public void insertEvent(Event event, TID tid, int rank, long sequenceId) {
         K value = (K) event.get(column);
-        lsm.insert(new Pair<>(value, new EventID(tid.getBlockId(), tid.getOffset(), event.getT1(), sequenceId)));
+        lsm.insert(new Pair<>(value, new EventID(tid.getBlockId(), tid.getOffset(), event.getT1(), rank, sequenceId)));
     }
 
     @Override
@@ -314,6 +411,46 @@ public class LSMTimeIndex<K extends Comparable<K>> implements SecondaryTimeIndex
         return attributeName;
     }
 
+    /**
+     * Returns the results of a query on a snapshot of the LSM tree. Inserts do not affect the
+     * results.
+     */
+    private static class SnapshotCursor<K extends Comparable<K>> extends AbstractCursor<Pair<K, EventID>> {
+
+        private final Iterator<Pair<K, EventID>> results;
+
+        /** The snapshot closed along with the cursor or once it is exhausted, null if none */
+        private final LogStructuredMergeBPlusTree<K, Pair<K, EventID>>.Snapshot snapshot;
+
+        SnapshotCursor(Iterator<Pair<K, EventID>> results, LogStructuredMergeBPlusTree<K, Pair<K, EventID>>.Snapshot snapshot) {
+            this.results = results;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void close() {
+            if (isClosed)
+                return;
+            super.close();
+            if (snapshot != null)
+                snapshot.close();
+        }
+
+        @Override
+        protected boolean hasNextObject() {
+            if (results.hasNext())
+                return true;
+            if (snapshot != null)
+                snapshot.close();
+            return false;
+        }
+
+        @Override
+        protected Pair<K, EventID> nextObject() {
+            return results.next();
+        }
+    }
+
     /**
      * Function wrapper
      */
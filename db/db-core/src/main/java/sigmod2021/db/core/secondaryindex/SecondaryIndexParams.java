@@ -1,5 +1,7 @@
 package sigmod2021.db.core.secondaryindex;
 
+import xxl.core.indexStructures.LogStructuredMergeBPlusTree;
+
 public class SecondaryIndexParams {
 
     // ================= Secondary index constants ====================
@@ -10,6 +12,13 @@ public class SecondaryIndexParams {
      */
     public static int SORT_MEMORY = 10 * 1024 * 1024;
 
+    /**
+     * Number of sorted event ids looked ahead during queries on the secondary
+     * index, whose leaves are read in advance by a single coalesced request to
+     * the primary index's container. 0 disables the read-ahead.
+     */
+    public static int PREFETCH_EVENTS = 4096;
+
     /**
      * Number of levels in cache.
      * E.g. 16 levels with 8 byte key and 12 byte TID
@@ -22,6 +31,38 @@ public class SecondaryIndexParams {
      */
     public static int BLOOM_FILTER_SIZE = 256;
 
+    /**
+     * Number of bits per entry in the bloom filter of an LSM level, 0 to disable
+     * the filters. 10 bits result in about 1% false positives.
+     */
+    public static int BLOOM_FILTER_BITS_PER_KEY = 10;
+
+    /**
+     * Number of pending updates per secondary index, before inserts into the
+     * primary index block
+     */
+    public static int UPDATE_QUEUE_SIZE = 1024;
+
+    /**
+     * Merge full LSM levels in a background thread instead of the inserting one
+     */
+    public static boolean LSM_BACKGROUND_COMPACTION = true;
+
+    /**
+     * The policy selecting the LSM levels to merge
+     */
+    public static LogStructuredMergeBPlusTree.MergePolicy LSM_MERGE_POLICY = LogStructuredMergeBPlusTree.MergePolicy.TIERED;
+
+    /**
+     * Ratio between the capacities of consecutive LSM levels under the leveled merge policy
+     */
+    public static int LSM_LEVEL_SIZE_RATIO = 10;
+
+    /**
+     * Maximum number of entries written per second by an LSM merge, 0 for no limit
+     */
+    public static long LSM_COMPACTION_RATE = 0L;
+
     /**
      * Index for living events enabled
      */
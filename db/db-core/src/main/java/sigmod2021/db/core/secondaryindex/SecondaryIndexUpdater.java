@@ -0,0 +1,286 @@
+package sigmod2021.db.core.secondaryindex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sigmod2021.db.DBRuntimeException;
+import sigmod2021.db.event.TID;
+import sigmod2021.db.event.TIDBatch;
+import sigmod2021.event.Event;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains a single {@link SecondaryTimeIndex} asynchronously. Updates are
+ * queued in a bounded queue and applied by a dedicated worker thread. If the
+ * queue is full, submitting blocks until the worker catches up. Updates are
+ * submitted by a single thread.
+ * <p>
+ * Each submitted update gets a ticket, counting the submitted updates, and
+ * the worker counts the applied ones. Since updates are applied in order,
+ * waiting for the applied count to reach a ticket waits for all updates
+ * submitted up to it. Out-of-order events are submitted once located in the
+ * primary index, i.e., behind events with higher sequence ids, so sequence
+ * ids do not tell which updates were applied.
+ * <p>
+ * A query takes a {@link #snapshot()} of the index when it starts, so the
+ * worker keeps applying updates while the query is open.
+ */
+public class SecondaryIndexUpdater {
+
+    /** The logger */
+    private static final Logger log = LoggerFactory.getLogger(SecondaryIndexUpdater.class);
+
+    /** Signals the worker to terminate */
+    private static final Update SHUTDOWN = index -> {
+    };
+
+    /** The maintained index */
+    private final SecondaryTimeIndex<?> index;
+
+    /** The pending updates */
+    private final BlockingQueue<Update> queue;
+
+    /** The worker applying the updates */
+    private final Thread worker;
+
+    /** Guards waiting for applied updates */
+    private final Object monitor = new Object();
+
+    /** The number of submitted updates, i.e., the ticket of the last one. Only modified by the submitting thread. */
+    private volatile long submitted;
+
+    /** The number of applied updates. Only modified by the worker. */
+    private volatile long applied;
+
+    /** The highest sequence id submitted. Only modified by the submitting thread. */
+    private volatile long highestSubmitted = -1L;
+
+    /**
+     * The lowest sequence ids of the updates not known to be applied, as
+     * suffix minima: each entry holds the lowest sequence id of its update
+     * and all later ones, so the first entry is the lowest pending one.
+     * Guarded by itself.
+     */
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    /** The failure of the worker, if any */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a new updater and starts its worker.
+     *
+     * @param index     the index to maintain
+     * @param queueSize the maximum number of pending updates
+     */
+    public SecondaryIndexUpdater(final SecondaryTimeIndex<?> index, final int queueSize) {
+        this.index = index;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.worker = new Thread(this::work, "secondary-index-" + index.getAttributeName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @return the maintained index
+     */
+    public SecondaryTimeIndex<?> getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Queues the insertion of a single event.
+     *
+     * @param event      the event
+     * @param tid        the event's location
+     * @param rank       the number of events with the same timestamp preceding the event
+     * @param sequenceId the event's sequence id
+     */
+    public void submit(final Event event, final TID tid, final int rank, final long sequenceId) {
+        enqueue(index -> index.insertEvent(event, tid, rank, sequenceId), sequenceId, sequenceId);
+    }
+
+    /**
+     * Queues the insertion of a batch of events. Events with an unknown
+     * location are skipped. The given arrays must not be modified afterwards.
+     *
+     * @param events          the events
+     * @param tids            the events' locations
+     * @param ranks           the number of events with the same timestamp preceding each event
+     * @param firstSequenceId the sequence id of the first event
+     */
+    public void submit(final Event[] events, final TIDBatch tids, final int[] ranks, final long firstSequenceId) {
+        if (events.length == 0)
+            return;
+        enqueue(index -> {
+            for (int i = 0; i < events.length; i++) {
+                if (tids.isKnown(i))
+                    index.insertEvent(events[i], tids.get(i), ranks[i], firstSequenceId + i);
+            }
+        }, firstSequenceId, firstSequenceId + events.length - 1);
+    }
+
+    /**
+     * Returns the visibility watermark. All events with a sequence id up to
+     * the watermark were applied to the index, except out-of-order events
+     * not submitted yet.
+     *
+     * @return the highest sequence id visible to queries on the index
+     */
+    public long getWatermark() {
+        final long done = this.applied;
+        synchronized (this.pending) {
+            while (!this.pending.isEmpty() && this.pending.peekFirst().ticket <= done)
+                this.pending.pollFirst();
+            return this.pending.isEmpty() ? this.highestSubmitted : this.pending.peekFirst().sequenceId - 1;
+        }
+    }
+
+    /**
+     * Blocks until the update with the given ticket and all updates submitted
+     * before it were applied.
+     *
+     * @param ticket the ticket to wait for
+     */
+    private void awaitApplied(final long ticket) {
+        synchronized (this.monitor) {
+            while (this.applied < ticket) {
+                checkFailure();
+                try {
+                    this.monitor.wait(100L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DBRuntimeException("Interrupted while waiting for secondary index " +
+                            this.index.getAttributeName(), e);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Blocks until all submitted updates were applied.
+     */
+    public void sync() {
+        awaitApplied(this.submitted);
+    }
+
+    /**
+     * Blocks until all submitted updates were applied and takes a snapshot
+     * of the index. Updates applied afterwards are not visible to the
+     * snapshot, and the worker does not wait for the snapshot to be closed.
+     *
+     * @return the snapshot, to be closed once the query finished
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public SecondaryTimeIndex.Snapshot snapshot() {
+        sync();
+        return ((SecondaryTimeIndex) this.index).snapshot();
+    }
+
+    /**
+     * Applies all pending updates and stops the worker. The index itself is
+     * not closed.
+     */
+    public void close() {
+        if (!this.worker.isAlive())
+            return;
+        // Updates are applied in order, so the worker drains the queue first
+        offer(SHUTDOWN);
+        try {
+            this.worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Queues the given update and assigns the next ticket to it.
+     *
+     * @param update         the update
+     * @param lowSequenceId  the lowest sequence id covered by the update
+     * @param highSequenceId the highest sequence id covered by the update
+     */
+    private void enqueue(final Update update, final long lowSequenceId, final long highSequenceId) {
+        offer(update);
+        final long ticket = this.submitted + 1;
+        synchronized (this.pending) {
+            while (!this.pending.isEmpty() && this.pending.peekLast().sequenceId >= lowSequenceId)
+                this.pending.pollLast();
+            this.pending.addLast(new Pending(ticket, lowSequenceId));
+            this.highestSubmitted = Math.max(this.highestSubmitted, highSequenceId);
+        }
+        this.submitted = ticket;
+    }
+
+    private void offer(final Update update) {
+        try {
+            while (!this.queue.offer(update, 100L, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBRuntimeException("Interrupted while updating secondary index " +
+                    this.index.getAttributeName(), e);
+        }
+    }
+
+    private void checkFailure() {
+        if (this.failure != null)
+            throw new DBRuntimeException("Updating secondary index " + this.index.getAttributeName() + " failed.",
+                    this.failure);
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                final Update u = this.queue.take();
+                if (u == SHUTDOWN)
+                    return;
+                u.apply(this.index);
+                synchronized (this.monitor) {
+                    this.applied++;
+                    this.monitor.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Worker for secondary index {} interrupted.", this.index.getAttributeName());
+        } catch (Throwable t) {
+            log.error("Worker for secondary index {} failed.", this.index.getAttributeName(), t);
+            this.failure = t;
+        }
+    }
+
+    /**
+     * A pending update
+     */
+    @FunctionalInterface
+    private interface Update {
+
+        /**
+         * Applies this update to the given index.
+         *
+         * @param index the index
+         */
+        void apply(SecondaryTimeIndex<?> index);
+    }
+
+    /**
+     * A pending update, given by its ticket and the lowest sequence id of it
+     * and all later updates
+     */
+    private static class Pending {
+
+        private final long ticket;
+
+        private final long sequenceId;
+
+        Pending(long ticket, long sequenceId) {
+            this.ticket = ticket;
+            this.sequenceId = sequenceId;
+        }
+    }
+}
@@ -66,6 +66,40 @@ public interface SecondaryTimeIndex<K extends Comparable<K>> {
      */
     Cursor<Pair<K, EventID>> rangeQueryID(K minKey, K maxKey);
 
+    /**
+     * Like {@link #rangeQueryID(Comparable, Comparable)}, but collects the
+     * event ids of the results into a batch of primitive arrays. The order of
+     * the ids is unspecified, callers sort the batch as needed.
+     *
+     * @param minKey the minimum key of the requested events
+     * @param maxKey the maximum key of the requested events
+     * @return the event ids of the query results
+     */
+    default EventIDBatch rangeQueryIDBatch(K minKey, K maxKey) {
+        return EventIDBatch.read(rangeQueryID(minKey, maxKey));
+    }
+
+    /**
+     * Takes a snapshot of this index, whose queries are not affected by
+     * subsequent inserts. By default, the snapshot reads the index itself.
+     *
+     * @return the snapshot, to be closed once its queries finished
+     */
+    default Snapshot<K> snapshot() {
+        final SecondaryTimeIndex<K> index = this;
+        return new Snapshot<K>() {
+            @Override
+            public Cursor<Pair<K, EventID>> rangeQueryID(K minKey, K maxKey) {
+                return index.rangeQueryID(minKey, maxKey);
+            }
+
+            @Override
+            public EventIDBatch rangeQueryIDBatch(K minKey, K maxKey) {
+                return index.rangeQueryIDBatch(minKey, maxKey);
+            }
+        };
+    }
+
 
     /**
      * Inserts a new event in this index structure.
@@ -73,10 +107,12 @@ public interface SecondaryTimeIndex<K extends Comparable<K>> {
      * event in the underlying container and of the offset
      * within the block.
      *
-     * @param event the event to be inserted
-     * @param tid   the location in the underlying container
+     * @param event      the event to be inserted
+     * @param tid        the location in the underlying container
+     * @param rank       the number of events with the same timestamp preceding the event
+     * @param sequenceId the position of the event in the stream
      */
-    void insertEvent(Event event, TID tid, long sequenceId);
+    void insertEvent(Event event, TID tid, int rank, long sequenceId);
 
     /**
      * Discards all events prior to the given time stamp.
@@ -102,4 +138,31 @@ public interface SecondaryTimeIndex<K extends Comparable<K>> {
      */
     double estimateIO(double selectivity);
 
+    /**
+     * A read-only view of a secondary index.
+     *
+     * @see SecondaryTimeIndex#snapshot()
+     */
+    @FunctionalInterface
+    interface Snapshot<K extends Comparable<K>> extends AutoCloseable {
+
+        /**
+         * @see SecondaryTimeIndex#rangeQueryID(Comparable, Comparable)
+         */
+        Cursor<Pair<K, EventID>> rangeQueryID(K minKey, K maxKey);
+
+        /**
+         * @see SecondaryTimeIndex#rangeQueryIDBatch(Comparable, Comparable)
+         */
+        default EventIDBatch rangeQueryIDBatch(K minKey, K maxKey) {
+            return EventIDBatch.read(rangeQueryID(minKey, maxKey));
+        }
+
+        /**
+         * Releases the resources held by this snapshot.
+         */
+        @Override
+        default void close() {
+        }
+    }
 }
@@ -5,11 +5,13 @@ import sigmod2021.db.event.TID;
 import sigmod2021.event.Event;
 import xxl.core.cursors.AbstractCursor;
 import xxl.core.cursors.Cursor;
+import xxl.core.collections.containers.io.SuspendableContainer;
 import xxl.core.indexStructures.BPlusLink;
 import xxl.core.indexStructures.BPlusTree;
 import xxl.core.util.Pair;
 
-import java.util.*;
+import java.util.NoSuchElementException;
+import java.util.function.LongFunction;
 
 /**
  *
@@ -18,7 +20,11 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
 
     private final BPlusTree tree;
 
-    private final SecondaryTimeIndex<K> index;
+    /** The index or the snapshot of it queried */
+    private final SecondaryTimeIndex.Snapshot<K> index;
+
+    /** Returns the events of the primary index with the given timestamp, null if the locations are not verified */
+    private final LongFunction<Cursor<PersistentEvent>> eventsAt;
 
     /**
      * Creates a new SecondaryTimeIndexWrapper instance
@@ -27,8 +33,28 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
      * @param index
      */
     public SecondaryTimeIndexWrapper(BPlusTree tree, SecondaryTimeIndex<K> index) {
+        this(tree, index::rangeQueryID, null);
+    }
+
+    /**
+     * Creates a new SecondaryTimeIndexWrapper instance, which verifies the
+     * locations stored in the index. Out-of-order inserts into the primary
+     * index shift events within their leaves or move them to new leaves, so a
+     * stored location may be outdated. An event is identified by its
+     * timestamp and its rank among the events with this timestamp, see
+     * {@link EventID}. The event at the stored location is returned if it is
+     * preceded by exactly rank events with its timestamp within its leaf.
+     * Otherwise, the event is looked up among the events with its timestamp.
+     *
+     * @param tree
+     * @param snapshot the snapshot of the index queried
+     * @param eventsAt returns the events of the primary index with the given timestamp
+     */
+    public SecondaryTimeIndexWrapper(BPlusTree tree, SecondaryTimeIndex.Snapshot<K> snapshot,
+                                     LongFunction<Cursor<PersistentEvent>> eventsAt) {
         this.tree = tree;
-        this.index = index;
+        this.index = snapshot;
+        this.eventsAt = eventsAt;
     }
 
     /**
@@ -63,17 +89,76 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
         return new SICursor(index.rangeQueryID(minKey, maxKey));
     }
 
+    /**
+     * Returns the indexed event found at the given location, or looks it up
+     * by its timestamp and rank if the location is outdated.
+     *
+     * @param node      the leaf at the stored location
+     * @param blockId   the block of the stored location
+     * @param offset    the offset of the stored location
+     * @param timestamp the indexed timestamp
+     * @param rank      the number of events with the indexed timestamp preceding the event
+     * @return the indexed event
+     */
+    private PersistentEvent resolve(BPlusLink.Node node, long blockId, int offset, long timestamp, int rank) {
+        final int first = offset - rank;
+        if (eventsAt == null)
+            return new PersistentEvent(new TID(blockId, offset), offset < node.number() ? (Event) node.getEntry(offset) : null);
+        // The event preceding the run of equal timestamps must be in the same leaf to verify the rank
+        if (first > 0 && offset < node.number() && timestamp(node, offset) == timestamp
+                && timestamp(node, first) == timestamp && timestamp(node, first - 1) < timestamp)
+            return new PersistentEvent(new TID(blockId, offset), (Event) node.getEntry(offset));
+
+        final Cursor<PersistentEvent> candidates = eventsAt.apply(timestamp);
+        try {
+            for (int i = 0; candidates.hasNext(); i++) {
+                final PersistentEvent candidate = candidates.next();
+                if (i == rank)
+                    return candidate;
+            }
+        } finally {
+            candidates.close();
+        }
+        throw new IllegalStateException("Indexed event with timestamp " + timestamp + " and rank " + rank + " not found");
+    }
+
+    private static long timestamp(BPlusLink.Node node, int offset) {
+        return ((Event) node.getEntry(offset)).getT1();
+    }
+
     /*
      *
      * Inner cursors
      *
      */
 
+    /**
+     * Returns the events in the order of their sequence ids. The ids are
+     * sorted with the memory given by {@link SecondaryIndexParams#SORT_MEMORY},
+     * spilling to disk if necessary. Consecutive ids located in the same leaf
+     * are served by a single container access. The leaves of the next
+     * {@link SecondaryIndexParams#PREFETCH_EVENTS} ids are announced to the
+     * container in advance, so it can combine their reads.
+     */
     private class SICursorOrdered extends AbstractCursor<PersistentEvent> {
 
         private final Cursor<Pair<K, EventID>> indexCursor;
 
-        private Iterator<EventID> ordered;
+        private SortedEventIDs ordered;
+
+        private boolean available;
+
+        private final int prefetchEvents = SecondaryIndexParams.PREFETCH_EVENTS;
+
+        /** The ids taken from the sorted ones, whose leaves were announced */
+        private final EventIDBatch window = new EventIDBatch(prefetchEvents);
+
+        private int position;
+
+        /** The leaf of the previous event */
+        private BPlusLink.Node node;
+
+        private long nodeId;
 
         /**
          * Creates a new SICursor instance
@@ -93,13 +178,47 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
                 return;
 
             super.open();
-            List<EventID> idList = new ArrayList<>();
-            indexCursor.open();
-            while (indexCursor.hasNext())
-                idList.add(indexCursor.next().getElement2());
-            indexCursor.close();
-            Collections.sort(idList);
-            this.ordered = idList.iterator();
+            this.ordered = new SortedEventIDs(indexCursor, SecondaryIndexParams.SORT_MEMORY);
+            this.available = ordered.advance();
+            if (prefetchEvents > 0)
+                fillWindow();
+        }
+
+        /**
+         * Takes the next ids from the sorted ones and announces their leaves.
+         */
+        private void fillWindow() {
+            window.clear();
+            position = 0;
+            while (available && window.size() < prefetchEvents) {
+                window.add(ordered.getSequenceId(), ordered.getTimestamp(), ordered.getRank(), ordered.getBlockId(),
+                        ordered.getOffset());
+                available = ordered.advance();
+            }
+            if (window.size() == 0 || !(tree.container() instanceof SuspendableContainer))
+                return;
+
+            final long[] leaves = new long[window.size()];
+            int count = 0;
+            for (int i = 0; i < window.size(); i++) {
+                final long blockId = window.getBlockId(i);
+                if ((node == null || blockId != nodeId) && (count == 0 || leaves[count - 1] != blockId))
+                    leaves[count++] = blockId;
+            }
+            ((SuspendableContainer) tree.container()).prefetch(leaves, count);
+        }
+
+        /**
+         * @{inheritDoc}
+         */
+        @Override
+        public void close() {
+            if (isClosed)
+                return;
+            super.close();
+            if (ordered != null)
+                ordered.close();
+            node = null;
         }
 
         /**
@@ -107,7 +226,7 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
          */
         @Override
         public boolean hasNextObject() throws IllegalStateException {
-            return ordered.hasNext();
+            return position < window.size() || available;
         }
 
         /**
@@ -115,10 +234,30 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
          */
         @Override
         public PersistentEvent nextObject() throws IllegalStateException, NoSuchElementException {
-            EventID id = ordered.next();
-            BPlusLink.Node node = (BPlusLink.Node) tree.container().get(id.getBlockId(), true);
-            Event e = (Event) node.getEntry(id.getOffset());
-            return new PersistentEvent(new TID(id.getBlockId(), id.getOffset()), e);
+            final long blockId;
+            final int offset;
+            final long timestamp;
+            final int rank;
+            if (prefetchEvents > 0) {
+                if (position == window.size())
+                    fillWindow();
+                blockId = window.getBlockId(position);
+                offset = window.getOffset(position);
+                timestamp = window.getTimestamp(position);
+                rank = window.getRank(position);
+                position++;
+            } else {
+                blockId = ordered.getBlockId();
+                offset = ordered.getOffset();
+                timestamp = ordered.getTimestamp();
+                rank = ordered.getRank();
+                available = ordered.advance();
+            }
+            if (node == null || nodeId != blockId) {
+                node = (BPlusLink.Node) tree.container().get(blockId, true);
+                nodeId = blockId;
+            }
+            return resolve(node, blockId, offset, timestamp, rank);
         }
     }
 
@@ -172,9 +311,7 @@ public class SecondaryTimeIndexWrapper<K extends Comparable<K>> {
         public PersistentEvent nextObject() throws IllegalStateException, NoSuchElementException {
             EventID id = indexCursor.next().getElement2();
             BPlusLink.Node node = (BPlusLink.Node) tree.container().get(id.getBlockId(), true);
-
-            Event e = (Event) node.getEntry(id.getOffset());
-            return new PersistentEvent(new TID(id.getBlockId(), id.getOffset()), e);
+            return resolve(node, id.getBlockId(), id.getOffset(), id.getTimestamp(), id.getRank());
         }
     }
 }
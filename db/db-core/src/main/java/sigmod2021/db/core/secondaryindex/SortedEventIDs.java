@@ -0,0 +1,303 @@
+package sigmod2021.db.core.secondaryindex;
+
+import sigmod2021.db.DBRuntimeException;
+import xxl.core.cursors.Cursor;
+import xxl.core.util.Pair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the event ids of a secondary index query by sequence id with bounded
+ * memory. The ids are collected into runs, each fitting into the given amount
+ * of memory. Every run is sorted in place; if there is more than one, all but
+ * the last are spilled to temporary files. At most {@link #MAX_FAN_IN} runs
+ * are merged at once, since every spilled run being merged holds an open
+ * file and its buffer. If there are more, groups of spilled runs are merged
+ * into intermediate runs first, in as many passes as needed. The sorted ids
+ * are then produced incrementally by merging the remaining runs.
+ * <p>
+ * The current id is accessed by primitive getters after a successful
+ * {@link #advance()}.
+ */
+class SortedEventIDs implements AutoCloseable {
+
+    /** The size of an event id in a run file */
+    private static final int ENTRY_SIZE = EventID.getConverter().getMaxObjectSize();
+
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /** The maximum number of runs merged at once */
+    static final int MAX_FAN_IN = 64;
+
+    private final List<Path> files = new ArrayList<>();
+
+    private final PriorityQueue<Run> runs = new PriorityQueue<>((a, b) -> Long.compare(a.sequenceId, b.sequenceId));
+
+    private Run current;
+
+    /**
+     * Reads and sorts the given query result. The cursor is opened and closed
+     * by this constructor.
+     *
+     * @param queryResult the result of a secondary index query
+     * @param memory      the memory available for sorting, in bytes
+     */
+    SortedEventIDs(Cursor<? extends Pair<?, EventID>> queryResult, int memory) {
+        final int capacity = Math.max(1, memory / ENTRY_SIZE);
+        final List<Run> sources = new ArrayList<>();
+        List<Path> spilled = new ArrayList<>();
+        EventIDBatch batch = new EventIDBatch(Math.min(capacity, 1024));
+        queryResult.open();
+        try {
+            while (queryResult.hasNext()) {
+                if (batch.size() == capacity) {
+                    batch.sortBySequenceId();
+                    spilled.add(spill(batch));
+                    batch = new EventIDBatch(Math.min(capacity, 1024));
+                }
+                batch.add(queryResult.next().getElement2());
+            }
+            batch.sortBySequenceId();
+            // The in-memory run takes one slot of the final merge
+            while (spilled.size() > MAX_FAN_IN - 1)
+                spilled = mergePass(spilled);
+            for (Path file : spilled)
+                sources.add(new FileRun(file));
+            sources.add(new BatchRun(batch));
+        } catch (IOException e) {
+            for (Run r : sources)
+                r.close();
+            close();
+            throw new DBRuntimeException("Could not read sorted event ids.", e);
+        } catch (RuntimeException e) {
+            for (Run r : sources)
+                r.close();
+            close();
+            throw e;
+        } finally {
+            queryResult.close();
+        }
+        for (Run r : sources) {
+            if (r.advance())
+                runs.add(r);
+        }
+    }
+
+    private Path spill(EventIDBatch batch) {
+        try {
+            final Path file = createRunFile();
+            try (DataOutputStream out = openRunFile(file)) {
+                for (int i = 0; i < batch.size(); i++)
+                    write(out, batch.getSequenceId(i), batch.getTimestamp(i), batch.getRank(i), batch.getBlockId(i),
+                            batch.getOffset(i));
+            }
+            return file;
+        } catch (IOException e) {
+            close();
+            throw new DBRuntimeException("Could not spill sorted event ids.", e);
+        }
+    }
+
+    /**
+     * Merges each group of {@link #MAX_FAN_IN} consecutive runs into a new
+     * run, deleting the merged runs.
+     *
+     * @param sources the spilled runs
+     * @return the runs after the pass
+     */
+    private List<Path> mergePass(List<Path> sources) throws IOException {
+        final List<Path> result = new ArrayList<>((sources.size() + MAX_FAN_IN - 1) / MAX_FAN_IN);
+        for (int i = 0; i < sources.size(); i += MAX_FAN_IN) {
+            final List<Path> group = sources.subList(i, Math.min(sources.size(), i + MAX_FAN_IN));
+            result.add(group.size() == 1 ? group.get(0) : merge(group));
+        }
+        return result;
+    }
+
+    private Path merge(List<Path> group) throws IOException {
+        final PriorityQueue<Run> heap = new PriorityQueue<>(group.size(), (a, b) -> Long.compare(a.sequenceId, b.sequenceId));
+        final List<Run> inputs = new ArrayList<>(group.size());
+        try {
+            for (Path file : group) {
+                final Run r = new FileRun(file);
+                inputs.add(r);
+                if (r.advance())
+                    heap.add(r);
+            }
+            final Path file = createRunFile();
+            try (DataOutputStream out = openRunFile(file)) {
+                while (!heap.isEmpty()) {
+                    final Run r = heap.poll();
+                    write(out, r.sequenceId, r.timestamp, r.rank, r.blockId, r.offset);
+                    if (r.advance())
+                        heap.add(r);
+                }
+            }
+            return file;
+        } finally {
+            for (Run r : inputs)
+                r.close();
+            for (Path file : group) {
+                Files.deleteIfExists(file);
+                files.remove(file);
+            }
+        }
+    }
+
+    private Path createRunFile() throws IOException {
+        final Path file = Files.createTempFile("si-sort", ".run");
+        files.add(file);
+        return file;
+    }
+
+    private static DataOutputStream openRunFile(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), FILE_BUFFER_SIZE));
+    }
+
+    private static void write(DataOutputStream out, long sequenceId, long timestamp, int rank, long blockId,
+                              int offset) throws IOException {
+        out.writeLong(sequenceId);
+        out.writeLong(timestamp);
+        out.writeInt(rank);
+        out.writeLong(blockId);
+        out.writeInt(offset);
+    }
+
+    /**
+     * Moves to the event id with the next smallest sequence id.
+     *
+     * @return false if all ids were produced
+     */
+    boolean advance() {
+        if (current != null && current.advance())
+            runs.add(current);
+        current = runs.poll();
+        return current != null;
+    }
+
+    long getSequenceId() {
+        return current.sequenceId;
+    }
+
+    long getTimestamp() {
+        return current.timestamp;
+    }
+
+    int getRank() {
+        return current.rank;
+    }
+
+    long getBlockId() {
+        return current.blockId;
+    }
+
+    int getOffset() {
+        return current.offset;
+    }
+
+    /**
+     * Releases the run files.
+     */
+    @Override
+    public void close() {
+        for (Run r : runs)
+            r.close();
+        if (current != null)
+            current.close();
+        runs.clear();
+        current = null;
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Deleted on a best-effort basis
+            }
+        }
+        files.clear();
+    }
+
+    /**
+     * A sorted run, positioned at its current event id.
+     */
+    private abstract static class Run {
+
+        long sequenceId;
+        long timestamp;
+        int rank;
+        long blockId;
+        int offset;
+
+        abstract boolean advance();
+
+        void close() {
+        }
+    }
+
+    private static class BatchRun extends Run {
+
+        private final EventIDBatch batch;
+
+        private int position = -1;
+
+        BatchRun(EventIDBatch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        boolean advance() {
+            if (++position >= batch.size())
+                return false;
+            sequenceId = batch.getSequenceId(position);
+            timestamp = batch.getTimestamp(position);
+            rank = batch.getRank(position);
+            blockId = batch.getBlockId(position);
+            offset = batch.getOffset(position);
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run {
+
+        private final DataInputStream in;
+
+        FileRun(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), FILE_BUFFER_SIZE));
+        }
+
+        @Override
+        boolean advance() {
+            try {
+                sequenceId = in.readLong();
+                timestamp = in.readLong();
+                rank = in.readInt();
+                blockId = in.readLong();
+                offset = in.readInt();
+                return true;
+            } catch (EOFException e) {
+                close();
+                return false;
+            } catch (IOException e) {
+                throw new DBRuntimeException("Could not read sorted event ids.", e);
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
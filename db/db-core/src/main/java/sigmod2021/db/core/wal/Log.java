@@ -1,5 +1,7 @@
 package sigmod2021.db.core.wal;
 
+import java.util.function.Consumer;
+
 /**
  * Abstraction of a log.
  */
@@ -25,4 +27,29 @@ public interface Log<T> {
      * Clears the log.
      */
     void clear();
+
+    /**
+     * Discards all items with an LSN less than or equal to the given one. Implementations
+     * may retain more items than requested, but never less.
+     *
+     * @param lsn the LSN up to which items are no longer required
+     */
+    default void truncate(long lsn) {
+    }
+
+    /**
+     * Passes all items with an LSN greater than the given one to the consumer, in LSN order.
+     * Items inserted by the consumer are not part of the replay.
+     *
+     * @param lsn      the last LSN that must not be replayed
+     * @param consumer the consumer receiving the logged items
+     */
+    default void replay(long lsn, Consumer<? super T> consumer) {
+    }
+
+    /**
+     * Forces all inserted items to stable storage and releases the log's resources.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,404 @@
+package sigmod2021.db.core.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sigmod2021.db.DBRuntimeException;
+import xxl.core.io.converters.Converter;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log, split into segment files of bounded size. Inserts are buffered and forced to
+ * disk in groups, either by a background committer running every <tt>commitInterval</tt>
+ * milliseconds or, if the interval is zero, on every insert.
+ * <p>
+ * Each segment starts with a header holding the LSN of its first record, so LSNs keep
+ * increasing across {@link #clear()} and restarts. A record is laid out as
+ * <tt>[lsn:long][blockId:long][length:int][payload][crc:int]</tt>; a torn record at the
+ * tail of a segment terminates the replay of that segment.
+ */
+public class SegmentedLog<T> implements Log<T> {
+
+    /** The logger */
+    private static final Logger log = LoggerFactory.getLogger(SegmentedLog.class);
+
+    /** Magic number identifying segment files */
+    private static final int MAGIC = 0x57414C31;
+
+    /** Suffix of segment files */
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    /** Size of the segment header: magic and base lsn */
+    private static final int HEADER_SIZE = 4 + 8;
+
+    /** Size of a record without its payload */
+    private static final int RECORD_OVERHEAD = 8 + 8 + 4 + 4;
+
+    /** The directory holding the segments */
+    private final Path directory;
+
+    /** The converter for logged items */
+    private final Converter<T> converter;
+
+    /** The size in bytes after which a new segment is started */
+    private final long segmentSize;
+
+    /** The committer, null if every insert is forced immediately */
+    private final ScheduledExecutorService committer;
+
+    /** Base lsns of all closed segments, in ascending order */
+    private final List<Long> segments = new ArrayList<>();
+
+    /** Reusable serialization buffer */
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+
+    private final CRC32 crc = new CRC32();
+
+    /** Base lsn of the current segment */
+    private long currentBase;
+
+    /** Channel of the current segment */
+    private FileChannel channel;
+
+    /** Buffered output of the current segment */
+    private DataOutputStream out;
+
+    /** Bytes written to the current segment */
+    private long currentSize;
+
+    /** The last assigned LSN */
+    private long lsn;
+
+    /** Tells whether there are buffered records not yet forced to disk */
+    private boolean dirty;
+
+    /**
+     * Opens the log in the given directory, creating it if necessary.
+     *
+     * @param directory      the directory to store the segments in
+     * @param converter      the converter for logged items
+     * @param segmentSize    the size in bytes after which a new segment is started
+     * @param commitInterval the interval in milliseconds between two group commits. If zero,
+     *                       every insert is forced to disk before returning.
+     */
+    public SegmentedLog(final Path directory, final Converter<T> converter, final long segmentSize,
+                        final long commitInterval) {
+        this.directory = directory;
+        this.converter = converter;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(directory);
+            this.segments.addAll(listSegments());
+            this.lsn = -1L;
+            if (!this.segments.isEmpty()) {
+                final long lastBase = this.segments.get(this.segments.size() - 1);
+                this.lsn = findLastLSN(lastBase);
+                // An empty trailing segment is simply reopened
+                if (this.lsn < lastBase)
+                    this.segments.remove(this.segments.size() - 1);
+            }
+            openSegment(this.lsn + 1);
+        } catch (IOException e) {
+            throw new DBRuntimeException("Could not open log at " + directory, e);
+        }
+
+        if (commitInterval > 0) {
+            this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-committer-" + directory.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            this.committer.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.committer = null;
+        }
+        log.debug("Opened log at {}. Last LSN: {}, segments: {}", directory, this.lsn, this.segments);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public synchronized void insert(final long blockID, final T item) {
+        try {
+            this.recordBuffer.reset();
+            this.converter.write(this.recordOut, item);
+            this.recordOut.flush();
+
+            if (this.currentSize > HEADER_SIZE && this.currentSize + RECORD_OVERHEAD + this.recordBuffer.size() > this.segmentSize)
+                rollSegment();
+
+            final long recordLSN = this.lsn + 1;
+            this.crc.reset();
+            this.crc.update(this.recordBuffer.toByteArray());
+
+            this.out.writeLong(recordLSN);
+            this.out.writeLong(blockID);
+            this.out.writeInt(this.recordBuffer.size());
+            this.recordBuffer.writeTo(this.out);
+            this.out.writeInt((int) this.crc.getValue());
+
+            this.currentSize += RECORD_OVERHEAD + this.recordBuffer.size();
+            this.lsn = recordLSN;
+            this.dirty = true;
+
+            if (this.committer == null)
+                force();
+        } catch (IOException e) {
+            throw new DBRuntimeException("Could not append to log at " + this.directory, e);
+        }
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public synchronized long getLSN() {
+        return this.lsn;
+    }
+
+    /**
+     * Forces all buffered records to disk.
+     */
+    public synchronized void sync() {
+        try {
+            force();
+        } catch (IOException e) {
+            throw new DBRuntimeException("Could not force log at " + this.directory, e);
+        }
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public synchronized void clear() {
+        try {
+            closeSegment();
+            for (long base : this.segments)
+                Files.deleteIfExists(segmentPath(base));
+            Files.deleteIfExists(segmentPath(this.currentBase));
+            this.segments.clear();
+            openSegment(this.lsn + 1);
+        } catch (IOException e) {
+            throw new DBRuntimeException("Could not clear log at " + this.directory, e);
+        }
+    }
+
+    /**
+     * Deletes all closed segments, whose records have an LSN less than or equal to the given one.
+     *
+     * @{inheritDoc}
+     */
+    @Override
+    public synchronized void truncate(final long lsn) {
+        try {
+            force();
+            // A segment's last lsn is the base of its successor minus one
+            while (!this.segments.isEmpty()) {
+                final long next = this.segments.size() > 1 ? this.segments.get(1) : this.currentBase;
+                if (next - 1 > lsn)
+                    break;
+                Files.deleteIfExists(segmentPath(this.segments.remove(0)));
+            }
+        } catch (IOException e) {
+            throw new DBRuntimeException("Could not truncate log at " + this.directory, e);
+        }
+    }
+
+    /**
+     * Starts a new segment before replaying, so that items re-inserted by the consumer end up in
+     * segments not touched by the replay. Once the re-inserted items are durable, the replayed
+     * segments can be dropped via {@link #truncate(long)}.
+     *
+     * @{inheritDoc}
+     */
+    @Override
+    public void replay(final long lsn, final Consumer<? super T> consumer) {
+        final List<Long> toReplay;
+        synchronized (this) {
+            try {
+                if (this.currentSize > HEADER_SIZE)
+                    rollSegment();
+            } catch (IOException e) {
+                throw new DBRuntimeException("Could not roll log at " + this.directory, e);
+            }
+            toReplay = new ArrayList<>(this.segments);
+        }
+
+        long count = 0;
+        for (long base : toReplay) {
+            try (DataInputStream in = openForRead(base)) {
+                Record<T> r;
+                while ((r = readRecord(in)) != null) {
+                    if (r.lsn > lsn) {
+                        consumer.accept(r.item);
+                        count++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new DBRuntimeException("Could not replay log segment " + segmentPath(base), e);
+            }
+        }
+        log.info("Replayed {} items with LSN > {} from {}.", count, lsn, this.directory);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void close() {
+        if (this.committer != null) {
+            this.committer.shutdown();
+            try {
+                this.committer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                throw new DBRuntimeException("Could not close log at " + this.directory, e);
+            }
+        }
+    }
+
+    /**
+     * Group commit, executed by the committer thread.
+     */
+    private synchronized void commit() {
+        try {
+            force();
+        } catch (IOException e) {
+            log.error("Group commit of log at {} failed.", this.directory, e);
+        }
+    }
+
+    private void force() throws IOException {
+        if (!this.dirty || this.out == null)
+            return;
+        this.out.flush();
+        this.channel.force(false);
+        this.dirty = false;
+    }
+
+    private void rollSegment() throws IOException {
+        closeSegment();
+        this.segments.add(this.currentBase);
+        openSegment(this.lsn + 1);
+    }
+
+    private void openSegment(final long base) throws IOException {
+        this.currentBase = base;
+        this.channel = FileChannel.open(segmentPath(base), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel), 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeLong(base);
+        this.currentSize = HEADER_SIZE;
+        this.dirty = true;
+        force();
+    }
+
+    private void closeSegment() throws IOException {
+        if (this.out == null)
+            return;
+        force();
+        this.out.close();
+        this.out = null;
+        this.channel = null;
+    }
+
+    private Path segmentPath(final long base) {
+        return this.directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            List<Long> result = files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Long.parseLong(n.substring(0, n.length() - SEGMENT_SUFFIX.length())))
+                    .collect(Collectors.toList());
+            Collections.sort(result);
+            return result;
+        }
+    }
+
+    private long findLastLSN(final long base) throws IOException {
+        long result = base - 1;
+        try (DataInputStream in = openForRead(base)) {
+            Record<T> r;
+            while ((r = readRecord(in)) != null)
+                result = r.lsn;
+        }
+        return result;
+    }
+
+    private DataInputStream openForRead(final long base) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(segmentPath(base)), 1 << 16));
+        if (in.readInt() != MAGIC || in.readLong() != base) {
+            in.close();
+            throw new IOException("Corrupt log segment header: " + segmentPath(base));
+        }
+        return in;
+    }
+
+    /**
+     * Reads the next record from the given segment.
+     *
+     * @return the next record, or null if the end of the segment or a torn record was reached
+     */
+    private Record<T> readRecord(final DataInputStream in) throws IOException {
+        try {
+            final long recordLSN = in.readLong();
+            in.readLong(); // block id
+            final int length = in.readInt();
+            if (length < 0)
+                return null;
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            final int checksum = in.readInt();
+
+            final CRC32 check = new CRC32();
+            check.update(payload);
+            if ((int) check.getValue() != checksum) {
+                log.warn("Checksum mismatch for LSN {} in {}. Ignoring remainder of segment.", recordLSN, this.directory);
+                return null;
+            }
+            return new Record<>(recordLSN, this.converter.read(new DataInputStream(new ByteArrayInputStream(payload))));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static class Record<T> {
+        final long lsn;
+        final T item;
+
+        Record(long lsn, T item) {
+            this.lsn = lsn;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package xxl.core.collections.containers.compression;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Compressor implementation prefixing each compressed block with the id of
+ * its codec, so blocks compressed with different codecs may be mixed within a
+ * container. New blocks are compressed with the configured {@link Codec}:
+ * <ul>
+ * <li>LZ4 is the fast LZ4 compressor also used by {@link LZ4Compressor}.</li>
+ * <li>LZ4_HC is the high-compression mode of LZ4. It compresses slower, but
+ * decompresses as fast as LZ4.</li>
+ * <li>ZSTD is <a href="https://facebook.github.io/zstd/">Zstandard</a>,
+ * trading compression speed for a higher ratio. Optionally, a dictionary is
+ * trained from the first blocks compressed. Blocks compressed before the
+ * dictionary is available remain readable without it.</li>
+ * </ul>
+ * The dictionary is part of the parameters and thus stored in the header of
+ * the container. It must be small enough to fit into the container's
+ * preamble, e.g., half a block.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @see Compressor
+ */
+public class CodecCompressor implements Compressor {
+
+	/**
+	 * The codecs for compressing new blocks.
+	 */
+	public static enum Codec {
+		LZ4((byte) 1), LZ4_HC((byte) 2), ZSTD((byte) 3);
+
+		/** The id of the codec stored with each block */
+		final byte id;
+
+		private Codec(byte id) {
+			this.id = id;
+		}
+
+		static Codec forId(byte id) {
+			for (final Codec c : values())
+				if ( c.id == id )
+					return c;
+			throw new IllegalStateException("Unknown codec id: " + id);
+		}
+	}
+
+	/** The default compression level of Zstandard */
+	public static final int DEFAULT_ZSTD_LEVEL = 9;
+
+	/** The default number of blocks a dictionary is trained from */
+	public static final int DEFAULT_TRAINING_BLOCKS = 256;
+
+	/** The id of blocks compressed by Zstandard with the dictionary */
+	private static final byte ZSTD_DICTIONARY_ID = 4;
+
+	/** The version of the serialized parameters */
+	private static final byte PARAMS_VERSION = 1;
+
+	private static final Logger logger = LoggerFactory.getLogger(CodecCompressor.class);
+
+	/** The codec for new blocks */
+	private Codec codec;
+
+	/** The compression level of Zstandard */
+	private int level;
+
+	/** The maximum size of the dictionary, 0 to compress without */
+	private int dictionarySize;
+
+	/** The number of blocks the dictionary is trained from */
+	private int trainingBlocks;
+
+	/** The blocks sampled for training the dictionary, null if not training */
+	private List<byte[]> samples;
+
+	/** The dictionary, null if not trained yet */
+	private volatile byte[] dictionary;
+
+	private volatile ZstdDictDecompress dictionaryDecompressor;
+
+	/** Set last when a dictionary becomes available */
+	private volatile ZstdDictCompress dictionaryCompressor;
+
+	/** The version of the parameters */
+	private volatile long paramsVersion;
+
+	private final net.jpountz.lz4.LZ4Compressor lz4Compressor;
+
+	private final net.jpountz.lz4.LZ4Compressor lz4HCCompressor;
+
+	private final LZ4FastDecompressor lz4Decompressor;
+
+	/**
+	 * Creates a new compressor using LZ4. Used for restoring a compressor from
+	 * its parameters.
+	 */
+	public CodecCompressor() {
+		this(Codec.LZ4);
+	}
+
+	/**
+	 * Creates a new compressor using the given codec without a dictionary.
+	 *
+	 * @param codec
+	 *            the codec for new blocks
+	 */
+	public CodecCompressor(final Codec codec) {
+		this(codec, DEFAULT_ZSTD_LEVEL, 0, DEFAULT_TRAINING_BLOCKS);
+	}
+
+	/**
+	 * Creates a new compressor using the given codec.
+	 *
+	 * @param codec
+	 *            the codec for new blocks
+	 * @param level
+	 *            the compression level of Zstandard
+	 * @param dictionarySize
+	 *            the maximum size of the Zstandard dictionary in bytes, 0 to
+	 *            compress without
+	 * @param trainingBlocks
+	 *            the number of blocks the dictionary is trained from
+	 */
+	public CodecCompressor(final Codec codec, final int level, final int dictionarySize, final int trainingBlocks) {
+		final LZ4Factory factory = LZ4Factory.fastestInstance();
+		this.lz4Compressor = factory.fastCompressor();
+		this.lz4HCCompressor = factory.highCompressor();
+		this.lz4Decompressor = factory.fastDecompressor();
+		this.codec = codec;
+		this.level = level;
+		this.dictionarySize = dictionarySize;
+		this.trainingBlocks = trainingBlocks;
+		initTraining();
+	}
+
+	private void initTraining() {
+		this.samples = this.codec == Codec.ZSTD && this.dictionarySize > 0 && this.dictionary == null
+			? new ArrayList<>() : null;
+	}
+
+	/**
+	 * @return the codec for new blocks
+	 */
+	public Codec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * @return the dictionary, null if not trained (yet)
+	 */
+	public byte[] getDictionary() {
+		return this.dictionary;
+	}
+
+	/**
+	 * Compresses the given data. Returns the given array itself if it does
+	 * not become smaller.
+	 */
+	@Override
+	public byte[] compress(final byte[] b) {
+		final byte[] destination = new byte[b.length - 1];
+		final int size = compress(b, destination);
+		return size < 0 ? b : Arrays.copyOf(destination, size);
+	}
+
+	@Override
+	public int compress(final byte[] b, final byte[] destination) {
+		if ( destination.length < 2 )
+			return -1;
+		sample(b);
+		final int size;
+		switch (this.codec) {
+			case LZ4:
+			case LZ4_HC:
+				try {
+					size = (this.codec == Codec.LZ4 ? this.lz4Compressor : this.lz4HCCompressor)
+						.compress(b, 0, b.length, destination, 1, destination.length - 1);
+				}
+				catch (final LZ4Exception ex) {
+					return -1;
+				}
+				destination[0] = this.codec.id;
+				break;
+			default: {
+				final ZstdDictCompress dict = this.dictionaryCompressor;
+				final long result;
+				try {
+					result = dict != null ? Zstd.compressFastDict(destination, 1, b, 0, b.length, dict)
+						: Zstd.compressByteArray(destination, 1, destination.length - 1, b, 0, b.length, this.level);
+				}
+				catch (final ZstdException ex) {
+					// Thrown instead of an error code, e.g., if the block does not shrink
+					return -1;
+				}
+				if ( Zstd.isError(result) )
+					return -1;
+				size = (int) result;
+				destination[0] = dict != null ? ZSTD_DICTIONARY_ID : Codec.ZSTD.id;
+				break;
+			}
+		}
+		return size + 1;
+	}
+
+	@Override
+	public byte[] decompress(final byte[] b, final int length) {
+		final byte[] result = new byte[length];
+		if ( b[0] == ZSTD_DICTIONARY_ID ) {
+			final ZstdDictDecompress dict = this.dictionaryDecompressor;
+			if ( dict == null )
+				throw new IllegalStateException("Block compressed with a dictionary, but none is available.");
+			checkZstd(Zstd.decompressFastDict(result, 0, b, 1, b.length - 1, dict));
+			return result;
+		}
+		switch (Codec.forId(b[0])) {
+			case LZ4:
+			case LZ4_HC:
+				this.lz4Decompressor.decompress(b, 1, result, 0, length);
+				break;
+			default:
+				checkZstd(Zstd.decompressByteArray(result, 0, length, b, 1, b.length - 1));
+				break;
+		}
+		return result;
+	}
+
+	private static void checkZstd(final long result) {
+		if ( Zstd.isError(result) )
+			throw new IllegalStateException("Decompression failed: " + Zstd.getErrorName(result));
+	}
+
+	/**
+	 * Collects the given block for training the dictionary and trains it as
+	 * soon as enough blocks are collected.
+	 */
+	private void sample(final byte[] b) {
+		if ( this.samples == null || this.dictionaryCompressor != null )
+			return;
+		synchronized (this) {
+			if ( this.samples == null )
+				return;
+			this.samples.add(b.clone());
+			if ( this.samples.size() < this.trainingBlocks )
+				return;
+
+			final byte[][] trainingSet = this.samples.toArray(new byte[0][]);
+			this.samples = null;
+			final byte[] buffer = new byte[this.dictionarySize];
+			final long size = Zstd.trainFromBuffer(trainingSet, buffer);
+			if ( Zstd.isError(size) ) {
+				logger.warn("Training the dictionary failed, compressing without: {}", Zstd.getErrorName(size));
+				return;
+			}
+			this.paramsVersion++;
+			setDictionary(Arrays.copyOf(buffer, (int) size));
+		}
+	}
+
+	private void setDictionary(final byte[] dictionary) {
+		this.dictionary = dictionary;
+		this.dictionaryDecompressor = new ZstdDictDecompress(dictionary);
+		this.dictionaryCompressor = new ZstdDictCompress(dictionary, this.level);
+	}
+
+	@Override
+	public long getParamsVersion() {
+		return this.paramsVersion;
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public synchronized void writeParams(final DataOutput out) throws IOException {
+		out.writeByte(PARAMS_VERSION);
+		out.writeByte(this.codec.id);
+		out.writeInt(this.level);
+		out.writeInt(this.dictionarySize);
+		out.writeInt(this.trainingBlocks);
+		final byte[] dict = this.dictionary;
+		out.writeInt(dict == null ? 0 : dict.length);
+		if ( dict != null )
+			out.write(dict);
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public synchronized void restoreParams(final DataInput in) throws IOException {
+		final byte version = in.readByte();
+		if ( version != PARAMS_VERSION )
+			throw new IOException("Unknown parameter version: " + version);
+		this.codec = Codec.forId(in.readByte());
+		this.level = in.readInt();
+		this.dictionarySize = in.readInt();
+		this.trainingBlocks = in.readInt();
+		final int length = in.readInt();
+		if ( length > 0 ) {
+			final byte[] dict = new byte[length];
+			in.readFully(dict);
+			setDictionary(dict);
+		}
+		initTraining();
+	}
+}
@@ -19,6 +19,25 @@ public interface Compressor {
 	 */
 	public byte[] compress(byte[] b);
 
+	/**
+	 * Compresses the given data into the given buffer, allowing callers to
+	 * reuse the buffer for many blocks.
+	 *
+	 * @param b
+	 *            the uncompressed input data
+	 * @param destination
+	 *            the buffer to receive the compressed result
+	 * @return the size of the compressed result, or -1 if it does not fit
+	 *         into the buffer
+	 */
+	public default int compress(byte[] b, byte[] destination) {
+		final byte[] result = compress(b);
+		if ( result.length > destination.length )
+			return -1;
+		System.arraycopy(result, 0, destination, 0, result.length);
+		return result.length;
+	}
+
 	/**
 	 * Uncompresses the given data and returns the uncompressed result.
 	 *
@@ -29,7 +48,20 @@ public interface Compressor {
 	 * @return the uncompressed data
 	 */
 	public byte[] decompress(byte[] b, int length);
-	
+
+	/**
+	 * Returns the version of the parameters written by
+	 * {@link #writeParams(DataOutput)}. Compressors adapting their parameters,
+	 * e.g., by training a dictionary, increment it before compressing any data
+	 * with the new parameters. Containers persist the parameters again before
+	 * storing data compressed with a newer version.
+	 *
+	 * @return the version of the parameters
+	 */
+	public default long getParamsVersion() {
+		return 0;
+	}
+
 	void writeParams( DataOutput out ) throws IOException;
 	
 	void restoreParams( DataInput in ) throws IOException;
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -115,6 +116,15 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	private long								lastLoadedMacroBlockId		= -1;
 	/** The last loaded macro block */
 	private byte[]								lastLoadedMacroBlock;
+	/**
+	 * The number of rewrites of sealed macro blocks. Readers loading a sealed
+	 * macro block without holding the lock use it to detect that the block
+	 * changed while they read it.
+	 */
+	private long								sealedRewrites;
+
+	/** The version of the compressor's parameters stored in the preamble */
+	private long								persistedParamsVersion;
 
 	/** Stores if the container is suspended */
 	private boolean								suspended;
@@ -329,14 +339,26 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	 * @throws java.io.IOException
 	 */
 	private void initPreamble() throws IOException {
+		writeSettings(CONTAINER_OPEN); // Indicates that the container has not been closed yet (required for recovery)
+	}
+
+	/**
+	 * Writes the settings and the compressor's parameters to the preamble,
+	 * leaving the container in the given (open) state.
+	 *
+	 * @throws java.io.IOException
+	 */
+	private void writeSettings(final int containerState) throws IOException {
 		final UnsafeDataOutput dos = new UnsafeDataOutput(this.blockSize);
+		final long paramsVersion = this.compressor.getParamsVersion();
 
-		dos.writeByte(CONTAINER_OPEN);  // Indicates that the container has not been closed yet (required for recovery)
+		dos.writeByte(containerState);
 		dos.writeInt(this.blockSize);
 		dos.writeInt(this.macroBlockSize);
 		dos.writeFloat(this.spare);
 		dos.writeUTF(this.compressor.getClass().getCanonicalName());
 		this.compressor.writeParams(dos);
+		this.persistedParamsVersion = paramsVersion;
 
 		final byte[] preamble = new byte[this.blockSize];
 		final byte[] written = dos.toByteArray();
@@ -351,12 +373,14 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	 */
 	private void finishPreamble(final int containerState) throws IOException {
 		final UnsafeDataOutput dos = new UnsafeDataOutput(this.blockSize);
+		final long paramsVersion = this.compressor.getParamsVersion();
 		dos.writeByte(containerState);
 		dos.writeInt(this.blockSize);
 		dos.writeInt(this.macroBlockSize);
 		dos.writeFloat(this.spare);
 		dos.writeUTF(this.compressor.getClass().getCanonicalName());
 		this.compressor.writeParams(dos);
+		this.persistedParamsVersion = paramsVersion;
 
 		dos.writeByte(this.tlb.writeBuffer.size());
 		for (int i = 0; i < this.tlb.writeBuffer.size(); i++) {
@@ -473,7 +497,13 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	@Override
 	public void flush() {
 		super.flush();
-		this.macroBlockBuffer.flushAll(this);
+		try {
+			this.lock.lock();
+			this.macroBlockBuffer.flushAll(this);
+		}
+		finally {
+			this.lock.unlock();
+		}
 	}
 
 	@Override
@@ -533,17 +563,104 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 			return getMacroBlockPosition(lid, macroBlockID);
 	}
 
+	/**
+	 * Returns the block with the given id. Blocks stored completely within a
+	 * sealed macro block are loaded by {@link #loadSealedBlock(long)}, which
+	 * holds the lock only for the address translation and the macro block
+	 * buffer. Thus, such reads proceed in parallel to each other and to the
+	 * appender. All other blocks are loaded under the container's monitor.
+	 */
 	@Override
-	public synchronized Object get(final Object id, final boolean unfix) throws NoSuchElementException {
+	public Object get(final Object id, final boolean unfix) throws NoSuchElementException {
 		final long lid = (Long) id;
 		try {
-			return loadBlock(lid);
+			final Object result = loadSealedBlock(lid);
+			if ( result != null )
+				return result;
+			synchronized (this) {
+				return loadBlock(lid);
+			}
 		}
 		catch (final Exception e) {
 			throw new RuntimeException("Error retrieving ID " + id + ": " + e.getMessage(),e);
 		}
 	}
 
+	/**
+	 * Loads the block with the given id, if it is stored completely within a
+	 * sealed macro block, i.e., neither in the current macro block, nor
+	 * overflowing into the next one, nor moved by a reference entry. Reading
+	 * the macro block from disk and decompressing the block are done without
+	 * holding the lock. If a sealed macro block is rewritten meanwhile, the
+	 * bytes read are discarded.
+	 *
+	 * @param lid
+	 *            the ID of the block to be returned
+	 * @return the block, or null if it has to be loaded by
+	 *         {@link #loadBlock(long)}
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	private Object loadSealedBlock(final long lid) throws IOException {
+		final int entryNumber;
+		final long startBlock;
+		final long observedRewrites;
+		byte[] bytes;
+		try {
+			this.lock.lock();
+			if ( this.suspended )
+				return null;
+			final long physicalAddress = this.tlb.get(lid).physicalAddress;
+			if ( physicalAddress == TLB.UNMAPPED_ID_PHYSICAL )
+				throw new NoSuchElementException("No entry for ID : " + lid);
+			final long macroBlockID = decodeBlockID(physicalAddress);
+			final long containerPosition = getContainerPosition(lid, macroBlockID);
+			if ( containerPosition >= this.physicalPosition || macroBlockID == this.physicalBlockIdCounter )
+				return null; // Still modified by the appender
+			startBlock = containerPosition / this.blockSize;
+			if ( startBlock + this.macroBlockSize / this.blockSize > this.raf.getNumSectors() )
+				return null;
+			entryNumber = decodeEntryNumber(physicalAddress);
+			observedRewrites = this.sealedRewrites;
+			if ( this.lastLoadedMacroBlockId == startBlock )
+				bytes = this.lastLoadedMacroBlock;
+			else if ( this.macroBlockBuffer.contains(this, startBlock) )
+				bytes = this.macroBlockBuffer.get(this, startBlock, null, true);
+			else
+				bytes = null;
+		}
+		finally {
+			this.lock.unlock();
+		}
+
+		if ( bytes == null ) {
+			logger.trace("Macro block cache miss -- start block: " + startBlock + "");
+			bytes = new byte[this.macroBlockSize];
+			this.raf.read(bytes, startBlock);
+			try {
+				this.lock.lock();
+				if ( this.sealedRewrites != observedRewrites )
+					return null;
+				this.lastLoadedMacroBlockId = startBlock;
+				this.lastLoadedMacroBlock = bytes;
+				if ( !this.macroBlockBuffer.contains(this, startBlock) )
+					updateMacroBlockBuffer(bytes, startBlock, null);
+			}
+			finally {
+				this.lock.unlock();
+			}
+		}
+
+		final MacroBlock b = createMacroBlock(bytes);
+		if ( b.isReferenceEntry(entryNumber) || b.isOverflowBlock(entryNumber) )
+			return null;
+		final EntryResult entry = b.getEntry(entryNumber);
+		if ( entry.array.length == this.blockSize )
+			return new Block(entry.array);
+		else
+			return new Block(this.compressor.decompress(entry.array, this.blockSize));
+	}
+
 	private Object loadBlock(final long lid) throws Exception {
 		final MacroBlockResult mbr = getMacroBlockForID(lid);
 		MacroBlockResult overflowMB = null;
@@ -672,12 +789,13 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	}
 
 	@Override
-	public boolean isUsed(final Object id) {
+	public synchronized boolean isUsed(final Object id) {
 		long lid = (Long) id;
 		if ( lid < 0 || lid >= this.idCounter ) 
 			return false;
 		
 		try {
+			this.lock.lock();
 			TLBResult r = tlb.get(lid);
 			if ( r.physicalAddress == TLB.UNMAPPED_ID_PHYSICAL ) {
 				return false;
@@ -687,6 +805,8 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 			}
 		} catch ( IOException e ) {
 			return false;
+		} finally {
+			this.lock.unlock();
 		}
 	}
 
@@ -869,6 +989,40 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 		catch (final Exception ex) {
 			compressed = b;
 		}
+		write(lid, compressed);
+	}
+
+	/**
+	 * Stores the compressor's parameters in the preamble if they changed, so
+	 * blocks compressed with them can be read after a crash.
+	 */
+	private void persistCompressorParams() {
+		if ( this.compressor.getParamsVersion() == this.persistedParamsVersion )
+			return;
+		try {
+			this.lock.lock();
+			writeSettings(this.state);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException("Error writing compressor parameters " + this.path, e);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores the given compressed block under the given id, either appending
+	 * it to the current macro block or updating it in place. Callers must
+	 * hold the container's monitor.
+	 *
+	 * @param lid
+	 *            the id of the block
+	 * @param compressed
+	 *            the compressed block
+	 */
+	protected void write(final long lid, final byte[] compressed) {
+		persistCompressorParams();
 		long physicalAddress = getNextPhysicalAddress();  // calculates physical address: combination of block id and block offset.
 
 		// Get macro block for insertion (to decide whether it is an out-of-order update)
@@ -889,15 +1043,18 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 		if ( blockAddr != -1 && (blockAddr < this.physicalBlockIdCounter ||
 			decodeEntryNumber(requestedPhysicalID) != this.currentMacroBlock.getCount()) ) { // Out-of-order update!
 			try {
-				logger.trace("Out-of-order insertion for id " + id + ":");
+				// Readers of sealed macro blocks must not observe a partial update
+				this.lock.lock();
+				logger.trace("Out-of-order insertion for id " + lid + ":");
 				this.blockBuffer.setOutOfOrder(true);
 				outOfOrderUpdate(lid, compressed);
 			}
 			catch (final IOException e) {
-				throw new NoSuchElementException("Error while updating block with id " + id + ": " + e.getMessage());
+				throw new NoSuchElementException("Error while updating block with id " + lid + ": " + e.getMessage());
 			}
 			finally {
 				this.blockBuffer.setOutOfOrder(false);
+				this.lock.unlock();
 			}
 		}
 		else {
@@ -929,7 +1086,7 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 					this.physicalBlockIdCounter);
 			}
 			catch (final IOException e) {
-				throw new NoSuchElementException("No element with id " + id);
+				throw new NoSuchElementException("No element with id " + lid);
 			}
 			finally {
 				this.lock.unlock();
@@ -1171,11 +1328,18 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 
 		if ( b.isReferenceEntry(entryNumber) ) {
 			final ReferenceEntry re = b.readReferenceEntry(entryNumber);
-			this.blockBuffer.setOutOfOrder(true); // Disable buffer filling for out-of-order block reading
-			logger.trace("Following reference entry: " + re.getPreviousWrittenId() + " => " +
-				decodeBlockID(re.getPhysicalAddress()) + " : " + decodeEntryNumber(re.getPhysicalAddress()));
-			final MacroBlockResult mbrs = getMacroBlockForID(re.getPreviousWrittenId(), re.getPhysicalAddress(), true);
-			this.blockBuffer.setOutOfOrder(false);
+			final MacroBlockResult mbrs;
+			try {
+				this.lock.lock();
+				this.blockBuffer.setOutOfOrder(true); // Disable buffer filling for out-of-order block reading
+				logger.trace("Following reference entry: " + re.getPreviousWrittenId() + " => " +
+					decodeBlockID(re.getPhysicalAddress()) + " : " + decodeEntryNumber(re.getPhysicalAddress()));
+				mbrs = getMacroBlockForID(re.getPreviousWrittenId(), re.getPhysicalAddress(), true);
+				this.blockBuffer.setOutOfOrder(false);
+			}
+			finally {
+				this.lock.unlock();
+			}
 			if ( mbrs.referenceEntry != null )
 				return mbrs;
 			else
@@ -1208,6 +1372,16 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	 * @return the macro block in bytes
 	 */
 	private byte[] loadMacroBlock(final long startBlock, final boolean skipTLBs) {
+		try {
+			this.lock.lock();
+			return loadMacroBlockLocked(startBlock, skipTLBs);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	private byte[] loadMacroBlockLocked(final long startBlock, final boolean skipTLBs) {
 		
 		if ( this.lastLoadedMacroBlockId == startBlock )
 			return this.lastLoadedMacroBlock;
@@ -1219,10 +1393,16 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 		final byte[] result = new byte[this.macroBlockSize];
 		final byte[] block = new byte[this.blockSize];
 		try {
-			this.lock.lock();
 			final int blockCount = this.macroBlockSize / this.blockSize;
+			if ( !skipTLBs ) {
+				// The macro block is contiguous => read it at once
+				if ( startBlock + blockCount > this.raf.getNumSectors() )
+					throw new RuntimeException("Error reading block " + Math.max(startBlock, this.raf.getNumSectors()) +
+						" from container (size: " + this.raf.getNumSectors() + ")!");
+				this.blockBuffer.getBlocks(result, startBlock);
+			}
 			int skip = 0;
-			for (int i = 0; i < blockCount; i++) {
+			for (int i = 0; skipTLBs && i < blockCount; i++) {
 				if ( (startBlock + i) >= this.raf.getNumSectors() )
 					throw new RuntimeException("Error reading block " + (startBlock + i) + " from container (size: " +
 						this.raf.getNumSectors() + ")!");
@@ -1240,15 +1420,70 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 		catch (final Exception ex) {
 			throw new WrappingRuntimeException(ex);
 		}
-		finally {
-			this.lock.unlock();
-		}
 		this.lastLoadedMacroBlockId = startBlock;
 		this.lastLoadedMacroBlock = result;
 		updateMacroBlockBuffer(result, startBlock, null);
 		return result;
 	}
 
+	/**
+	 * Reads the macro blocks holding the given ids into the macro block
+	 * buffer, so subsequent calls of {@link #get(Object, boolean)} for these
+	 * ids do not access the disk. The macro blocks are read in the order of
+	 * their position and neighbouring ones are read by a single call to the
+	 * raw access. At most half of the macro block buffer is filled; ids in the
+	 * current macro block or behind a reference entry are not prefetched.
+	 *
+	 * @param ids
+	 *            the ids to be read soon
+	 * @param count
+	 *            the number of ids
+	 */
+	@Override
+	public synchronized void prefetch(final long[] ids, final int count) {
+		final int limit = this.macroBlockBuffer.capacity() / 2;
+		final long[] startBlocks = new long[Math.min(count, limit)];
+		int n = 0;
+		try {
+			this.lock.lock();
+			for (int i = 0; i < count && n < startBlocks.length; i++) {
+				final long physicalAddress = this.tlb.get(ids[i]).physicalAddress;
+				if ( physicalAddress == TLB.UNMAPPED_ID_PHYSICAL )
+					continue;
+				final long macroBlockID = decodeBlockID(physicalAddress);
+				final long containerPosition = getContainerPosition(ids[i], macroBlockID);
+				if ( containerPosition >= this.physicalPosition || macroBlockID == this.physicalBlockIdCounter )
+					continue;
+				final long startBlock = containerPosition / this.blockSize;
+				if ( startBlock != this.lastLoadedMacroBlockId && !this.macroBlockBuffer.contains(this, startBlock) )
+					startBlocks[n++] = startBlock;
+			}
+			if ( n == 0 )
+				return;
+
+			Arrays.sort(startBlocks, 0, n);
+			int distinct = 1;
+			for (int i = 1; i < n; i++) {
+				if ( startBlocks[i] != startBlocks[distinct - 1] )
+					startBlocks[distinct++] = startBlocks[i];
+			}
+			final int blockCount = this.macroBlockSize / this.blockSize;
+			while (distinct > 0 && startBlocks[distinct - 1] + blockCount > this.raf.getNumSectors())
+				distinct--;
+
+			final byte[][] macroBlocks = new byte[distinct][this.macroBlockSize];
+			this.raf.read(macroBlocks, startBlocks, distinct);
+			for (int i = 0; i < distinct; i++)
+				updateMacroBlockBuffer(macroBlocks[i], startBlocks[i], null);
+		}
+		catch (final IOException ex) {
+			throw new WrappingRuntimeException(ex);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
 	/**
 	 * Updates the macro block buffer.
 	 *
@@ -1289,10 +1524,23 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 	 * @param updateBuffer
 	 *            flag indicating if the buffer should be update
 	 */
-	@SuppressWarnings("deprecation")
 	private void writeMacroBlock(final MacroBlock macroBlock, final long mbID, final long startBlock,
+		final boolean updateBuffer) {
+		try {
+			this.lock.lock();
+			writeMacroBlockLocked(macroBlock, mbID, startBlock, updateBuffer);
+		}
+		finally {
+			this.lock.unlock();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private void writeMacroBlockLocked(final MacroBlock macroBlock, final long mbID, final long startBlock,
 		final boolean updateBuffer) {
 		macroBlock.getBytes(this.macroOutputBlock);
+		if ( startBlock * this.blockSize < this.physicalPosition )
+			this.sealedRewrites++;
 		if ( this.macroBlockBuffer.contains(this, startBlock) ) {
 			updateMacroBlockBuffer(this.macroOutputBlock, startBlock,
 				new xxl.core.functions.AbstractFunction<Object, Object>() {
@@ -1320,6 +1568,8 @@ public class FastCompressionContainer extends AbstractContainer implements Suspe
 		logger.trace("Writing macro block " + mbID + " to disk at block " + startBlock);
 		try {
 			this.lock.lock();
+			if ( startBlock * this.blockSize < this.physicalPosition )
+				this.sealedRewrites++;
 			for (int i = 0; i < this.macroBlockSize / this.blockSize; i++) {
 				System.arraycopy(macroBlock, i * this.blockSize, this.outputBlock, 0, this.blockSize);
 				this.raf.write(this.outputBlock, startBlock + i);
@@ -3,6 +3,7 @@ package xxl.core.collections.containers.compression;
 import java.io.DataInput;
 import java.io.DataOutput;
 
+import net.jpountz.lz4.LZ4Exception;
 import net.jpountz.lz4.LZ4Factory;
 
 /**
@@ -42,6 +43,16 @@ public class LZ4Compressor implements Compressor {
 		return result;
 	}
 
+	@Override
+	public int compress(final byte[] b, final byte[] destination) {
+		try {
+			return this.compressor.compress(b, 0, b.length, destination, 0, destination.length);
+		}
+		catch (final LZ4Exception ex) {
+			return -1;
+		}
+	}
+
 	@Override
 	public byte[] decompress(final byte[] b, final int length) {
 		final byte[] decompressed = new byte[length];
@@ -18,6 +18,9 @@ public class ObjectMacroBlock implements MacroBlock {
 
 	static final int			LENGTH_BYTES			= 2;
 
+	/** The maximum number of entries, limited by the count byte */
+	static final int			MAX_ENTRIES				= 255;
+
 	/** The number of bytes required for a reference entry */
 	static final int			REFERENCE_ENTRY_SIZE	= 16;
 
@@ -227,6 +230,9 @@ public class ObjectMacroBlock implements MacroBlock {
 	 */
 	@Override
 	public int freeSpace() {
+		// Well compressed blocks may exhaust the entries before the space
+		if ( this.blocks.size() >= MAX_ENTRIES )
+			return 0;
 		// The available free space (2 length bytes required for new block)
 		final int size = this.macroBlockSize - ((int) (this.macroBlockSize * this.spare)) - HEADER_SIZE - this.offset
 				- this.length - LENGTH_BYTES;
@@ -305,9 +311,9 @@ public class ObjectMacroBlock implements MacroBlock {
 		// update count value in byte array
 		int pos = 0;
 		// Write number of entries
-		if ( this.blocks.size() > 255 )
-			throw new RuntimeException(
-					"Error writing macro block: number of blocks (" + this.blocks.size() + ") exceeds maximum (255)!");
+		if ( this.blocks.size() > MAX_ENTRIES )
+			throw new RuntimeException("Error writing macro block: number of blocks (" + this.blocks.size() +
+					") exceeds maximum (" + MAX_ENTRIES + ")!");
 		b[pos++] = (byte) this.blocks.size();
 		// Write offset (if existing)
 		pos = setLength(b, pos, this.offset);
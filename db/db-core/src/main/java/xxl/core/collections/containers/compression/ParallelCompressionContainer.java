@@ -1,55 +1,92 @@
 package xxl.core.collections.containers.compression;
 
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import xxl.core.io.Block;
-import xxl.core.util.Pair;
 
 /**
- *
+ * A {@link FastCompressionContainer} compressing blocks on a pool of threads.
+ * Updates hand a copy of the block to the pool and return immediately. A
+ * single writer thread stores the compressed blocks in the order of their
+ * updates, so the container's layout equals the one of a sequentially
+ * written container and may be reopened, or recovered, by either class.
+ * <p>
+ * At most a given number of blocks is compressed or waiting to be written;
+ * further updates block until the writer catches up. Blocks not written yet
+ * are served from their uncompressed copies. Failures of the pipeline are
+ * reported by the next update, flush or close.
  */
 public class ParallelCompressionContainer extends FastCompressionContainer {
-	
-	static final int NUM_COMPRESSORS = 4;
-	
-	private ExecutorService compressionPool = Executors.newFixedThreadPool(NUM_COMPRESSORS);
-	
-	private ExecutorService writePool = Executors.newSingleThreadExecutor();
-	
-	private BlockingQueue<Future<Pair<Long, byte[]>>> writeQueue = new ArrayBlockingQueue<>(8*NUM_COMPRESSORS);
-	
-	private boolean closed = false;
+
+	/** The default number of compression threads */
+	public static final int DEFAULT_COMPRESSORS = 4;
+
+	/** The default number of blocks in the pipeline per compression thread */
+	public static final int DEFAULT_QUEUE_DEPTH_PER_COMPRESSOR = 8;
+
+	/** Tells the writer to stop */
+	private static final WriteTask STOP = new WriteTask(-1L, null, null);
 
 	private static final Logger logger = LoggerFactory
 		.getLogger(ParallelCompressionContainer.class);
 
+	/** The number of compression threads */
+	private final int compressors;
+
+	/** The blocks in the pipeline, in the order of their updates */
+	private final BlockingQueue<WriteTask> writeQueue;
+
+	/** The uncompressed copies of the blocks not written yet */
+	private final ConcurrentHashMap<Long, byte[]> pending = new ConcurrentHashMap<>();
+
+	/** Orders the submission of updates */
+	private final Object submitLock = new Object();
+
+	/** Guards the progress counters */
+	private final Object progress = new Object();
+
+	/** The number of updates submitted, guarded by {@link #progress} */
+	private long submitted;
+
+	/** The number of updates written, guarded by {@link #progress} */
+	private long written;
+
+	/** The first failure of the pipeline, null if none */
+	private volatile Throwable failure;
+
+	/** The reusable output buffer of each compression thread */
+	private final ThreadLocal<byte[]> compressionBuffer;
+
+	private ExecutorService compressionPool;
+
+	private Thread writer;
+
 	/**
 	 * Creates a new ParallelCompressionContainer instance
-	 * 
+	 *
 	 * @param path
 	 * @param blockSize
 	 * @param spare
 	 */
 	public ParallelCompressionContainer(String path, int blockSize, float spare, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer) {
-		super(path, blockSize, spare, macroBlockBufferSize, useDirectIO, useBlockBuffer);
-		start();
+		this(path, 4 * blockSize, blockSize, new LZ4Compressor(), spare, macroBlockBufferSize, useDirectIO, useBlockBuffer);
 	}
 
 	/**
 	 * Creates a new ParallelCompressionContainer instance
-	 * 
+	 *
 	 * @param path
 	 * @param macroBlockSize
 	 * @param blockSize
@@ -58,216 +95,295 @@ public class ParallelCompressionContainer extends FastCompressionContainer {
 	 */
 	public ParallelCompressionContainer(String path, int macroBlockSize, int blockSize, Compressor compressor,
 		float spare, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer) {
+		this(path, macroBlockSize, blockSize, compressor, spare, macroBlockBufferSize, useDirectIO, useBlockBuffer,
+			DEFAULT_COMPRESSORS, DEFAULT_COMPRESSORS * DEFAULT_QUEUE_DEPTH_PER_COMPRESSOR);
+	}
+
+	/**
+	 * Creates a new ParallelCompressionContainer instance
+	 *
+	 * @param path
+	 * @param macroBlockSize
+	 * @param blockSize
+	 * @param compressor
+	 * @param spare
+	 * @param compressors
+	 *            the number of compression threads
+	 * @param queueDepth
+	 *            the maximum number of blocks compressed or waiting to be
+	 *            written
+	 */
+	public ParallelCompressionContainer(String path, int macroBlockSize, int blockSize, Compressor compressor,
+		float spare, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer, int compressors,
+		int queueDepth) {
 		super(path, macroBlockSize, blockSize, compressor, spare, macroBlockBufferSize, useDirectIO, useBlockBuffer);
+		this.compressors = Math.max(1, compressors);
+		this.writeQueue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+		this.compressionBuffer = ThreadLocal.withInitial(() -> new byte[this.blockSize]);
 		start();
 	}
 
 	/**
 	 * Creates a new ParallelCompressionContainer instance
-	 * 
+	 *
 	 * @param path
 	 * @param macroBlockSize
 	 * @param blockSize
 	 * @param spare
 	 */
 	public ParallelCompressionContainer(String path, int macroBlockSize, int blockSize, float spare, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer) {
-		super(path, macroBlockSize, blockSize, spare, macroBlockBufferSize, useDirectIO, useBlockBuffer);
-		start();
+		this(path, macroBlockSize, blockSize, new LZ4Compressor(), spare, macroBlockBufferSize, useDirectIO, useBlockBuffer);
 	}
 
 	/**
-	 * Creates a new ParallelCompressionContainer instance
-	 * 
+	 * Loads a ParallelCompressionContainer instance, recovering it if it was
+	 * not closed properly.
+	 *
 	 * @param path
 	 */
 	public ParallelCompressionContainer(String path, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer) {
+		this(path, macroBlockBufferSize, useDirectIO, useBlockBuffer, DEFAULT_COMPRESSORS,
+			DEFAULT_COMPRESSORS * DEFAULT_QUEUE_DEPTH_PER_COMPRESSOR);
+	}
+
+	/**
+	 * Loads a ParallelCompressionContainer instance, recovering it if it was
+	 * not closed properly.
+	 *
+	 * @param path
+	 * @param compressors
+	 *            the number of compression threads
+	 * @param queueDepth
+	 *            the maximum number of blocks compressed or waiting to be
+	 *            written
+	 */
+	public ParallelCompressionContainer(String path, int macroBlockBufferSize, boolean useDirectIO, boolean useBlockBuffer,
+		int compressors, int queueDepth) {
 		super(path, macroBlockBufferSize, useDirectIO, useBlockBuffer);
+		this.compressors = Math.max(1, compressors);
+		this.writeQueue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+		this.compressionBuffer = ThreadLocal.withInitial(() -> new byte[this.blockSize]);
 		start();
 	}
-	
+
+	/**
+	 * Starts the compression threads and the writer.
+	 */
 	private void start() {
-		this.closed = false;
-		this.writePool.execute(new WriterRunnable());
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.compressionPool = Executors.newFixedThreadPool(this.compressors, r -> {
+			final Thread t = new Thread(r, "fcc-compressor-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.writer = new Thread(this::writeLoop, "fcc-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
 	}
-	
+
 	/**
-	 * @{inheritDoc}
+	 * Writes all blocks in the pipeline and stops the threads.
 	 */
-	@Override
-	public void close() {
-		this.compressionPool.shutdown();
-		while ( !compressionPool.isShutdown() ) {
-			try {
-				this.compressionPool.awaitTermination(1, TimeUnit.SECONDS);
-			}
-			catch (InterruptedException e) {
-			}
+	private void stop() {
+		drain();
+		try {
+			this.writeQueue.put(STOP);
+			this.writer.join();
 		}
-		this.closed = true;
-		this.writePool.shutdown();
-		while ( !writePool.isShutdown() ) {
-			try {
-				this.writePool.awaitTermination(1, TimeUnit.SECONDS);
-			}
-			catch (InterruptedException e) {
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.compressionPool.shutdown();
+		this.writer = null;
+		this.compressionPool = null;
+	}
+
+	/**
+	 * Waits until all blocks submitted so far are written.
+	 */
+	private void drain() {
+		synchronized (this.progress) {
+			final long target = this.submitted;
+			while (this.written < target) {
+				try {
+					this.progress.wait();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for pending blocks", e);
+				}
 			}
 		}
-		super.close();
+	}
+
+	/**
+	 * Throws the first failure of the pipeline, if any.
+	 */
+	private void checkFailure() {
+		final Throwable t = this.failure;
+		if ( t != null )
+			throw new RuntimeException("Writing compressed blocks failed: " + t.getMessage(), t);
 	}
 
 	@Override
-	public synchronized void update(final Object id, final Object object, final boolean unfix)
+	public void update(final Object id, final Object object, final boolean unfix)
 		throws NoSuchElementException {
-		
 		final long lid = (long) id;
-		final Block block = (Block) object;
-		 
-		Future<Pair<Long, byte[]>> f = compressionPool.submit( new CompressionTask(lid, block));
-		try {
-//			logger.debug("Enquing compression task");
-			writeQueue.put(f);
-//			logger.debug("Finished enquing comression task.");
+		if ( lid < 0 || lid >= size() ) {
+			throw new NoSuchElementException("Cannot update block. ID " + id + " not present in container.");
 		}
-		catch (InterruptedException e) {
-			logger.error("Could not enqueue compression task");
+		checkFailure();
+
+		final byte[] blockArray = ((Block) object).array;
+		if ( blockArray.length > this.blockSize )
+			throw new RuntimeException(
+				"Block " + lid + " exceeds block size (" + this.blockSize + "): " + blockArray.length);
+		// The caller may reuse its block, so a padded copy is compressed
+		final byte[] image = Arrays.copyOf(blockArray, this.blockSize);
+
+		synchronized (this.submitLock) {
+			this.pending.put(lid, image);
+			final Future<byte[]> compressed = this.compressionPool.submit(() -> compress(image));
+			synchronized (this.progress) {
+				this.submitted++;
+			}
+			try {
+				this.writeQueue.put(new WriteTask(lid, image, compressed));
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				compressed.cancel(false);
+				this.pending.remove(lid, image);
+				synchronized (this.progress) {
+					this.submitted--;
+					this.progress.notifyAll();
+				}
+				throw new RuntimeException("Interrupted while enqueuing block " + lid, e);
+			}
 		}
 	}
 
-	private void doWrite(long lid, byte[] compressed) {
-//		logger.debug("Enter: doWrite");
-		long physicalAddress = getNextPhysicalAddress();  // calculates physical address: combination of block id and block offset.
-
-		// Get macro block for insertion (to decide whether it is an out-of-order update)
-		long requestedPhysicalID = 0;
+	/**
+	 * Compresses the given block into the thread's buffer. Like
+	 * {@link FastCompressionContainer#update(Object, Object, boolean)},
+	 * incompressible blocks are stored as they are.
+	 */
+	private byte[] compress(final byte[] image) {
+		final byte[] buffer = this.compressionBuffer.get();
+		int size;
 		try {
-			this.lock.lock();
-			requestedPhysicalID = this.tlb.get(lid).physicalAddress;
-		}
-		catch (final IOException e) {
-			throw new NoSuchElementException("There is no TLB entry for the given id " + lid);
+			size = this.compressor.compress(image, buffer);
 		}
-		finally {
-			this.lock.unlock();
+		catch (final Exception ex) {
+			size = -1;
 		}
-		final long blockAddr = decodeBlockID(requestedPhysicalID);
+		return size < 0 || size >= image.length ? image : Arrays.copyOf(buffer, size);
+	}
 
-		// check conditions for out-of-order updates
-		if ( blockAddr != -1 && (blockAddr < this.physicalBlockIdCounter ||
-			decodeEntryNumber(requestedPhysicalID) != this.currentMacroBlock.getCount()) ) { // Out-of-order update!
+	/**
+	 * Writes the compressed blocks in the order of their updates.
+	 */
+	private void writeLoop() {
+		while (true) {
+			final WriteTask task;
 			try {
-				logger.trace("Out-of-order insertion for id " + lid + ":");
-				this.blockBuffer.setOutOfOrder(true);
-				outOfOrderUpdate(lid, compressed);
+				task = this.writeQueue.take();
 			}
-			catch (final IOException e) {
-				throw new NoSuchElementException("Error while updating block with id " + lid + ": " + e.getMessage());
+			catch (final InterruptedException e) {
+				return;
 			}
-			finally {
-				this.blockBuffer.setOutOfOrder(false);
-			}
-		}
-		else {
-			if ( lid > this.tlb.getLastMappingId() + 1 ) { // Forward out-of-order update
-				logger.trace(
-					"Inserting new out-of-order block: " + lid + ". last id was " + this.tlb.getLastMappingId());
-				// Fill entries into the tlb (to reserve place for the missing entries)
-				final long lastMapping = this.tlb.getLastMappingId();
-				final long diff = lid - lastMapping;
-				// Add entry at the required position
-				try {
-					this.lock.lock();
-					for (long i = 0; i < diff - 1; i++) {
-						this.physicalPosition += this.tlb.addMapping(-1, this.physicalPosition, lastMapping + i + 1,
-							this.physicalBlockIdCounter);
-					}
-				}
-				catch (final IOException e) {
-					throw new RuntimeException("Error inserting empty TLB entries for block " + lid);
-				}
-				finally {
-					this.lock.unlock();
+			if ( task == STOP )
+				return;
+			try {
+				final byte[] compressed = task.compressed.get();
+				synchronized (this) {
+					write(task.id, compressed);
 				}
 			}
-			try {
-				this.lock.lock();
-				physicalAddress = insert(compressed, physicalAddress); // Insert into the current macro block
-				this.physicalPosition += this.tlb.addMapping(physicalAddress, this.physicalPosition, lid,
-					this.physicalBlockIdCounter);
+			catch (final ExecutionException e) {
+				fail(task.id, e.getCause());
+			}
+			catch (final InterruptedException e) {
+				fail(task.id, e);
 			}
-			catch (final IOException e) {
-				throw new NoSuchElementException("No element with id " + lid);
+			catch (final RuntimeException e) {
+				fail(task.id, e);
 			}
 			finally {
-				this.lock.unlock();
+				this.pending.remove(task.id, task.image);
+				synchronized (this.progress) {
+					this.written++;
+					this.progress.notifyAll();
+				}
 			}
 		}
-//		logger.debug("Exit: doWrite");
 	}
-	
-	private class CompressionTask implements Callable<Pair<Long, byte[]>> {
-		
-		private final long lid;
-		
-		private final Block data;
-		
-		/**
-		 * Creates a new CompressionTask instance
-		 * @param data
-		 */
-		public CompressionTask(long lid, Block data) {
-			this.lid = lid;
-			this.data = data;
-		}
 
-		/**
-		 * @{inheritDoc}
-		 */
-		@Override
-		public Pair<Long, byte[]> call() throws Exception {
-//			logger.debug("Compressing block");
-			final byte[] blockArray = data.array;
-			byte[] b;
-
-			// b has to be padded to blockSize, if necessary!
-			if ( blockArray.length < ParallelCompressionContainer.this.blockSize ) {
-				b = new byte[ParallelCompressionContainer.this.blockSize];
-				System.arraycopy(blockArray, 0, b, 0, blockArray.length);
-			}
-			else if ( blockArray.length > ParallelCompressionContainer.this.blockSize )
-				throw new RuntimeException(
-					"Block " + lid + " exceeds block size (" + ParallelCompressionContainer.this.blockSize + "): " + blockArray.length);
-			else {
-				b = blockArray;
-			}
+	private void fail(final long id, final Throwable t) {
+		logger.error("Block " + id + " could not be written.", t);
+		if ( this.failure == null )
+			this.failure = t;
+	}
 
-			byte[] compressed = ParallelCompressionContainer.this.compressor.compress(b);
-			return new Pair<>(lid,compressed);
-		}
+	@Override
+	public Object get(final Object id, final boolean unfix) throws NoSuchElementException {
+		final byte[] image = this.pending.get(id);
+		if ( image != null )
+			return new Block(Arrays.copyOf(image, image.length));
+		return super.get(id, unfix);
 	}
-	
-	private class WriterRunnable implements Runnable {
-
-		/**
-		 * @{inheritDoc}
-		 */
-		@Override
-		public void run() {
-			while (!closed || !writeQueue.isEmpty() ) {
-//			while ( true ) {
-				try {
-					Future<Pair<Long, byte[]>> f = writeQueue.poll(1, TimeUnit.SECONDS);
-					if ( f != null ) {
-						Pair<Long, byte[]> result = f.get();
-	//					logger.debug("Writing compressed data!");
-						doWrite(result.getFirst(), result.getSecond());
-					}
-				} catch ( InterruptedException | ExecutionException ie ) {
-					logger.error("Block could not be compressed.", ie);
-					
-				}
-			}
+
+	@Override
+	public boolean isUsed(final Object id) {
+		return this.pending.containsKey(id) || super.isUsed(id);
+	}
+
+	@Override
+	public void remove(final Object id) throws NoSuchElementException {
+		drain();
+		super.remove(id);
+	}
+
+	@Override
+	public void flush() {
+		drain();
+		checkFailure();
+		super.flush();
+	}
+
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void close() {
+		if ( this.writer != null )
+			stop();
+		super.close();
+		checkFailure();
+	}
+
+	@Override
+	public void resume() {
+		super.resume();
+		if ( this.writer == null )
+			start();
+	}
+
+	/**
+	 * A block in the pipeline.
+	 */
+	private static class WriteTask {
+
+		final long id;
+
+		final byte[] image;
+
+		final Future<byte[]> compressed;
+
+		WriteTask(final long id, final byte[] image, final Future<byte[]> compressed) {
+			this.id = id;
+			this.image = image;
+			this.compressed = compressed;
 		}
 	}
-	
-	
 }
@@ -27,6 +27,17 @@ public interface BlockBuffer {
 	 */
 	void getBlock(byte[] b, long blockNumber, boolean tlbLeaf);
 
+	/**
+	 * Returns consecutive blocks, none of them a tlb leaf.
+	 *
+	 * @param b
+	 *            the byte array the blocks should be loaded into, its length
+	 *            is a multiple of the block size
+	 * @param firstBlockNumber
+	 *            the number of the first block to be loaded
+	 */
+	void getBlocks(byte[] b, long firstBlockNumber);
+
 	/**
 	 * Replaces the given block in the buffer.
 	 *
@@ -28,6 +28,12 @@ public class BasicBlockBuffer implements BlockBuffer {
 	private final byte[][]		tlbBuffer;
 	protected int				tlbLevel;
 	private int					tlbBufferPosition;
+	/**
+	 * The first buffered TLB block of the current level. It is greater than 0
+	 * if the container was reopened: the blocks written before are read from
+	 * disk.
+	 */
+	private int					tlbBufferStart;
 
 	private long				firstBufferedBlock;
 	private long				lastBlockRead;
@@ -101,6 +107,24 @@ public class BasicBlockBuffer implements BlockBuffer {
 		}
 	}
 
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void getBlocks(final byte[] b, final long firstBlockNumber) {
+		final int count = b.length / this.blockSize;
+		if ( firstBlockNumber + count <= this.firstBufferedBlock || firstBlockNumber >= this.firstBufferedBlock + getSize() ) {
+			// Out-of-order blocks => load without buffer at once
+			this.raf.read(b, firstBlockNumber);
+			return;
+		}
+		final byte[] block = new byte[this.blockSize];
+		for (int i = 0; i < count; i++) {
+			getBlock(block, firstBlockNumber + i, false);
+			System.arraycopy(block, 0, b, i * this.blockSize, this.blockSize);
+		}
+	}
+
 	/**
 	 * @{inheritDoc}
 	 */
@@ -119,7 +143,8 @@ public class BasicBlockBuffer implements BlockBuffer {
 	 */
 	@Override
 	public void getTLBEntry(final byte[] b, final long blockNumber, final int level, final int levelIndex) {
-		if ( this.outOfOrder && ((level == this.tlbLevel && levelIndex < this.tlbBufferPosition) ||
+		if ( this.outOfOrder && ((level == this.tlbLevel && levelIndex >= this.tlbBufferStart &&
+			levelIndex < this.tlbBufferPosition) ||
 			(this.tlbLevel > 0 && level == this.tlbLevel - 1 && levelIndex >= this.tlbBufferPosition &&
 				this.tlbBufferPosition < 1)) ) {
 			System.arraycopy(this.tlbBuffer[levelIndex], 0, b, 0, b.length);
@@ -137,15 +162,15 @@ public class BasicBlockBuffer implements BlockBuffer {
 		if ( level == this.tlbLevel ) {// The current level
 			this.tlbBuffer[levelIndex] = block;
 			if ( levelIndex >= this.tlbBufferPosition ) {
-				if ( levelIndex - this.tlbBufferPosition > 1 )
-					throw new RuntimeException("Error here! The buffer skipped levels"); // Check, that levelIndex == 0 for level changes!
+				if ( levelIndex - this.tlbBufferPosition > 1 ) // Reopened container: the skipped blocks are not buffered
+					this.tlbBufferStart = levelIndex;
 				this.tlbBufferPosition = levelIndex + 1;
 			}
 		}
 		else if ( level == this.tlbLevel + 1 ) { // The next level
 			this.tlbBuffer[levelIndex] = block;
-			if ( levelIndex != 0 )
-				throw new RuntimeException("Error here!!"); // Check, that levelIndex == 0 for level changes!
+			// The level changes at index 0, unless the container was reopened
+			this.tlbBufferStart = levelIndex;
 			this.tlbBufferPosition = levelIndex + 1;
 			this.tlbLevel = level;
 		}
@@ -38,6 +38,14 @@ public class NoBlockBuffer implements BlockBuffer {
 		raf.read(b, blockNumber);
 	}
 
+	/**
+	 * @{inheritDoc}
+	 */
+	@Override
+	public void getBlocks(byte[] b, long firstBlockNumber) {
+		raf.read(b, firstBlockNumber);
+	}
+
 	/**
 	 * @{inheritDoc}
 	 */
@@ -9,6 +9,7 @@ import java.nio.file.StandardOpenOption;
 
 import com.sun.nio.file.ExtendedOpenOption;
 
+import xxl.core.collections.containers.io.CoalescingReader;
 import xxl.core.io.raw.RawAccess;
 import xxl.core.io.raw.RawAccessException;
 
@@ -25,6 +26,9 @@ public class FileChannelRawAccess implements RawAccess {
 	
 	private final OpenOption[] openOptions;
 	
+	/** Combines reads of neighbouring sectors */
+	private final CoalescingReader reader;
+	
 	/**
 	 * Creates a new FileChannelRawAccess instance
 	 */
@@ -32,6 +36,8 @@ public class FileChannelRawAccess implements RawAccess {
 		this.sectorSize = sectorSize;
 		this.openOptions = directIO  ? new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT } : 
 			  						   new OpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE };
+		// Reading up to two unrequested sectors is cheaper than an additional seek
+		this.reader = new CoalescingReader(sectorSize, 2 * sectorSize, CoalescingReader.DEFAULT_MAX_READ_SIZE);
 	}
 	
 
@@ -59,6 +65,7 @@ public class FileChannelRawAccess implements RawAccess {
 		
 		try {
 			this.channel.close();
+			this.reader.release();
 		}
 		catch (IOException e) {
 			throw new RawAccessException("Could not close file channel: " + e.getMessage());
@@ -107,6 +114,25 @@ public class FileChannelRawAccess implements RawAccess {
 			throw new RawAccessException("File ended before sector " + sector + " could be fully read");
 	}
 
+	/**
+	 * Reads the given sectors, coalescing neighbouring ones into a single
+	 * positional read.
+	 */
+	@Override
+	public void read(byte[][] blocks, long[] sectors, int count) throws RawAccessException {
+		final long[] positions = new long[count];
+		for (int i = 0; i < count; i++) {
+			assert blocks[i].length % sectorSize == 0;
+			positions[i] = sectors[i] * sectorSize;
+		}
+		try {
+			reader.read(channel, positions, blocks, count);
+		}
+		catch (IOException e) {
+			throw new RawAccessException("Could not read from file: " + e.getMessage());
+		}
+	}
+
 	/**
 	 * @{inheritDoc}
 	 */
@@ -0,0 +1,148 @@
+package xxl.core.collections.containers.io;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import xxl.core.collections.containers.ConstrainedDecoratorContainer;
+import xxl.core.collections.containers.Container;
+import xxl.core.functions.AbstractFunction;
+import xxl.core.io.Buffer;
+import xxl.core.io.SizeAware;
+
+/**
+ * A container keeping the objects read from the decorated container in a
+ * buffer, which may be shared with other containers. In contrast to the
+ * {@link BufferedContainer}, writes go straight to the decorated container
+ * and drop the buffered object, so the buffer never has to write back on
+ * displacement.
+ * <p>
+ * The container is placed on top of the converter of the tree nodes, and
+ * all readers of a node share the buffered, decoded node. The buffered
+ * nodes are versions that are never modified: a writer modifies a copy of
+ * its own and writes it back, which drops the buffered version. Readers
+ * still holding the old version keep a consistent node, later reads decode
+ * the new one.
+ * <p>
+ * Each buffered object is accounted with a fixed size, e.g., the block size
+ * of the decorated container.
+ */
+public class CachingContainer extends ConstrainedDecoratorContainer {
+
+	/**
+	 * A buffered object along with its estimated size.
+	 */
+	protected static class Cached implements SizeAware {
+
+		protected final Object object;
+
+		protected final int size;
+
+		protected Cached(Object object, int size) {
+			this.object = object;
+			this.size = size;
+		}
+
+		@Override
+		public int getMemSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * The buffer holding the read objects.
+	 */
+	@SuppressWarnings("rawtypes")
+	protected final Buffer buffer;
+
+	/**
+	 * The size each buffered object is accounted with.
+	 */
+	protected final int objectSize;
+
+	/**
+	 * Constructs a new caching container.
+	 *
+	 * @param container the container to decorate
+	 * @param buffer the buffer for the read objects. May be shared by
+	 *        several containers.
+	 * @param objectSize the size each buffered object is accounted with
+	 */
+	@SuppressWarnings("rawtypes")
+	public CachingContainer(Container container, Buffer buffer, int objectSize) {
+		super(container);
+		this.buffer = buffer;
+		this.objectSize = objectSize;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void clear() {
+		buffer.removeAll(this);
+		super.clear();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void close() {
+		buffer.removeAll(this);
+		super.close();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object get(Object id, final boolean unfix) throws NoSuchElementException {
+		return ((Cached) buffer.get(this, id, new AbstractFunction<Object, Cached>() {
+			@Override
+			public Cached invoke(Object id) {
+				return new Cached(CachingContainer.super.get(id, true), objectSize);
+			}
+		}, unfix)).object;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Iterator ids() {
+		return new Iterator() {
+			Iterator ids = CachingContainer.super.ids();
+			Object id;
+
+			@Override
+			public boolean hasNext() {
+				return ids.hasNext();
+			}
+
+			@Override
+			public Object next() throws NoSuchElementException {
+				return id = ids.next();
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public void remove() throws IllegalStateException {
+				ids.remove();
+				buffer.remove(CachingContainer.this, id);
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void remove(Object id) throws NoSuchElementException {
+		buffer.remove(this, id);
+		super.remove(id);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void unfix(Object id) throws NoSuchElementException {
+		buffer.unfix(this, id);
+		super.unfix(id);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void update(Object id, Object object, boolean unfix) throws NoSuchElementException {
+		super.update(id, object, unfix);
+		buffer.remove(this, id);
+	}
+}
@@ -0,0 +1,126 @@
+package xxl.core.collections.containers.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a sorted list of regions from a file channel with as few system calls
+ * as possible. Adjacent regions, and regions separated by at most a given gap,
+ * are coalesced into a single positional read into a reusable direct buffer,
+ * from which the regions are copied into their target arrays. The bytes of a
+ * gap are read and discarded, which is cheaper than an additional random
+ * access for small gaps.
+ * <p>
+ * The buffer is aligned to the given alignment, so the reader may be used on
+ * channels opened with O_DIRECT, provided that all positions and lengths are
+ * multiples of the alignment as well.
+ * <p>
+ * An instance is not thread-safe.
+ */
+public class CoalescingReader {
+
+	/** The default number of bytes read at most by a single system call */
+	public static final int DEFAULT_MAX_READ_SIZE = 1024 * 1024;
+
+	/** The alignment of the buffer */
+	private final int alignment;
+
+	/** The maximum number of unrequested bytes between two coalesced regions */
+	private final int maxGap;
+
+	/** The maximum number of bytes read by a single system call */
+	private final int maxReadSize;
+
+	/** The reusable read buffer */
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates a new CoalescingReader instance
+	 *
+	 * @param alignment
+	 *            the alignment of the read buffer, e.g., the block size
+	 * @param maxGap
+	 *            the maximum number of unrequested bytes between two regions
+	 *            read by a single system call
+	 * @param maxReadSize
+	 *            the maximum number of bytes read by a single system call,
+	 *            unless a single region is larger
+	 */
+	public CoalescingReader(int alignment, int maxGap, int maxReadSize) {
+		this.alignment = alignment;
+		this.maxGap = maxGap;
+		this.maxReadSize = maxReadSize;
+	}
+
+	/**
+	 * Reads the given regions. The i-th region starts at <tt>positions[i]</tt>
+	 * and fills <tt>targets[i]</tt> completely. The positions must be sorted
+	 * ascending; regions not in order are read separately.
+	 *
+	 * @param channel
+	 *            the channel to read from
+	 * @param positions
+	 *            the start positions of the regions
+	 * @param targets
+	 *            the arrays the regions are read into
+	 * @param count
+	 *            the number of regions
+	 * @return the number of system calls issued
+	 * @throws IOException
+	 *             if reading fails, or the file ends before a region
+	 */
+	public int read(FileChannel channel, long[] positions, byte[][] targets, int count) throws IOException {
+		int reads = 0;
+		int first = 0;
+		while (first < count) {
+			final long start = positions[first];
+			long end = start + targets[first].length;
+			int last = first + 1;
+			while (last < count && positions[last] >= positions[last - 1] && positions[last] - end <= maxGap &&
+				Math.max(end, positions[last] + targets[last].length) - start <= maxReadSize) {
+				end = Math.max(end, positions[last] + targets[last].length);
+				last++;
+			}
+
+			final ByteBuffer in = fill(channel, start, (int) (end - start));
+			reads++;
+			for (int i = first; i < last; i++) {
+				in.position((int) (positions[i] - start));
+				in.get(targets[i]);
+			}
+			first = last;
+		}
+		return reads;
+	}
+
+	/**
+	 * Reads the given number of bytes at the given position into the buffer.
+	 */
+	private ByteBuffer fill(FileChannel channel, long position, int length) throws IOException {
+		if (buffer == null || buffer.capacity() < length) {
+			final int capacity = Math.max(length, Math.min(maxReadSize, buffer == null ? 0 : 2 * buffer.capacity()));
+			// Direct buffers are aligned to powers of two only
+			buffer = Integer.bitCount(alignment) == 1 ?
+				ByteBuffer.allocateDirect(capacity + alignment).alignedSlice(alignment) : ByteBuffer.allocateDirect(capacity);
+		}
+		buffer.clear().limit(length);
+		long pos = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, pos);
+			if (read < 0)
+				throw new IOException("File ended at position " + pos + " before " + length + " bytes at position " +
+					position + " could be read");
+			pos += read;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Releases the buffer; it is reallocated on the next read.
+	 */
+	public void release() {
+		buffer = null;
+	}
+}
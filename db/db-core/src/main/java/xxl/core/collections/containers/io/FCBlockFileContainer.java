@@ -9,7 +9,10 @@ import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileStoreAttributeView;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import com.sun.nio.file.ExtendedOpenOption;
@@ -266,6 +269,22 @@ public class FCBlockFileContainer extends AbstractContainer {
 	
 	private long virtualFileLength;
 	
+	/**
+	 * The maximum number of blocks read in advance by {@link #prefetch(long[], int)}.
+	 */
+	public static final int MAX_PREFETCHED_BLOCKS = 256;
+	
+	/**
+	 * Blocks read in advance, by id. An entry is removed when it is requested
+	 * or its block is modified.
+	 */
+	private final Map<Long, byte[]> prefetched = new HashMap<>();
+	
+	/**
+	 * Combines the reads of neighbouring blocks, created on first use.
+	 */
+	private CoalescingReader reader;
+	
 	
 	/**
 	 * Constructs an empty BlockFileContainer that is able to store blocks
@@ -404,6 +423,7 @@ public class FCBlockFileContainer extends AbstractContainer {
 			reservedBitMap.setLength(0);
 			updatedBitMap.setLength(0);
 			freeList.setLength(0);
+			prefetched.clear();
 			size = 0;
 			virtualFileLength = 0;
 		}
@@ -436,6 +456,8 @@ public class FCBlockFileContainer extends AbstractContainer {
 			try {
 				container.close();
 				container = null;
+				prefetched.clear();
+				reader = null;
 				
 				metaData.seek(0);
 				metaData.writeInt(blockSize);
@@ -494,7 +516,11 @@ public class FCBlockFileContainer extends AbstractContainer {
 	public Object get (Object id, boolean unfix) throws NoSuchElementException {
 		open();
 		try {
-			byte [] array = new byte [blockSize];
+			byte [] array = prefetched.remove(((Number)id).longValue());
+			if (array!=null)
+				return new Block(array, 0, blockSize);
+			
+			array = new byte [blockSize];
 
 			if (!contains(id))
 				throw new NoSuchElementException();
@@ -508,6 +534,49 @@ public class FCBlockFileContainer extends AbstractContainer {
 		}
 	}
 
+	/**
+	 * Reads the blocks with the given identifiers in advance, so subsequent
+	 * calls of {@link #get(Object, boolean)} for them do not access the file.
+	 * The blocks are read in the order of their offsets, and neighbouring
+	 * blocks are read by a single system call. Blocks read in advance by a
+	 * previous call, but not requested yet, are discarded. At most
+	 * {@link #MAX_PREFETCHED_BLOCKS} blocks are read; unknown identifiers are
+	 * ignored.
+	 *
+	 * @param ids the identifiers, i.e., offsets, of the blocks.
+	 * @param count the number of identifiers.
+	 */
+	public void prefetch (long [] ids, int count) {
+		open();
+		prefetched.clear();
+		final long [] offsets = new long [Math.min(count, MAX_PREFETCHED_BLOCKS)];
+		int n = 0;
+		for (int i = 0; i<count && n<offsets.length; i++)
+			if (contains(ids[i]))
+				offsets[n++] = ids[i];
+		if (n==0)
+			return;
+		
+		Arrays.sort(offsets, 0, n);
+		int distinct = 1;
+		for (int i = 1; i<n; i++)
+			if (offsets[i]!=offsets[distinct-1])
+				offsets[distinct++] = offsets[i];
+		
+		final byte [][] blocks = new byte [distinct][blockSize];
+		if (reader==null)
+			// Reading up to two unrequested blocks is cheaper than an additional seek
+			reader = new CoalescingReader(blockSize, 2*blockSize, CoalescingReader.DEFAULT_MAX_READ_SIZE);
+		try {
+			reader.read(container, offsets, blocks, distinct);
+		}
+		catch (IOException ie) {
+			throw new WrappingRuntimeException(ie);
+		}
+		for (int i = 0; i<distinct; i++)
+			prefetched.put(offsets[i], blocks[i]);
+	}
+
 	/**
 	 * Returns an iterator that delivers all the identifiers of
 	 * the container that are in use.
@@ -593,6 +662,7 @@ public class FCBlockFileContainer extends AbstractContainer {
 
 			if (!isUsed(id))
 				throw new NoSuchElementException();
+			prefetched.remove(offset);
 			if (--size==0)
 				reset();
 			else {
@@ -709,6 +779,7 @@ public class FCBlockFileContainer extends AbstractContainer {
 
 			if (offset+blockSize>virtualFileLength)
 				throw new NoSuchElementException();
+			prefetched.remove(offset);
 			updatedBitMap.seek(offset/blockSize/8);
 			b = updatedBitMap.read();
 			if ((b&(1<<(offset/blockSize%8)))==0) {
@@ -0,0 +1,69 @@
+package xxl.core.collections.containers.io;
+
+import java.util.Iterator;
+
+import xxl.core.io.Buffer;
+
+/**
+ * A suspendable caching container.
+ *
+ */
+public class SuspendableCachingContainer extends CachingContainer implements SuspendableContainer {
+
+	/**
+	 * Constructs a new caching container.
+	 *
+	 * @param container
+	 *            the container to decorate
+	 * @param buffer
+	 *            the buffer for the read objects. May be shared by several
+	 *            containers.
+	 * @param objectSize
+	 *            the size each buffered object is accounted with
+	 */
+	@SuppressWarnings("rawtypes")
+	public SuspendableCachingContainer(final SuspendableContainer container, final Buffer buffer,
+			final int objectSize) {
+		super(container, buffer, objectSize);
+	}
+
+	@Override
+	public void suspend() {
+		((SuspendableContainer) this.container).suspend();
+	}
+
+	@Override
+	public void resume() {
+		((SuspendableContainer) this.container).resume();
+	}
+
+	@Override
+	public boolean isSuspended() {
+		return ((SuspendableContainer) this.container).isSuspended();
+	}
+
+	@Override
+	public Iterator<?> idsBackwards() {
+		return ((SuspendableContainer) this.container).idsBackwards();
+	}
+
+	@Override
+	public double getCompressionRatio() {
+		return ((SuspendableContainer) this.container).getCompressionRatio();
+	}
+
+	@Override
+	public long getAllocatedSpace() {
+		return ((SuspendableContainer) this.container).getAllocatedSpace();
+	}
+
+	@Override
+	public void allocateSpace(final long space) {
+		((SuspendableContainer) this.container).allocateSpace(space);
+	}
+
+	@Override
+	public void prefetch(final long[] ids, final int count) {
+		((SuspendableContainer) this.container).prefetch(ids, count);
+	}
+}
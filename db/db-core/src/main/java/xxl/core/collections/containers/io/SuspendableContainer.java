@@ -61,4 +61,18 @@ public interface SuspendableContainer extends Container {
 	 *            the amount of additional space to be allocated
 	 */
 	void allocateSpace(long space);
+
+	/**
+	 * Announces that the objects with the given ids are requested soon, so
+	 * the container may read them in advance, combining the reads of objects
+	 * stored close to each other. The ids should be in ascending order. This
+	 * default implementation does nothing.
+	 *
+	 * @param ids
+	 *            the ids of the objects
+	 * @param count
+	 *            the number of ids
+	 */
+	default void prefetch(long[] ids, int count) {
+	}
 }
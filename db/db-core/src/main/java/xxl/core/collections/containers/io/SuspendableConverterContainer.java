@@ -83,4 +83,9 @@ public class SuspendableConverterContainer extends ConverterContainer implements
 	public void allocateSpace(final long space) {
 		((SuspendableContainer) this.container).allocateSpace(space);
 	}
+
+	@Override
+	public void prefetch(final long[] ids, final int count) {
+		((SuspendableContainer) this.container).prefetch(ids, count);
+	}
 }
@@ -192,6 +192,17 @@ public class BPlusLink extends BPlusTree {
 			SplitInfo splitInfo) {
 			return (IndexEntry) super.initialize(container, id, splitInfo);
 		}
+
+		/**
+		 * Returns a copy of this entry with a separator of its own. Modifying
+		 * the copy leaves this entry unchanged.
+		 *
+		 * @return the copy
+		 */
+		public IndexEntry copy() {
+			final IndexEntry copy = createIndexEntry(this.parentLevel).initialize(this.id);
+			return this.separator != null ? copy.initialize(this.separator) : copy;
+		}
 	}
 
 	/**
@@ -232,6 +243,74 @@ public class BPlusLink extends BPlusTree {
 		public void setPreviousNeighbor( IndexEntry pn ) {
 			previousNeighbor = pn;
 		}
+
+		/**
+		 * In duplicate mode, inserts the entry into this leaf behind all
+		 * entries with an equal key. Thus, the position of an entry among the
+		 * entries with its key does not change by later inserts.
+		 *
+		 * @param entry
+		 *            the new entry which has to be inserted
+		 */
+		@Override
+		protected void grow(final Object entry) {
+			if ( !duplicate || level != 0 || entries.isEmpty() ) {
+				super.grow(entry);
+				return;
+			}
+			entries.add(upperBound(separator(entry).sepValue()), entry);
+		}
+
+		/**
+		 * In duplicate mode, chooses the leftmost subtree whose separator is
+		 * greater than the key of the inserted entry, or the last subtree.
+		 * Together with {@link #grow(Object)}, an entry is inserted behind all
+		 * entries with an equal key, even if these span several leaves.
+		 *
+		 * @param descriptor
+		 *            the <tt>Separator</tt> of the entry which is to insert
+		 * @param path
+		 *            the path from the root to this <tt>Node</tt>
+		 * @return the <tt>IndexEntry</tt> pointing to the subtree which is
+		 *         followed during an insertion
+		 */
+		@SuppressWarnings("rawtypes")
+		@Override
+		protected Tree.IndexEntry chooseSubtree(final Descriptor descriptor, final java.util.Stack path) {
+			final Separator separator = (Separator) descriptor;
+			if ( !duplicate || !separator.isDefinite() )
+				return super.chooseSubtree(descriptor, path);
+			final int index = upperBound(separator.sepValue());
+			final BPlusTree.IndexEntry subTreeEntry = (BPlusTree.IndexEntry) entries.get(Math.min(index, number() - 1));
+			if ( index == number() && subTreeEntry.separator().compareTo(descriptor) < 0 ) {
+				subTreeEntry.separator().sepValue = ((Separator) descriptor.clone()).sepValue;
+				BPlusLink.this.update(path);
+			}
+			return subTreeEntry;
+		}
+
+		/**
+		 * Returns the position of the first entry whose separation value is
+		 * greater than the given key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the position of the first greater entry, {@link #number()}
+		 *         if there is none
+		 */
+		@SuppressWarnings({"rawtypes","unchecked"})
+		private int upperBound(final Comparable key) {
+			int lo = 0;
+			int hi = number();
+			while ( lo < hi ) {
+				final int mid = (lo + hi) >>> 1;
+				if ( separator(getEntry(mid)).sepValue().compareTo(key) <= 0 )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
 		
 
 		/**
@@ -0,0 +1,124 @@
+package xxl.core.indexStructures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import xxl.core.io.converters.MeasuredConverter;
+import xxl.core.util.WrappingRuntimeException;
+
+/**
+ * A Bloom filter over keys. Keys are hashed via their serialized form, so
+ * the filter stays valid across restarts, even for keys without a stable
+ * {@link Object#hashCode()}.
+ *
+ * @param <K> the key type
+ */
+public class BloomFilter<K> {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final MeasuredConverter<K> keyConverter;
+	private final long[] bits;
+	private final long numBits;
+	private final int numHashes;
+
+	private final ByteArrayOutputStream keyBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream keyOut = new DataOutputStream(keyBuffer);
+
+	/**
+	 * Creates an empty filter.
+	 *
+	 * @param expectedKeys the expected number of keys
+	 * @param bitsPerKey the number of bits per expected key
+	 * @param keyConverter the converter used for hashing keys
+	 */
+	public BloomFilter(long expectedKeys, int bitsPerKey, MeasuredConverter<K> keyConverter) {
+		this(new long[(int) Math.max(1, (Math.max(1, expectedKeys) * bitsPerKey + 63) / 64)],
+			Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * Math.log(2)))), keyConverter);
+	}
+
+	private BloomFilter(long[] bits, int numHashes, MeasuredConverter<K> keyConverter) {
+		this.bits = bits;
+		this.numBits = (long) bits.length * 64;
+		this.numHashes = numHashes;
+		this.keyConverter = keyConverter;
+	}
+
+	/**
+	 * Adds the given key.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void add(K key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % numBits;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Tells whether the given key may have been added. False positives are
+	 * possible, false negatives are not.
+	 *
+	 * @param key the key
+	 * @return false if the key was definitely not added
+	 */
+	public synchronized boolean mightContain(K key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < numHashes; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % numBits;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * FNV-1a over the serialized key, finalized with the MurmurHash3 mixer.
+	 */
+	private long hash(K key) {
+		keyBuffer.reset();
+		try {
+			keyConverter.write(keyOut, key);
+			keyOut.flush();
+		} catch (IOException e) {
+			throw new WrappingRuntimeException(e);
+		}
+		byte[] bytes = keyBuffer.toByteArray();
+		long h = FNV_OFFSET;
+		for (byte b : bytes) {
+			h ^= b & 0xff;
+			h *= FNV_PRIME;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(numHashes);
+		out.writeInt(bits.length);
+		for (long word : bits)
+			out.writeLong(word);
+	}
+
+	public static <K> BloomFilter<K> read(DataInput in, MeasuredConverter<K> keyConverter) throws IOException {
+		int numHashes = in.readInt();
+		long[] bits = new long[in.readInt()];
+		for (int i = 0; i < bits.length; i++)
+			bits[i] = in.readLong();
+		return new BloomFilter<>(bits, numHashes, keyConverter);
+	}
+}
@@ -0,0 +1,604 @@
+package xxl.core.indexStructures;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import sigmod2021.db.core.primaryindex.impl.legacy.SchemaManager;
+import sigmod2021.event.Attribute;
+import sigmod2021.event.Attribute.DataType;
+import sigmod2021.event.Attribute.Encoding;
+import xxl.core.io.converters.LongConverter;
+import xxl.core.io.converters.MeasuredConverter;
+
+/**
+ * Lightweight encodings of the columns of a leaf, see {@link Encoding}:
+ * <ul>
+ * <li>DELTA stores the first value and the differences of consecutive
+ * differences in buckets of 1, 9, 12, 16 or 68 bits, as proposed for the
+ * timestamps of Gorilla. Regular timestamps take a single bit each.</li>
+ * <li>XOR stores the first value and the XOR of each value with its
+ * predecessor, omitting the leading and trailing zeros, as proposed for the
+ * values of Gorilla.</li>
+ * <li>FRAME_OF_REFERENCE stores the minimum value and the difference of each
+ * value to it in as few bits as the largest difference requires.</li>
+ * <li>DICTIONARY stores the distinct values in the order of their first
+ * occurrence and the index of each value in as few bits as possible.</li>
+ * </ul>
+ * Each column starts with a tag byte denoting its encoding. An encoded
+ * column continues with the size of its data, a plain column with its values
+ * as written by {@link SchemaManager#getObjectConverter(Attribute)}. A column
+ * is encoded only if this saves space, so an encoded leaf is at most one
+ * byte per column larger than a plain one.
+ */
+public final class ColumnEncodings {
+
+	private static final byte PLAIN = 0;
+
+	private static final byte DELTA = 1;
+
+	private static final byte XOR = 2;
+
+	private static final byte FRAME_OF_REFERENCE = 3;
+
+	private static final byte DICTIONARY = 4;
+
+	/** The size of the length field preceding the data of an encoded column */
+	private static final int LENGTH_SIZE = 4;
+
+	private ColumnEncodings() {
+	}
+
+	/**
+	 * Returns the encoding of the given attribute's column: the encoding
+	 * selected for the attribute if it applies to its type, the default
+	 * encoding of the type otherwise.
+	 *
+	 * @param attribute the attribute
+	 * @return the encoding of the attribute's column
+	 */
+	public static Encoding encodingOf(Attribute attribute) {
+		final Encoding selected = attribute.getEncoding();
+		return selected != null && selected.isApplicable(attribute.getType()) ? selected
+			: defaultEncoding(attribute.getType());
+	}
+
+	/**
+	 * Returns the encoding used for the given type if the attribute does not
+	 * select one.
+	 *
+	 * @param type the data type
+	 * @return the default encoding of the type
+	 */
+	public static Encoding defaultEncoding(DataType type) {
+		if ( type.isIntegral() )
+			return Encoding.FRAME_OF_REFERENCE;
+		else if ( type.isDecimal() )
+			return Encoding.XOR;
+		else if ( type == DataType.STRING || type == DataType.GEOMETRY )
+			return Encoding.DICTIONARY;
+		else
+			return Encoding.PLAIN;
+	}
+
+	/**
+	 * Writes the column of the given attribute.
+	 *
+	 * @param output the output to write to
+	 * @param attribute the attribute
+	 * @param values the values of the column
+	 * @throws IOException if writing fails
+	 */
+	static void writeColumn(DataOutput output, Attribute attribute, Object[] values) throws IOException {
+		final MeasuredConverter<Object> converter = SchemaManager.getObjectConverter(attribute);
+		final Encoding encoding = encodingOf(attribute);
+		final byte[] encoded = values.length == 0 ? null : encode(encoding, attribute.getType(), values);
+		if ( encoded != null && encoded.length + LENGTH_SIZE < plainSize(attribute, values) ) {
+			output.writeByte(tagOf(encoding));
+			output.writeInt(encoded.length);
+			output.write(encoded);
+		}
+		else {
+			output.writeByte(PLAIN);
+			for (final Object value : values)
+				converter.write(output, value);
+		}
+	}
+
+	/**
+	 * Computes the size of the given column written by the attribute's
+	 * converter, without serializing it.
+	 *
+	 * @param attribute the attribute
+	 * @param values the values of the column
+	 * @return the size of the plain column in bytes
+	 */
+	private static long plainSize(Attribute attribute, Object[] values) {
+		final DataType type = attribute.getType();
+		if ( type != DataType.STRING && type != DataType.GEOMETRY )
+			return (long) values.length * SchemaManager.getAttributeSize(attribute);
+		long size = 0;
+		for (final Object value : values)
+			size += utfSize((String) value);
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes {@link DataOutput#writeUTF(String)} writes
+	 * for the given string: its length and its modified UTF-8 encoding.
+	 *
+	 * @param value the string
+	 * @return the size of the written string in bytes
+	 */
+	private static int utfSize(String value) {
+		int size = 2;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if ( c >= 0x0001 && c <= 0x007F )
+				size += 1;
+			else if ( c <= 0x07FF )
+				size += 2;
+			else
+				size += 3;
+		}
+		return size;
+	}
+
+	/**
+	 * Reads the column of the given attribute.
+	 *
+	 * @param input the input to read from
+	 * @param attribute the attribute
+	 * @param number the number of values
+	 * @return the column, see {@link ColumnarLeaf#getColumn(int)}
+	 * @throws IOException if reading fails
+	 */
+	static Object readColumn(DataInput input, Attribute attribute, int number) throws IOException {
+		final byte tag = input.readByte();
+		if ( tag == PLAIN )
+			return ColumnarLeaf.readColumn(input, attribute, number);
+
+		final byte[] data = new byte[input.readInt()];
+		input.readFully(data);
+		final DataType type = attribute.getType();
+		switch (tag) {
+			case DELTA:
+				if ( type.isIntegral() )
+					return toIntegral(decodeDelta(data, number), type);
+				break;
+			case FRAME_OF_REFERENCE:
+				if ( type.isIntegral() )
+					return toIntegral(decodeFrameOfReference(data, number), type);
+				break;
+			case XOR:
+				if ( type == DataType.DOUBLE ) {
+					final long[] bits = decodeXor(data, number, Long.SIZE);
+					final double[] column = new double[number];
+					for (int i = 0; i < number; i++)
+						column[i] = Double.longBitsToDouble(bits[i]);
+					return column;
+				}
+				else if ( type == DataType.FLOAT ) {
+					final long[] bits = decodeXor(data, number, Integer.SIZE);
+					final float[] column = new float[number];
+					for (int i = 0; i < number; i++)
+						column[i] = Float.intBitsToFloat((int) bits[i]);
+					return column;
+				}
+				break;
+			case DICTIONARY:
+				if ( type == DataType.STRING || type == DataType.GEOMETRY )
+					return decodeDictionary(data, number);
+				break;
+			default:
+				break;
+		}
+		throw new IOException("Illegal encoding " + tag + " of attribute " + attribute);
+	}
+
+	/**
+	 * Writes a column of timestamps, delta encoded if this saves space.
+	 *
+	 * @param output the output to write to
+	 * @param values the timestamps
+	 * @throws IOException if writing fails
+	 */
+	static void writeTimestamps(DataOutput output, long[] values) throws IOException {
+		final byte[] encoded = values.length == 0 ? null : encodeDelta(values);
+		if ( encoded != null && encoded.length + LENGTH_SIZE < values.length * Long.BYTES ) {
+			output.writeByte(DELTA);
+			output.writeInt(encoded.length);
+			output.write(encoded);
+		}
+		else {
+			output.writeByte(PLAIN);
+			for (final long value : values)
+				LongConverter.DEFAULT_INSTANCE.writeLong(output, value);
+		}
+	}
+
+	/**
+	 * Reads a column of timestamps written by
+	 * {@link #writeTimestamps(DataOutput, long[])}.
+	 *
+	 * @param input the input to read from
+	 * @param number the number of timestamps
+	 * @return the timestamps
+	 * @throws IOException if reading fails
+	 */
+	static long[] readTimestamps(DataInput input, int number) throws IOException {
+		final byte tag = input.readByte();
+		if ( tag == PLAIN ) {
+			final long[] result = new long[number];
+			for (int i = 0; i < number; i++)
+				result[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
+			return result;
+		}
+		else if ( tag == DELTA ) {
+			final byte[] data = new byte[input.readInt()];
+			input.readFully(data);
+			return decodeDelta(data, number);
+		}
+		throw new IOException("Illegal encoding " + tag + " of timestamps");
+	}
+
+	private static byte tagOf(Encoding encoding) {
+		switch (encoding) {
+			case DELTA:
+				return DELTA;
+			case XOR:
+				return XOR;
+			case FRAME_OF_REFERENCE:
+				return FRAME_OF_REFERENCE;
+			case DICTIONARY:
+				return DICTIONARY;
+			default:
+				return PLAIN;
+		}
+	}
+
+	/**
+	 * Encodes the given values, returns null for plain columns.
+	 */
+	private static byte[] encode(Encoding encoding, DataType type, Object[] values) throws IOException {
+		switch (encoding) {
+			case DELTA:
+				return encodeDelta(toLongs(values));
+			case FRAME_OF_REFERENCE:
+				return encodeFrameOfReference(toLongs(values));
+			case XOR: {
+				final long[] bits = new long[values.length];
+				if ( type == DataType.DOUBLE ) {
+					for (int i = 0; i < bits.length; i++)
+						bits[i] = Double.doubleToRawLongBits((Double) values[i]);
+					return encodeXor(bits, Long.SIZE);
+				}
+				for (int i = 0; i < bits.length; i++)
+					bits[i] = Float.floatToRawIntBits((Float) values[i]) & 0xFFFFFFFFL;
+				return encodeXor(bits, Integer.SIZE);
+			}
+			case DICTIONARY:
+				return encodeDictionary(values);
+			default:
+				return null;
+		}
+	}
+
+	private static long[] toLongs(Object[] values) {
+		final long[] result = new long[values.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ((Number) values[i]).longValue();
+		return result;
+	}
+
+	private static Object toIntegral(long[] values, DataType type) {
+		switch (type) {
+			case BYTE: {
+				final byte[] column = new byte[values.length];
+				for (int i = 0; i < column.length; i++)
+					column[i] = (byte) values[i];
+				return column;
+			}
+			case SHORT: {
+				final short[] column = new short[values.length];
+				for (int i = 0; i < column.length; i++)
+					column[i] = (short) values[i];
+				return column;
+			}
+			case INTEGER: {
+				final int[] column = new int[values.length];
+				for (int i = 0; i < column.length; i++)
+					column[i] = (int) values[i];
+				return column;
+			}
+			default:
+				return values;
+		}
+	}
+
+	/**
+	 * Maps signed to unsigned values, such that values close to zero get few
+	 * significant bits.
+	 */
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static byte[] encodeDelta(long[] values) {
+		final BitWriter out = new BitWriter(values.length + 8);
+		out.write(values[0], 64);
+		long previous = values[0];
+		long previousDelta = 0;
+		for (int i = 1; i < values.length; i++) {
+			// Differences may overflow, which the decoder reverts
+			final long delta = values[i] - previous;
+			final long dod = zigZag(delta - previousDelta);
+			if ( dod == 0 )
+				out.write(0, 1);
+			else if ( dod >>> 7 == 0 ) {
+				out.write(0b10, 2);
+				out.write(dod, 7);
+			}
+			else if ( dod >>> 9 == 0 ) {
+				out.write(0b110, 3);
+				out.write(dod, 9);
+			}
+			else if ( dod >>> 12 == 0 ) {
+				out.write(0b1110, 4);
+				out.write(dod, 12);
+			}
+			else {
+				out.write(0b1111, 4);
+				out.write(dod, 64);
+			}
+			previous = values[i];
+			previousDelta = delta;
+		}
+		return out.toByteArray();
+	}
+
+	static long[] decodeDelta(byte[] data, int number) {
+		final long[] result = new long[number];
+		if ( number == 0 )
+			return result;
+		final BitReader in = new BitReader(data);
+		long previous = result[0] = in.read(64);
+		long previousDelta = 0;
+		for (int i = 1; i < number; i++) {
+			int ones = 0;
+			while (ones < 4 && in.read(1) == 1)
+				ones++;
+			final long dod;
+			switch (ones) {
+				case 0:
+					dod = 0;
+					break;
+				case 1:
+					dod = in.read(7);
+					break;
+				case 2:
+					dod = in.read(9);
+					break;
+				case 3:
+					dod = in.read(12);
+					break;
+				default:
+					dod = in.read(64);
+					break;
+			}
+			previousDelta += unZigZag(dod);
+			previous = result[i] = previous + previousDelta;
+		}
+		return result;
+	}
+
+	static byte[] encodeFrameOfReference(long[] values) {
+		long min = values[0];
+		long max = values[0];
+		for (final long value : values) {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		// The range is unsigned, it may exceed Long.MAX_VALUE
+		final int width = 64 - Long.numberOfLeadingZeros(max - min);
+		final BitWriter out = new BitWriter(9 + (int) (((long) values.length * width + 7) / 8));
+		out.write(min, 64);
+		out.write(width, 7);
+		if ( width > 0 ) {
+			for (final long value : values)
+				out.write(value - min, width);
+		}
+		return out.toByteArray();
+	}
+
+	static long[] decodeFrameOfReference(byte[] data, int number) {
+		final BitReader in = new BitReader(data);
+		final long min = in.read(64);
+		final int width = (int) in.read(7);
+		final long[] result = new long[number];
+		for (int i = 0; i < number; i++)
+			result[i] = width == 0 ? min : min + in.read(width);
+		return result;
+	}
+
+	/**
+	 * Encodes the given bit patterns, whose upper <tt>64 - width</tt> bits
+	 * are zero.
+	 */
+	static byte[] encodeXor(long[] values, int width) {
+		final BitWriter out = new BitWriter(values.length * 2 + 8);
+		out.write(values[0], width);
+		long previous = values[0];
+		int leading = -1;
+		int trailing = 0;
+		for (int i = 1; i < values.length; i++) {
+			final long xor = values[i] ^ previous;
+			if ( xor == 0 )
+				out.write(0, 1);
+			else {
+				out.write(1, 1);
+				final int lz = Math.min(31, Long.numberOfLeadingZeros(xor) - (64 - width));
+				final int tz = Long.numberOfTrailingZeros(xor);
+				if ( leading >= 0 && lz >= leading && tz >= trailing ) {
+					// The meaningful bits fit into the previous window
+					out.write(0, 1);
+					out.write(xor >>> trailing, width - leading - trailing);
+				}
+				else {
+					final int length = width - lz - tz;
+					out.write(1, 1);
+					out.write(lz, 5);
+					out.write(length - 1, 6);
+					out.write(xor >>> tz, length);
+					leading = lz;
+					trailing = tz;
+				}
+			}
+			previous = values[i];
+		}
+		return out.toByteArray();
+	}
+
+	static long[] decodeXor(byte[] data, int number, int width) {
+		final long[] result = new long[number];
+		if ( number == 0 )
+			return result;
+		final BitReader in = new BitReader(data);
+		long previous = result[0] = in.read(width);
+		int leading = 0;
+		int trailing = 0;
+		for (int i = 1; i < number; i++) {
+			if ( in.read(1) == 1 ) {
+				if ( in.read(1) == 1 ) {
+					leading = (int) in.read(5);
+					final int length = (int) in.read(6) + 1;
+					trailing = width - leading - length;
+				}
+				previous ^= in.read(width - leading - trailing) << trailing;
+			}
+			result[i] = previous;
+		}
+		return result;
+	}
+
+	static byte[] encodeDictionary(Object[] values) throws IOException {
+		final Map<Object, Integer> codes = new HashMap<>();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final int[] indexes = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			final Integer code = codes.get(values[i]);
+			indexes[i] = code != null ? code : codes.size();
+			if ( code == null )
+				codes.put(values[i], indexes[i]);
+		}
+		final Object[] dictionary = new Object[codes.size()];
+		for (final Map.Entry<Object, Integer> e : codes.entrySet())
+			dictionary[e.getValue()] = e.getKey();
+
+		out.writeInt(dictionary.length);
+		for (final Object value : dictionary)
+			out.writeUTF((String) value);
+
+		final int width = 32 - Integer.numberOfLeadingZeros(dictionary.length - 1);
+		final BitWriter codeBits = new BitWriter((values.length * width + 7) / 8);
+		for (final int index : indexes)
+			codeBits.write(index, width);
+		out.write(codeBits.toByteArray());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Object[] decodeDictionary(byte[] data, int number) throws IOException {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+		final DataInputStream in = new DataInputStream(bytes);
+		final Object[] dictionary = new Object[in.readInt()];
+		for (int i = 0; i < dictionary.length; i++)
+			dictionary[i] = in.readUTF();
+
+		final int width = 32 - Integer.numberOfLeadingZeros(dictionary.length - 1);
+		final BitReader codes = new BitReader(Arrays.copyOfRange(data, data.length - bytes.available(), data.length));
+		final Object[] result = new Object[number];
+		for (int i = 0; i < number; i++)
+			result[i] = dictionary[width == 0 ? 0 : (int) codes.read(width)];
+		return result;
+	}
+
+	/**
+	 * Appends bits to a growing byte array, most significant bit first.
+	 */
+	private static final class BitWriter {
+
+		private byte[] buffer;
+
+		/** The number of bits written */
+		private long bits;
+
+		BitWriter(int capacity) {
+			this.buffer = new byte[Math.max(8, capacity)];
+		}
+
+		/**
+		 * Writes the lowest <tt>count</tt> bits of the given value.
+		 */
+		void write(long value, int count) {
+			while (count > 0) {
+				final int index = (int) (bits >>> 3);
+				if ( index == buffer.length )
+					buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				final int free = 8 - (int) (bits & 7);
+				final int n = Math.min(free, count);
+				final int chunk = (int) (value >>> (count - n)) & ((1 << n) - 1);
+				buffer[index] |= (byte) (chunk << (free - n));
+				bits += n;
+				count -= n;
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, (int) ((bits + 7) >>> 3));
+		}
+	}
+
+	/**
+	 * Reads the bits written by a {@link BitWriter}.
+	 */
+	private static final class BitReader {
+
+		private final byte[] data;
+
+		/** The number of bits read */
+		private long position;
+
+		BitReader(byte[] data) {
+			this.data = data;
+		}
+
+		/**
+		 * Reads <tt>count</tt> bits into the lowest bits of the result.
+		 */
+		long read(int count) {
+			long result = 0;
+			while (count > 0) {
+				final int available = 8 - (int) (position & 7);
+				final int n = Math.min(available, count);
+				final int chunk = ((data[(int) (position >>> 3)] & 0xFF) >>> (available - n)) & ((1 << n) - 1);
+				result = (result << n) | chunk;
+				position += n;
+				count -= n;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package xxl.core.indexStructures;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import sigmod2021.event.Attribute;
+import sigmod2021.event.Event;
+import sigmod2021.event.EventSchema;
+import sigmod2021.event.impl.AbstractEvent;
+import sigmod2021.event.impl.SimpleEvent;
+import xxl.core.io.converters.ByteConverter;
+import xxl.core.io.converters.DoubleConverter;
+import xxl.core.io.converters.FloatConverter;
+import xxl.core.io.converters.IntegerConverter;
+import xxl.core.io.converters.LongConverter;
+import xxl.core.io.converters.ShortConverter;
+import xxl.core.io.converters.StringConverter;
+
+/**
+ * The entry list of a leaf read from its column-wise serialization. Numeric
+ * attributes are kept in primitive arrays, and the entries are handed out as
+ * lightweight views, which box an attribute only when it is requested. Thus,
+ * a scan evaluating a few predicates on a leaf does not decode the payload of
+ * all its events.
+ * <p>
+ * The columns are never modified. On the first modification of the list,
+ * the views are copied into an ordinary list, which serves all further
+ * requests.
+ */
+public class ColumnarLeaf extends AbstractList<Object> implements RandomAccess {
+
+	/**
+	 * An event backed by a row of the columns.
+	 */
+	public class Row extends AbstractEvent {
+
+		private final int row;
+
+		private Row(int row) {
+			this.row = row;
+		}
+
+		@Override
+		public Object get(int index) {
+			return getValue(row, index);
+		}
+
+		@Override
+		public <T> T get(int index, Class<T> clazz) {
+			return clazz.cast(getValue(row, index));
+		}
+
+		@Override
+		public long getT1() {
+			return t1[row];
+		}
+
+		@Override
+		public long getT2() {
+			return t2 == null ? t1[row] + 1 : t2[row];
+		}
+
+		@Override
+		public int getNumberOfAttributes() {
+			return columns.length;
+		}
+
+		@Override
+		public Event window(long t1, long t2) {
+			final Object[] payload = new Object[columns.length];
+			for (int i = 0; i < payload.length; i++)
+				payload[i] = getValue(row, i);
+			return new SimpleEvent(payload, t1, t2);
+		}
+	}
+
+	/**
+	 * The attribute columns: a primitive array for each numeric attribute, an
+	 * object array otherwise.
+	 */
+	private final Object[] columns;
+
+	/** The start timestamps */
+	private final long[] t1;
+
+	/** The end timestamps, null for chronon events */
+	private final long[] t2;
+
+	/** The number of rows */
+	private final int number;
+
+	/** The row views handed out so far */
+	private final Row[] rows;
+
+	/** The list replacing the columns after the first modification */
+	private volatile List<Object> entries;
+
+	private ColumnarLeaf(Object[] columns, long[] t1, long[] t2) {
+		this.columns = columns;
+		this.t1 = t1;
+		this.t2 = t2;
+		this.number = t1.length;
+		this.rows = new Row[number];
+	}
+
+	/**
+	 * Reads a leaf written column-wise: all values of each attribute, the
+	 * start timestamps and, for intervals, the end timestamps.
+	 *
+	 * @param input the input to read from
+	 * @param schema the schema of the events
+	 * @param number the number of events
+	 * @param intervals true if the end timestamps are stored
+	 * @return the leaf's entries
+	 * @throws IOException if reading fails
+	 */
+	public static ColumnarLeaf read(DataInput input, EventSchema schema, int number, boolean intervals)
+		throws IOException {
+		final Object[] columns = new Object[schema.getNumAttributes()];
+		for (int a = 0; a < columns.length; a++)
+			columns[a] = readColumn(input, schema.getAttribute(a), number);
+
+		final long[] t1 = new long[number];
+		for (int i = 0; i < number; i++)
+			t1[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
+
+		long[] t2 = null;
+		if ( intervals ) {
+			t2 = new long[number];
+			for (int i = 0; i < number; i++)
+				t2[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
+		}
+		return new ColumnarLeaf(columns, t1, t2);
+	}
+
+	/**
+	 * Reads a leaf written column-wise with encoded columns, see
+	 * {@link ColumnEncodings}: all values of each attribute, the start
+	 * timestamps and, for intervals, the durations of the events.
+	 *
+	 * @param input the input to read from
+	 * @param schema the schema of the events
+	 * @param number the number of events
+	 * @param intervals true if the durations are stored
+	 * @return the leaf's entries
+	 * @throws IOException if reading fails
+	 */
+	public static ColumnarLeaf readEncoded(DataInput input, EventSchema schema, int number, boolean intervals)
+		throws IOException {
+		final Object[] columns = new Object[schema.getNumAttributes()];
+		for (int a = 0; a < columns.length; a++)
+			columns[a] = ColumnEncodings.readColumn(input, schema.getAttribute(a), number);
+
+		final long[] t1 = ColumnEncodings.readTimestamps(input, number);
+		long[] t2 = null;
+		if ( intervals ) {
+			t2 = ColumnEncodings.readTimestamps(input, number);
+			for (int i = 0; i < number; i++)
+				t2[i] += t1[i];
+		}
+		return new ColumnarLeaf(columns, t1, t2);
+	}
+
+	static Object readColumn(DataInput input, Attribute attribute, int number) throws IOException {
+		switch (attribute.getType()) {
+			case BYTE: {
+				final byte[] column = new byte[number];
+				for (int i = 0; i < number; i++)
+					column[i] = ByteConverter.DEFAULT_INSTANCE.readByte(input);
+				return column;
+			}
+			case SHORT: {
+				final short[] column = new short[number];
+				for (int i = 0; i < number; i++)
+					column[i] = ShortConverter.DEFAULT_INSTANCE.readShort(input);
+				return column;
+			}
+			case INTEGER: {
+				final int[] column = new int[number];
+				for (int i = 0; i < number; i++)
+					column[i] = IntegerConverter.DEFAULT_INSTANCE.readInt(input);
+				return column;
+			}
+			case LONG: {
+				final long[] column = new long[number];
+				for (int i = 0; i < number; i++)
+					column[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
+				return column;
+			}
+			case FLOAT: {
+				final float[] column = new float[number];
+				for (int i = 0; i < number; i++)
+					column[i] = FloatConverter.DEFAULT_INSTANCE.readFloat(input);
+				return column;
+			}
+			case DOUBLE: {
+				final double[] column = new double[number];
+				for (int i = 0; i < number; i++)
+					column[i] = DoubleConverter.DEFAULT_INSTANCE.readDouble(input);
+				return column;
+			}
+			case STRING:
+			case GEOMETRY: {
+				final Object[] column = new Object[number];
+				for (int i = 0; i < number; i++)
+					column[i] = StringConverter.DEFAULT_INSTANCE.read(input);
+				return column;
+			}
+			default:
+				throw new IOException("Unknown data type:" + attribute.getType());
+		}
+	}
+
+	/**
+	 * Tells whether the list still reflects the columns, i.e., has not been
+	 * modified. Only then, the column accessors may be used.
+	 *
+	 * @return true if the list has not been modified
+	 */
+	public boolean isColumnar() {
+		return entries == null;
+	}
+
+	/**
+	 * Returns the value of the given attribute in the given row, boxed into
+	 * the attribute's wrapper type.
+	 *
+	 * @param row the row
+	 * @param column the index of the attribute
+	 * @return the value
+	 */
+	public Object getValue(int row, int column) {
+		final Object c = columns[column];
+		if ( c instanceof double[] )
+			return ((double[]) c)[row];
+		else if ( c instanceof long[] )
+			return ((long[]) c)[row];
+		else if ( c instanceof int[] )
+			return ((int[]) c)[row];
+		else if ( c instanceof float[] )
+			return ((float[]) c)[row];
+		else if ( c instanceof short[] )
+			return ((short[]) c)[row];
+		else if ( c instanceof byte[] )
+			return ((byte[]) c)[row];
+		else
+			return ((Object[]) c)[row];
+	}
+
+	/**
+	 * Returns the value of the given numeric attribute in the given row
+	 * without boxing it.
+	 *
+	 * @param row the row
+	 * @param column the index of the attribute
+	 * @return the value as double
+	 * @throws IllegalArgumentException if the attribute is not numeric
+	 */
+	public double getDouble(int row, int column) {
+		final Object c = columns[column];
+		if ( c instanceof double[] )
+			return ((double[]) c)[row];
+		else if ( c instanceof long[] )
+			return ((long[]) c)[row];
+		else if ( c instanceof int[] )
+			return ((int[]) c)[row];
+		else if ( c instanceof float[] )
+			return ((float[]) c)[row];
+		else if ( c instanceof short[] )
+			return ((short[]) c)[row];
+		else if ( c instanceof byte[] )
+			return ((byte[]) c)[row];
+		else
+			throw new IllegalArgumentException("Attribute " + column + " is not numeric");
+	}
+
+	/**
+	 * Returns the column of the given attribute: a <tt>double[]</tt>,
+	 * <tt>long[]</tt>, <tt>int[]</tt>, <tt>float[]</tt>, <tt>short[]</tt>
+	 * or <tt>byte[]</tt> for numeric attributes, an <tt>Object[]</tt>
+	 * otherwise. The array must not be modified.
+	 *
+	 * @param column the index of the attribute
+	 * @return the column
+	 */
+	public Object getColumn(int column) {
+		return columns[column];
+	}
+
+	/**
+	 * @param row the row
+	 * @return the start timestamp of the given row
+	 */
+	public long getT1(int row) {
+		return t1[row];
+	}
+
+	@Override
+	public Object get(int index) {
+		final List<Object> entries = this.entries;
+		if ( entries != null )
+			return entries.get(index);
+		if ( index < 0 || index >= number )
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + number);
+		// Racing readers may create distinct, but equivalent views
+		Row result = rows[index];
+		if ( result == null )
+			rows[index] = result = new Row(index);
+		return result;
+	}
+
+	@Override
+	public int size() {
+		final List<Object> entries = this.entries;
+		return entries != null ? entries.size() : number;
+	}
+
+	@Override
+	public Object set(int index, Object element) {
+		return detach().set(index, element);
+	}
+
+	@Override
+	public void add(int index, Object element) {
+		detach().add(index, element);
+		modCount++;
+	}
+
+	@Override
+	public boolean addAll(int index, Collection<?> c) {
+		modCount++;
+		return detach().addAll(index, c);
+	}
+
+	@Override
+	public Object remove(int index) {
+		modCount++;
+		return detach().remove(index);
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		modCount++;
+		detach().subList(fromIndex, toIndex).clear();
+	}
+
+	/**
+	 * Copies the row views into an ordinary list, which serves all further
+	 * requests.
+	 */
+	private List<Object> detach() {
+		List<Object> result = this.entries;
+		if ( result == null ) {
+			result = new ArrayList<>(number + 1);
+			for (int i = 0; i < number; i++)
+				result.add(get(i));
+			this.entries = result;
+		}
+		return result;
+	}
+}
@@ -7,9 +7,11 @@ import java.util.Map;
 import java.util.Stack;
 
 import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
+import sigmod2021.db.core.primaryindex.queries.range.AttributeRangeFilter;
 import sigmod2021.db.core.wal.Log;
 import sigmod2021.db.event.Persistent;
 import sigmod2021.db.event.TID;
+import sigmod2021.event.Event;
 import xxl.core.collections.MapEntry;
 import xxl.core.cursors.AbstractCursor;
 import xxl.core.cursors.Cursor;
@@ -73,9 +75,17 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 		}
 		else {
 			((FastAggregatedBPlusTree.Node) n).updateAggregates(entry);
+			((FastAggregatedBPlusTree.Node) n).lsn = this.wal.getLSN();
 		}
 	}
 
+	@Override
+	protected void appendToLeaf(final BPlusLink.Node n, final Object[] entries, final int from, final int to) {
+		super.appendToLeaf(n, entries, from, to);
+		((FastAggregatedBPlusTree.Node) n).updateAggregates(entries, from, to);
+		((FastAggregatedBPlusTree.Node) n).lsn = this.wal.getLSN();
+	}
+
 	@Override
 	protected void initializeIndexEntry(final BPlusLink.IndexEntry entry, final BPlusLink.Node node) {
 		super.initializeIndexEntry(entry, node);
@@ -87,6 +97,7 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 	protected Node copyNode(final BPlusLink.Node node, final boolean updateAggregates) {
 		final Node n   = (FastAggregatedBPlusTree.Node) super.copyNode(node, updateAggregates);
 		final Node old = (FastAggregatedBPlusTree.Node) node;
+		n.lsn = old.lsn;
 		n.updateAggregates(old);
 		if ( updateAggregates ) {
 			for (int i = 0; i < node.level; i++) {
@@ -114,6 +125,22 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 		}
 	}
 
+	/**
+	 * Returns the LSN of the last in-order entry, that reached the container.
+	 * Only meaningful directly after loading or recovering the tree, when the
+	 * right flank of the tree path reflects the persistent state.
+	 *
+	 * @return the LSN of the right-most non-empty leaf, or -1 if there is none
+	 */
+	public long getDurableLSN() {
+		if ( this.buffer.treePath.isEmpty() )
+			return -1L;
+		Node leaf = (Node) this.buffer.treePath.get(LEAF_LEVEL).node;
+		if ( leaf.number() == 0 )
+			leaf = leaf.previousNeighbor() != null ? (Node) leaf.previousNeighbor().get() : null;
+		return leaf == null ? -1L : leaf.lsn;
+	}
+
 	private void recoverLevel(final int level) {
 		final List<BufferEntry> tp = this.buffer.treePath;
 
@@ -198,7 +225,26 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 	 */
 	public Cursor<TOUT> queryAttributes(final BPlusTree.KeyRange queryRegion,
 			final Map<String, AttributeRange<? extends Number>> attributeRegions) {
-		return new SecondaryQueryCursor(queryRegion, attributeRegions);
+		return new SecondaryQueryCursor(queryRegion, attributeRegions, null);
+	}
+
+	/**
+	 * Secondary query on the tree. In contrast to
+	 * {@link #queryAttributes(BPlusTree.KeyRange, Map)}, the resulting cursor
+	 * only returns the items satisfying the given filter. Leaves read from
+	 * disk are evaluated column-wise, so only the qualifying items are
+	 * materialized.
+	 *
+	 * @param queryRegion
+	 * @param attributeRegions
+	 *            the numeric ranges used to prune subtrees
+	 * @param filter
+	 *            the filter the returned items must satisfy
+	 * @return
+	 */
+	public Cursor<TOUT> queryAttributes(final BPlusTree.KeyRange queryRegion,
+			final Map<String, AttributeRange<? extends Number>> attributeRegions, final AttributeRangeFilter filter) {
+		return new SecondaryQueryCursor(queryRegion, attributeRegions, filter);
 	}
 	
 	/**
@@ -215,6 +261,11 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 		private final Stack<Integer>																	positions	= new Stack<>();
 		private final BPlusTree.KeyRange																queryRegion;
 		private final Map<String, AttributeRange<? extends Number>>								        attributeRegions;
+		private final AttributeRangeFilter																filter;
+		/** The leaf the selection belongs to */
+		private FastAggregatedBPlusTree.Node															selectionLeaf;
+		/** The rows of the selection leaf satisfying the filter, null if evaluated row-wise */
+		private long[]																					selection;
 
 		/**
 		 * Creates a new secondary query cursor for the given key an attribute
@@ -222,11 +273,15 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 		 *
 		 * @param queryRegion
 		 * @param attributeRegions
+		 * @param filter
+		 *            the filter the returned items must satisfy, or null to
+		 *            return all items of the visited leaves
 		 */
 		public SecondaryQueryCursor(final BPlusTree.KeyRange queryRegion,
-				final Map<String, AttributeRange<? extends Number>> attributeRegions) {
+				final Map<String, AttributeRange<? extends Number>> attributeRegions, final AttributeRangeFilter filter) {
 			this.queryRegion = queryRegion;
 			this.attributeRegions = attributeRegions;
+			this.filter = filter;
 
 			final Pair<BPlusLink.IndexEntry, BPlusLink.Node> root = getTempRoot(true);
 			this.cursor = (Node) root.getSecond();
@@ -236,6 +291,50 @@ public class FastAggregatedAppender<T,TOUT extends Persistent<T>> extends FastAp
 
 		@Override
 		public boolean hasNextObject() {
+			while (findLeaf()) {
+				if ( this.filter == null || nextSelected() )
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Advances the index to the next row of the current leaf satisfying
+		 * the filter.
+		 *
+		 * @return false if there is no such row, i.e., the leaf is exhausted
+		 */
+		private boolean nextSelected() {
+			if ( this.selectionLeaf != this.cursor ) {
+				this.selectionLeaf = this.cursor;
+				final boolean columnar = this.cursor.entries instanceof ColumnarLeaf
+						&& ((ColumnarLeaf) this.cursor.entries).isColumnar();
+				this.selection = columnar ? this.filter.select((ColumnarLeaf) this.cursor.entries) : null;
+			}
+			final int number = this.cursor.number();
+			if ( this.selection != null ) {
+				int word = this.index >>> 6;
+				if ( word < this.selection.length ) {
+					long bits = this.selection[word] & (-1L << this.index);
+					while (bits == 0L && ++word < this.selection.length)
+						bits = this.selection[word];
+					this.index = bits == 0L ? number : (word << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			else {
+				while (this.index < number && !this.filter.matches((Event) this.cursor.getEntry(this.index)))
+					this.index++;
+			}
+			return this.index < number;
+		}
+
+		/**
+		 * Moves the cursor to the next leaf intersecting the query region, if
+		 * the current one is exhausted.
+		 *
+		 * @return false if there are no more leaves
+		 */
+		private boolean findLeaf() {
 			if ( this.finished )
 				return false;
 
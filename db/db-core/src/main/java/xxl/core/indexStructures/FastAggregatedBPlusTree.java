@@ -16,7 +16,6 @@ import java.util.Stack;
 import sigmod2021.db.core.primaryindex.impl.legacy.SchemaManager;
 import sigmod2021.db.core.wal.Log;
 import sigmod2021.event.*;
-import sigmod2021.event.impl.SimpleEvent;
 import xxl.core.collections.MapEntry;
 import xxl.core.collections.containers.Container;
 import xxl.core.functions.Function;
@@ -41,6 +40,12 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 
 	private final TimeRepresentation timeRepresentation;
 
+	/**
+	 * Tells whether the columns of the leaves are encoded, see
+	 * {@link ColumnEncodings}.
+	 */
+	private final boolean encodeLeaves;
+
 	/**
 	 * The schema of the tree.
 	 */
@@ -78,6 +83,29 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 			this.count = 0L;
 		}
 
+		public AggregationEntry(final double sum, final double min, final double max, final long count) {
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+			this.count = count;
+		}
+
+		public double getSum() {
+			return this.sum;
+		}
+
+		public double getMin() {
+			return this.min;
+		}
+
+		public double getMax() {
+			return this.max;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
 		/**
 		 * Returns all values in the following order: sum, min, max
 		 *
@@ -107,12 +135,22 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 		 *            the value to be added
 		 */
 		protected void update(final Number value) {
-			this.sum = this.sum + value.doubleValue();
-			if ( value.doubleValue() > this.max ) {
-				this.max = value.doubleValue();
+			update(value.doubleValue());
+		}
+
+		/**
+		 * Updates this aggregate and adds the given value
+		 *
+		 * @param value
+		 *            the value to be added
+		 */
+		protected void update(final double value) {
+			this.sum = this.sum + value;
+			if ( value > this.max ) {
+				this.max = value;
 			}
-			if ( value.doubleValue() < this.min ) {
-				this.min = value.doubleValue();
+			if ( value < this.min ) {
+				this.min = value;
 			}
 			this.count++;
 		}
@@ -191,9 +229,32 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 	public FastAggregatedBPlusTree(final EventSchema schema, final TimeRepresentation rep, final int blockSize,
 		final boolean allowDuplicate,
 		final double minCapacityRatio, final Log<Event> log) {
+		this(schema, rep, blockSize, allowDuplicate, minCapacityRatio, false, log);
+	}
+
+	/**
+	 * Creates a new aggregated BPlusTree with the given blockSize, minimum
+	 * capacity ratio and leaf format.
+	 *
+	 * @see xxl.core.indexStructures.BPlusTree#BPlusTree(int, double, boolean)
+	 * @param blockSize
+	 *            the size of a page on disk
+	 * @param minCapacityRatio
+	 *            the minimum fill ratio of each node
+	 * @param allowDuplicate
+	 *            <tt>true</tt>, iff duplicates are allowed, <tt>false</tt>
+	 *            otherwise
+	 * @param encodeLeaves
+	 *            <tt>true</tt>, iff the columns of the leaves are encoded
+	 *            according to the encodings of the attributes
+	 */
+	public FastAggregatedBPlusTree(final EventSchema schema, final TimeRepresentation rep, final int blockSize,
+		final boolean allowDuplicate, final double minCapacityRatio, final boolean encodeLeaves,
+		final Log<Event> log) {
 		super(blockSize, minCapacityRatio, allowDuplicate);
 		this.schema = schema;
 		this.timeRepresentation = rep;
+		this.encodeLeaves = encodeLeaves;
 		this.nodeConverter = createNodeConverter();
 		this.log = log;
 		initAggregateColumns();
@@ -333,6 +394,17 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 			return ie.initialize(n);
 		}
 
+		/**
+		 * {@inheritDoc} The aggregates are shared, since they are replaced
+		 * rather than modified.
+		 */
+		@Override
+		public IndexEntry copy() {
+			final IndexEntry copy = (IndexEntry) super.copy();
+			copy.aggregates = this.aggregates;
+			return copy;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
@@ -494,6 +566,17 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 		 */
 		protected void recalcAggregates() {
 			initAggregates();
+			if ( this.entries instanceof ColumnarLeaf && ((ColumnarLeaf) this.entries).isColumnar() ) {
+				// Aggregate the primitive columns without creating the events
+				final ColumnarLeaf leaf = (ColumnarLeaf) this.entries;
+				for (int i = 0; i < this.aggregates.length; i++) {
+					final int column = FastAggregatedBPlusTree.this.aggregateColumns[i];
+					for (int j = 0; j < leaf.size(); j++) {
+						this.aggregates[i].update(leaf.getDouble(j, column));
+					}
+				}
+				return;
+			}
 			for (int i = 0; i < this.entries.size(); i++) {
 				recoverAggregates(this.entries.get(i), this);
 			}
@@ -535,6 +618,29 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 			}
 		}
 
+		/**
+		 * Updates the aggregates of this leaf with a chunk of entries. The
+		 * chunk is aggregated column-wise and merged into the node's
+		 * aggregates once per column.
+		 *
+		 * @param entries
+		 *            the entries
+		 * @param from
+		 *            the index of the first entry (inclusive)
+		 * @param to
+		 *            the index of the last entry (exclusive)
+		 */
+		protected void updateAggregates(final Object[] entries, final int from, final int to) {
+			for (int i = 0; i < this.aggregates.length; i++) {
+				final int column = FastAggregatedBPlusTree.this.aggregateColumns[i];
+				final AggregationEntry chunk = new AggregationEntry();
+				for (int j = from; j < to; j++) {
+					chunk.update(((Event) entries[j]).get(column, Number.class));
+				}
+				this.aggregates[i].update(chunk);
+			}
+		}
+
 		/**
 		 * Merges the aggregates with the aggregates from the given node.
 		 *
@@ -604,7 +710,12 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 		}
 
 		protected int leafHeaderSize() {
-			return super.headerSize() + MODIFIED_FLAG_SIZE + LSN_ENTRY_SIZE;
+			final int result = super.headerSize() + MODIFIED_FLAG_SIZE + LSN_ENTRY_SIZE;
+			if ( !encodeLeaves )
+				return result;
+			// A tag per column, a plain column is not larger otherwise
+			return result + FastAggregatedBPlusTree.this.schema.getNumAttributes() + 1 +
+				(timeRepresentation == TimeRepresentation.INTERVAL ? 1 : 0);
 		}
 
 		@Override
@@ -688,40 +799,18 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 
 		private void readLeafNode(final DataInput input, final BPlusTree.Node node, final int number)
 			throws IOException {
-			//			final List<PersistentEvent> objects = new ArrayList<>(number);
-			Object[][] payloads = new Object[number][FastAggregatedBPlusTree.this.schema.getNumAttributes()];
-			long[] tstart = new long[number];
-			long[] tend = new long[number];
-
-			for (int a = 0; a < FastAggregatedBPlusTree.this.schema.getNumAttributes(); a++) {
-				final MeasuredConverter<Object> converter =
-					SchemaManager.getObjectConverter(FastAggregatedBPlusTree.this.schema.getAttribute(a));
-				for (int i = 0; i < number; i++) {
-					payloads[i][a] = converter.read(input);
-				}
-			}
-			for (int i = 0; i < number; i++) {
-				tstart[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
-				tend[i] = tstart[i] + 1;
-			}
-			if ( timeRepresentation == TimeRepresentation.INTERVAL ) {
-				for (int i = 0; i < number; i++) {
-					tend[i] = LongConverter.DEFAULT_INSTANCE.readLong(input);
-				}
-			}
-			List<Event> events = new ArrayList<>();
-			for (int i = 0; i < number; i++) {
-				// TODO: Find a way to deliver persistent events here
-				events.add(new SimpleEvent(
-					payloads[i],
-					tstart[i],
-					tend[i]));
-			}
-
-			node.initialize(node.level, events);
+			final boolean intervals = timeRepresentation == TimeRepresentation.INTERVAL;
+			// The payload is decoded lazily, see ColumnarLeaf
+			node.initialize(node.level, encodeLeaves
+				? ColumnarLeaf.readEncoded(input, FastAggregatedBPlusTree.this.schema, number, intervals)
+				: ColumnarLeaf.read(input, FastAggregatedBPlusTree.this.schema, number, intervals));
 		}
 
 		private void writeLeafNode(final DataOutput output, final BPlusTree.Node node) throws IOException {
+			if ( encodeLeaves ) {
+				writeEncodedLeafNode(output, node);
+				return;
+			}
 			for (int a = 0; a < FastAggregatedBPlusTree.this.schema.getNumAttributes(); a++) {
 				final MeasuredConverter<Object> converter = SchemaManager
 					.getObjectConverter(FastAggregatedBPlusTree.this.schema.getAttribute(a));
@@ -738,6 +827,28 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 			}
 		}
 
+		private void writeEncodedLeafNode(final DataOutput output, final BPlusTree.Node node) throws IOException {
+			final int number = node.number();
+			final Object[] values = new Object[number];
+			for (int a = 0; a < FastAggregatedBPlusTree.this.schema.getNumAttributes(); a++) {
+				for (int i = 0; i < number; i++)
+					values[i] = ((Event) node.getEntry(i)).get(a);
+				ColumnEncodings.writeColumn(output, FastAggregatedBPlusTree.this.schema.getAttribute(a), values);
+			}
+			final long[] t1 = new long[number];
+			for (int i = 0; i < number; i++)
+				t1[i] = ((Event) node.getEntry(i)).getT1();
+			ColumnEncodings.writeTimestamps(output, t1);
+
+			if ( timeRepresentation == TimeRepresentation.INTERVAL ) {
+				// Durations are often regular, unlike the end timestamps
+				final long[] durations = new long[number];
+				for (int i = 0; i < number; i++)
+					durations[i] = ((Event) node.getEntry(i)).getT2() - t1[i];
+				ColumnEncodings.writeTimestamps(output, durations);
+			}
+		}
+
 		/**
 		 * Writes a given <tt>Node</tt> into a given <tt>DataOutput</tt>.
 		 *
@@ -826,6 +937,16 @@ public class FastAggregatedBPlusTree extends BPlusLink implements AggregateIndex
 		final AggregationEntry agg = new AggregationEntry();
 		if ( node.level() == LEAF_LEVEL ) {
 			// calculate aggregate in leaf
+			if ( node.entries instanceof ColumnarLeaf && ((ColumnarLeaf) node.entries).isColumnar() ) {
+				final ColumnarLeaf leaf = (ColumnarLeaf) node.entries;
+				for (int i = 0; i < leaf.size(); i++) {
+					final long t1 = leaf.getT1(i);
+					if ( queryLeft <= t1 && queryRight >= t1 ) {
+						agg.update(leaf.getDouble(i, attributeIndex));
+					}
+				}
+				return agg;
+			}
 
 			for (int i = 0; i < node.number(); i++) {
 				final Event event = (Event) (node.getEntry(i));
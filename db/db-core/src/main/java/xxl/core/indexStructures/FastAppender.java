@@ -1,6 +1,7 @@
 package xxl.core.indexStructures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -12,7 +13,7 @@ import java.util.SortedSet;
 import java.util.Stack;
 import java.util.TreeSet;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
@@ -119,14 +120,20 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 	protected ReentrantLock							bufferLock;
 	/** The WAL */
 	protected Log<TIN> wal;
+	/** Tells whether in-order inserts are written to the WAL */
+	protected boolean								logging = true;
 	/** Mirror for outOfOrderQueue */
 	protected Log<TIN>								outOfOrderQueueDiskMirror;
-	/** Queue for out-of-order inserts */
+	/** Queue for out-of-order inserts, in the order of their arrival */
 	protected Queue<TIN>								outOfOrderQueue;
+	/** Orders the out-of-order inserts by key when the queue is pushed */
+	protected Comparator<TIN>						outOfOrderComparator;
 	/** The maximum size of the out-of-order queue */
 	protected int									outOfOrderQueueSize;
 	/** The size of the LRU tree buffer */
 	protected int									treeBufferSize;
+	/** The number of times the out-of-order queue was merged into the tree */
+	protected volatile long							outOfOrderPushes;
 
 	protected java.util.function.Function<TIN, Long>	keyFunction;
 	
@@ -156,13 +163,14 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 			this.buffer.load();
 		}
 		this.keyFunction = getKeyFunction;
-		this.outOfOrderQueue = new PriorityBlockingQueue<>(outOfOrderQueueSize, new Comparator<TIN>() {
+		this.outOfOrderQueue = new LinkedBlockingQueue<>();
+		this.outOfOrderComparator = new Comparator<TIN>() {
 
 			@Override
 			public int compare(final TIN o1, final TIN o2) {
 				return (getKeyFunction.apply(o1).compareTo(getKeyFunction.apply(o2)));
 			}
-		});
+		};
 		logger.info("Spare for appender: " + (spare * 100) + "%");
 		logger.info("Events per leaf node: " + this.maxLeafEntries);
 	}
@@ -215,7 +223,8 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 		this.last = last;
 		/* ADDED MK */
 		this.outOfOrderQueueSize = 1;
-		this.outOfOrderQueue = new PriorityBlockingQueue<>(this.outOfOrderQueueSize, new Comparator<TIN>() {
+		this.outOfOrderQueue = new LinkedBlockingQueue<>();
+		this.outOfOrderComparator = new Comparator<TIN>() {
 
 			@Override
 			public int compare(final TIN o1, final TIN o2) {
@@ -223,7 +232,7 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 				final Long k2 = (Long) tree.getKey.invoke(o2);
 				return Long.compare(k1, k2);
 			}
-		});
+		};
 		this.wal = new NoLog<>();
 		this.outOfOrderQueueDiskMirror = new NoLog<>();
 		/* END ADDED MK */
@@ -304,6 +313,9 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 		}
 		this.last = entry;
 		
+		// Log before touching the tree, so the leaf can be stamped with the entry's LSN
+		if ( this.logging )
+			this.wal.insert(-1, entry);
 		insert(entry, LEAF_LEVEL);
 
 		long blockId = 0;
@@ -322,6 +334,57 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 		return new InsertFuture(new TID(blockId,offset));
 	}
 
+	/**
+	 * Inserts the given in-order entries into the tree. In contrast to
+	 * {@link #insertEntry(Object)}, leaves are filled chunk-wise and no future
+	 * is created per entry. The locations of the inserted entries are stored
+	 * in the given arrays at the entries' positions.
+	 *
+	 * @param entries
+	 *            the entries, sorted by key
+	 * @param from
+	 *            the index of the first entry to insert (inclusive)
+	 * @param to
+	 *            the index of the last entry to insert (exclusive)
+	 * @param blockIds
+	 *            receives the block ids of the inserted entries
+	 * @param offsets
+	 *            receives the offsets of the inserted entries
+	 */
+	public void insertBatch(final TIN[] entries, final int from, final int to, final long[] blockIds,
+			final int[] offsets) {
+		if ( from >= to )
+			return;
+		if ( this.first == null ) {
+			this.first = entries[from];
+		}
+		this.last = entries[to - 1];
+
+		if ( LEAF_LEVEL >= this.treeSize ) {
+			resizeTree(LEAF_LEVEL);
+		}
+
+		int i = from;
+		while (i < to) {
+			final Node n = this.buffer.getForAdd(LEAF_LEVEL);
+			final BufferEntry be = this.buffer.treePath.get(LEAF_LEVEL);
+			final int end = Math.min(to, i + this.maxLeafEntries - n.entries.size());
+
+			for (int j = i; j < end; j++) {
+				if ( this.logging )
+					this.wal.insert(-1, entries[j]);
+				offsets[j] = n.entries.size() + (j - i);
+			}
+			appendToLeaf(n, entries, i, end);
+
+			if ( isFull(n, LEAF_LEVEL) )
+				this.buffer.handleFullNode(LEAF_LEVEL);
+			// The id might have been repaired while writing the leaf out
+			Arrays.fill(blockIds, i, end, be.id);
+			i = end;
+		}
+	}
+
 	@Override
 	public Future<TID> outOfOrderInsert(final TIN entry) {
 		// Buffer out-of-order insertions in sorted queue
@@ -337,9 +400,48 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 	}
 
 	/**
-	 * Pushes out the out-of-order queue.
+	 * Returns the number of times the out-of-order queue was merged into the
+	 * tree. Apart from these merges, only the right flank of the tree is
+	 * modified, so the count tells whether nodes left of the flank may have
+	 * changed.
+	 *
+	 * @return the number of out-of-order merges
+	 */
+	public long getOutOfOrderPushes() {
+		return this.outOfOrderPushes;
+	}
+
+	/**
+	 * Enables or disables writing in-order entries to the WAL. Entries
+	 * inserted while logging is disabled cannot be replayed after a crash,
+	 * leaves keep being stamped with the last logged LSN.
+	 *
+	 * @param logging
+	 *            true to log in-order entries, false otherwise
+	 */
+	public void setLogging(final boolean logging) {
+		this.logging = logging;
+	}
+
+	/**
+	 * Returns the number of out-of-order entries waiting in the queue. These
+	 * entries have no location in the tree until the queue is pushed.
+	 *
+	 * @return the number of queued out-of-order entries
+	 */
+	public int getOutOfOrderQueueLength() {
+		return this.outOfOrderQueue.size();
+	}
+
+	/**
+	 * Pushes out the out-of-order queue. The entries are inserted in the
+	 * order of their keys, entries with equal keys in the order of their
+	 * arrival. Since the tree places an entry behind all entries with an
+	 * equal key, the position of an entry among the entries with its key
+	 * never changes.
 	 */
 	private void pushOutOfOrderQueue() {
+		boolean pushed = false;
 		try {
 			this.bufferLock.lock();
 			this.buffer.pushOut(); // clears the output buffer before closing
@@ -348,16 +450,26 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 				final IndexEntry rootEntry = createIndexEntry(this.buffer.root());
 				this.tree.setRootEntry(rootEntry);
 				this.tree.setRootDescriptor((Descriptor) rootEntry.separator().clone());
-				final int s = this.outOfOrderQueue.size();
-				for (int i = 0; i < s; i++) {
-					outOfOrderTreeInsert(this.outOfOrderQueue.poll());
+				final List<TIN> entries = new ArrayList<>(this.outOfOrderQueue.size());
+				while (!this.outOfOrderQueue.isEmpty())
+					entries.add(this.outOfOrderQueue.poll());
+				// Stable, keeps entries with equal keys in the order of their arrival
+				entries.sort(this.outOfOrderComparator);
+				for (final TIN entry : entries) {
+					outOfOrderTreeInsert(entry);
 				}
 				this.appenderContainer.outOfOrderUpdating = false;
+				this.outOfOrderPushes++;
+				// The mirror may only be dropped once the updated pages reached the container
+				if ( !(this.outOfOrderQueueDiskMirror instanceof NoLog) )
+					this.appenderContainer.outOfOrderBuffer.flushAll(this.appenderContainer);
+				pushed = true;
 			}
 		} finally {
 			this.bufferLock.unlock();
 		}
-		this.outOfOrderQueueDiskMirror.clear();
+		if ( pushed )
+			this.outOfOrderQueueDiskMirror.clear();
 	}
 
 	/**
@@ -434,8 +546,11 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 	 * @param entry
 	 *            the entry to be inserted
 	 */
-	private void insertIntoNode(final Node node, final Object entry) {
+	private void insertIntoNode(final Node node, final TIN entry) {
 		if ( node.level == LEAF_LEVEL ) {
+			// Inserts below the flank are logged by the tree, the mirror is cleared after the push
+			if ( this.logging )
+				this.wal.insert(-1, entry);
 			node.grow(entry);
 		}
 		else {
@@ -549,11 +664,27 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 
 	@Override
 	public DoubleCursor<TOUT> query(final Long minKey, final Long maxKey) {
+		return query(minKey, maxKey, true);
+	}
+
+	/**
+	 * Queries the entries with a key in the given range.
+	 *
+	 * @param minKey
+	 *            the minimum key
+	 * @param maxKey
+	 *            the maximum key
+	 * @param pushQueue
+	 *            true to push out the out-of-order queue before, false to
+	 *            leave the queued entries out of the result
+	 * @return the entries in the given range, in the order of the tree
+	 */
+	public DoubleCursor<TOUT> query(final Long minKey, final Long maxKey, final boolean pushQueue) {
 		if ( this.buffer.treePath.isEmpty() ||
 			 this.keyFunction.apply(first).compareTo(maxKey) > 0 || 
 			 this.keyFunction.apply(last).compareTo(minKey) < 0)
 			return new EmptyDoubleCursor<>();
-		getTempRoot(true);
+		getTempRoot(pushQueue);
 		return this.tree.rangeQueryWithIds(generateOut, minKey, maxKey);
 	}
 	
@@ -586,6 +717,23 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 		n.entries.add(entry);
 	}
 
+	/**
+	 * Adds a chunk of entries to the given leaf. The leaf must be able to
+	 * take all of them.
+	 *
+	 * @param n
+	 *            the leaf
+	 * @param entries
+	 *            the entries
+	 * @param from
+	 *            the index of the first entry to add (inclusive)
+	 * @param to
+	 *            the index of the last entry to add (exclusive)
+	 */
+	protected void appendToLeaf(final Node n, final Object[] entries, final int from, final int to) {
+		n.entries.addAll(Arrays.asList(entries).subList(from, to));
+	}
+
 	// ============================================================================================================
 
 	/**
@@ -735,17 +883,22 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 						}
 					}
 				}
-				final Object result = this.outOfOrderBuffer.get(this, idVal, new AbstractFunction<Long, Object>() {
+				if ( this.outOfOrderUpdating ) {
+					// The tree modifies the node in place, so it works on a copy of its own
+					return this.outOfOrderBuffer.get(this, idVal, new AbstractFunction<Long, Object>() {
 	
-					/** The serialVersionUID */
-					private static final long serialVersionUID = 1L;
+						/** The serialVersionUID */
+						private static final long serialVersionUID = 1L;
 	
-					@Override
-					public Object invoke(final Long argument) {
-						return AppenderContainer.this.container.get(argument, true);
-					}
-				}, true);
-				return result;
+						@Override
+						public Object invoke(final Long argument) {
+							return copyForUpdate((Node) AppenderContainer.this.container.get(argument, true));
+						}
+					}, true);
+				}
+				if ( this.outOfOrderBuffer.contains(this, idVal) ) // Still modified by out-of-order inserts
+					return copyForUpdate((Node) this.outOfOrderBuffer.get(this, idVal, null, true));
+				return this.container.get(idVal, true);
 			} finally {
 				FastAppender.this.bufferLock.unlock();
 			}
@@ -923,6 +1076,28 @@ public abstract class FastAppender<TIN, TOUT extends Persistent<TIN>> implements
 		return copy;
 	}
 
+	/**
+	 * Copies the given node for modification. In contrast to
+	 * {@link #copyNode(Node, boolean)}, the copy gets index entries of its
+	 * own, so modifying it in place leaves the given node unchanged for its
+	 * readers, e.g., the readers sharing it through a node buffer.
+	 *
+	 * @param node
+	 *            the node to be copied
+	 * @return the copy
+	 */
+	protected Node copyForUpdate(final Node node) {
+		final Node copy = copyNode(node, false);
+		if ( node.nextNeighbor() != null )
+			copy.setNextNeighbor(node.nextNeighbor().copy());
+		if ( node.previousNeighbor() != null )
+			copy.setPreviousNeighbor(node.previousNeighbor().copy());
+		if ( node.level > LEAF_LEVEL )
+			for (int i = 0; i < copy.entries.size(); i++)
+				copy.entries.set(i, ((IndexEntry) copy.entries.get(i)).copy());
+		return copy;
+	}
+
 	// ================================================================================================================
 
 	/**
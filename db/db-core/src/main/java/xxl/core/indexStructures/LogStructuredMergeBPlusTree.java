@@ -6,6 +6,7 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,18 +14,27 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import xxl.core.collections.containers.Container;
 import xxl.core.collections.containers.MapContainer;
+import xxl.core.collections.containers.SynchronizedContainer;
 import xxl.core.cursors.Cursor;
 import xxl.core.functions.AbstractFunction;
 import xxl.core.functions.Constant;
@@ -36,6 +46,7 @@ import xxl.core.indexStructures.separators.ComparableKeyRange;
 import xxl.core.indexStructures.separators.ComparableSeparator;
 import xxl.core.io.converters.MeasuredConverter;
 import xxl.core.util.Pair;
+import xxl.core.util.WrappingRuntimeException;
 
 /**
  * A LSM implementation using {@link BPlusTree}.
@@ -186,6 +197,28 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
         // Only shortening the type
     }
 
+    /**
+     * Determines which levels are merged once level 0 is full.
+     */
+    public enum MergePolicy {
+        /**
+         * Level 0 and all consecutive filled levels are merged into the first
+         * empty level. Each level holds a single run about twice the size of
+         * its predecessor. Optimized for writes.
+         */
+        TIERED,
+        /**
+         * Level 0 is merged into level 1. Each level i holds at most the
+         * level 0 size times ratio^i entries; a level exceeding its capacity
+         * is merged into the next one. Queries probe one tree per level,
+         * which grows logarithmically with the data, while each merge only
+         * rewrites two adjacent levels. Optimized for reads.
+         *
+         * @see LogStructuredMergeBPlusTree#setLevelSizeRatio(int)
+         */
+        LEVELED
+    }
+
     /**
      * The entry either contains an insert or a delete.
      */
@@ -214,14 +247,48 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
     private final BPlusTreeConfiguration bPlusTreeConfiguration;
     private final BiFunction<NodeConverter, Integer, Container> containerFactory;
 
+    /** Number of frozen level 0 runs, beyond which a snapshot combines them */
+    private static final int MAX_FROZEN_RUNS = 8;
+
     private final long maxiumFirstLevelSize;
+    /** Number of level 0 entries not merged yet, including frozen runs. Guarded by the level lock. */
     private long currentFirstLevelSize;
 
-    // these two lists must be in sync.
-    private final List<BPlusTree> trees = new ArrayList<>();
-    private final List<Container> containers = new ArrayList<>();
+    /** The run per level, null for empty levels. Guarded by the level lock. */
+    private final List<Run> levels = new ArrayList<>();
+
+    /** The in-memory level 0, equal to the first element of the levels */
+    private Run firstLevel;
+
+    /** Guards the levels against concurrent compactions and queries */
+    private final ReentrantLock levelLock = new ReentrantLock();
+
+    /** Level 0 runs frozen by snapshots, from the newest to the oldest. Guarded by the level lock. */
+    private final List<Run> frozenFirstLevels = new ArrayList<>();
+
+    /** The level 0 runs currently merged, from the newest to the oldest. Guarded by the level lock. */
+    private final List<Run> mergingFirstLevels = new ArrayList<>();
+
+    /** The number passed to the container factory for the next merged run */
+    private int nextRunId = 1;
+
+    /** Executes compactions in the background, null if merging inline */
+    private ExecutorService compactor;
 
-    // TODO: bloom filter
+    /** The currently running compaction */
+    private volatile Future<?> pendingCompaction;
+
+    /** The policy selecting the levels to merge */
+    private MergePolicy mergePolicy = MergePolicy.TIERED;
+
+    /** Maximum number of entries written per second by compactions, 0 if unlimited */
+    private long compactionRate = 0L;
+
+    /** Bits per entry of the Bloom filters built for new levels, 0 if disabled */
+    private int bloomFilterBitsPerKey = 0;
+
+    /** Ratio between the capacities of consecutive levels under the leveled policy */
+    private int levelSizeRatio = 10;
 
     /**
      * Create the LSM.
@@ -243,28 +310,73 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 
         this.maxiumFirstLevelSize = maxiumFirstLevelSize;
 
-        Container container = new MapContainer();
-        containers.add(container);
-        trees.add(createTree(container,0));
+        firstLevel = new Run(createTree(-1), -1, 0L, null);
+        levels.add(firstLevel);
         currentFirstLevelSize = 0;
     }
+
+    /**
+     * A sorted run, i.e. the tree of a level or of a frozen level 0. Only
+     * the current level 0 is modified. Merges write a new run, so queries
+     * may keep reading the sources of a merge. A retired run is released
+     * once no snapshot pins it.
+     */
+    private class Run {
+        private final BPlusTree tree;
+        /** The number the container was created with, -1 for level 0 */
+        private final int id;
+        /** Number of entries, -1 if unknown. Fixed once level 0 is frozen. */
+        private long entryCount;
+        /** Bloom filter over the keys, null if not available */
+        private final BloomFilter<KeyType> filter;
+        /** Tells whether the run may hold deletions */
+        private boolean hasDeletes;
+        /** Number of queries reading the run. Guarded by the level lock. */
+        private int pins;
+        /** Tells whether a merge replaced the run. Guarded by the level lock. */
+        private boolean retired;
+
+        private Run(BPlusTree tree, int id, long entryCount, BloomFilter<KeyType> filter) {
+            this.tree = tree;
+            this.id = id;
+            this.entryCount = entryCount;
+            this.filter = filter;
+        }
+    }
     
     public static class LSMMeta<K extends Comparable<K>> {
     	
     	public static final String FILENAME = "lsm.mtd";
     	
+    	/** Marks the optional section holding entry counts and Bloom filters */
+    	private static final int FILTER_SECTION = 0x424C4F4D;
+    	
+    	/** Marks the optional section holding the container numbers and deletion flags */
+    	private static final int RUN_SECTION = 0x52554E53;
+    	
     	public class LevelInfo {
     		boolean isFilled;
     		int rootParentLevel;
     		long rootId;
     		K minKey;
     		K maxKey;
-
-    		private LevelInfo() {
+    		long entryCount = -1L;
+    		BloomFilter<K> filter;
+    		/** The number the container was created with, the level for files written before run numbers */
+    		int runId;
+    		/** Tells whether the level may hold deletions, true for files written before run numbers */
+    		boolean hasDeletes = true;
+
+    		private LevelInfo(int runId) {
+    			this.runId = runId;
     		}
     		
-			private LevelInfo(BPlusTree tree) {
+			private LevelInfo(BPlusTree tree, long entryCount, BloomFilter<K> filter, int runId, boolean hasDeletes) {
 				this.isFilled = tree != null;
+				this.entryCount = entryCount;
+				this.filter = filter;
+				this.runId = runId;
+				this.hasDeletes = hasDeletes;
 				if ( isFilled ) {
 					this.rootParentLevel = tree.rootEntry().parentLevel();
 					this.rootId = (Long) tree.rootEntry().id();
@@ -293,15 +405,47 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 					maxKey = keyConverter.read(in);
 				}
 			}
+			
+			private void writeFilter( DataOutput out ) throws IOException {
+				out.writeLong(entryCount);
+				out.writeBoolean(filter != null);
+				if ( filter != null )
+					filter.write(out);
+			}
+			
+			private void readFilter( DataInput in, MeasuredConverter<K> keyConverter ) throws IOException {
+				entryCount = in.readLong();
+				if ( in.readBoolean() )
+					filter = BloomFilter.read(in, keyConverter);
+			}
     	}
     	
     	private List<LevelInfo> levels = new ArrayList<>();
     	
+    	/**
+    	 * @return the numbers of the containers holding the filled levels
+    	 */
+    	public Set<Integer> getRunIds() {
+    		Set<Integer> result = new HashSet<>();
+    		for ( LevelInfo li : levels )
+    			if ( li.isFilled )
+    				result.add(li.runId);
+    		return result;
+    	}
     	
     	public void write( DataOutput out, MeasuredConverter<K> keyConverter ) throws IOException {
     		out.writeInt(levels.size());
     		for ( LevelInfo li : levels )
     			li.write( out, keyConverter );
+    		// Appended after the level roots, so that files written before its introduction remain readable
+    		out.writeInt(FILTER_SECTION);
+    		for ( LevelInfo li : levels )
+    			li.writeFilter( out );
+    		out.writeInt(RUN_SECTION);
+    		for ( LevelInfo li : levels ) {
+    			out.writeInt(li.runId);
+    			out.writeBoolean(li.hasDeletes);
+    		}
     	}
     	
     	public void write( Path lsmDir, MeasuredConverter<K> keyConverter ) throws IOException {
@@ -322,10 +466,33 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
     		LSMMeta<K> result = new LSMMeta<K>();
     		int count = in.readInt();
     		for ( int i = 0; i < count; i++ ) {
-    			LSMMeta<K>.LevelInfo li = result.new LevelInfo();
+    			// Containers were named by level before run numbers were introduced
+    			LSMMeta<K>.LevelInfo li = result.new LevelInfo(i + 1);
     			li.read(in, keyConverter);
     			result.levels.add( li );
     		}
+    		int marker;
+    		try {
+    			marker = in.readInt();
+    		} catch (EOFException e) {
+    			// No entry counts and filters, all levels are probed
+    			return result;
+    		}
+    		if ( marker != FILTER_SECTION )
+    			throw new IOException("Corrupt LSM meta data: unknown section " + Integer.toHexString(marker));
+    		for ( LSMMeta<K>.LevelInfo li : result.levels )
+    			li.readFilter(in, keyConverter);
+    		try {
+    			marker = in.readInt();
+    		} catch (EOFException e) {
+    			return result;
+    		}
+    		if ( marker != RUN_SECTION )
+    			throw new IOException("Corrupt LSM meta data: unknown section " + Integer.toHexString(marker));
+    		for ( LSMMeta<K>.LevelInfo li : result.levels ) {
+    			li.runId = in.readInt();
+    			li.hasDeletes = in.readBoolean();
+    		}
     		return result;
     	}
     	
@@ -342,13 +509,17 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 		this(containerFactory,bPlusTreeConfigurationFactory,maxiumFirstLevelSize);
 		
 		
-		int level = 1;
 		for ( LSMMeta<KeyType>.LevelInfo li : meta.levels ) {
+			if ( !li.isFilled ) {
+				levels.add(null);
+				continue;
+			}
 			BPlusTree tree = new BPlusTree(bPlusTreeConfiguration.blockSize,
                 bPlusTreeConfiguration.splitMinRatio,
                 bPlusTreeConfiguration.allowDuplicates);
 			
-			Container container = containerLoader.apply(tree.nodeConverter, level);
+			// Levels are read by queries and a background merge at the same time
+			Container container = new SynchronizedContainer(containerLoader.apply(tree.nodeConverter, li.runId));
 			
 			// This needs to be done in order to obtain a valid node-converter (otherwise key- and value-converter are null and close crashes)
 			tree.initialize(null, null,
@@ -360,45 +531,48 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
                 new Constant<Double>(bPlusTreeConfiguration.splitMinRatio),
                 new Constant<Double>(bPlusTreeConfiguration.splitMaxRatio));
             
-                
-			if ( li.isFilled ) {
-				ComparableKeyRange rootDescriptor = new ComparableKeyRange(li.minKey, li.maxKey);
-				
-				IndexEntry ie = (IndexEntry) tree.createIndexEntry(li.rootParentLevel);
-				ie.initialize(new ComparableSeparator(rootDescriptor.maxBound()));
-				ie.initialize(li.rootId);
-				
-				tree.initialize(ie, rootDescriptor,
-	                bPlusTreeConfiguration.wrappedKeyExtractor, container,
-	                bPlusTreeConfiguration.keyConverter,
-	                bPlusTreeConfiguration.wrappedValueConverter,
-	                bPlusTreeConfiguration.wrappedSeparatorGenerator,
-	                bPlusTreeConfiguration.wrappedKeyRangeGenerator,
-	                new Constant<Double>(bPlusTreeConfiguration.splitMinRatio),
-	                new Constant<Double>(bPlusTreeConfiguration.splitMaxRatio));
-			}
-			else {
-				tree = null;
-			}
+			ComparableKeyRange rootDescriptor = new ComparableKeyRange(li.minKey, li.maxKey);
+			
+			IndexEntry ie = (IndexEntry) tree.createIndexEntry(li.rootParentLevel);
+			ie.initialize(new ComparableSeparator(rootDescriptor.maxBound()));
+			ie.initialize(li.rootId);
 			
-			trees.add(tree);
-			containers.add(container);
-			level++;
+			tree.initialize(ie, rootDescriptor,
+                bPlusTreeConfiguration.wrappedKeyExtractor, container,
+                bPlusTreeConfiguration.keyConverter,
+                bPlusTreeConfiguration.wrappedValueConverter,
+                bPlusTreeConfiguration.wrappedSeparatorGenerator,
+                bPlusTreeConfiguration.wrappedKeyRangeGenerator,
+                new Constant<Double>(bPlusTreeConfiguration.splitMinRatio),
+                new Constant<Double>(bPlusTreeConfiguration.splitMaxRatio));
+			
+			Run run = new Run(tree, li.runId, li.entryCount, li.filter);
+			run.hasDeletes = li.hasDeletes;
+			levels.add(run);
+			nextRunId = Math.max(nextRunId, li.runId + 1);
 		}
 	}
 	
 	
 	public LSMMeta<KeyType> close() {
 		LSMMeta<KeyType> meta = new LSMMeta<>();
+		awaitCompaction();
+		if ( compactor != null ) {
+			compactor.shutdown();
+			compactor = null;
+		}
 		// Check if cache-level is empty
-		if ( trees.get(0).rootDescriptor() != null ) 
+		if ( currentFirstLevelSize > 0 ) 
 			merge();
-		for ( int i = 1; i < trees.size(); i++ ) {
-			BPlusTree tree = trees.get(i);
-			containers.get(i).flush();
-			containers.get(i).close();
-			LSMMeta<KeyType>.LevelInfo li = meta.new LevelInfo(tree);
-			meta.levels.add(li);
+		for ( int i = 1; i < levels.size(); i++ ) {
+			Run run = levels.get(i);
+			if ( run == null ) {
+				meta.levels.add(meta.new LevelInfo(null, 0L, null, -1, false));
+				continue;
+			}
+			run.tree.container().flush();
+			run.tree.container().close();
+			meta.levels.add(meta.new LevelInfo(run.tree, run.entryCount, run.filter, run.id, run.hasDeletes));
 		}
 		return meta;
 	}
@@ -408,42 +582,71 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 	}
 	
 	public long getFanOut() {
-		return trees.get(0).getIndexNodeB();
+		return firstLevel.tree.getIndexNodeB();
 	}
 	
 	public long getNumberOfLeafEntries() {
-		return trees.get(0).getLeafNodeB();
+		return firstLevel.tree.getLeafNodeB();
 	}
 	
 	public int getMaxLevel() {
-		return trees.size()-1;
+		levelLock.lock();
+		try {
+			return levels.size()-1;
+		} finally {
+			levelLock.unlock();
+		}
 	}
 	
 	public boolean levelExists(int level) {
-		return level >= 0 && level < trees.size() && trees.get(level) != null;
+		levelLock.lock();
+		try {
+			return level >= 0 && level < levels.size() && levels.get(level) != null;
+		} finally {
+			levelLock.unlock();
+		}
+	}
+	
+	/**
+	 * @param level the level
+	 * @return the number of entries of the given level, 0 if it is empty, -1 if unknown
+	 */
+	public long getEntryCount(int level) {
+		levelLock.lock();
+		try {
+			if ( level == 0 )
+				return currentFirstLevelSize;
+			return level < levels.size() && levels.get(level) != null ? levels.get(level).entryCount : 0L;
+		} finally {
+			levelLock.unlock();
+		}
 	}
 	
 	public Optional<BPlusTree> getTree(int level) {
-		return Optional.ofNullable(trees.get(level));
+		awaitCompaction();
+		levelLock.lock();
+		try {
+			return Optional.ofNullable(level < levels.size() ? levels.get(level) : null).map(run -> run.tree);
+		} finally {
+			levelLock.unlock();
+		}
 	}
 
     /**
      * A function that creates a new BPlusTree.
      *
-     * @param container Optionally re-use an existing container.
+     * @param id The number passed to the container factory, -1 to keep the tree in memory.
      * @return A BPlusTree.
      */
     @SuppressWarnings("deprecation")
-    private BPlusTree createTree(Container container, int level) {
+    private BPlusTree createTree(int id) {
         BPlusTree bPlusTree = new BPlusTree(bPlusTreeConfiguration.blockSize,
                 bPlusTreeConfiguration.splitMinRatio,
                 bPlusTreeConfiguration.allowDuplicates);
 
-        if (container == null) {
-            container = containerFactory.apply(bPlusTree.nodeConverter(),level);
-        } else {
-            container.clear();
-        }
+        // Levels are read by queries and a background merge at the same time
+        Container container = id < 0 ? new MapContainer()
+                : new SynchronizedContainer(containerFactory.apply(bPlusTree.nodeConverter(), id));
 
         bPlusTree.initialize(null, null,
                 bPlusTreeConfiguration.wrappedKeyExtractor, container,
@@ -458,60 +661,426 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
     }
 
     /**
-     * Calculates how many levels are to be merged before the first empty one.
+     * Enables or disables merging in a background thread. If enabled, a full
+     * level 0 is frozen and merged in the background, while inserts continue
+     * on a fresh level 0. If level 0 fills up again before the merge
+     * finished, inserting blocks until it did.
      *
-     * @return the number of levels to merge, beginning with the first one.
+     * @param enabled true to merge in the background, false to merge inline
      */
-    private List<BPlusTree> getMergeLevels() {
-        int i = 0;
-        while (i < trees.size() && trees.get(i) != null) {
-            i++;
+    public void setBackgroundCompaction(boolean enabled) {
+        awaitCompaction();
+        if (enabled && compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "lsm-compaction");
+                t.setDaemon(true);
+                return t;
+            });
+        } else if (!enabled && compactor != null) {
+            compactor.shutdown();
+            compactor = null;
         }
+    }
+
+    /**
+     * @param mergePolicy the policy selecting the levels to merge
+     */
+    public void setMergePolicy(MergePolicy mergePolicy) {
+        this.mergePolicy = mergePolicy;
+    }
 
-        return trees.subList(0, i);
+    /**
+     * Sets the ratio between the capacities of consecutive levels under the
+     * {@link MergePolicy#LEVELED leveled} policy. Larger ratios result in
+     * fewer levels to probe, but rewrite each entry more often.
+     *
+     * @param ratio the ratio, at least 2
+     */
+    public void setLevelSizeRatio(int ratio) {
+        if (ratio < 2)
+            throw new IllegalArgumentException("The level size ratio must be at least 2: " + ratio);
+        this.levelSizeRatio = ratio;
     }
 
     /**
-     * Merges the first levels of LSM into the first that is empty.
+     * Limits the number of entries written per second by a merge, reducing
+     * its I/O interference with queries and the primary index.
+     *
+     * @param entriesPerSecond the maximum rate, 0 for no limit
+     */
+    public void setCompactionRate(long entriesPerSecond) {
+        this.compactionRate = entriesPerSecond;
+    }
+
+    /**
+     * Enables Bloom filters for levels created by subsequent merges. Point
+     * queries skip levels whose filter rules out the key.
+     *
+     * @param bitsPerKey the number of bits per entry, 0 to disable
+     */
+    public void setBloomFilterBitsPerKey(int bitsPerKey) {
+        this.bloomFilterBitsPerKey = bitsPerKey;
+    }
+
+    /**
+     * Blocks until the running background merge, if any, finished.
+     */
+    public void awaitCompaction() {
+        final Future<?> pending = pendingCompaction;
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WrappingRuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new WrappingRuntimeException(e.getCause());
+        } finally {
+            if (pendingCompaction == pending)
+                pendingCompaction = null;
+        }
+    }
+
+    /**
+     * Merges level 0, including the runs frozen by snapshots, according to
+     * the merge policy, either inline or in the background.
      */
     private void merge() {
-        List<BPlusTree> mergeLevels = getMergeLevels();
-        int levelSize = mergeLevels.size();
+        // At most one merge at a time
+        awaitCompaction();
+
+        final List<Run> full;
+        levelLock.lock();
+        try {
+            freezeFirstLevel();
+            full = new ArrayList<>(frozenFirstLevels);
+            frozenFirstLevels.clear();
+            mergingFirstLevels.addAll(full);
+            currentFirstLevelSize = 0;
+        } finally {
+            levelLock.unlock();
+        }
+        if (full.isEmpty())
+            return;
+        if (compactor == null)
+            compact(full);
+        else
+            pendingCompaction = compactor.submit(() -> compact(full));
+    }
 
-        List<Cursor<Entry>> cursors = mergeLevels.stream()
-                .map(tree -> (Cursor<Entry>) tree.query()).collect(Collectors.toList());
+    /**
+     * Replaces level 0 by an empty one and adds it to the frozen runs,
+     * unless it is empty. Requires the level lock.
+     */
+    private void freezeFirstLevel() {
+        if (firstLevel.entryCount == 0)
+            return;
+        frozenFirstLevels.add(0, firstLevel);
+        firstLevel = new Run(createTree(-1), -1, 0L, null);
+        levels.set(0, firstLevel);
+    }
 
-        Iterator<Entry> mergedEntries;
-        Container container;
-        if (levelSize == trees.size()) {
-            mergedEntries = new EntryMerger(cursors);
-            // create new container
-            container = null;
-        } else {
-            mergedEntries = new DeletePreservingEntryMerger(cursors);
-            // re-use container
-            container = containers.get(levelSize);
+    /**
+     * Merges the given frozen level 0 runs with the levels selected by the
+     * merge policy.
+     *
+     * @param full the level 0 runs to merge, from the newest to the oldest
+     */
+    private void compact(List<Run> full) {
+        final List<Run> sources = new ArrayList<>(full);
+        if (mergePolicy == MergePolicy.TIERED) {
+            int target;
+            levelLock.lock();
+            try {
+                for (target = 1; target < levels.size() && levels.get(target) != null; target++)
+                    sources.add(levels.get(target));
+            } finally {
+                levelLock.unlock();
+            }
+            mergeRuns(sources, target);
+            return;
         }
 
-        BPlusTree newTree = createTree(container,levelSize);
-        if (mergedEntries.hasNext()) {
-            new BPlusTreeBulkLoading(newTree, mergedEntries);
+        sources.add(getRun(1));
+        mergeRuns(sources, 1);
+        // Push each level exceeding its capacity down to the next one
+        long capacity = maxiumFirstLevelSize;
+        for (int level = 1; ; level++) {
+            capacity = capacity > Long.MAX_VALUE / levelSizeRatio ? Long.MAX_VALUE : capacity * levelSizeRatio;
+            final Run run = getRun(level);
+            if (run == null || run.entryCount <= capacity)
+                return;
+            sources.clear();
+            sources.add(run);
+            sources.add(getRun(level + 1));
+            mergeRuns(sources, level + 1);
         }
+    }
 
-        if (levelSize < trees.size()) {
-            trees.set(levelSize, newTree);
-        } else {
-            trees.add(levelSize, newTree);
-            containers.add(newTree.container());
+    private Run getRun(int level) {
+        levelLock.lock();
+        try {
+            return level < levels.size() ? levels.get(level) : null;
+        } finally {
+            levelLock.unlock();
         }
+    }
 
-        // remove consumed trees
-        trees.set(0, createTree(containers.get(0),0));
-        for (int i = 1; i < levelSize; i++) {
-            trees.set(i, null);
+    /**
+     * Merges the given runs into a new run stored at the given level. The
+     * levels of the sources are emptied and the sources are retired.
+     * Deletions are dropped if no level below the target holds data.
+     *
+     * @param sources the runs to merge, from the newest to the oldest data,
+     *                null for empty levels
+     * @param target  the level of the merged run
+     */
+    private void mergeRuns(List<Run> sources, int target) {
+        final List<Run> runs = sources.stream().filter(run -> run != null).collect(Collectors.toList());
+        long expectedEntries = 0L;
+        boolean dropDeletes = true;
+        final int id;
+        levelLock.lock();
+        try {
+            for (Run run : runs)
+                expectedEntries = run.entryCount < 0 || expectedEntries < 0 ? -1L : expectedEntries + run.entryCount;
+            for (int i = target + 1; i < levels.size(); i++)
+                dropDeletes &= levels.get(i) == null;
+            id = nextRunId++;
+        } finally {
+            levelLock.unlock();
         }
 
-        currentFirstLevelSize = 0;
+        // The merged size is bounded by the sum of the source sizes
+        final BloomFilter<KeyType> filter = bloomFilterBitsPerKey > 0 && expectedEntries >= 0
+                ? new BloomFilter<>(expectedEntries, bloomFilterBitsPerKey, bPlusTreeConfiguration.keyConverter)
+                : null;
+        final Run merged = writeRun(runs, id, dropDeletes, filter);
+
+        levelLock.lock();
+        try {
+            while (levels.size() <= target)
+                levels.add(null);
+            for (Run run : runs) {
+                int level = levels.indexOf(run);
+                if (level > 0)
+                    levels.set(level, null);
+                mergingFirstLevels.remove(run);
+                retire(run);
+            }
+            levels.set(target, merged);
+        } finally {
+            levelLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the merged entries of the given runs into a new run.
+     *
+     * @param runs        the runs to merge, from the newest to the oldest data
+     * @param id          the number passed to the container factory, -1 to keep the run in memory
+     * @param dropDeletes whether deletions and the entries they hide are dropped
+     * @param filter      the Bloom filter to fill with the keys, null if none
+     * @return the new run, null if no entries remained
+     */
+    private Run writeRun(List<Run> runs, int id, boolean dropDeletes, BloomFilter<KeyType> filter) {
+        List<Cursor<Entry>> cursors = runs.stream()
+                .map(run -> (Cursor<Entry>) run.tree.query()).collect(Collectors.toList());
+
+        Iterator<Entry> mergedEntries = dropDeletes ? new EntryMerger(cursors)
+                : new DeletePreservingEntryMerger(cursors);
+        if (compactionRate > 0 && id >= 0)
+            mergedEntries = new ThrottledIterator<>(mergedEntries, compactionRate);
+
+        final KeyCollector collector = new KeyCollector(mergedEntries, filter);
+        if (!collector.hasNext())
+            return null;
+        BPlusTree newTree = createTree(id);
+        new BPlusTreeBulkLoading(newTree, collector);
+        Run result = new Run(newTree, id, collector.count, filter);
+        result.hasDeletes = collector.deletes > 0;
+        return result;
+    }
+
+    /**
+     * Marks the given run as replaced and releases it, unless queries still
+     * read it. Requires the level lock.
+     */
+    private void retire(Run run) {
+        run.retired = true;
+        if (run.pins == 0)
+            dispose(run);
+    }
+
+    private void dispose(Run run) {
+        Container container = run.tree.container();
+        container.clear();
+        container.close();
+    }
+
+    /**
+     * Takes a snapshot of the tree. Level 0 is frozen, so that subsequent
+     * inserts and deletes go to a new level 0, and all runs are pinned, so
+     * that merges do not release them until the snapshot is closed. A
+     * running merge is not awaited: until it swapped in the merged run, the
+     * snapshot holds its sources, which the merge only reads. Once more than
+     * {@value #MAX_FROZEN_RUNS} frozen level 0 runs piled up, they are
+     * combined into a single one.
+     *
+     * @return the snapshot, to be closed once the queries on it finished
+     */
+    public Snapshot snapshot() {
+        levelLock.lock();
+        try {
+            freezeFirstLevel();
+            if (frozenFirstLevels.size() > MAX_FROZEN_RUNS) {
+                Run combined = writeRun(frozenFirstLevels, -1, false, null);
+                for (Run run : frozenFirstLevels)
+                    retire(run);
+                frozenFirstLevels.clear();
+                if (combined != null)
+                    frozenFirstLevels.add(combined);
+            }
+            List<Run> runs = new ArrayList<>(frozenFirstLevels);
+            runs.addAll(mergingFirstLevels);
+            for (int i = 1; i < levels.size(); i++) {
+                if (levels.get(i) != null)
+                    runs.add(levels.get(i));
+            }
+            for (Run run : runs)
+                run.pins++;
+            return new Snapshot(runs);
+        } finally {
+            levelLock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean mayContain(Run run, KeyType from, KeyType to) {
+        KeyRange fence = (KeyRange) run.tree.rootDescriptor();
+        if (fence == null)
+            return false;
+        if (from != null && from.compareTo((KeyType) fence.maxBound()) > 0)
+            return false;
+        if (to != null && to.compareTo((KeyType) fence.minBound()) < 0)
+            return false;
+        return run.filter == null || from == null || to == null || from.compareTo(to) != 0
+                || run.filter.mightContain(from);
+    }
+
+    /**
+     * A view of the tree at the time it was taken, unaffected by subsequent
+     * inserts, deletes and merges. Its queries may run concurrently to them.
+     */
+    public class Snapshot implements AutoCloseable {
+
+        /** The pinned runs, from the newest to the oldest data */
+        private final List<Run> runs;
+
+        private final boolean hasDeletes;
+
+        private boolean closed;
+
+        private Snapshot(List<Run> runs) {
+            this.runs = runs;
+            this.hasDeletes = runs.stream().anyMatch(run -> run.hasDeletes);
+        }
+
+        /**
+         * Returns the runs that may hold keys in the given range. Runs are
+         * skipped if the range does not overlap their root descriptor or,
+         * for point ranges, if their Bloom filter rules out the key.
+         *
+         * @param from the lower bound, inclusive, null if unbounded
+         * @param to   the upper bound, inclusive, null if unbounded
+         * @return the matching runs, from the newest to the oldest data
+         */
+        private List<Run> runs(KeyType from, KeyType to) {
+            return runs.stream().filter(run -> mayContain(run, from, to)).collect(Collectors.toList());
+        }
+
+        /**
+         * Exact match query.
+         *
+         * @param key to match on equality
+         * @return value or null if non-existent
+         */
+        public ValueType query(KeyType key) {
+            // query each tree, stopping at the newest match
+            Optional<Entry> entry = runs(key, key).stream()
+                    .map(run -> (Entry) run.tree.exactMatchQuery(key))
+                    .filter(result -> result != null).findFirst();
+
+            return entry.filter(e -> e.type == EntryType.INSERT).map(e -> e.value)
+                    .orElse(null); // nothing found at all
+        }
+
+        /**
+         * Range query. Values hidden by deletions of newer levels are
+         * skipped.
+         *
+         * @param rangeFrom key inclusive, null if unbounded
+         * @param rangeTo   key inclusive, null if unbounded
+         * @return Iterator of values.
+         */
+        public Iterator<ValueType> query(KeyType rangeFrom, KeyType rangeTo) {
+            List<Cursor<Entry>> entryCursors = runs(rangeFrom, rangeTo).stream()
+                    .map(run -> (Cursor<Entry>) (rangeFrom == null || rangeTo == null ? run.tree.query()
+                            : run.tree.rangeQuery(rangeFrom, rangeTo)))
+                    .collect(Collectors.toList());
+            return new EntryToValueMapper(
+                    hasDeletes ? new EntryMerger(entryCursors) : new EntryMerger2(entryCursors));
+        }
+
+        /**
+         * Passes the values with keys in the given range to the given action.
+         * Unlike {@link #query(Comparable, Comparable)}, the leaves of each
+         * level are scanned directly instead of merging the levels by key, so
+         * the values are passed level by level and neither a cursor nor an
+         * entry merger is involved. If a level may hold deletions, the levels
+         * are merged by key instead, skipping the deleted values.
+         *
+         * @param rangeFrom key inclusive
+         * @param rangeTo   key inclusive
+         * @param action    the action applied to each value
+         */
+        public void scan(KeyType rangeFrom, KeyType rangeTo, Consumer<? super ValueType> action) {
+            if (hasDeletes) {
+                query(rangeFrom, rangeTo).forEachRemaining(action);
+                return;
+            }
+            final KeyRange range = bPlusTreeConfiguration.keyRangeGenerator.apply(rangeFrom, rangeTo);
+            for (Run run : runs(rangeFrom, rangeTo))
+                scanLeaves(run.tree, range, rangeFrom, rangeTo, action);
+        }
+
+        /**
+         * Releases the runs of the snapshot. Iterators obtained from the
+         * snapshot must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            release(runs);
+        }
+    }
+
+    /**
+     * Unpins the given runs, releasing those retired in the meantime.
+     */
+    private void release(List<Run> runs) {
+        levelLock.lock();
+        try {
+            for (Run run : runs) {
+                if (--run.pins == 0 && run.retired)
+                    dispose(run);
+            }
+        } finally {
+            levelLock.unlock();
+        }
     }
 
     /**
@@ -529,9 +1098,16 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
      * @param value
      */
     public void insert(ValueType value) {
-        BPlusTree tree = trees.get(0);
-        tree.insert(new Entry(value, EntryType.INSERT));
-        if (++currentFirstLevelSize >= maxiumFirstLevelSize) {
+        final boolean full;
+        levelLock.lock();
+        try {
+            firstLevel.tree.insert(new Entry(value, EntryType.INSERT));
+            firstLevel.entryCount++;
+            full = ++currentFirstLevelSize >= maxiumFirstLevelSize;
+        } finally {
+            levelLock.unlock();
+        }
+        if (full) {
             merge();
         }
     }
@@ -551,25 +1127,34 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
      * @param value
      */
     public void delete(ValueType value) {
-        BPlusTree tree = trees.get(0);
-        KeyType key = bPlusTreeConfiguration.keyExtractor.apply(value);
-        Separator separator = bPlusTreeConfiguration.separatorGenerator
-                .apply(key);
-
-        @SuppressWarnings("unchecked")
-        // Cursor<Entry> query = tree.query(new Entry(value, EntryType.INSERT));
-                Cursor<Entry> query = tree.query(separator);
-        if (query.hasNext()) {
-            query.next();
-            query.update(new Entry(value, EntryType.DELETE));
-            query.close();
-        } else {
-            query.close();
-            tree.insert(new Entry(value, EntryType.DELETE));
-            currentFirstLevelSize++;
-        }
-
-        if (currentFirstLevelSize >= maxiumFirstLevelSize) {
+        final boolean full;
+        levelLock.lock();
+        try {
+            BPlusTree tree = firstLevel.tree;
+            KeyType key = bPlusTreeConfiguration.keyExtractor.apply(value);
+            Separator separator = bPlusTreeConfiguration.separatorGenerator
+                    .apply(key);
+
+            @SuppressWarnings("unchecked")
+            // Cursor<Entry> query = tree.query(new Entry(value, EntryType.INSERT));
+                    Cursor<Entry> query = tree.query(separator);
+            if (query.hasNext()) {
+                query.next();
+                query.update(new Entry(value, EntryType.DELETE));
+                query.close();
+            } else {
+                query.close();
+                tree.insert(new Entry(value, EntryType.DELETE));
+                firstLevel.entryCount++;
+                currentFirstLevelSize++;
+            }
+            firstLevel.hasDeletes = true;
+            full = currentFirstLevelSize >= maxiumFirstLevelSize;
+        } finally {
+            levelLock.unlock();
+        }
+
+        if (full) {
             merge();
         }
     }
@@ -581,44 +1166,145 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
      * @return value or null if non-existent
      */
     public ValueType query(KeyType key) {
-        // query each tree
-        @SuppressWarnings("unchecked")
-        List<Entry> entries = trees.stream().filter(tree -> tree != null)
-                .map(tree -> (Entry) tree.exactMatchQuery(key))
-                .filter(result -> result != null).collect(Collectors.toList());
-
-        for (Entry entry : entries) {
-            return entry.type == EntryType.INSERT ? entry.value : null;
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.query(key);
         }
-
-        return null; // nothing found at all
     }
 
     /**
-     * Range query.
+     * Range query on a new snapshot, which is closed once the iterator is
+     * exhausted.
      *
      * @param rangeFrom key inclusive
      * @param rangeTo   key inclusive
      * @return Iterator of values.
+     * @see Snapshot#query(Comparable, Comparable)
      */
     public Iterator<ValueType> query(KeyType rangeFrom, KeyType rangeTo) {
-        List<Cursor<Entry>> entryCursors = trees.stream()
-                .filter(tree -> tree != null)
-                .map(tree -> (Cursor<Entry>) tree.rangeQuery(rangeFrom, rangeTo))
-                .collect(Collectors.toList());
-        return new EntryToValueMapper(new EntryMerger2(entryCursors));
+        Snapshot snapshot = snapshot();
+        return new SnapshotIterator(snapshot.query(rangeFrom, rangeTo), snapshot);
     }
 
     /**
-     * Range query over the whole range, .i.e. all data.
+     * Passes the values with keys in the given range to the given action.
+     *
+     * @param rangeFrom key inclusive
+     * @param rangeTo   key inclusive
+     * @param action    the action applied to each value
+     * @see Snapshot#scan(Comparable, Comparable, Consumer)
+     */
+    public void scan(KeyType rangeFrom, KeyType rangeTo, Consumer<? super ValueType> action) {
+        try (Snapshot snapshot = snapshot()) {
+            snapshot.scan(rangeFrom, rangeTo, action);
+        }
+    }
+
+    private void scanLeaves(BPlusTree tree, KeyRange range, KeyType from, KeyType to,
+                            Consumer<? super ValueType> action) {
+        Node node = (Node) tree.rootEntry().get(true);
+        while (node.level() > 0) {
+            Iterator<?> children = node.query(range);
+            if (!children.hasNext())
+                return;
+            node = (Node) ((IndexEntry) children.next()).get(true);
+        }
+        while (true) {
+            for (int i = 0; i < node.number(); i++) {
+                @SuppressWarnings("unchecked")
+                Entry entry = (Entry) node.getEntry(i);
+                KeyType key = bPlusTreeConfiguration.keyExtractor.apply(entry.value);
+                if (key.compareTo(from) < 0)
+                    continue;
+                if (key.compareTo(to) > 0)
+                    return;
+                action.accept(entry.value);
+            }
+            if (node.nextNeighbor() == null)
+                return;
+            node = (Node) node.nextNeighbor().get(true);
+        }
+    }
+
+    /**
+     * Range query over the whole range, .i.e. all data, on a new snapshot,
+     * which is closed once the iterator is exhausted.
      *
      * @return Iterator of values
      */
     public Iterator<ValueType> query() {
-        List<Cursor<Entry>> entryCursors = trees.stream()
-                .filter(tree -> tree != null).map(tree -> (Cursor<Entry>) tree.query())
-                .collect(Collectors.toList());
-        return new EntryToValueMapper(new EntryMerger2(entryCursors));
+        return query(null, null);
+    }
+
+    /**
+     * Limits the rate at which entries are retrieved from the wrapped
+     * iterator.
+     */
+    private static class ThrottledIterator<T> implements Iterator<T> {
+
+        private final Iterator<T> iterator;
+        private final long entriesPerSecond;
+        private final long start = System.nanoTime();
+        private long count;
+
+        public ThrottledIterator(Iterator<T> iterator, long entriesPerSecond) {
+            this.iterator = iterator;
+            this.entriesPerSecond = entriesPerSecond;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            // Check once per 1024 entries, whether we are ahead of schedule
+            if ((++count & 1023) == 0) {
+                long aheadMillis = count * 1000L / entriesPerSecond - (System.nanoTime() - start) / 1_000_000L;
+                if (aheadMillis > 0) {
+                    try {
+                        Thread.sleep(aheadMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            return iterator.next();
+        }
+    }
+
+    /**
+     * Counts the merged entries and adds their keys to the Bloom filter of
+     * the new level.
+     */
+    private class KeyCollector implements Iterator<Entry> {
+
+        private final Iterator<Entry> iterator;
+        private final BloomFilter<KeyType> filter;
+        private long count;
+
+        private long deletes;
+
+        public KeyCollector(Iterator<Entry> iterator, BloomFilter<KeyType> filter) {
+            this.iterator = iterator;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Entry next() {
+            Entry entry = iterator.next();
+            count++;
+            if (entry.type == EntryType.DELETE)
+                deletes++;
+            if (filter != null)
+                filter.add(bPlusTreeConfiguration.keyExtractor.apply(entry.value));
+            return entry;
+        }
     }
 
     private class EntryToValueMapper implements Iterator<ValueType> {
@@ -639,6 +1325,34 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
             return iterator.next().value;
         }
     }
+
+    /**
+     * Closes the snapshot queried once the iterator is exhausted.
+     */
+    private class SnapshotIterator implements Iterator<ValueType> {
+
+        private final Iterator<ValueType> iterator;
+
+        private final Snapshot snapshot;
+
+        public SnapshotIterator(Iterator<ValueType> iterator, Snapshot snapshot) {
+            this.iterator = iterator;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (iterator.hasNext())
+                return true;
+            snapshot.close();
+            return false;
+        }
+
+        @Override
+        public ValueType next() {
+            return iterator.next();
+        }
+    }
     
     
     private class TreeBuffer implements Iterator<Entry> {
@@ -646,6 +1360,8 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 		private final int idx;
 		private final Cursor<Entry> cursor;
 		private final ArrayDeque<Entry> buffer;
+		/** Tells whether the cursor is exhausted and closed */
+		private boolean closed;
 		
 		public TreeBuffer(int idx, Cursor<LogStructuredMergeBPlusTree<KeyType, ValueType>.Entry> cursor) {
 			this.idx = idx;
@@ -657,6 +1373,11 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 			for ( int remaining = BUFFER_SIZE-buffer.size(); remaining > 0 && cursor.hasNext(); remaining-- ) {
 				buffer.add(cursor.next());
 			}
+			// Unfixes the nodes of the cursor's path
+			if ( !cursor.hasNext() ) {
+				cursor.close();
+				closed = true;
+			}
 		}
 
 		/**
@@ -664,7 +1385,7 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 		 */
 		@Override
 		public boolean hasNext() {
-			return !buffer.isEmpty() || cursor.hasNext();
+			return !buffer.isEmpty() || !closed && cursor.hasNext();
 		}
 
 		/**
@@ -674,7 +1395,7 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
 		public LogStructuredMergeBPlusTree<KeyType, ValueType>.Entry next() {
 			if ( !buffer.isEmpty() )
 				return buffer.poll();
-			else if ( cursor.hasNext() ) {
+			else if ( hasNext() ) {
 				fillBuffer();
 				return buffer.poll();
 			}
@@ -937,8 +1658,8 @@ public class LogStructuredMergeBPlusTree<KeyType extends Comparable<KeyType>, Va
     public void appendPlot(StringBuilder buffer, String prefix) {
         Supplier<String> nameGenerator = Plottable.getNameGenerator(prefix);
 
-        for (int i = 0; i < trees.size(); i++) {
-            BPlusTree tree = trees.get(i);
+        for (int i = 0; i < levels.size(); i++) {
+            BPlusTree tree = levels.get(i) == null ? null : levels.get(i).tree;
 
             buffer.append(String.format(
                     "subgraph cluster%1$s { %n label = \"Tree #%2$d\"; %n",
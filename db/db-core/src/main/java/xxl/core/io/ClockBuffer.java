@@ -0,0 +1,237 @@
+package xxl.core.io;
+
+import xxl.core.functions.Constant;
+import xxl.core.functions.Function;
+
+/**
+ * A thread-safe buffer displacing slots by the CLOCK strategy: a hand
+ * sweeps over the slots, clearing their reference bits, and displaces the
+ * first unfixed slot not referenced since the last sweep. Hot objects thus
+ * survive sequential scans better than with LRU, without maintaining a list
+ * on every access.
+ * <p>
+ * The buffer may be shared by many containers. On a miss, the object is
+ * obtained outside the buffer's monitor, so that loading an object does not
+ * block concurrent hits.
+ *
+ * @param <O> the type of the owners
+ * @param <I> the type of the ids
+ * @param <E> the type of the buffered objects
+ */
+public class ClockBuffer<O, I, E> extends Buffer<O, I, E> {
+
+	/**
+	 * A slot carrying a reference bit, which is set whenever the slot is
+	 * fixed.
+	 */
+	protected class Slot extends Buffer<O, I, E>.Slot {
+
+		/**
+		 * Tells whether the slot was accessed since the hand passed it.
+		 */
+		protected boolean referenced;
+
+		public Slot(int index) {
+			super(index);
+		}
+
+		@Override
+		protected void fix() {
+			super.fix();
+			referenced = true;
+		}
+
+		@Override
+		protected void remove() {
+			super.remove();
+			referenced = false;
+		}
+	}
+
+	/**
+	 * The position of the clock hand.
+	 */
+	protected int hand = 0;
+
+	/**
+	 * The number of requests served from the buffer.
+	 */
+	protected long hits = 0;
+
+	/**
+	 * The number of requests that required obtaining the object.
+	 */
+	protected long misses = 0;
+
+	/**
+	 * The number of removals, used to detect objects that became stale while
+	 * being obtained.
+	 */
+	protected long removals = 0;
+
+	/**
+	 * Constructs a new empty buffer.
+	 *
+	 * @param capacity the number of slots
+	 * @param capacityBytes the capacity in bytes. The buffered objects must
+	 *        implement {@link SizeAware}.
+	 */
+	public ClockBuffer(int capacity, int capacityBytes) {
+		super(capacity, capacityBytes);
+	}
+
+	/**
+	 * Constructs a new empty buffer.
+	 *
+	 * @param capacity the number of slots
+	 */
+	public ClockBuffer(int capacity) {
+		super(capacity);
+	}
+
+	@Override
+	protected Buffer<O, I, E>.Slot newSlot(int index) {
+		return new Slot(index);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected Buffer<O, I, E>.Slot victim() {
+		// Two sweeps clear all reference bits, so an unfixed slot is found if one exists
+		for (int i = 0; i < 2 * size; i++) {
+			if (hand >= size)
+				hand = 0;
+			Slot slot = (Slot) slots.get(hand++);
+			if (slot.isFixed())
+				continue;
+			if (slot.referenced)
+				slot.referenced = false;
+			else
+				return slot;
+		}
+		throw new IllegalStateException("Buffer overflow. Too many slots fixed.");
+	}
+
+	/**
+	 * Returns the buffered object, obtaining it on a miss. If all slots are
+	 * fixed, the obtained object is returned without buffering it, instead of
+	 * failing with a buffer overflow.
+	 */
+	@Override
+	public E get(O owner, I id, Function<? super I, ? extends E> obtain, boolean unfix) throws IllegalStateException {
+		final long removalsBefore;
+		synchronized (this) {
+			if (lookUp(owner, id) != null) {
+				hits++;
+				return super.get(owner, id, obtain, unfix);
+			}
+			misses++;
+			// Objects to be fixed are obtained under the monitor, so they cannot become stale meanwhile
+			if (!unfix)
+				return insert(owner, id, obtain.invoke(id), unfix);
+			removalsBefore = removals;
+		}
+		E object = obtain.invoke(id);
+		synchronized (this) {
+			// Do not buffer an object that may have been updated meanwhile
+			if (removals != removalsBefore && lookUp(owner, id) == null)
+				return object;
+			return insert(owner, id, object, unfix);
+		}
+	}
+
+	private E insert(O owner, I id, E object, boolean unfix) {
+		try {
+			return super.get(owner, id, new Constant<E>(object), unfix);
+		} catch (IllegalStateException e) {
+			// Too many slots fixed, undo a partial insert
+			super.remove(owner, id);
+			return object;
+		}
+	}
+
+	@Override
+	public synchronized void update(O owner, I id, E object, Function<Object, ?> flush, boolean unfix) throws IllegalStateException {
+		super.update(owner, id, object, flush, unfix);
+	}
+
+	@Override
+	public synchronized void unfix(O owner, I id) {
+		super.unfix(owner, id);
+	}
+
+	@Override
+	public synchronized boolean contains(O owner, I id) {
+		return super.contains(owner, id);
+	}
+
+	@Override
+	public synchronized boolean isFixed(O owner, I id) {
+		return super.isFixed(owner, id);
+	}
+
+	@Override
+	public synchronized void flush(O owner, I id) {
+		super.flush(owner, id);
+	}
+
+	@Override
+	public synchronized void flushAll(O owner) {
+		super.flushAll(owner);
+	}
+
+	@Override
+	public synchronized void remove(O owner, I id) {
+		removals++;
+		super.remove(owner, id);
+	}
+
+	@Override
+	public synchronized void removeAll(O owner) {
+		removals++;
+		super.removeAll(owner);
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized int bytesUsed() {
+		return super.bytesUsed();
+	}
+
+	@Override
+	public synchronized int fixedSlots() {
+		return super.fixedSlots();
+	}
+
+	/**
+	 * @return the number of requests served from the buffer
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of requests that required obtaining the object
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public synchronized void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("ClockBuffer [slots=%d/%d, bytes=%d/%d, hits=%d, misses=%d]", size, slots.size(),
+			sizeBytes, capacityBytes, hits, misses);
+	}
+}
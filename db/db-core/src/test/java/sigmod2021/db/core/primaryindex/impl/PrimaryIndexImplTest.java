@@ -0,0 +1,133 @@
+package sigmod2021.db.core.primaryindex.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sigmod2021.db.core.primaryindex.impl.legacy.ImmutableParams;
+import sigmod2021.db.core.primaryindex.impl.legacy.MutableParams;
+import sigmod2021.event.Attribute;
+import sigmod2021.event.Event;
+import sigmod2021.event.EventSchema;
+import sigmod2021.event.TimeRepresentation;
+import sigmod2021.event.impl.SimpleEvent;
+import xxl.core.cursors.Cursor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrimaryIndexImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static EventSchema schema() {
+        return new EventSchema(new Attribute("V", Attribute.DataType.LONG));
+    }
+
+    /**
+     * Copies the files of an open index, as they would be found after a crash.
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path p : files.collect(Collectors.toList())) {
+                final Path t = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p))
+                    Files.createDirectories(t);
+                else
+                    Files.copy(p, t);
+            }
+        }
+    }
+
+    /**
+     * @return the timestamp and value of all events, in timestamp order
+     */
+    private static List<String> contents(PrimaryIndexImpl tree) {
+        final List<String> result = new ArrayList<>();
+        final Cursor<? extends Event> c = tree.query(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (c.hasNext()) {
+            final Event e = c.next();
+            result.add(e.getT1() + ":" + e.get(0));
+        }
+        c.close();
+        return result;
+    }
+
+    /**
+     * Crashes an index holding in-order events at multiples of ten and out-of-order events
+     * in between, and checks that reopening it restores all of them exactly once.
+     *
+     * @param push whether the out-of-order queue is merged into the tree before the crash
+     */
+    private void assertRecovers(int inOrder, long[] outOfOrder, boolean push) throws Exception {
+        final Path dir = folder.newFolder().toPath();
+        final Path crashed = folder.newFolder().toPath();
+
+        final MutableParams params = new MutableParams();
+        params.setUseWriteAheadLog(true);
+        params.setLogCommitInterval(0);
+        final PrimaryIndexImpl tree = new PrimaryIndexImpl(dir, schema(), TimeRepresentation.POINT,
+                new ImmutableParams(), params);
+        final TreeMap<Long, String> expected = new TreeMap<>();
+        for (int i = 0; i < inOrder; i++) {
+            tree.insert(new SimpleEvent(new Object[]{(long) i}, i * 10L));
+            expected.put(i * 10L, i * 10L + ":" + i);
+        }
+        for (int i = 0; i < outOfOrder.length; i++) {
+            tree.insert(new SimpleEvent(new Object[]{(long) -i}, outOfOrder[i]));
+            expected.put(outOfOrder[i], outOfOrder[i] + ":" + -i);
+        }
+        if (push)
+            assertEquals(new ArrayList<>(expected.values()), contents(tree));
+        copy(dir, crashed);
+        tree.close();
+
+        final PrimaryIndexImpl recovered = new PrimaryIndexImpl(crashed);
+        try {
+            assertEquals(expected.size(), recovered.getNumberOfEvents());
+            assertEquals(new ArrayList<>(expected.values()), contents(recovered));
+        } finally {
+            recovered.close();
+        }
+    }
+
+    /**
+     * @return timestamps between the first in-order events
+     */
+    private static long[] early(int count) {
+        final long[] result = new long[count];
+        for (int i = 0; i < count; i++)
+            result[i] = i * 10L + 5;
+        return result;
+    }
+
+    @Test
+    public void replaysLogOfUnflushedTree() throws Exception {
+        assertRecovers(5_000, early(7), false);
+        assertRecovers(5_000, early(7), true);
+    }
+
+    @Test
+    public void replaysLogAfterLastPersistedLeaf() throws Exception {
+        assertRecovers(50_000, early(100), false);
+        assertRecovers(50_000, early(100), true);
+    }
+
+    @Test
+    public void replaysOutOfOrderEventsPushedIntoFlank() throws Exception {
+        for (int inOrder : new int[]{10, 5_000}) {
+            final long[] late = new long[3];
+            for (int i = 0; i < late.length; i++)
+                late[i] = (inOrder - 1 - i) * 10L - 5;
+            assertRecovers(inOrder, late, true);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package sigmod2021.db.core.primaryindex.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sigmod2021.db.core.primaryindex.impl.legacy.ImmutableParams;
+import sigmod2021.db.core.primaryindex.impl.legacy.MutableParams;
+import sigmod2021.db.core.primaryindex.queries.range.DoubleAttributeRange;
+import sigmod2021.db.event.PersistentEvent;
+import sigmod2021.db.event.TID;
+import sigmod2021.event.Attribute;
+import sigmod2021.event.Event;
+import sigmod2021.event.EventSchema;
+import sigmod2021.event.TimeRepresentation;
+import sigmod2021.event.impl.SimpleEvent;
+import xxl.core.cursors.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrimaryWithSecondaryIndexImplTest {
+
+    private static final int EVENTS = 30_000;
+
+    private static final int VALUES = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Four events per timestamp, some of them arriving late into runs of equal
+     * timestamps, with many identical events.
+     */
+    private static List<Event> events() {
+        final Random r = new Random(7);
+        final List<Event> result = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            long ts = (i / 4) * 10L;
+            if (i > 2000 && r.nextInt(100) < 3)
+                ts = ((i - r.nextInt(1500)) / 4) * 10L;
+            result.add(new SimpleEvent(new Object[]{(double) r.nextInt(VALUES), (long) r.nextInt(3)}, ts));
+        }
+        return result;
+    }
+
+    private PrimaryWithSecondaryIndexImpl create() throws Exception {
+        final EventSchema schema = new EventSchema(new Attribute("A", Attribute.DataType.DOUBLE),
+                new Attribute("B", Attribute.DataType.LONG));
+        schema.byName("A").setProperty("index", "true").setProperty("secondaryIndex", "true");
+        return new PrimaryWithSecondaryIndexImpl(folder.newFolder().toPath(), schema, TimeRepresentation.POINT,
+                new ImmutableParams(), new MutableParams());
+    }
+
+    private static String format(Event e) {
+        return e.getT1() + ":" + e.get(0) + ":" + e.get(1);
+    }
+
+    /**
+     * Checks that both query orders of the secondary index return exactly the
+     * events of the primary index holding the queried value.
+     *
+     * @return the primary index contents in timestamp order
+     */
+    private static List<String> check(PrimaryWithSecondaryIndexImpl tree) throws Exception {
+        final Map<TID, Event> primary = new HashMap<>();
+        final int[] counts = new int[VALUES];
+        final List<String> contents = new ArrayList<>();
+        final Cursor<PersistentEvent> c = tree.query(Long.MIN_VALUE, Long.MAX_VALUE);
+        long last = Long.MIN_VALUE;
+        while (c.hasNext()) {
+            final PersistentEvent e = c.next();
+            assertTrue(e.getT1() >= last);
+            last = e.getT1();
+            assertNull("Duplicate TID " + e.getId(), primary.put(e.getId(), e));
+            counts[(int) (double) (Double) e.get(0)]++;
+            contents.add(format(e));
+        }
+        c.close();
+        assertEquals(EVENTS, primary.size());
+
+        for (int v = 0; v < VALUES; v++) {
+            final DoubleAttributeRange range = new DoubleAttributeRange("A", (double) v, (double) v, true, true);
+            for (Cursor<PersistentEvent> s : Arrays.asList(
+                    tree.querySecondaryAttributes(Long.MIN_VALUE, Long.MAX_VALUE, range),
+                    tree.querySecondaryAttributesValueOrder(range))) {
+                final Map<TID, Event> seen = new HashMap<>();
+                while (s.hasNext()) {
+                    final PersistentEvent e = s.next();
+                    assertNull("Duplicate TID " + e.getId(), seen.put(e.getId(), e));
+                    final Event p = primary.get(e.getId());
+                    assertEquals(format(p), format(e));
+                    assertEquals((double) v, (Double) e.get(0), 0.0);
+                }
+                s.close();
+                assertEquals(counts[v], seen.size());
+            }
+        }
+        return contents;
+    }
+
+    @Test
+    public void insertBatchIndexesLikeInsert() throws Exception {
+        final List<Event> events = events();
+
+        final PrimaryWithSecondaryIndexImpl single = create();
+        for (Event e : events)
+            single.insert(e);
+        single.flush();
+        final List<String> expected = check(single);
+        single.close();
+
+        final PrimaryWithSecondaryIndexImpl batched = create();
+        final Event[] batch = new Event[100];
+        for (int i = 0; i < events.size(); i += batch.length) {
+            // The array is reused, the index must not keep it
+            for (int j = 0; j < batch.length; j++)
+                batch[j] = events.get(i + j);
+            batched.insertBatch(batch);
+        }
+        batched.flush();
+        assertEquals(expected, check(batched));
+        batched.close();
+    }
+}
@@ -0,0 +1,103 @@
+package sigmod2021.db.core.secondaryindex;
+
+import org.junit.Test;
+import xxl.core.cursors.wrappers.IteratorCursor;
+import xxl.core.util.Pair;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortedEventIDsTest {
+
+    private static final int ENTRY_SIZE = EventID.getConverter().getMaxObjectSize();
+
+    /**
+     * @return ids in random sequence order, with fields derived from the sequence id
+     */
+    private static List<Pair<Double, EventID>> ids(int count) {
+        final List<Long> sequence = new ArrayList<>();
+        for (long i = 0; i < count; i++)
+            sequence.add(i * 3);
+        Collections.shuffle(sequence, new Random(count));
+
+        final List<Pair<Double, EventID>> result = new ArrayList<>(count);
+        for (long s : sequence)
+            result.add(new Pair<>((double) (s % 17),
+                    new EventID(s / 100 * 8192, (int) (s % 100), s * 10, (int) (s % 4), s)));
+        return result;
+    }
+
+    private static long runFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(p -> p.getFileName().toString().startsWith("si-sort")).count();
+        }
+    }
+
+    private static void assertSorted(SortedEventIDs sorted, int count) {
+        for (long i = 0; i < count; i++) {
+            assertTrue(sorted.advance());
+            final long s = i * 3;
+            assertEquals(s, sorted.getSequenceId());
+            assertEquals(s * 10, sorted.getTimestamp());
+            assertEquals((int) (s % 4), sorted.getRank());
+            assertEquals(s / 100 * 8192, sorted.getBlockId());
+            assertEquals((int) (s % 100), sorted.getOffset());
+        }
+        assertFalse(sorted.advance());
+    }
+
+    @Test
+    public void sortsInMemory() throws IOException {
+        final long before = runFiles();
+        try (SortedEventIDs sorted = new SortedEventIDs(new IteratorCursor<>(ids(5_000).iterator()),
+                5_000 * ENTRY_SIZE)) {
+            assertEquals(before, runFiles());
+            assertSorted(sorted, 5_000);
+        }
+    }
+
+    @Test
+    public void mergesSpilledRunsInSeveralPasses() throws IOException {
+        final long before = runFiles();
+        // 200 runs of ten ids, more than can be merged at once
+        final int count = 2_000;
+        try (SortedEventIDs sorted = new SortedEventIDs(new IteratorCursor<>(ids(count).iterator()),
+                10 * ENTRY_SIZE)) {
+            final long open = runFiles() - before;
+            assertTrue(open > 0);
+            assertTrue("Runs left for the final merge: " + open, open < SortedEventIDs.MAX_FAN_IN);
+            assertSorted(sorted, count);
+        }
+        assertEquals(before, runFiles());
+    }
+
+    @Test
+    public void closeDeletesRunsOfPartialIteration() throws IOException {
+        final long before = runFiles();
+        final SortedEventIDs sorted = new SortedEventIDs(new IteratorCursor<>(ids(1_000).iterator()),
+                50 * ENTRY_SIZE);
+        assertTrue(runFiles() > before);
+        for (int i = 0; i < 10; i++)
+            assertTrue(sorted.advance());
+        sorted.close();
+        assertEquals(before, runFiles());
+    }
+
+    @Test
+    public void handlesEmptyResult() {
+        try (SortedEventIDs sorted = new SortedEventIDs(new IteratorCursor<>(ids(0).iterator()), ENTRY_SIZE)) {
+            assertFalse(sorted.advance());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package sigmod2021.db.core.wal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xxl.core.io.converters.LongConverter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedLogTest {
+
+    /** Small enough to spread the test records over many segments */
+    private static final long SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedLog<Long> open(Path dir) {
+        return new SegmentedLog<>(dir, LongConverter.DEFAULT_INSTANCE, SEGMENT_SIZE, 0);
+    }
+
+    private static List<Long> replay(Log<Long> log, long lsn) {
+        final List<Long> result = new ArrayList<>();
+        log.replay(lsn, result::add);
+        return result;
+    }
+
+    private static List<Long> range(long from, long to) {
+        final List<Long> result = new ArrayList<>();
+        for (long i = from; i < to; i++)
+            result.add(i);
+        return result;
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void replaysRecordsAfterLsnAcrossSegmentsAndReopen() throws IOException {
+        final Path dir = folder.newFolder("wal").toPath();
+        SegmentedLog<Long> log = open(dir);
+        for (long i = 0; i < 1000; i++)
+            log.insert(i / 10, i);
+        assertEquals(999L, log.getLSN());
+        assertTrue(segmentCount(dir) > 10);
+        log.close();
+
+        log = open(dir);
+        assertEquals(999L, log.getLSN());
+        assertEquals(range(0, 1000), replay(log, -1L));
+        assertEquals(range(500, 1000), replay(log, 499L));
+        assertEquals(range(0, 0), replay(log, 999L));
+
+        // New records continue the lsn sequence
+        log.insert(0, 1000L);
+        assertEquals(1000L, log.getLSN());
+        assertEquals(range(999, 1001), replay(log, 998L));
+        log.close();
+    }
+
+    @Test
+    public void truncateKeepsRecordsAfterLsn() throws IOException {
+        final Path dir = folder.newFolder("wal").toPath();
+        final SegmentedLog<Long> log = open(dir);
+        for (long i = 0; i < 1000; i++)
+            log.insert(0, i);
+        final long before = segmentCount(dir);
+        log.truncate(599L);
+        assertTrue(segmentCount(dir) < before);
+
+        // Whole segments are dropped, so more records may be retained
+        final List<Long> retained = replay(log, -1L);
+        assertTrue(retained.size() >= 400);
+        assertEquals(range(1000 - retained.size(), 1000), retained);
+
+        log.clear();
+        assertEquals(999L, log.getLSN());
+        assertEquals(range(0, 0), replay(log, -1L));
+        log.close();
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws IOException {
+        final Path dir = folder.newFolder("wal").toPath();
+        SegmentedLog<Long> log = open(dir);
+        for (long i = 0; i < 10; i++)
+            log.insert(0, i);
+        log.close();
+
+        // Corrupt the payload of the last record, as a crash during a write would
+        final Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.sorted().collect(Collectors.toList()).get(0);
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), channel.size() - 5);
+        }
+
+        log = open(dir);
+        assertEquals(8L, log.getLSN());
+        assertEquals(range(0, 9), replay(log, -1L));
+        log.close();
+    }
+}
@@ -0,0 +1,123 @@
+package xxl.core.collections.containers.compression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import xxl.core.collections.containers.compression.CodecCompressor.Codec;
+
+public class CodecCompressorTest {
+
+	private static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * A block resembling a leaf: ascending timestamps and a few distinct
+	 * values.
+	 */
+	private static byte[] block(Random random) {
+		final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+		long ts = random.nextInt(1_000_000);
+		while (buffer.remaining() >= 20) {
+			ts += 1 + random.nextInt(10);
+			buffer.putLong(ts);
+			buffer.putDouble(100.25 + random.nextInt(17) * 0.125);
+			buffer.putInt(random.nextInt(23));
+		}
+		return buffer.array();
+	}
+
+	private static byte[] randomBlock(Random random) {
+		final byte[] result = new byte[BLOCK_SIZE];
+		random.nextBytes(result);
+		return result;
+	}
+
+	@Test
+	public void roundTripsEachCodec() {
+		final Random random = new Random(42);
+		for (final Codec codec : Codec.values()) {
+			final CodecCompressor compressor = new CodecCompressor(codec);
+			for (int i = 0; i < 20; i++) {
+				final byte[] block = block(random);
+				final byte[] compressed = compressor.compress(block);
+				assertTrue(codec + " should compress", compressed.length < block.length);
+				assertEquals(codec.id, compressed[0]);
+				assertArrayEquals(block, compressor.decompress(compressed, block.length));
+			}
+		}
+	}
+
+	@Test
+	public void returnsIncompressibleBlocksUnchanged() {
+		final Random random = new Random(42);
+		for (final Codec codec : Codec.values()) {
+			final CodecCompressor compressor = new CodecCompressor(codec);
+			final byte[] block = randomBlock(random);
+			assertSame(block, compressor.compress(block));
+			assertEquals(-1, compressor.compress(block, new byte[BLOCK_SIZE / 2]));
+		}
+	}
+
+	@Test
+	public void decodesBlocksOfAnyCodec() {
+		final Random random = new Random(42);
+		final CodecCompressor reader = new CodecCompressor();
+		for (final Codec codec : Codec.values()) {
+			final byte[] block = block(random);
+			final byte[] destination = new byte[block.length];
+			final int size = new CodecCompressor(codec).compress(block, destination);
+			assertTrue(size > 0);
+			final byte[] compressed = new byte[size];
+			System.arraycopy(destination, 0, compressed, 0, size);
+			assertArrayEquals(block, reader.decompress(compressed, block.length));
+		}
+	}
+
+	@Test
+	public void trainsDictionaryAndRestoresItFromParams() throws IOException {
+		final Random random = new Random(42);
+		final int trainingBlocks = 64;
+		final CodecCompressor compressor = new CodecCompressor(Codec.ZSTD, 3, 4096, trainingBlocks);
+		assertNull(compressor.getDictionary());
+
+		final List<byte[]> blocks = new ArrayList<>();
+		final List<byte[]> compressed = new ArrayList<>();
+		for (int i = 0; i < 2 * trainingBlocks; i++) {
+			blocks.add(block(random));
+			compressed.add(compressor.compress(blocks.get(i)));
+		}
+		assertNotNull(compressor.getDictionary());
+		assertEquals(1, compressor.getParamsVersion());
+		// Blocks compressed before training stay plain Zstandard blocks
+		assertEquals(Codec.ZSTD.id, compressed.get(0)[0]);
+		assertTrue(compressed.get(compressed.size() - 1)[0] != Codec.ZSTD.id);
+
+		final ByteArrayOutputStream params = new ByteArrayOutputStream();
+		compressor.writeParams(new DataOutputStream(params));
+		final CodecCompressor restored = new CodecCompressor();
+		restored.restoreParams(new DataInputStream(new ByteArrayInputStream(params.toByteArray())));
+		assertEquals(Codec.ZSTD, restored.getCodec());
+		assertArrayEquals(compressor.getDictionary(), restored.getDictionary());
+		for (int i = 0; i < blocks.size(); i++)
+			assertArrayEquals(blocks.get(i), restored.decompress(compressed.get(i), BLOCK_SIZE));
+
+		// The restored compressor keeps using the dictionary
+		final byte[] block = block(random);
+		assertArrayEquals(block, compressor.decompress(restored.compress(block), BLOCK_SIZE));
+	}
+}
@@ -0,0 +1,173 @@
+package xxl.core.indexStructures;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sigmod2021.event.Attribute;
+import sigmod2021.event.Attribute.DataType;
+import sigmod2021.event.Attribute.Encoding;
+
+public class ColumnEncodingsTest {
+
+	private static final int N = 500;
+
+	/**
+	 * Columns of long values: regular, jittered, random and extreme.
+	 */
+	private static long[][] longColumns() {
+		final Random random = new Random(42);
+		final long[] regular = new long[N];
+		final long[] jittered = new long[N];
+		final long[] randomValues = new long[N];
+		final long[] extremes = new long[N];
+		for (int i = 0; i < N; i++) {
+			regular[i] = 1_600_000_000_000L + i * 1000L;
+			jittered[i] = 1_600_000_000_000L + i * 1000L + random.nextInt(50);
+			randomValues[i] = random.nextLong();
+			extremes[i] = i % 3 == 0 ? Long.MIN_VALUE : i % 3 == 1 ? Long.MAX_VALUE : 0;
+		}
+		return new long[][] { regular, jittered, randomValues, extremes, { 7L }, { -1L, -1L } };
+	}
+
+	@Test
+	public void deltaRoundTrip() {
+		for (final long[] values : longColumns())
+			assertArrayEquals(values, ColumnEncodings.decodeDelta(ColumnEncodings.encodeDelta(values), values.length));
+		// Regular timestamps take a single bit each, apart from the first difference
+		assertTrue(ColumnEncodings.encodeDelta(longColumns()[0]).length <= 8 + 3 + N / 8);
+	}
+
+	@Test
+	public void frameOfReferenceRoundTrip() {
+		for (final long[] values : longColumns())
+			assertArrayEquals(values,
+				ColumnEncodings.decodeFrameOfReference(ColumnEncodings.encodeFrameOfReference(values), values.length));
+	}
+
+	@Test
+	public void xorRoundTrip() {
+		final Random random = new Random(42);
+		final double[] specials = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			Double.MIN_VALUE, Double.MAX_VALUE, 1.5 };
+		final long[] doubles = new long[N];
+		final long[] floats = new long[N];
+		for (int i = 0; i < N; i++) {
+			final double value = i % 10 == 0 ? specials[i / 10 % specials.length]
+				: i % 2 == 0 ? 100.25 + (i % 17) * 0.125 : random.nextDouble();
+			doubles[i] = Double.doubleToRawLongBits(value);
+			floats[i] = Float.floatToRawIntBits((float) value) & 0xFFFFFFFFL;
+		}
+		assertArrayEquals(doubles, ColumnEncodings.decodeXor(ColumnEncodings.encodeXor(doubles, Long.SIZE), N, Long.SIZE));
+		assertArrayEquals(floats,
+			ColumnEncodings.decodeXor(ColumnEncodings.encodeXor(floats, Integer.SIZE), N, Integer.SIZE));
+	}
+
+	@Test
+	public void dictionaryRoundTrip() throws IOException {
+		final Object[] values = new Object[N];
+		for (int i = 0; i < N; i++)
+			values[i] = i % 7 == 0 ? "" : i % 5 == 0 ? "ä中" + i % 3 : "sym" + i % 23;
+		assertArrayEquals(values, ColumnEncodings.decodeDictionary(ColumnEncodings.encodeDictionary(values), N));
+		assertArrayEquals(new Object[] { "single" },
+			ColumnEncodings.decodeDictionary(ColumnEncodings.encodeDictionary(new Object[] { "single" }), 1));
+	}
+
+	private static Object[] values(DataType type, boolean compressible) {
+		final Random random = new Random(type.ordinal());
+		final Object[] result = new Object[N];
+		for (int i = 0; i < N; i++) {
+			final long v = compressible ? i % 13 : random.nextLong();
+			switch (type) {
+				case BYTE:
+					result[i] = (byte) v;
+					break;
+				case SHORT:
+					result[i] = (short) v;
+					break;
+				case INTEGER:
+					result[i] = (int) v;
+					break;
+				case LONG:
+					result[i] = compressible ? 1_000_000L + i * 10 : v;
+					break;
+				case FLOAT:
+					result[i] = compressible ? 20 + (i % 4) * 0.5f : Float.intBitsToFloat((int) v);
+					break;
+				case DOUBLE:
+					result[i] = compressible ? 100.25 : Double.longBitsToDouble(v);
+					break;
+				default:
+					result[i] = compressible ? "sym" + i % 3 : Long.toString(v, 36);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a column as returned by {@link ColumnEncodings#readColumn} to boxed values.
+	 */
+	private static Object[] boxed(Object column) {
+		final Object[] result = new Object[Array.getLength(column)];
+		for (int i = 0; i < result.length; i++)
+			result[i] = Array.get(column, i);
+		return result;
+	}
+
+	@Test
+	public void columnRoundTripForEachTypeAndEncoding() throws IOException {
+		final DataType[] types = { DataType.BYTE, DataType.SHORT, DataType.INTEGER, DataType.LONG, DataType.FLOAT,
+			DataType.DOUBLE, DataType.STRING };
+		for (final DataType type : types) {
+			for (final Encoding encoding : Encoding.values()) {
+				if ( !encoding.isApplicable(type) )
+					continue;
+				final Attribute attribute = new Attribute("a", type).setEncoding(encoding);
+				if ( type == DataType.STRING )
+					attribute.setMaxStringSize(16);
+				for (final boolean compressible : new boolean[] { true, false }) {
+					final Object[] values = values(type, compressible);
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					ColumnEncodings.writeColumn(new DataOutputStream(bytes), attribute, values);
+					final byte[] data = bytes.toByteArray();
+					final String message = type + " " + encoding + " " + compressible;
+					if ( compressible && ColumnEncodings.encodingOf(attribute) != Encoding.PLAIN )
+						assertNotEquals(message, 0, data[0]);
+					final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+					assertArrayEquals(message, values, boxed(ColumnEncodings.readColumn(in, attribute, N)));
+					assertEquals(message, -1, in.read());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void timestampsRoundTrip() throws IOException {
+		for (final long[] values : longColumns()) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ColumnEncodings.writeTimestamps(new DataOutputStream(bytes), values);
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			assertArrayEquals(values, ColumnEncodings.readTimestamps(in, values.length));
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void encodingOfHonoursSelectionAndDefaultsByType() {
+		assertEquals(Encoding.DELTA, ColumnEncodings.encodingOf(new Attribute("a", DataType.LONG).setEncoding(Encoding.DELTA)));
+		assertEquals(Encoding.FRAME_OF_REFERENCE, ColumnEncodings.encodingOf(new Attribute("a", DataType.INTEGER)));
+		assertEquals(Encoding.XOR, ColumnEncodings.encodingOf(new Attribute("a", DataType.FLOAT)));
+		assertEquals(Encoding.DICTIONARY, ColumnEncodings.encodingOf(new Attribute("a", DataType.STRING)));
+	}
+}
@@ -0,0 +1,177 @@
+package xxl.core.indexStructures;
+
+import org.junit.Test;
+import xxl.core.collections.containers.MapContainer;
+import xxl.core.indexStructures.LogStructuredMergeBPlusTree.MergePolicy;
+import xxl.core.indexStructures.separators.ComparableKeyRange;
+import xxl.core.indexStructures.separators.ComparableSeparator;
+import xxl.core.io.converters.MeasuredConverter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogStructuredMergeBPlusTreeTest {
+
+    /** Values carry their key in the upper digits, so keys may repeat */
+    private static final long KEY_FACTOR = 1000;
+
+    private static final MeasuredConverter<Long> CONVERTER = new MeasuredConverter<Long>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int getMaxObjectSize() {
+            return 8;
+        }
+
+        @Override
+        public Long read(DataInput dataInput, Long object) throws IOException {
+            return dataInput.readLong();
+        }
+
+        @Override
+        public void write(DataOutput dataOutput, Long object) throws IOException {
+            dataOutput.writeLong(object);
+        }
+    };
+
+    private static LogStructuredMergeBPlusTree<Long, Long> create(MergePolicy policy, boolean background) {
+        final LogStructuredMergeBPlusTree<Long, Long> lsm = new LogStructuredMergeBPlusTree<>(
+                (converter, blockSize) -> new MapContainer(),
+                t -> t.new BPlusTreeConfiguration(CONVERTER, CONVERTER, (Long v) -> v / KEY_FACTOR,
+                        ComparableSeparator::new, ComparableKeyRange::new).blockSize(1024),
+                256);
+        lsm.setMergePolicy(policy);
+        lsm.setBackgroundCompaction(background);
+        lsm.setLevelSizeRatio(4);
+        return lsm;
+    }
+
+    private static List<Long> sorted(Iterator<Long> values) {
+        final List<Long> result = new ArrayList<>();
+        values.forEachRemaining(result::add);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Long> scan(LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot, long from, long to) {
+        final List<Long> result = new ArrayList<>();
+        snapshot.scan(from, to, result::add);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static List<Long> expected(TreeSet<Long> values, long from, long to) {
+        return new ArrayList<>(values.subSet(from * KEY_FACTOR, true, to * KEY_FACTOR + KEY_FACTOR - 1, true));
+    }
+
+    /**
+     * Checks random range queries and scans of a snapshot against the given values.
+     */
+    private static void assertContents(LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot,
+                                       TreeSet<Long> values, long maxKey, Random random) {
+        for (int i = 0; i < 50; i++) {
+            final long from = random.nextInt((int) maxKey);
+            final long to = from + random.nextInt(i % 5 == 0 ? 1 : 200);
+            final List<Long> expected = expected(values, from, to);
+            assertEquals(expected, sorted(snapshot.query(from, to)));
+            assertEquals(expected, scan(snapshot, from, to));
+        }
+        assertEquals(new ArrayList<>(values), scan(snapshot, 0, maxKey));
+    }
+
+    @Test
+    public void mergedLevelsAnswerQueriesAndScans() {
+        for (MergePolicy policy : MergePolicy.values()) {
+            for (boolean background : new boolean[]{false, true}) {
+                final LogStructuredMergeBPlusTree<Long, Long> lsm = create(policy, background);
+                final Random random = new Random(policy.ordinal() * 2 + (background ? 1 : 0));
+                final TreeSet<Long> values = new TreeSet<>();
+                for (int i = 0; i < 20_000; i++) {
+                    // About four values per key, in random key order
+                    final long value = random.nextInt(5_000) * KEY_FACTOR + i % KEY_FACTOR;
+                    if (values.add(value))
+                        lsm.insert(value);
+                }
+                lsm.awaitCompaction();
+                assertTrue(policy + " should have merged into several levels", lsm.getMaxLevel() > 1);
+                try (LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot = lsm.snapshot()) {
+                    assertContents(snapshot, values, 5_000, random);
+                }
+                assertEquals(new ArrayList<>(values), sorted(lsm.query(0L, 5_000L)));
+                lsm.setBackgroundCompaction(false);
+            }
+        }
+    }
+
+    @Test
+    public void deletionsHideValuesOfOlderLevels() {
+        for (MergePolicy policy : MergePolicy.values()) {
+            final LogStructuredMergeBPlusTree<Long, Long> lsm = create(policy, false);
+            final Random random = new Random(policy.ordinal());
+            // Deletions address keys, so each key is used once
+            final TreeSet<Long> values = new TreeSet<>();
+            for (long key = 0; key < 10_000; key++) {
+                values.add(key * KEY_FACTOR + key % 7);
+                lsm.insert(key * KEY_FACTOR + key % 7);
+            }
+            for (long key = 0; key < 10_000; key += 3) {
+                values.remove(key * KEY_FACTOR + key % 7);
+                lsm.delete(key * KEY_FACTOR + key % 7);
+            }
+            try (LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot = lsm.snapshot()) {
+                assertContents(snapshot, values, 10_000, random);
+            }
+            // Re-inserted values become visible again
+            for (long key = 0; key < 1_000; key += 3) {
+                values.add(key * KEY_FACTOR + 1);
+                lsm.insert(key * KEY_FACTOR + 1);
+            }
+            try (LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot = lsm.snapshot()) {
+                assertContents(snapshot, values, 10_000, random);
+            }
+        }
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterMerges() {
+        for (MergePolicy policy : MergePolicy.values()) {
+            final LogStructuredMergeBPlusTree<Long, Long> lsm = create(policy, true);
+            final Random random = new Random(policy.ordinal());
+            final TreeSet<Long> values = new TreeSet<>();
+            for (long key = 0; key < 5_000; key++) {
+                values.add(key * KEY_FACTOR);
+                lsm.insert(key * KEY_FACTOR);
+            }
+            final TreeSet<Long> before = new TreeSet<>(values);
+            try (LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot = lsm.snapshot()) {
+                final int levels = lsm.getMaxLevel();
+                for (long key = 5_000; key < 20_000; key++) {
+                    values.add(key * KEY_FACTOR);
+                    lsm.insert(key * KEY_FACTOR);
+                }
+                for (long key = 0; key < 5_000; key += 2) {
+                    values.remove(key * KEY_FACTOR);
+                    lsm.delete(key * KEY_FACTOR);
+                }
+                lsm.awaitCompaction();
+                assertTrue(lsm.getMaxLevel() >= levels);
+                assertContents(snapshot, before, 20_000, random);
+            }
+            try (LogStructuredMergeBPlusTree<Long, Long>.Snapshot snapshot = lsm.snapshot()) {
+                assertContents(snapshot, values, 20_000, random);
+            }
+            lsm.setBackgroundCompaction(false);
+        }
+    }
+}
@@ -18,6 +18,13 @@ public abstract class EVConstant<T> implements EVArithmeticExpression<T> {
         this.type = type;
     }
 
+    /**
+     * @return the value
+     */
+    public T getValue() {
+        return value;
+    }
+
     @Override
     public T eval(Event event, BoundVariables bindings) {
         return value;
@@ -30,10 +30,6 @@ public class EVSetVariable extends EVVariable<ArrayList<Object>> implements EVSe
         return result;
     }
 
-    public int getIndex() {
-        return index;
-    }
-
     /**
      * @{inheritDoc}
      */
@@ -21,6 +21,20 @@ public abstract class EVVariable<T> implements EVArithmeticExpression<T> {
         this.isBinding = isBinding;
     }
 
+    /**
+     * @return the index of the attribute, or of the binding
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return true if the variable refers to a binding, false if to an attribute of the event
+     */
+    public boolean isBinding() {
+        return isBinding;
+    }
+
     @Override
     public T eval(List<Event> previousEvents, Event event, BoundVariables bindings) {
         return eval(event, bindings);
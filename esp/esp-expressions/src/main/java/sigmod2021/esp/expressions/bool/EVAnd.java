@@ -16,6 +16,20 @@ public class EVAnd implements EVBooleanExpression {
         this.right = right;
     }
 
+    /**
+     * @return the left operand
+     */
+    public EVBooleanExpression getLeft() {
+        return left;
+    }
+
+    /**
+     * @return the right operand
+     */
+    public EVBooleanExpression getRight() {
+        return right;
+    }
+
     /**
      * @{inheritDoc}
      */
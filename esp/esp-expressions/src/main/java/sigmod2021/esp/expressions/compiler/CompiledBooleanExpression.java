@@ -0,0 +1,96 @@
+package sigmod2021.esp.expressions.compiler;
+
+import sigmod2021.esp.bindings.BoundVariables;
+import sigmod2021.esp.expressions.EvaluableExpression;
+import sigmod2021.esp.expressions.bool.EVBooleanExpression;
+import sigmod2021.event.Event;
+
+import java.util.List;
+
+/**
+ * Base class of the boolean expressions generated by the
+ * {@link ExpressionCompiler}. Subclasses evaluate the expression to a
+ * primitive boolean, so the boxed results of {@link #eval(Event, BoundVariables)}
+ * are always the canonical {@link Boolean} instances.
+ */
+public abstract class CompiledBooleanExpression implements EVBooleanExpression {
+
+    /** The interpreted expression this expression was compiled from */
+    private final EVBooleanExpression source;
+
+    /** The subexpressions not compiled, evaluated by the interpreter */
+    protected final EvaluableExpression<?>[] fallbacks;
+
+    protected CompiledBooleanExpression(EVBooleanExpression source, EvaluableExpression<?>[] fallbacks) {
+        this.source = source;
+        this.fallbacks = fallbacks;
+    }
+
+    /**
+     * Evaluates this expression against the given event.
+     *
+     * @param event    the event
+     * @param bindings the bound variables
+     * @return the result of the expression
+     */
+    public abstract boolean test(Event event, BoundVariables bindings);
+
+    /**
+     * Evaluates this expression against the given event and its predecessors.
+     *
+     * @param previousEvents the events preceding the given one
+     * @param event          the event
+     * @param bindings       the bound variables
+     * @return the result of the expression
+     */
+    public abstract boolean test(List<Event> previousEvents, Event event, BoundVariables bindings);
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public Boolean eval(Event event, BoundVariables bindings) {
+        return Boolean.valueOf(test(event, bindings));
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public Boolean eval(List<Event> previousEvents, Event event, BoundVariables bindings) {
+        return Boolean.valueOf(test(previousEvents, event, bindings));
+    }
+
+    /**
+     * @return the interpreted expression this expression was compiled from
+     */
+    public EVBooleanExpression getSource() {
+        return source;
+    }
+
+    /**
+     * @return the number of subexpressions evaluated by the interpreter
+     */
+    public int getNumberOfFallbacks() {
+        return fallbacks.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CompiledBooleanExpression))
+            return false;
+        return source.equals(((CompiledBooleanExpression) obj).source);
+    }
+
+    @Override
+    public String toString() {
+        return "Compiled[" + source + "]";
+    }
+}
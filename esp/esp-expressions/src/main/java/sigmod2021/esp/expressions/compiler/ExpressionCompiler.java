@@ -0,0 +1,527 @@
+package sigmod2021.esp.expressions.compiler;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sigmod2021.esp.bindings.BoundVariables;
+import sigmod2021.esp.expressions.EvaluableExpression;
+import sigmod2021.esp.expressions.arithmetic.EVNumericExpression;
+import sigmod2021.esp.expressions.arithmetic.constant.EVNumberConstant;
+import sigmod2021.esp.expressions.arithmetic.field.EVByteVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVDoubleVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVFloatVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVIntVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVLongVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVShortVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVVariable;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVAdd;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVBinaryNumericExpression;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVDivide;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVMult;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVSub;
+import sigmod2021.esp.expressions.bool.EVAnd;
+import sigmod2021.esp.expressions.bool.EVBooleanExpression;
+import sigmod2021.esp.expressions.bool.EVFalse;
+import sigmod2021.esp.expressions.bool.EVNot;
+import sigmod2021.esp.expressions.bool.EVOr;
+import sigmod2021.esp.expressions.bool.EVTrue;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericBetween;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericEqual;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericGreater;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericGreaterEq;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericLess;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericLessEq;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericUnequal;
+import sigmod2021.esp.expressions.util.EVAbstractBinaryExpression;
+import sigmod2021.event.Attribute.DataType;
+import sigmod2021.event.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Compiles boolean expressions into bytecode. Each expression becomes a
+ * subclass of {@link CompiledBooleanExpression} evaluating the tree in a
+ * single method on primitive values: attributes are unboxed once, arithmetic
+ * and comparisons use the primitive type the interpreter converts the
+ * operands to, and conjunctions and disjunctions are short-circuit jumps.
+ * <p>
+ * Compiled are boolean connectives, numeric predicates, the basic arithmetic
+ * operations, numeric constants and numeric variables. All other
+ * subexpressions, e.g., on strings, geometries or previous events, are kept
+ * and evaluated by the interpreter, so the results are the same as the ones
+ * of the interpreted tree. If an expression cannot be compiled at all, it is
+ * returned as it is.
+ */
+public class ExpressionCompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpressionCompiler.class);
+
+    private static final String BASE = Type.getInternalName(CompiledBooleanExpression.class);
+
+    private static final String EXPRESSION = Type.getInternalName(EvaluableExpression.class);
+
+    private static final String EVENT = Type.getInternalName(Event.class);
+
+    private static final String BINDINGS = Type.getInternalName(BoundVariables.class);
+
+    private static final String NUMBER = Type.getInternalName(Number.class);
+
+    private static final String BOOLEAN = Type.getInternalName(Boolean.class);
+
+    private static final String FALLBACKS_DESC = Type.getDescriptor(EvaluableExpression[].class);
+
+    private static final String CONSTRUCTOR_DESC = "(" + Type.getDescriptor(EVBooleanExpression.class) + FALLBACKS_DESC + ")V";
+
+    private static final String TEST_DESC = "(L" + EVENT + ";L" + BINDINGS + ";)Z";
+
+    private static final String TEST_HISTORY_DESC = "(Ljava/util/List;L" + EVENT + ";L" + BINDINGS + ";)Z";
+
+    private static final String EVAL_DESC = "(L" + EVENT + ";L" + BINDINGS + ";)Ljava/lang/Object;";
+
+    private static final String EVAL_HISTORY_DESC = "(Ljava/util/List;L" + EVENT + ";L" + BINDINGS + ";)Ljava/lang/Object;";
+
+    private static final String GET_DESC = "(ILjava/lang/Class;)Ljava/lang/Object;";
+
+    /** The numeric predicates and the conditions they test */
+    private static final Map<Class<?>, Integer> COMPARISONS = new HashMap<>();
+
+    /** The arithmetic operations and their int opcodes */
+    private static final Map<Class<?>, Integer> OPERATIONS = new HashMap<>();
+
+    /** The numeric variables and the classes of their values */
+    private static final Map<Class<?>, Class<?>> VARIABLES = new HashMap<>();
+
+    static {
+        COMPARISONS.put(EVNumericLess.class, IFLT);
+        COMPARISONS.put(EVNumericLessEq.class, IFLE);
+        COMPARISONS.put(EVNumericGreater.class, IFGT);
+        COMPARISONS.put(EVNumericGreaterEq.class, IFGE);
+        COMPARISONS.put(EVNumericEqual.class, IFEQ);
+        COMPARISONS.put(EVNumericUnequal.class, IFNE);
+
+        OPERATIONS.put(EVAdd.class, IADD);
+        OPERATIONS.put(EVSub.class, ISUB);
+        OPERATIONS.put(EVMult.class, IMUL);
+        OPERATIONS.put(EVDivide.class, IDIV);
+
+        VARIABLES.put(EVByteVariable.class, Byte.class);
+        VARIABLES.put(EVShortVariable.class, Short.class);
+        VARIABLES.put(EVIntVariable.class, Integer.class);
+        VARIABLES.put(EVLongVariable.class, Long.class);
+        VARIABLES.put(EVFloatVariable.class, Float.class);
+        VARIABLES.put(EVDoubleVariable.class, Double.class);
+    }
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles the given expression. Falls back to the given expression if
+     * it cannot be compiled.
+     *
+     * @param expression the expression to compile
+     * @return the compiled expression, or the given one
+     */
+    public static EVBooleanExpression compile(EVBooleanExpression expression) {
+        if (expression instanceof CompiledBooleanExpression || !isCondition(expression))
+            return expression;
+        try {
+            final CompiledBooleanExpression result = generate(expression);
+            log.debug("Compiled {} with {} interpreted subexpressions.", expression, result.getNumberOfFallbacks());
+            return result;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            log.warn("Compiling {} failed, evaluating it interpreted.", expression, e);
+            return expression;
+        }
+    }
+
+    private static CompiledBooleanExpression generate(EVBooleanExpression expression) throws ReflectiveOperationException {
+        final String name = BASE + "$Generated" + classCount.incrementAndGet();
+        final List<EvaluableExpression<?>> fallbacks = new ArrayList<>();
+
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, name, null, BASE, null);
+
+        final MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ALOAD, 1);
+        init.visitVarInsn(ALOAD, 2);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", CONSTRUCTOR_DESC, false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        new MethodGenerator(cw.visitMethod(ACC_PUBLIC, "test", TEST_DESC, null, null), false, fallbacks)
+                .generate(expression);
+        new MethodGenerator(cw.visitMethod(ACC_PUBLIC, "test", TEST_HISTORY_DESC, null, null), true, fallbacks)
+                .generate(expression);
+        cw.visitEnd();
+
+        final Class<?> clazz = new Loader(ExpressionCompiler.class.getClassLoader())
+                .define(name.replace('/', '.'), cw.toByteArray());
+        return (CompiledBooleanExpression) clazz.getConstructor(EVBooleanExpression.class, EvaluableExpression[].class)
+                .newInstance(expression, fallbacks.toArray(new EvaluableExpression<?>[fallbacks.size()]));
+    }
+
+    /**
+     * @return true if the given expression is a boolean expression compiled
+     * into jumps
+     */
+    private static boolean isCondition(EvaluableExpression<?> e) {
+        final Class<?> c = e.getClass();
+        if (c == EVTrue.class || c == EVFalse.class || c == EVNot.class || c == EVAnd.class || c == EVOr.class)
+            return true;
+        if (c == EVNumericBetween.class)
+            return kindOf(((EVNumericBetween) e).getType()) != null;
+        if (COMPARISONS.containsKey(c))
+            return kindOf(comparisonType(e)) != null;
+        return false;
+    }
+
+    private static DataType comparisonType(EvaluableExpression<?> e) {
+        if (e instanceof EVNumericLess)
+            return ((EVNumericLess) e).getType();
+        if (e instanceof EVNumericLessEq)
+            return ((EVNumericLessEq) e).getType();
+        if (e instanceof EVNumericGreater)
+            return ((EVNumericGreater) e).getType();
+        if (e instanceof EVNumericGreaterEq)
+            return ((EVNumericGreaterEq) e).getType();
+        if (e instanceof EVNumericEqual)
+            return ((EVNumericEqual) e).getType();
+        return ((EVNumericUnequal) e).getType();
+    }
+
+    /**
+     * @return the primitive type values of the given type are computed in,
+     * null if not numeric
+     */
+    private static Type kindOf(DataType type) {
+        if (type == null)
+            return null;
+        switch (type) {
+            case BYTE:
+            case SHORT:
+            case INTEGER:
+                return Type.INT_TYPE;
+            case LONG:
+                return Type.LONG_TYPE;
+            case FLOAT:
+                return Type.FLOAT_TYPE;
+            case DOUBLE:
+                return Type.DOUBLE_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the condition true if and only if the given one is false
+     */
+    private static int negate(int condition) {
+        switch (condition) {
+            case IFEQ:
+                return IFNE;
+            case IFNE:
+                return IFEQ;
+            case IFLT:
+                return IFGE;
+            case IFGE:
+                return IFLT;
+            case IFGT:
+                return IFLE;
+            default:
+                return IFGT;
+        }
+    }
+
+    /**
+     * Generates one of the test methods.
+     */
+    private static class MethodGenerator {
+
+        private final MethodVisitor mv;
+
+        /** Whether the method receives the previous events */
+        private final boolean history;
+
+        /** The subexpressions evaluated by the interpreter, shared by all methods */
+        private final List<EvaluableExpression<?>> fallbacks;
+
+        private final int eventSlot;
+
+        private final int bindingsSlot;
+
+        private int nextLocal;
+
+        MethodGenerator(MethodVisitor mv, boolean history, List<EvaluableExpression<?>> fallbacks) {
+            this.mv = mv;
+            this.history = history;
+            this.fallbacks = fallbacks;
+            this.eventSlot = history ? 2 : 1;
+            this.bindingsSlot = eventSlot + 1;
+            this.nextLocal = bindingsSlot + 1;
+        }
+
+        void generate(EVBooleanExpression expression) {
+            mv.visitCode();
+            final Label isFalse = new Label();
+            jump(expression, false, isFalse);
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(isFalse);
+            mv.visitInsn(ICONST_0);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        /**
+         * Jumps to the given target if the given boolean expression evaluates
+         * to the given value, falls through otherwise.
+         */
+        private void jump(EvaluableExpression<?> e, boolean when, Label target) {
+            if (!isCondition(e)) {
+                loadFallback(e);
+                mv.visitTypeInsn(CHECKCAST, BOOLEAN);
+                mv.visitMethodInsn(INVOKEVIRTUAL, BOOLEAN, "booleanValue", "()Z", false);
+                mv.visitJumpInsn(when ? IFNE : IFEQ, target);
+            } else if (e instanceof EVTrue || e instanceof EVFalse) {
+                if ((e instanceof EVTrue) == when)
+                    mv.visitJumpInsn(GOTO, target);
+            } else if (e instanceof EVNot) {
+                jump(((EVNot) e).getInput(), !when, target);
+            } else if (e instanceof EVAnd || e instanceof EVOr) {
+                final boolean and = e instanceof EVAnd;
+                final EvaluableExpression<?> left = and ? ((EVAnd) e).getLeft() : ((EVOr) e).getLeft();
+                final EvaluableExpression<?> right = and ? ((EVAnd) e).getRight() : ((EVOr) e).getRight();
+                if (when != and) {
+                    // Either operand decides
+                    jump(left, when, target);
+                    jump(right, when, target);
+                } else {
+                    // Both operands must agree
+                    final Label skip = new Label();
+                    jump(left, !when, skip);
+                    jump(right, when, target);
+                    mv.visitLabel(skip);
+                }
+            } else if (e instanceof EVNumericBetween) {
+                between((EVNumericBetween) e, when, target);
+            } else {
+                final EVAbstractBinaryExpression<?, ?, ?> p = (EVAbstractBinaryExpression<?, ?, ?>) e;
+                final Type kind = kindOf(comparisonType(e));
+                push(p.getLeft(), kind);
+                push(p.getRight(), kind);
+                compare(kind, COMPARISONS.get(e.getClass()), when, target);
+            }
+        }
+
+        /**
+         * Tests <tt>lower &lt;= value &amp;&amp; upper &gt;= value</tt>. Like the
+         * interpreter, all operands are evaluated first and bytes and shorts
+         * are compared narrowed to their type.
+         */
+        private void between(EVNumericBetween e, boolean when, Label target) {
+            final Type kind = kindOf(e.getType());
+            final int value = store(e.getInput1(), e.getType(), kind);
+            final int lower = store(e.getInput2(), e.getType(), kind);
+            final int upper = store(e.getInput3(), e.getType(), kind);
+
+            final Label skip = new Label();
+            mv.visitVarInsn(kind.getOpcode(ILOAD), lower);
+            mv.visitVarInsn(kind.getOpcode(ILOAD), value);
+            compare(kind, IFLE, false, when ? skip : target);
+            mv.visitVarInsn(kind.getOpcode(ILOAD), upper);
+            mv.visitVarInsn(kind.getOpcode(ILOAD), value);
+            compare(kind, IFGE, when, target);
+            mv.visitLabel(skip);
+        }
+
+        private int store(EvaluableExpression<?> e, DataType type, Type kind) {
+            push(e, kind);
+            if (type == DataType.BYTE)
+                mv.visitInsn(I2B);
+            else if (type == DataType.SHORT)
+                mv.visitInsn(I2S);
+            final int slot = nextLocal;
+            nextLocal += kind.getSize();
+            mv.visitVarInsn(kind.getOpcode(ISTORE), slot);
+            return slot;
+        }
+
+        /**
+         * Compares the two values on the stack and jumps to the given target
+         * if the result of the condition equals the given value. Like the Java
+         * operators, a NaN makes all comparisons but <tt>!=</tt> false.
+         */
+        private void compare(Type kind, int condition, boolean when, Label target) {
+            final int jump = when ? condition : negate(condition);
+            if (kind == Type.INT_TYPE) {
+                mv.visitJumpInsn(jump + (IF_ICMPEQ - IFEQ), target);
+                return;
+            }
+            final boolean nanGreater = condition == IFLT || condition == IFLE;
+            if (kind == Type.LONG_TYPE)
+                mv.visitInsn(LCMP);
+            else if (kind == Type.FLOAT_TYPE)
+                mv.visitInsn(nanGreater ? FCMPG : FCMPL);
+            else
+                mv.visitInsn(nanGreater ? DCMPG : DCMPL);
+            mv.visitJumpInsn(jump, target);
+        }
+
+        /**
+         * Pushes the value of the given numeric expression converted to the
+         * given primitive type, like the respective method of {@link Number}
+         * does.
+         */
+        private void push(EvaluableExpression<?> e, Type kind) {
+            final Type natural = e instanceof EVNumericExpression ? kindOf(((EVNumericExpression) e).getType()) : null;
+            if (natural != null && pushCompiled(e, natural)) {
+                convert(natural, kind);
+            } else {
+                loadFallback(e);
+                mv.visitTypeInsn(CHECKCAST, NUMBER);
+                mv.visitMethodInsn(INVOKEVIRTUAL, NUMBER, valueMethod(kind), "()" + kind.getDescriptor(), false);
+            }
+        }
+
+        /**
+         * Pushes the value of the given expression as the given primitive
+         * type if the expression is compiled.
+         *
+         * @return false if the expression is not compiled and nothing was
+         * generated
+         */
+        private boolean pushCompiled(EvaluableExpression<?> e, Type kind) {
+            if (e instanceof EVNumberConstant && ((EVNumberConstant) e).getValue() != null) {
+                final Number value = ((EVNumberConstant) e).getValue();
+                if (kind == Type.INT_TYPE)
+                    pushInt(value.intValue());
+                else if (kind == Type.LONG_TYPE)
+                    mv.visitLdcInsn(value.longValue());
+                else if (kind == Type.FLOAT_TYPE)
+                    mv.visitLdcInsn(value.floatValue());
+                else
+                    mv.visitLdcInsn(value.doubleValue());
+                return true;
+            }
+            final Class<?> wrapper = VARIABLES.get(e.getClass());
+            if (wrapper != null) {
+                final EVVariable<?> v = (EVVariable<?>) e;
+                mv.visitVarInsn(ALOAD, v.isBinding() ? bindingsSlot : eventSlot);
+                pushInt(v.getIndex());
+                mv.visitLdcInsn(Type.getType(wrapper));
+                if (v.isBinding())
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BINDINGS, "get", GET_DESC, false);
+                else
+                    mv.visitMethodInsn(INVOKEINTERFACE, EVENT, "get", GET_DESC, true);
+                final String owner = Type.getInternalName(wrapper);
+                mv.visitTypeInsn(CHECKCAST, owner);
+                mv.visitMethodInsn(INVOKEVIRTUAL, owner, valueMethod(kind), "()" + kind.getDescriptor(), false);
+                return true;
+            }
+            final Integer operation = OPERATIONS.get(e.getClass());
+            if (operation != null) {
+                final EVBinaryNumericExpression b = (EVBinaryNumericExpression) e;
+                push(b.getLeft(), kind);
+                push(b.getRight(), kind);
+                mv.visitInsn(kind.getOpcode(operation));
+                return true;
+            }
+            return false;
+        }
+
+        private void convert(Type from, Type to) {
+            if (from == to)
+                return;
+            if (from == Type.INT_TYPE)
+                mv.visitInsn(to == Type.LONG_TYPE ? I2L : to == Type.FLOAT_TYPE ? I2F : I2D);
+            else if (from == Type.LONG_TYPE)
+                mv.visitInsn(to == Type.INT_TYPE ? L2I : to == Type.FLOAT_TYPE ? L2F : L2D);
+            else if (from == Type.FLOAT_TYPE)
+                mv.visitInsn(to == Type.INT_TYPE ? F2I : to == Type.LONG_TYPE ? F2L : F2D);
+            else
+                mv.visitInsn(to == Type.INT_TYPE ? D2I : to == Type.LONG_TYPE ? D2L : D2F);
+        }
+
+        /**
+         * Pushes the result of the given subexpression evaluated by the
+         * interpreter.
+         */
+        private void loadFallback(EvaluableExpression<?> e) {
+            int index = -1;
+            for (int i = 0; i < fallbacks.size() && index < 0; i++) {
+                if (fallbacks.get(i) == e)
+                    index = i;
+            }
+            if (index < 0) {
+                index = fallbacks.size();
+                fallbacks.add(e);
+            }
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "fallbacks", FALLBACKS_DESC);
+            pushInt(index);
+            mv.visitInsn(AALOAD);
+            if (history) {
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ALOAD, eventSlot);
+                mv.visitVarInsn(ALOAD, bindingsSlot);
+                mv.visitMethodInsn(INVOKEINTERFACE, EXPRESSION, "eval", EVAL_HISTORY_DESC, true);
+            } else {
+                mv.visitVarInsn(ALOAD, eventSlot);
+                mv.visitVarInsn(ALOAD, bindingsSlot);
+                mv.visitMethodInsn(INVOKEINTERFACE, EXPRESSION, "eval", EVAL_DESC, true);
+            }
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5)
+                mv.visitInsn(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+                mv.visitIntInsn(BIPUSH, value);
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                mv.visitIntInsn(SIPUSH, value);
+            else
+                mv.visitLdcInsn(value);
+        }
+
+        private static String valueMethod(Type kind) {
+            if (kind == Type.INT_TYPE)
+                return "intValue";
+            if (kind == Type.LONG_TYPE)
+                return "longValue";
+            if (kind == Type.FLOAT_TYPE)
+                return "floatValue";
+            return "doubleValue";
+        }
+    }
+
+    /**
+     * Defines a single generated class, so the class can be unloaded together
+     * with its expression.
+     */
+    private static final class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+}
@@ -21,8 +21,18 @@ public class EVNumericBetween extends EVAbstractTrinaryExpression<Number, Number
         IMPLS.put(DataType.DOUBLE, (Number v, Number l, Number u) -> l.doubleValue() <= v.doubleValue() && u.doubleValue() >= v.doubleValue());
     }
 
+    private final DataType type;
+
     public EVNumericBetween(DataType type, EVNumericExpression value, EVNumericExpression lower, EVNumericExpression upper) {
         super(value, lower, upper, IMPLS.get(type));
+        this.type = type;
+    }
+
+    /**
+     * @return the type the operands are compared as
+     */
+    public DataType getType() {
+        return type;
     }
 
 }
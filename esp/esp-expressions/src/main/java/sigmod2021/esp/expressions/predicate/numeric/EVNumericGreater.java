@@ -49,8 +49,18 @@ public class EVNumericGreater extends EVAbstractBinaryExpression<Number, Number,
         IMPLS.put(DataType.DOUBLE, DOUBLE_IMPL);
     }
 
+    private final DataType type;
+
     public EVNumericGreater(DataType type, EVNumericExpression left, EVNumericExpression right) {
         super(left, right, IMPLS.get(type));
+        this.type = type;
+    }
+
+    /**
+     * @return the type the operands are compared as
+     */
+    public DataType getType() {
+        return type;
     }
 
 }
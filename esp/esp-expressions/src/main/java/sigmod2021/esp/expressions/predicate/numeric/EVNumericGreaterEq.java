@@ -49,8 +49,18 @@ public class EVNumericGreaterEq extends EVAbstractBinaryExpression<Number, Numbe
         IMPLS.put(DataType.DOUBLE, DOUBLE_IMPL);
     }
 
+    private final DataType type;
+
     public EVNumericGreaterEq(DataType type, EVNumericExpression left, EVNumericExpression right) {
         super(left, right, IMPLS.get(type));
+        this.type = type;
+    }
+
+    /**
+     * @return the type the operands are compared as
+     */
+    public DataType getType() {
+        return type;
     }
 
 }
@@ -49,8 +49,18 @@ public class EVNumericLess extends EVAbstractBinaryExpression<Number, Number, Bo
         IMPLS.put(DataType.DOUBLE, DOUBLE_IMPL);
     }
 
+    private final DataType type;
+
     public EVNumericLess(DataType type, EVNumericExpression left, EVNumericExpression right) {
         super(left, right, IMPLS.get(type));
+        this.type = type;
+    }
+
+    /**
+     * @return the type the operands are compared as
+     */
+    public DataType getType() {
+        return type;
     }
 
 }
@@ -28,6 +28,20 @@ public abstract class EVAbstractBinaryExpression<TIN1, TIN2, TOUT> implements Ev
         return impl.apply(left.eval(previousEvents, event, bindings), right.eval(previousEvents, event, bindings));
     }
 
+    /**
+     * @return the left operand
+     */
+    public EvaluableExpression<TIN1> getLeft() {
+        return left;
+    }
+
+    /**
+     * @return the right operand
+     */
+    public EvaluableExpression<TIN2> getRight() {
+        return right;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -32,6 +32,27 @@ public abstract class EVAbstractTrinaryExpression<TIN1, TIN2, TIN3, TOUT> implem
                 in3.eval(previousEvents, event, bindings));
     }
 
+    /**
+     * @return the first operand
+     */
+    public EvaluableExpression<TIN1> getInput1() {
+        return in1;
+    }
+
+    /**
+     * @return the second operand
+     */
+    public EvaluableExpression<TIN2> getInput2() {
+        return in2;
+    }
+
+    /**
+     * @return the third operand
+     */
+    public EvaluableExpression<TIN3> getInput3() {
+        return in3;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -25,6 +25,13 @@ public abstract class EVAbstractUnaryExpression<TIN, TOUT> implements EvaluableE
         return impl.apply(input.eval(previousEvents, event, bindings));
     }
 
+    /**
+     * @return the operand
+     */
+    public EvaluableExpression<TIN> getInput() {
+        return input;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -15,6 +15,7 @@ import sigmod2021.esp.expressions.arithmetic.EVSetExpression;
 import sigmod2021.esp.expressions.arithmetic.EVSpatialExpression;
 import sigmod2021.esp.expressions.arithmetic.EVStringExpression;
 import sigmod2021.esp.expressions.bool.EVBooleanExpression;
+import sigmod2021.esp.expressions.compiler.ExpressionCompiler;
 import sigmod2021.event.EventSchema;
 import sigmod2021.event.SchemaException;
 
@@ -24,8 +25,8 @@ import java.util.ServiceLoader;
 
 public class ExpressionTranslator {
 
-    public static final ExpressionTranslator INSTANCE = new ExpressionTranslator();
     private static final Logger log = LoggerFactory.getLogger(ExpressionTranslator.class);
+    public static final ExpressionTranslator INSTANCE = new ExpressionTranslator();
     private final TranslatorMapping translators = new TranslatorMapping();
 
 
@@ -55,6 +56,15 @@ public class ExpressionTranslator {
         return translate(in, EVBooleanExpression.class, schema, bindings);
     }
 
+    /**
+     * Translates the given expression and compiles the result into bytecode,
+     * see {@link ExpressionCompiler}. Meant for conditions evaluated for many
+     * events, e.g., by filters and automata.
+     */
+    public EVBooleanExpression translateCompiledBooleanExpression(BooleanExpression in, EventSchema schema, Bindings bindings) throws TranslatorException, IncompatibleTypeException {
+        return ExpressionCompiler.compile(translateBooleanExpression(in, schema, bindings));
+    }
+
     public EVStringExpression translateStringExpression(ArithmeticExpression in, EventSchema schema, Bindings bindings) throws TranslatorException, IncompatibleTypeException {
         return translate(in, EVStringExpression.class, schema, bindings);
     }
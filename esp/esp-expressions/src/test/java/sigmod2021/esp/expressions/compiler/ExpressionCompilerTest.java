@@ -0,0 +1,277 @@
+package sigmod2021.esp.expressions.compiler;
+
+import org.junit.Test;
+import sigmod2021.common.IncompatibleTypeException;
+import sigmod2021.esp.bindings.BoundVariables;
+import sigmod2021.esp.expressions.arithmetic.EVNumericExpression;
+import sigmod2021.esp.expressions.arithmetic.constant.EVByteConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVDoubleConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVFloatConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVIntConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVLongConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVShortConstant;
+import sigmod2021.esp.expressions.arithmetic.constant.EVStringConstant;
+import sigmod2021.esp.expressions.arithmetic.field.EVByteVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVDoubleVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVFloatVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVIntVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVLongVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVNumericPrevVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVShortVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVStringVariable;
+import sigmod2021.esp.expressions.arithmetic.field.EVVariable;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVAbs;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVAdd;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVDivide;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVMult;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVSqrt;
+import sigmod2021.esp.expressions.arithmetic.numeric.EVSub;
+import sigmod2021.esp.expressions.bool.EVAnd;
+import sigmod2021.esp.expressions.bool.EVBooleanExpression;
+import sigmod2021.esp.expressions.bool.EVFalse;
+import sigmod2021.esp.expressions.bool.EVNot;
+import sigmod2021.esp.expressions.bool.EVOr;
+import sigmod2021.esp.expressions.bool.EVTrue;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericBetween;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericEqual;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericGreater;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericGreaterEq;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericLess;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericLessEq;
+import sigmod2021.esp.expressions.predicate.numeric.EVNumericUnequal;
+import sigmod2021.esp.expressions.predicate.string.EVStringEqual;
+import sigmod2021.event.Attribute.DataType;
+import sigmod2021.event.Event;
+import sigmod2021.event.impl.SimpleEvent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares compiled expressions to the interpreter on random expression trees
+ * and events, including overflows, NaN, infinities and divisions by zero.
+ */
+public class ExpressionCompilerTest {
+
+    private static final DataType[] TYPES = {DataType.BYTE, DataType.SHORT, DataType.INTEGER, DataType.LONG,
+            DataType.FLOAT, DataType.DOUBLE};
+
+    /** The attribute holding a string, following one attribute per numeric type */
+    private static final int STRING_ATTRIBUTE = TYPES.length;
+
+    private final Random random = new Random(42);
+
+    /** Whether generated expressions may refer to previous events */
+    private boolean history;
+
+    private Number number(DataType type) {
+        final int k = random.nextInt(10);
+        switch (type) {
+            case BYTE:
+                return (byte) (k == 0 ? Byte.MIN_VALUE : k == 1 ? Byte.MAX_VALUE : random.nextInt(7) - 3);
+            case SHORT:
+                return (short) (k == 0 ? Short.MIN_VALUE : k == 1 ? Short.MAX_VALUE : random.nextInt(7) - 3);
+            case INTEGER:
+                return k == 0 ? Integer.MIN_VALUE : k == 1 ? Integer.MAX_VALUE : k == 2 ? 300 : random.nextInt(7) - 3;
+            case LONG:
+                return k == 0 ? Long.MIN_VALUE : k == 1 ? Long.MAX_VALUE : k == 2 ? 1L << 40 : (long) (random.nextInt(7) - 3);
+            case FLOAT:
+                return k == 0 ? Float.NaN : k == 1 ? Float.POSITIVE_INFINITY : k == 2 ? 1e20f : (random.nextInt(13) - 6) / 2f;
+            default:
+                return k == 0 ? Double.NaN : k == 1 ? Double.NEGATIVE_INFINITY : k == 2 ? 1e300 : (random.nextInt(13) - 6) / 2.0;
+        }
+    }
+
+    private static EVNumericExpression variable(int index, boolean bound) {
+        switch (index) {
+            case 0:
+                return new EVByteVariable(index, bound);
+            case 1:
+                return new EVShortVariable(index, bound);
+            case 2:
+                return new EVIntVariable(index, bound);
+            case 3:
+                return new EVLongVariable(index, bound);
+            case 4:
+                return new EVFloatVariable(index, bound);
+            default:
+                return new EVDoubleVariable(index, bound);
+        }
+    }
+
+    private EVNumericExpression constant() {
+        final DataType type = TYPES[random.nextInt(TYPES.length)];
+        final Number value = number(type);
+        switch (type) {
+            case BYTE:
+                return new EVByteConstant((Byte) value);
+            case SHORT:
+                return new EVShortConstant((Short) value);
+            case INTEGER:
+                return new EVIntConstant((Integer) value);
+            case LONG:
+                return new EVLongConstant((Long) value);
+            case FLOAT:
+                return new EVFloatConstant((Float) value);
+            default:
+                return new EVDoubleConstant((Double) value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private EVNumericExpression numeric(int depth) {
+        switch (random.nextInt(depth <= 0 ? 3 : 9)) {
+            case 0:
+                return constant();
+            case 1:
+                return variable(random.nextInt(TYPES.length), false);
+            case 2:
+                if (history && random.nextBoolean()) {
+                    final int index = random.nextInt(TYPES.length);
+                    final EVNumericExpression v = variable(index, false);
+                    return new EVNumericPrevVariable(index, v.getType(), random.nextInt(3), (EVVariable<Number>) (Object) v);
+                }
+                return variable(random.nextInt(TYPES.length), true);
+            case 3:
+                return new EVAdd(numeric(depth - 1), numeric(depth - 1));
+            case 4:
+                return new EVSub(numeric(depth - 1), numeric(depth - 1));
+            case 5:
+                return new EVMult(numeric(depth - 1), numeric(depth - 1));
+            case 6:
+                return new EVDivide(numeric(depth - 1), numeric(depth - 1));
+            case 7:
+                return new EVAbs(numeric(depth - 1));
+            default:
+                return new EVSqrt(numeric(depth - 1));
+        }
+    }
+
+    private EVBooleanExpression predicate() throws IncompatibleTypeException {
+        final EVNumericExpression a = numeric(2);
+        final EVNumericExpression b = numeric(2);
+        final DataType type = DataType.getGCT(a.getType(), b.getType());
+        switch (random.nextInt(6)) {
+            case 0:
+                return new EVNumericLess(type, a, b);
+            case 1:
+                return new EVNumericLessEq(type, a, b);
+            case 2:
+                return new EVNumericGreater(type, a, b);
+            case 3:
+                return new EVNumericGreaterEq(type, a, b);
+            case 4:
+                return new EVNumericEqual(type, a, b);
+            default:
+                return new EVNumericUnequal(type, a, b);
+        }
+    }
+
+    private EVBooleanExpression bool(int depth) throws IncompatibleTypeException {
+        switch (random.nextInt(depth <= 0 ? 3 : 11)) {
+            case 0:
+            case 1:
+            case 2:
+            case 3:
+            case 4:
+                return predicate();
+            case 5: {
+                final EVNumericExpression a = numeric(1);
+                final EVNumericExpression b = numeric(1);
+                final EVNumericExpression c = numeric(1);
+                // Sometimes compare in a narrower type than the operands
+                final DataType type = random.nextInt(4) == 0 ? TYPES[random.nextInt(TYPES.length)]
+                        : DataType.getGCT(a.getType(), DataType.getGCT(b.getType(), c.getType()));
+                return new EVNumericBetween(type, a, b, c);
+            }
+            case 6:
+                return new EVAnd(bool(depth - 1), bool(depth - 1));
+            case 7:
+                return new EVOr(bool(depth - 1), bool(depth - 1));
+            case 8:
+                return new EVNot(bool(depth - 1));
+            case 9:
+                return random.nextBoolean() ? new EVTrue() : new EVFalse();
+            default:
+                return new EVStringEqual(new EVStringVariable(STRING_ATTRIBUTE, false), new EVStringConstant("a"));
+        }
+    }
+
+    private Event event() {
+        final Object[] payload = new Object[TYPES.length + 1];
+        for (int i = 0; i < TYPES.length; i++)
+            payload[i] = number(TYPES[i]);
+        payload[STRING_ATTRIBUTE] = random.nextBoolean() ? "a" : "b";
+        return new SimpleEvent(payload, 0);
+    }
+
+    /**
+     * @return the result or the type of the exception thrown
+     */
+    private static String outcome(Supplier<Boolean> evaluation) {
+        try {
+            return String.valueOf(evaluation.get());
+        } catch (RuntimeException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    @Test
+    public void compiledExpressionsAgreeWithInterpreter() throws IncompatibleTypeException {
+        int compiled = 0;
+        for (int n = 0; n < 3_000; n++) {
+            history = n % 2 == 0;
+            final EVBooleanExpression expression = bool(4);
+            final EVBooleanExpression result = ExpressionCompiler.compile(expression);
+            if (result instanceof CompiledBooleanExpression)
+                compiled++;
+            for (int j = 0; j < 10; j++) {
+                final Event event = event();
+                final Event bound = event();
+                final BoundVariables bindings = new BoundVariables(TYPES.length);
+                for (int i = 0; i < TYPES.length; i++)
+                    bindings.bind(i, bound.get(i));
+                final List<Event> previous = Arrays.asList(event(), event(), event());
+
+                assertEquals(expression.toString(), outcome(() -> expression.eval(event, bindings)),
+                        outcome(() -> result.eval(event, bindings)));
+                assertEquals(expression.toString(), outcome(() -> expression.eval(previous, event, bindings)),
+                        outcome(() -> result.eval(previous, event, bindings)));
+            }
+        }
+        assertTrue("Only " + compiled + " expressions were compiled", compiled > 2_000);
+    }
+
+    @Test
+    public void compilesNumericConditionsWithoutFallbacks() throws IncompatibleTypeException {
+        final EVBooleanExpression expression = new EVAnd(
+                new EVNumericBetween(DataType.INTEGER, new EVIntVariable(2, false), new EVIntConstant(-2),
+                        new EVIntConstant(2)),
+                new EVNumericLess(DataType.DOUBLE, new EVAdd(new EVDoubleVariable(5, false), new EVDoubleConstant(1.0)),
+                        new EVDoubleConstant(2.0)));
+        final EVBooleanExpression result = ExpressionCompiler.compile(expression);
+        assertTrue(result instanceof CompiledBooleanExpression);
+        assertEquals(0, ((CompiledBooleanExpression) result).getNumberOfFallbacks());
+        assertSame(result, ExpressionCompiler.compile(result));
+    }
+
+    @Test
+    public void interpretsUnsupportedSubexpressions() throws IncompatibleTypeException {
+        final EVBooleanExpression strings = new EVStringEqual(new EVStringVariable(STRING_ATTRIBUTE, false),
+                new EVStringConstant("a"));
+        final EVBooleanExpression expression = new EVOr(strings,
+                new EVNumericGreater(DataType.LONG, new EVLongVariable(3, false), new EVIntConstant(0)));
+        final EVBooleanExpression result = ExpressionCompiler.compile(expression);
+        assertTrue(result instanceof CompiledBooleanExpression);
+        assertEquals(1, ((CompiledBooleanExpression) result).getNumberOfFallbacks());
+
+        final Event event = new SimpleEvent(new Object[]{(byte) 0, (short) 0, 0, -1L, 0f, 0.0, "a"}, 0);
+        assertEquals(Boolean.TRUE, result.eval(event, BoundVariables.EMPTY_BINDINGS));
+    }
+}
@@ -49,7 +49,7 @@ public class NativeCorrelator implements NativeOperator {
         this.left = left;
         this.right = right;
         this.outputSchema = def.computeOutputSchema(left.getSchema(), right.getSchema());
-        this.joinPredicate = new ExpressionTranslator().translateBooleanExpression(def.getCondition(), this.outputSchema, new Bindings());
+        this.joinPredicate = new ExpressionTranslator().translateCompiledBooleanExpression(def.getCondition(), this.outputSchema, new Bindings());
         this.out = new PriorityQueue<>(new AscTimestampComparator());
         this.statusLeft = new IntervalSweepArea();
         this.statusRight = new IntervalSweepArea();
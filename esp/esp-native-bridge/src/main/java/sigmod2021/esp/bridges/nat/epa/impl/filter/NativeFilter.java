@@ -22,7 +22,7 @@ public class NativeFilter implements NativeOperator {
 
     public NativeFilter(Filter def, EventChannel input) throws TranslatorException, IncompatibleTypeException {
         this.schema = def.computeOutputSchema(input.getSchema());
-        this.condition = new ExpressionTranslator().translateBooleanExpression(def.getCondition(), input.getSchema(), new Bindings());
+        this.condition = new ExpressionTranslator().translateCompiledBooleanExpression(def.getCondition(), input.getSchema(), new Bindings());
 
     }
 
@@ -41,7 +41,7 @@ public class EVSymbol {
     }
 
     public static EVSymbol create(Symbol symbol, EventSchema schema, Bindings previousBindings) throws TranslatorException, IncompatibleTypeException {
-        EVBooleanExpression condition = ExpressionTranslator.INSTANCE.translateBooleanExpression(symbol.getCondition(), schema, previousBindings);
+        EVBooleanExpression condition = ExpressionTranslator.INSTANCE.translateCompiledBooleanExpression(symbol.getCondition(), schema, previousBindings);
 
         List<EVBinding> bindings = new ArrayList<EVBinding>(symbol.getBindings().getNumberOfBindings());
 
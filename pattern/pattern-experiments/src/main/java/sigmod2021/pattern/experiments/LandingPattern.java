@@ -238,7 +238,7 @@ public class LandingPattern {
 		for ( var es : strategies ) {
 			iom.resetMeasures(src,idxList);
 			long time = -System.currentTimeMillis();
-			long results = ExperimentsBasics.consume(es.execute());
+			long results = ExperimentsBasics.consume(es.withParallelism(ExperimentsBasics.REPLAY_PARALLELISM).execute());
 			time += System.currentTimeMillis();
 			iom.updateAndReset(es, src, idxList);
 			execTimes.add(time);
@@ -6,6 +6,7 @@ import sigmod2021.pattern.cost.execution.ExecutionStrategy;
 import sigmod2021.pattern.cost.selection.HistogramScanner;
 import sigmod2021.pattern.cost.selection.IndexSelectionStrategy;
 import sigmod2021.pattern.cost.selection.IndexSelectionStrategyFactory;
+import sigmod2021.pattern.cost.selection.PlanCache;
 import sigmod2021.pattern.cost.selection.impl.AllStrategySelector;
 import sigmod2021.pattern.cost.selection.impl.GreedyStrategySelector;
 import sigmod2021.pattern.cost.selection.impl.HistogramOnlyStrategySelector;
@@ -42,6 +43,7 @@ public class SynthSkewed {
     static final int WARM_UP_SYMBOLS = 8;
     static final int WARM_UP_RUNS = 10;
     static final int RUNS = 100;
+    static final int REPEATED_PATTERNS = 10;
 
 
     private static void processSelection(PatternMatcher def, AccessCountingPrimaryIndex primary,
@@ -195,6 +197,32 @@ public class SynthSkewed {
         System.out.println(measures);
     }
 
+    private static void repeatedPatternsExperiment(AccessCountingPrimaryIndex primary, List<? extends AccessCountingLSMTimeIndex<?>> secondaries,
+                                                   int numSymbols, int numPatterns, int numRuns, String firstAttr) throws TranslatorException, IncompatibleTypeException {
+
+        System.out.println("Processing repeated Experiment (" + numSymbols + " symbols, " + numPatterns + " patterns, " + numRuns + " runs):");
+
+        List<PatternMatcher> defs = new ArrayList<>(numPatterns);
+        for (int i = 0; i < numPatterns; i++)
+            defs.add(ExperimentsBasics.randomPattern(RAND, MAX_SELECTIVITY, WINDOW, numSymbols, firstAttr));
+
+        PlanCache cache = new PlanCache(primary, secondaries, ParetoRecursiveStrategySelector::new, HISTOGRAM_LEVEL,
+                numPatterns, ExperimentsBasics.REPLAY_PARALLELISM);
+
+        List<Long> times = new ArrayList<>();
+        System.out.print("Processing Run: ");
+        for (int i = 0; i < numRuns; i++) {
+            System.out.print((i + 1) + ", ");
+            long time = -System.nanoTime();
+            ExperimentsBasics.consume(cache.execute(defs.get(i % numPatterns)));
+            time += System.nanoTime();
+            times.add(time / 1_000_000);
+        }
+        System.out.println();
+        System.out.printf("  %25s: %s%n", "Cached", times);
+        System.out.println(cache);
+    }
+
     public static void main(String[] args) throws DBException, IOException, InterruptedException,
             ExecutionException, TranslatorException, IncompatibleTypeException {
         ExperimentConfig cfg = ExperimentUtil.getConfig();
@@ -220,6 +248,7 @@ public class SynthSkewed {
                 System.out.println("======================================");
                 System.out.println("Processing attribute: " + attr);
                 randomPatternsExperiment(primary, secondaries, 8, RUNS, attr);
+                repeatedPatternsExperiment(primary, secondaries, 8, REPEATED_PATTERNS, RUNS, attr);
             }
         } finally {
             if (t != null) {
@@ -74,7 +74,7 @@ public class SynthUniformSingleQuery {
                                         ExecutionStrategy es, ExperimentsBasics.IOMeasures iom) throws IncompatibleTypeException, TranslatorException {
         iom.resetMeasures(primary, secondaries);
         long time = -System.currentTimeMillis();
-        ExperimentsBasics.consume(es.execute());
+        ExperimentsBasics.consume(es.withParallelism(ExperimentsBasics.REPLAY_PARALLELISM).execute());
         time += System.currentTimeMillis();
         iom.updateAndReset(es, primary, secondaries);
         return time;
@@ -11,7 +11,6 @@ import sigmod2021.pattern.cost.execution.ExecutionStrategy;
 import sigmod2021.pattern.cost.selection.PatternStats;
 import sigmod2021.pattern.cost.transform.SubPatternCondition;
 import sigmod2021.pattern.cost.transform.TransformedPattern;
-import sigmod2021.db.event.TID;
 import sigmod2021.pattern.experiments.util.ExperimentUtil.ExperimentConfig;
 import sigmod2021.pattern.experiments.data.DataSource;
 import sigmod2021.db.util.TimeInterval;
@@ -58,6 +57,10 @@ public class ExperimentsBasics {
 
     public static final int ESTIMATION_LEVEL = 3;
     public static final int NUM_EVENTS = 50_000_000;
+    /**
+     * The number of regions replayed concurrently by the measured executions.
+     */
+    public static final int REPLAY_PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     public static List<ExecutionStrategy> cloneWithGroundTruth(List<ExecutionStrategy> strategies, IOMeasures iom) {
         List<ExecutionStrategy> truth = new ArrayList<>();
@@ -72,9 +75,13 @@ public class ExperimentsBasics {
     public static final long consume(Cursor<?> c) {
         long results = 0L;
         c.open();
-        while (c.hasNext()) {
-            results++;
-            c.next();
+        try {
+            while (c.hasNext()) {
+                results++;
+                c.next();
+            }
+        } finally {
+            c.close();
         }
         return results;
     }
@@ -391,19 +398,14 @@ public class ExperimentsBasics {
                 }
             }
 
-            long count = 0L;
             Iterator<Event> data = new LimitingIterator<>(NUM_EVENTS, source.iterator());
-            while (data.hasNext()) {
-                Event e = data.next();
-                final TID res = tree.insert(e).get();
-                final long seq = tree.getNumberOfEvents() - 1;
+            tree.bulkLoad(data, (e, res, rank, seq) -> {
                 for (SecondaryTimeIndex<Double> idx : idxs)
-                    idx.insertEvent(e, res, seq);
-
-                if (count > 0 && count % 1_000_000L == 0)
-                    System.out.println("Inserted " + count + " events.");
+                    idx.insertEvent(e, res, rank, seq);
 
-            }
+                if (seq > 0 && seq % 1_000_000L == 0)
+                    System.out.println("Inserted " + seq + " events.");
+            });
         }
         return new Pair<>(tree, idxs);
     }
@@ -387,6 +387,16 @@ public class PageAccessCountingContainer implements SuspendableContainer {
 
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void prefetch(long[] ids, int count) {
+        // Prefetched pages are counted when they are requested
+        if (underlying instanceof SuspendableContainer)
+            ((SuspendableContainer) underlying).prefetch(ids, count);
+    }
+
     private class CountingIterator<T> implements Iterator<T> {
 
         private final Iterator<T> underlying;
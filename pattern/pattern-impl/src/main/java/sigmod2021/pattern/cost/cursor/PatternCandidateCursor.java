@@ -4,7 +4,6 @@ import sigmod2021.db.core.secondaryindex.SecondaryTimeIndex;
 import sigmod2021.pattern.cost.transform.TransformedPattern;
 import sigmod2021.db.util.TimeInterval;
 import xxl.core.cursors.AbstractCursor;
-import xxl.core.cursors.Cursor;
 
 import java.util.Collections;
 import java.util.List;
@@ -23,9 +22,7 @@ public class PatternCandidateCursor extends AbstractCursor<TimeInterval> {
 
     private final List<? extends SecondaryTimeIndex<?>> indexes;
 
-    private final SubPatternCandidate[] work;
-
-    private final Cursor<SubPatternCandidate>[] cursors;
+    private final SubPatternCandidateCursor[] cursors;
 
     private TimeInterval nextResult = null;
 
@@ -39,13 +36,11 @@ public class PatternCandidateCursor extends AbstractCursor<TimeInterval> {
     /**
      * Creates a new CandidateCursor instance
      */
-    @SuppressWarnings("unchecked")
     public PatternCandidateCursor(long window, TransformedPattern.ExecutableConfiguration config, List<? extends SecondaryTimeIndex<?>> indexes, List<TimeInterval> filter) {
         this.window = window;
         this.subPatterns = config.getSubPatterns();
         this.indexes = indexes;
-        this.work = new SubPatternCandidate[subPatterns.size()];
-        this.cursors = new Cursor[subPatterns.size()];
+        this.cursors = new SubPatternCandidateCursor[subPatterns.size()];
         this.filter = filter;
     }
 
@@ -67,10 +62,10 @@ public class PatternCandidateCursor extends AbstractCursor<TimeInterval> {
         }
         for (int i = 0; i < cursors.length; i++) {
             // Prefill work
-            if (!cursors[i].hasNext())
+            if (!cursors[i].hasNextCandidate())
                 return;
             else if (i > 0)
-                work[i] = cursors[i].next();
+                cursors[i].advance();
         }
         nextResult = computeNextResult();
     }
@@ -93,20 +88,17 @@ public class PatternCandidateCursor extends AbstractCursor<TimeInterval> {
     TimeInterval computeNextResult() {
         TimeInterval result = null;
 
-        while (cursors[0].hasNext() && result == null) {
-            work[0] = cursors[0].next();
+        while (result == null && cursors[0].advance()) {
             for (int i = 1; i < subPatterns.size(); i++) {
 
-                nextElement(i, work[i - 1].getMaxSeq() + 1);
-
                 // Break - no further results possible
-                if (work[i] == null)
+                if (!nextElement(i, cursors[i - 1].getMaxSeq() + 1))
                     return null;
             }
 
             // Check window condition
-            long ts = work[0].getMinTs();
-            long te = work[work.length - 1].getMaxTs();
+            long ts = cursors[0].getMinTs();
+            long te = cursors[cursors.length - 1].getMaxTs();
 
             if (te - ts <= window)
                 result = new TimeInterval(ts, te);
@@ -114,13 +106,12 @@ public class PatternCandidateCursor extends AbstractCursor<TimeInterval> {
         return result;
     }
 
-    private void nextElement(int idx, long seqMin) {
-        while (work[idx].getMinSeq() < seqMin && cursors[idx].hasNext())
-            work[idx] = cursors[idx].next();
+    private boolean nextElement(int idx, long seqMin) {
+        while (cursors[idx].getMinSeq() < seqMin && cursors[idx].hasNextCandidate())
+            cursors[idx].advance();
 
         // End of Stream
-        if (work[idx].getMinSeq() < seqMin)
-            work[idx] = null;
+        return cursors[idx].getMinSeq() >= seqMin;
     }
 
 
@@ -1,6 +1,6 @@
 package sigmod2021.pattern.cost.cursor;
 
-import sigmod2021.db.core.secondaryindex.EventID;
+import sigmod2021.db.core.secondaryindex.EventIDBatch;
 import sigmod2021.db.core.secondaryindex.SecondaryTimeIndex;
 import sigmod2021.pattern.cost.transform.TransformedPattern;
 import sigmod2021.pattern.util.TIDCursor;
@@ -8,40 +8,53 @@ import sigmod2021.pattern.util.Util;
 import sigmod2021.db.event.TID;
 import sigmod2021.db.util.TimeInterval;
 import xxl.core.cursors.AbstractCursor;
-import xxl.core.cursors.Cursor;
 
-import java.util.Iterator;
 import java.util.List;
 
 /**
- *
+ * Joins the event ids of the conditions of a sub-pattern into candidates. The
+ * event ids of each condition are read into a sorted {@link EventIDBatch}, and
+ * the join advances a position per batch, so joining creates no object per
+ * event id. Reading the index still decodes its entries.
+ * <p>
+ * Besides the cursor interface, the candidates may be consumed by
+ * {@link #advance()} and the accessors of the current candidate, which do not
+ * materialize a {@link SubPatternCandidate}. Both interfaces must not be
+ * mixed.
  */
 public class SubPatternCandidateCursor extends AbstractCursor<SubPatternCandidate> {
 
     private final TransformedPattern.ExecutableSubPattern subPattern;
 
     private final List<? extends SecondaryTimeIndex<?>> indexes;
-    private final EventID[] work;
-    private final Cursor<EventID>[] cursors;
+    private final EventIDBatch[] batches;
+    private final int[] work;
     private final long head;
     private final long tail;
     private List<TimeInterval> filter;
-    private SubPatternCandidate nextResult;
+
+    /** The candidate following the current one */
+    private boolean hasNextResult;
+    private int nextFirst;
+    private int nextLast;
+
+    /** The current candidate, given by the positions of its first and last event id */
+    private int currentFirst;
+    private int currentLast;
 
 
     /**
      * Creates a new SubPatternCandidateCursor instance
      * @param subPattern
      * @param indexes
-     * @param nextResult
+     * @param filter
      */
-    @SuppressWarnings("unchecked")
     public SubPatternCandidateCursor(TransformedPattern.ExecutableSubPattern subPattern, List<? extends SecondaryTimeIndex<?>> indexes, List<TimeInterval> filter) {
         this.subPattern = subPattern;
         this.indexes = indexes;
         this.filter = filter;
-        this.cursors = new Cursor[subPattern.getConditions().size()];
-        this.work = new EventID[subPattern.getConditions().size()];
+        this.batches = new EventIDBatch[subPattern.getConditions().size()];
+        this.work = new int[subPattern.getConditions().size()];
         this.head = subPattern.getConditions().get(0).getId().absolutePosition;
         this.tail = subPattern.getLength() - 1 - subPattern.getConditions().get(subPattern.getConditions().size() - 1).getId().absolutePosition;
     }
@@ -57,28 +70,24 @@ public class SubPatternCandidateCursor extends AbstractCursor<SubPatternCandidat
 
         super.open();
 
-        for (int i = 0; i < cursors.length; i++) {
+        for (int i = 0; i < batches.length; i++) {
             var c = subPattern.getConditions().get(i);
             SecondaryTimeIndex idx = Util.getIndexForRange(c.getRange(), indexes);
-            cursors[i] = new TIDCursor(idx.rangeQueryID(c.getRange().getLower(), c.getRange().getUpper()));
+            batches[i] = TIDCursor.readBatch(idx, (Comparable) c.getRange().getLower(), (Comparable) c.getRange().getUpper());
 
             // Apply filter
             if (filter != null && !filter.isEmpty()) {
-                cursors[i] = new IntervalFilterCursor(filter.iterator(), cursors[i]);
+                batches[i].retainTimestamps(filter.iterator());
             }
-
-            cursors[i].open();
         }
         // TODO
-        for (int i = 0; i < cursors.length; i++) {
+        for (int i = 0; i < batches.length; i++) {
             // Prefill work
-            if (i > 0 && !cursors[i].hasNext())
+            if (batches[i].size() == 0)
                 return;
-            else
-                work[i] = cursors[i].next();
-
+            work[i] = 0;
         }
-        nextResult = computeNextResult();
+        hasNextResult = computeNextResult();
     }
 
     /**
@@ -90,155 +99,117 @@ public class SubPatternCandidateCursor extends AbstractCursor<SubPatternCandidat
             return;
 
         super.close();
-
-        for (var c : cursors)
-            c.close();
     }
 
-    private SubPatternCandidate computeNextResult() {
-        SubPatternCandidate result = null;
+    private boolean computeNextResult() {
+        final EventIDBatch first = batches[0];
 
         outer:
-        while (cursors[0].hasNext() && result == null) {
-            work[0] = cursors[0].next();
+        while (work[0] + 1 < first.size()) {
+            work[0]++;
 
             for (int i = 1; i < subPattern.getConditions().size(); i++) {
                 var condition = subPattern.getConditions().get(i);
 
-                final long seqPrev = work[i - 1].getSequenceId();
+                final long seqPrev = batches[i - 1].getSequenceId(work[i - 1]);
                 long seqMin = seqPrev + condition.getMinDist();
 
-                nextElement(i, seqMin);
-
                 // Break - no further results possible
-                if (work[i] == null)
-                    return null;
+                if (!nextElement(i, seqMin))
+                    return false;
 
-                final long seqDelta = work[i].getSequenceId() - seqPrev;
+                final long seqDelta = batches[i].getSequenceId(work[i]) - seqPrev;
 
-                // Minimum is ensured via #next(idx,seqMin)
+                // Minimum is ensured via #nextElement(idx,seqMin)
                 if (seqDelta > condition.getMaxDist())
                     continue outer;
             }
 
-            // Construct result
-            result = new SubPatternCandidate(
-                    new TID(work[0].getBlockId(), work[0].getOffset()),
-                    work[0].getTimestamp(),
-                    work[work.length - 1].getTimestamp(),
-                    // Sequence stuff
-                    work[0].getSequenceId() - head,
-                    work[work.length - 1].getSequenceId() + tail);
+            nextFirst = work[0];
+            nextLast = work[work.length - 1];
+            return true;
         }
-        return result;
+        return false;
     }
 
-    private void nextElement(int idx, long seqMin) {
-        while (work[idx].getSequenceId() < seqMin && cursors[idx].hasNext())
-            work[idx] = cursors[idx].next();
+    private boolean nextElement(int idx, long seqMin) {
+        final EventIDBatch batch = batches[idx];
+        while (batch.getSequenceId(work[idx]) < seqMin && work[idx] + 1 < batch.size())
+            work[idx]++;
 
         // End of Stream
-        if (work[idx].getSequenceId() < seqMin)
-            work[idx] = null;
+        return batch.getSequenceId(work[idx]) >= seqMin;
     }
 
     /**
-     * @{inheritDoc}
+     * @return true if {@link #advance()} yields another candidate
      */
-    @Override
-    protected boolean hasNextObject() {
-        return nextResult != null;
+    public boolean hasNextCandidate() {
+        return hasNextResult;
     }
 
     /**
-     * @{inheritDoc}
+     * Moves to the next candidate.
+     *
+     * @return false if there are no more candidates
      */
-    @Override
-    protected SubPatternCandidate nextObject() {
-        var res = nextResult;
-        nextResult = computeNextResult();
-        return res;
+    public boolean advance() {
+        if (!hasNextResult)
+            return false;
+        currentFirst = nextFirst;
+        currentLast = nextLast;
+        hasNextResult = computeNextResult();
+        return true;
     }
 
+    /**
+     * @return the start timestamp of the current candidate's first event
+     */
+    public long getMinTs() {
+        return batches[0].getTimestamp(currentFirst);
+    }
 
-    private class IntervalFilterCursor extends AbstractCursor<EventID> {
-        private Iterator<TimeInterval> filter;
-        private Cursor<EventID> data;
-
-        private EventID nextElement;
-        private TimeInterval currentFilter;
-
-        /**
-         * Creates a new IntervalFilterCursor instance
-         * @param filter
-         * @param data
-         */
-        public IntervalFilterCursor(Iterator<TimeInterval> filter, Cursor<EventID> data) {
-            this.filter = filter;
-            this.data = data;
-        }
-
-        /**
-         * @{inheritDoc}
-         */
-        @Override
-        public void open() {
-            if (isOpened)
-                return;
-
-            super.open();
-            data.open();
-
-            if (filter.hasNext())
-                currentFilter = filter.next();
-
-            nextElement = computeNext();
-        }
-
-        private EventID computeNext() {
-            EventID result = null;
-            while (result == null && data.hasNext() && currentFilter != null) {
-                result = data.next();
-                while (currentFilter != null && result.getTimestamp() > currentFilter.getT2()) {
-                    currentFilter = filter.hasNext() ? filter.next() : null;
-                }
-
-                if (currentFilter != null && !currentFilter.contains(result.getTimestamp()))
-                    result = null;
-            }
-            return result;
-        }
-
-        /**
-         * @{inheritDoc}
-         */
-        @Override
-        public void close() {
-            if (isClosed)
-                return;
-
-            super.close();
-            data.close();
-        }
+    /**
+     * @return the start timestamp of the current candidate's last event
+     */
+    public long getMaxTs() {
+        return batches[batches.length - 1].getTimestamp(currentLast);
+    }
 
+    /**
+     * @return the minimum sequence id of the current candidate, including the head of the sub-pattern
+     */
+    public long getMinSeq() {
+        return batches[0].getSequenceId(currentFirst) - head;
+    }
 
-        /**
-         * @{inheritDoc}
-         */
-        @Override
-        protected boolean hasNextObject() {
-            return nextElement != null;
-        }
+    /**
+     * @return the maximum sequence id of the current candidate, including the tail of the sub-pattern
+     */
+    public long getMaxSeq() {
+        return batches[batches.length - 1].getSequenceId(currentLast) + tail;
+    }
 
-        /**
-         * @{inheritDoc}
-         */
-        @Override
-        protected EventID nextObject() {
-            var res = nextElement;
-            nextElement = computeNext();
-            return res;
-        }
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    protected boolean hasNextObject() {
+        return hasNextResult;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    protected SubPatternCandidate nextObject() {
+        advance();
+        return new SubPatternCandidate(
+                new TID(batches[0].getBlockId(currentFirst), batches[0].getOffset(currentFirst)),
+                getMinTs(),
+                getMaxTs(),
+                // Sequence stuff
+                getMinSeq(),
+                getMaxSeq());
+    }
 }
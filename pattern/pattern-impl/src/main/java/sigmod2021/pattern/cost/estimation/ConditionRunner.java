@@ -25,14 +25,17 @@ public class ConditionRunner {
 
     private TimeInterval current = null;
 
+    /** The first sub-tree seen, and whether it was a hit */
+    private TimeInterval firstSeen = null;
+    private boolean leadingHit = false;
+
     public ConditionRunner(EventSchema schema, ExecutableCondition c) {
         this.condition = c;
     }
 
     static double calcLocalSelectivity(HistogramAccess t, AttributeRange<? extends Number> range) {
-        var agg = t.getAggregates(range.getName());
-        var nodeRange = new DoubleAttributeRange(range.getName(), agg.getValues()[1].doubleValue(),
-                agg.getValues()[2].doubleValue(), true, true);
+        var nodeRange = new DoubleAttributeRange(range.getName(), t.getMin(range.getName()),
+                t.getMax(range.getName()), true, true);
         return computeOverlapPercent(nodeRange, range);
     }
 
@@ -75,6 +78,11 @@ public class ConditionRunner {
             selectivity = calcLocalSelectivity(t, (AttributeRange<? extends Number>) condition.getRange());
         }
 
+        if (firstSeen == null) {
+            firstSeen = lastSeen;
+            leadingHit = selectivity > 0;
+        }
+
         // Update intersectAll
         if (selectivity > 0) {
             selectedEvents += (t.getEventCount() * selectivity);
@@ -89,6 +97,40 @@ public class ConditionRunner {
         return new ConditionInfo(condition, selectivity);
     }
 
+    /**
+     * Appends the statistics of a runner that processed the sub-trees
+     * directly following the ones processed by this runner. Coverage intervals
+     * open at the border are joined.
+     *
+     * @param next the runner of the following sub-trees
+     */
+    public void merge(ConditionRunner next) {
+        totalEvents += next.totalEvents;
+        hitEvents += next.hitEvents;
+        selectedEvents += next.selectedEvents;
+        if (next.firstSeen == null)
+            return;
+
+        List<TimeInterval> nextCoverage = new ArrayList<>(next.coverage);
+        TimeInterval nextCurrent = next.current;
+        if (current != null && next.leadingHit) {
+            // The open interval continues in the following sub-trees
+            if (nextCoverage.isEmpty())
+                nextCurrent = current;
+            else
+                nextCoverage.set(0, new TimeInterval(current.getT1(), nextCoverage.get(0).getT2()));
+        } else if (current != null) {
+            coverage.add(new TimeInterval(current.getT1(), next.firstSeen.getT1()));
+        }
+        if (firstSeen == null) {
+            firstSeen = next.firstSeen;
+            leadingHit = next.leadingHit;
+        }
+        coverage.addAll(nextCoverage);
+        current = nextCurrent;
+        lastSeen = next.lastSeen;
+    }
+
     public void close() {
         if (current != null) {
             coverage.add(new TimeInterval(current.getT1(), lastSeen.getT2()));
@@ -20,6 +20,12 @@ public class WindowedPatternRunner {
     /** The time window */
     private final long window;
 
+    /** The position of the current window begin, when running a partition */
+    private int first;
+
+    /** The position of the next sub-tree to add, when running a partition */
+    private int next;
+
 
     public WindowedPatternRunner(int conditionCount, long window) {
         this.window = window;
@@ -221,12 +227,144 @@ public class WindowedPatternRunner {
             removeFirst();
         }
 
-        if (result.isEmpty())
+        return toCandidates(this.result);
+    }
+
+    /**
+     * Runs the windows beginning with the sub-trees <tt>[from, to)</tt> of
+     * the given level, reading ahead as far as the windows reach. The runner
+     * is seeded with all hits of the sub-trees a single runner fed with the
+     * whole level holds when the window begins with <tt>from</tt>. Since a
+     * single runner may have dropped some of them, the seed is only exact if
+     * the run of the previous partition did not drop hits of its final
+     * window, see {@link #droppedHits()}. Otherwise, the previous run must
+     * be continued by {@link #resume(List, int)} instead. Combined by
+     * {@link #union(List)}, the results of adjacent exact runs equal the
+     * sub-trees collected by a single runner fed with the whole level.
+     *
+     * @param level     all sub-trees of the level, ordered by id
+     * @param from      the first window begin (inclusive)
+     * @param to        the last window begin (exclusive)
+     * @param lastAdded the last sub-tree a single runner holds when the window
+     *                  begins with <tt>from</tt>, see {@link #lastAdded(List, long)}
+     * @return the sub-trees that may be part of a match
+     */
+    public List<SubTreeDescription> runPartition(List<SubTreeDescription> level, int from, int to, int lastAdded) {
+        for (int i = from; i <= lastAdded; i++)
+            add(level.get(i));
+
+        first = from;
+        next = lastAdded + 1;
+        return resume(level, to);
+    }
+
+    /**
+     * Continues the run of a partition with the windows beginning with the
+     * sub-trees up to <tt>to</tt> (exclusive), as a single runner fed with the
+     * whole level would.
+     *
+     * @param level all sub-trees of the level, ordered by id
+     * @param to    the last window begin (exclusive)
+     * @return the sub-trees that may be part of a match, including the ones
+     * collected by previous runs of this runner
+     */
+    public List<SubTreeDescription> resume(List<SubTreeDescription> level, int to) {
+        while (first < to) {
+            if (next < level.size() &&
+                    windowContent.peekFirst().getInterval().getT2() + window > level.get(next).getInterval().getT1()) {
+                add(level.get(next++));
+                continue;
+            }
+            addSubtrees();
+            removeFirst();
+            first++;
+            if (next < level.size())
+                add(level.get(next++));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Checks whether the sub-pattern hits of the current window content were
+     * dropped while looking for matches of previous windows. If not, a runner
+     * seeded by {@link #runPartition(List, int, int, int)} with the following
+     * window begin starts in the same state as this runner.
+     *
+     * @return true, if some hit of the current window content was dropped
+     */
+    public boolean droppedHits() {
+        for (int i = 0; i < valids.size(); i++) {
+            int hits = 0;
+            for (var it = windowContent.iterator(); it.hasNext(); ) {
+                if (it.next().getInfos().get(i).isHit())
+                    hits++;
+            }
+            if (valids.get(i).size() != hits)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes for each sub-tree the last sub-tree held by a runner fed with
+     * the whole level, at the time the window begins with it. Since the
+     * sub-tree failing the window check is always added, this may exceed the
+     * window of the sub-tree.
+     *
+     * @param level  all sub-trees of the level, ordered by id
+     * @param window the time window
+     * @return the position of the last held sub-tree, per window begin
+     */
+    public static int[] lastAdded(List<SubTreeDescription> level, long window) {
+        final int[] result = new int[level.size()];
+        int end = 0;
+        int maxSpan = 0;
+        for (int s = 0; s < level.size(); s++) {
+            // The first sub-tree not fitting the window beginning with s
+            end = Math.max(end, s + 1);
+            while (end < level.size() &&
+                    level.get(s).getInterval().getT2() + window > level.get(end).getInterval().getT1())
+                end++;
+            maxSpan = Math.max(maxSpan, end - s);
+            result[s] = Math.min(level.size() - 1, s - 1 + maxSpan);
+        }
+        return result;
+    }
+
+    /**
+     * Combines the results of adjacent partitions.
+     *
+     * @param partitions the results of {@link #runPartition(List, int, int, int)}, in order
+     * @return the sub-trees that may be part of a match
+     */
+    public static List<SubTreeDescription> union(List<List<SubTreeDescription>> partitions) {
+        List<SubTreeDescription> result = new ArrayList<>();
+        long last = -1L;
+        for (var p : partitions) {
+            for (var std : p) {
+                if (std.getId() > last) {
+                    result.add(std);
+                    last = std.getId();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds match candidates, i.e., contiguous portions of the stream that
+     * may contain a match.
+     *
+     * @param subtrees the sub-trees that may be part of a match, ordered by id
+     * @return the match candidates
+     */
+    public static List<MatchCandidate> toCandidates(List<SubTreeDescription> subtrees) {
+        if (subtrees.isEmpty())
             return Collections.emptyList();
 
         // Build match candidates (contigous portions of the stream that may contain a match)
         List<MatchCandidate> result = new ArrayList<>();
-        Iterator<SubTreeDescription> iter = this.result.iterator();
+        Iterator<SubTreeDescription> iter = subtrees.iterator();
 
         MatchCandidate current = new MatchCandidate(iter.next());
 
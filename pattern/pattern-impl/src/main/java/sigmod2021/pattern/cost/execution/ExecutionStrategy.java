@@ -26,6 +26,23 @@ public interface ExecutionStrategy extends Comparable<ExecutionStrategy> {
 
     Cursor<Event> execute() throws TranslatorException, IncompatibleTypeException;
 
+    /**
+     * @return the number of regions replayed concurrently by {@link #execute()}, 1 for sequential replay
+     */
+    default int getParallelism() {
+        return 1;
+    }
+
+    /**
+     * Returns this strategy, replaying up to the given number of regions in parallel.
+     *
+     * @param parallelism the number of regions replayed concurrently, 1 for sequential replay
+     * @return the strategy with the given parallelism
+     */
+    default ExecutionStrategy withParallelism(int parallelism) {
+        return this;
+    }
+
     long executeIOOnly();
 
     default boolean dominates(ExecutionStrategy o) {
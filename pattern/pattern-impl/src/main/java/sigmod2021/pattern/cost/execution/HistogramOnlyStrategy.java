@@ -16,6 +16,7 @@ import xxl.core.cursors.Cursors;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -28,6 +29,7 @@ public class HistogramOnlyStrategy implements ExecutionStrategy {
     private final List<TimeInterval> replayIntervals;
     private final TransformedPattern.ExecutableConfiguration config;
     private final Estimates estimates;
+    private final int parallelism;
 
     /**
      * Creates a new LightweightStrategy instance
@@ -37,12 +39,19 @@ public class HistogramOnlyStrategy implements ExecutionStrategy {
      */
     public HistogramOnlyStrategy(PrimaryIndex tree, TransformedPattern pattern, List<TimeInterval> replayIntervals,
                                  Estimates estimates) {
+        this(tree, pattern, replayIntervals, estimates, 1);
+    }
+
+    private HistogramOnlyStrategy(PrimaryIndex tree, TransformedPattern pattern, List<TimeInterval> replayIntervals,
+                                  Estimates estimates, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
         this.tree = tree;
         this.pattern = pattern;
         this.replayIntervals = replayIntervals;
         this.estimates = estimates;
-        pattern.disableAll();
-        this.config = pattern.createExecution();
+        this.parallelism = parallelism;
+        this.config = pattern.createExecution(new BitSet());
     }
 
     @Override
@@ -52,7 +61,17 @@ public class HistogramOnlyStrategy implements ExecutionStrategy {
 
     @Override
     public ExecutionStrategy cloneWithNewEstimates(Estimates estimates) {
-        return new HistogramOnlyStrategy(tree, pattern, replayIntervals, estimates);
+        return new HistogramOnlyStrategy(tree, pattern, replayIntervals, estimates, parallelism);
+    }
+
+    @Override
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public ExecutionStrategy withParallelism(int parallelism) {
+        return new HistogramOnlyStrategy(tree, pattern, replayIntervals, estimates, parallelism);
     }
 
     @Override
@@ -72,7 +91,7 @@ public class HistogramOnlyStrategy implements ExecutionStrategy {
     @Override
     public Cursor<Event> execute() throws TranslatorException, IncompatibleTypeException {
         var intervals = createIntervalCursor();
-        ReplayPatternMatcher rpm = new ReplayPatternMatcher(tree, pattern.getDefinition());
+        ReplayPatternMatcher rpm = new ReplayPatternMatcher(tree, pattern.getDefinition(), parallelism);
 
         final Cursor<Event> c = rpm.executeMultiRegions(intervals.createReplayIntervals());
         if (CostEstimator.TRACE) {
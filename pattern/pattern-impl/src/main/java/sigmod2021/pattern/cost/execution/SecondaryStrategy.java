@@ -33,6 +33,7 @@ public class SecondaryStrategy implements ExecutionStrategy {
     final List<TimeInterval> extendedLightweightIntervals;
     final TransformedPattern.ExecutableConfiguration config;
     final Estimates estimates;
+    final int parallelism;
 
     /**
      * Creates a new SecondaryStrategy instance
@@ -46,6 +47,15 @@ public class SecondaryStrategy implements ExecutionStrategy {
     public SecondaryStrategy(PrimaryIndex tree, List<? extends SecondaryTimeIndex<?>> secondaries,
                              TransformedPattern pattern, List<TimeInterval> lightweightCandidates,
                              List<TimeInterval> extendedLightweightIntervals, TransformedPattern.ExecutableConfiguration config, Estimates estimates) {
+        this(tree, secondaries, pattern, lightweightCandidates, extendedLightweightIntervals, config, estimates, 1);
+    }
+
+    private SecondaryStrategy(PrimaryIndex tree, List<? extends SecondaryTimeIndex<?>> secondaries,
+                              TransformedPattern pattern, List<TimeInterval> lightweightCandidates,
+                              List<TimeInterval> extendedLightweightIntervals, TransformedPattern.ExecutableConfiguration config, Estimates estimates,
+                              int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
         this.tree = tree;
         this.secondaries = secondaries;
         this.pattern = pattern;
@@ -53,6 +63,7 @@ public class SecondaryStrategy implements ExecutionStrategy {
         this.extendedLightweightIntervals = extendedLightweightIntervals;
         this.config = config;
         this.estimates = estimates;
+        this.parallelism = parallelism;
     }
 
     @Override
@@ -63,7 +74,18 @@ public class SecondaryStrategy implements ExecutionStrategy {
     @Override
     public ExecutionStrategy cloneWithNewEstimates(Estimates estimates) {
         return new SecondaryStrategy(tree, secondaries, pattern, lightweightCandidates, extendedLightweightIntervals, config,
-                estimates);
+                estimates, parallelism);
+    }
+
+    @Override
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public ExecutionStrategy withParallelism(int parallelism) {
+        return new SecondaryStrategy(tree, secondaries, pattern, lightweightCandidates, extendedLightweightIntervals, config,
+                estimates, parallelism);
     }
 
     @Override
@@ -87,7 +109,7 @@ public class SecondaryStrategy implements ExecutionStrategy {
     @Override
     public Cursor<Event> execute() throws TranslatorException, IncompatibleTypeException {
         var exec = createIntervalCursor();
-        ReplayPatternMatcher rpm = new ReplayPatternMatcher(tree, pattern.getDefinition());
+        ReplayPatternMatcher rpm = new ReplayPatternMatcher(tree, pattern.getDefinition(), parallelism);
 
         final Cursor<Event> c = rpm.executeMultiRegions(exec.createReplayIntervals());
         if (CostEstimator.TRACE) {
@@ -21,9 +21,11 @@ import sigmod2021.db.util.TimeInterval;
 import xxl.core.cursors.Cursor;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -56,19 +58,14 @@ public class CostEstimator {
 
     private final Map<SubPatternCondition.ConditionId, ConditionStats> statsMap = new HashMap<>();
 
-
-    private final UnivariateIntegrator integrator;
+    /** The estimates of the configurations seen so far, keyed by their enabled conditions */
+    private final Map<BitSet, Estimates> secondaryEstimates = new ConcurrentHashMap<>();
 
     public CostEstimator(PrimaryIndexImpl primary, List<? extends SecondaryTimeIndex<?>> secondaries,
                          TransformedPattern pattern, PatternStats result) {
         this.tree = primary;
         this.secondaries = secondaries;
         this.pattern = pattern;
-        this.integrator = new RombergIntegrator(
-                BaseAbstractUnivariateIntegrator.DEFAULT_RELATIVE_ACCURACY * 10000,
-                BaseAbstractUnivariateIntegrator.DEFAULT_ABSOLUTE_ACCURACY,
-                BaseAbstractUnivariateIntegrator.DEFAULT_MIN_ITERATIONS_COUNT,
-                RombergIntegrator.ROMBERG_MAX_ITERATIONS_COUNT);
 
         var csi = result.getConditionStats().iterator();
         for (var c : pattern.collectConditions()) {
@@ -117,6 +114,15 @@ public class CostEstimator {
         return (long) Math.max(1.0, Math.ceil(unmergedIntervalCount * pUncovered));
     }
 
+    // Integrators keep state while integrating, so each estimate uses its own
+    private static UnivariateIntegrator createIntegrator() {
+        return new RombergIntegrator(
+                BaseAbstractUnivariateIntegrator.DEFAULT_RELATIVE_ACCURACY * 10000,
+                BaseAbstractUnivariateIntegrator.DEFAULT_ABSOLUTE_ACCURACY,
+                BaseAbstractUnivariateIntegrator.DEFAULT_MIN_ITERATIONS_COUNT,
+                RombergIntegrator.ROMBERG_MAX_ITERATIONS_COUNT);
+    }
+
     public static void trace(String format, Object... args) {
         if (TRACE)
             System.out.printf(format, args);
@@ -145,7 +151,27 @@ public class CostEstimator {
                 extendedSearchSpace / tree.getCoveredTimeInterval().getDuration());
     }
 
+    /**
+     * Estimates the costs of the given configuration. The estimates are
+     * memoized per set of enabled conditions, and may be requested
+     * concurrently.
+     *
+     * @param config the configuration
+     * @return the estimates
+     */
     public Estimates estimateSecondaryCosts(TransformedPattern.ExecutableConfiguration config) {
+        final BitSet key = config.getEnabledConditions();
+        Estimates result = secondaryEstimates.get(key);
+        if (result == null) {
+            result = computeSecondaryCosts(config);
+            final Estimates previous = secondaryEstimates.putIfAbsent(key, result);
+            if (previous != null)
+                result = previous;
+        }
+        return result;
+    }
+
+    private Estimates computeSecondaryCosts(TransformedPattern.ExecutableConfiguration config) {
 
         trace("Estimating config: %s%n", config);
         var sps = config.getSubPatterns().stream()
@@ -303,7 +329,7 @@ public class CostEstimator {
         if (candidateInWindowProp >= 1.0) {
             avgMatchLength = dist.getNumericalMean();
         } else {
-            avgMatchLength = integrator.integrate(5000, x -> dist.density(x) * x, 0, pattern.getWindow()) / candidateInWindowProp;
+            avgMatchLength = createIntegrator().integrate(5000, x -> dist.density(x) * x, 0, pattern.getWindow()) / candidateInWindowProp;
         }
 
         return avgMatchLength + config.getMinCandidateLength();
@@ -1,6 +1,11 @@
 package sigmod2021.pattern.cost.selection;
 
+import sigmod2021.db.DBRuntimeException;
+import sigmod2021.db.core.primaryindex.HistogramAccess;
 import sigmod2021.db.core.primaryindex.impl.PrimaryIndexImpl;
+import sigmod2021.db.core.primaryindex.queries.range.AttributeRange;
+import sigmod2021.db.core.primaryindex.queries.range.DoubleAttributeRange;
+import sigmod2021.db.core.primaryindex.queries.range.StringAttributeRange;
 import sigmod2021.pattern.cost.estimation.ConditionInfo;
 import sigmod2021.pattern.cost.estimation.ConditionRunner;
 import sigmod2021.pattern.cost.estimation.SubTreeDescription;
@@ -11,9 +16,19 @@ import sigmod2021.pattern.cost.transform.SubPatternCondition;
 import sigmod2021.pattern.cost.transform.TransformedPattern;
 import sigmod2021.db.util.TimeInterval;
 
+import xxl.core.indexStructures.AggregateIndex.Aggregation;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -21,6 +36,12 @@ import java.util.stream.Collectors;
  */
 public class HistogramScanner {
 
+    /** The number of partitions per worker thread, for balancing the load */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    /** The minimum number of sub-trees per partition */
+    private static final int MIN_PARTITION_SIZE = 256;
+
     private final TransformedPattern pattern;
 
     /**
@@ -35,9 +56,7 @@ public class HistogramScanner {
 
         long time = -System.currentTimeMillis();
 
-        pattern.enableAll();
-
-        var config = pattern.createExecution();
+        var config = allConditions();
 
         // Collect statistics for each sub-pattern
         List<ConditionRunner> result = new ArrayList<>();
@@ -66,21 +85,340 @@ public class HistogramScanner {
         }
 
         var matches = windowed.getResults();
+
+        time += System.currentTimeMillis();
+
+        System.out.println("Visited " + counter[0] + " index entries in " + time + " ms.");
+
+        return createResult(result, matches);
+    }
+
+    /**
+     * Like {@link #estimate(PrimaryIndexImpl, int)}, but evaluates the
+     * conditions and the windows on a fork-join pool. The level is read once
+     * and split into partitions of consecutive sub-trees. Each partition
+     * evaluates the conditions on its sub-trees, then runs the windows
+     * beginning within, reading ahead into the following partitions as far as
+     * the window reaches. Merging the partial results in order yields the
+     * result of a sequential scan.
+     *
+     * @param tree        the primary index
+     * @param level       the level to scan
+     * @param parallelism the number of worker threads, 1 scans sequentially
+     * @return the statistics of the pattern
+     */
+    public PatternStats estimate(PrimaryIndexImpl tree, int level, int parallelism) {
+        if (parallelism <= 1)
+            return estimate(tree, level);
+
+        long time = -System.currentTimeMillis();
+
+        var config = allConditions();
+        var conditions = config.getConditions();
+
+        // Read the level
+        final String[] attributes = aggregatedAttributes(conditions);
+        final List<LevelEntry> entries = new ArrayList<>();
+        tree.walkLevel(level, lwa -> entries.add(new LevelEntry(lwa, attributes)));
+
+        final int partitions = Math.max(1,
+                Math.min(parallelism * PARTITIONS_PER_THREAD, entries.size() / MIN_PARTITION_SIZE));
+        final int[] bounds = new int[partitions + 1];
+        for (int p = 0; p <= partitions; p++)
+            bounds[p] = (int) ((long) entries.size() * p / partitions);
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // Collect stats for each sub-pattern
+            final SubTreeDescription[] descriptions = new SubTreeDescription[entries.size()];
+            final List<List<ConditionRunner>> runners = invokeAll(pool, partitions, p -> {
+                List<ConditionRunner> result = new ArrayList<>();
+                for (var c : conditions)
+                    result.add(new ConditionRunner(tree.getSchema(), c));
+                for (int i = bounds[p]; i < bounds[p + 1]; i++) {
+                    final LevelEntry e = entries.get(i);
+                    List<ConditionInfo> cis = new ArrayList<>();
+                    for (var runner : result)
+                        cis.add(runner.update(e));
+                    descriptions[i] = new SubTreeDescription(e.getIndex(), e.getCoveredTimeInterval(),
+                            e.getEventCount(), cis);
+                }
+                return result;
+            });
+
+            // Windowed analysis
+            final List<SubTreeDescription> subtrees = Arrays.asList(descriptions);
+            final int[] lastAdded = WindowedPatternRunner.lastAdded(subtrees, pattern.getWindow());
+            final List<WindowedPatternRunner> windowed = new ArrayList<>(partitions);
+            for (int p = 0; p < partitions; p++)
+                windowed.add(new WindowedPatternRunner(conditions.size(), pattern.getWindow()));
+            final List<List<SubTreeDescription>> candidates = invokeAll(pool, partitions, p ->
+                    bounds[p] == bounds[p + 1] ? Collections.<SubTreeDescription>emptyList() :
+                            windowed.get(p).runPartition(subtrees, bounds[p], bounds[p + 1], lastAdded[bounds[p]]));
+
+            // A partition is seeded with all hits of its first window. If the
+            // previous run dropped some of them, continue that run instead.
+            for (int p = 1; p < partitions; p++) {
+                if (bounds[p] < bounds[p + 1] && windowed.get(p - 1).droppedHits()) {
+                    candidates.set(p, windowed.get(p - 1).resume(subtrees, bounds[p + 1]));
+                    windowed.set(p, windowed.get(p - 1));
+                }
+            }
+
+            // Merge
+            final List<ConditionRunner> result = runners.get(0);
+            for (int p = 1; p < partitions; p++) {
+                for (int i = 0; i < result.size(); i++)
+                    result.get(i).merge(runners.get(p).get(i));
+            }
+            for (var runner : result) {
+                runner.close();
+            }
+            var matches = WindowedPatternRunner.toCandidates(WindowedPatternRunner.union(candidates));
+
+            time += System.currentTimeMillis();
+
+            System.out.println("Visited " + entries.size() + " index entries in " + time + " ms (" + partitions +
+                    " partitions).");
+
+            return createResult(result, matches);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Like {@link #estimate(PrimaryIndexImpl, int)}, but resumes the scan
+     * captured by the given snapshot: the conditions are only evaluated on the
+     * sub-trees appended since, and the snapshot is extended by the ones
+     * sealed meanwhile. If a sealed sub-tree was modified, e.g., by
+     * out-of-order inserts, the snapshot is discarded and the level is scanned
+     * from scratch. The windows are always run on the entire level, since
+     * they are evaluated in memory.
+     *
+     * @param tree     the primary index
+     * @param level    the level to scan
+     * @param snapshot the snapshot of a previous scan of this pattern, updated in place
+     * @return the statistics of the pattern
+     */
+    public PatternStats estimate(PrimaryIndexImpl tree, int level, Snapshot snapshot) {
+
+        long time = -System.currentTimeMillis();
+
+        var config = allConditions();
+        var conditions = config.getConditions();
+
+        if (snapshot.runners == null || snapshot.level != level)
+            snapshot.reset(level, createRunners(tree, conditions));
+
+        // Read the sub-trees not covered by the snapshot
+        final String[] attributes = aggregatedAttributes(conditions);
+        final List<LevelEntry> appended = new ArrayList<>();
+        final int[] reused = {0};
+        final boolean[] valid = {true};
+        tree.walkLevel(level, lwa -> {
+            if (!valid[0])
+                return;
+            if (reused[0] < snapshot.sealed.size()) {
+                final SubTreeDescription d = snapshot.sealed.get(reused[0]);
+                valid[0] = d.getEventCount() == lwa.getEventCount() &&
+                        d.getInterval().equals(lwa.getCoveredTimeInterval());
+                reused[0]++;
+            } else {
+                appended.add(new LevelEntry(lwa, attributes));
+            }
+        });
+        if (!valid[0] || reused[0] < snapshot.sealed.size()) {
+            snapshot.reset(level, createRunners(tree, conditions));
+            return estimate(tree, level, snapshot);
+        }
+
+        // Collect stats for each sub-pattern, sealing all but the last sub-tree
+        for (int i = 0; i < appended.size() - 1; i++)
+            snapshot.sealed.add(describe(appended.get(i), snapshot.runners));
+
+        final List<ConditionRunner> result = createRunners(tree, conditions);
+        for (int i = 0; i < result.size(); i++)
+            result.get(i).merge(snapshot.runners.get(i));
+
+        final List<SubTreeDescription> subtrees = new ArrayList<>(snapshot.sealed);
+        if (!appended.isEmpty()) {
+            final List<ConditionRunner> tail = createRunners(tree, conditions);
+            subtrees.add(describe(appended.get(appended.size() - 1), tail));
+            for (int i = 0; i < result.size(); i++)
+                result.get(i).merge(tail.get(i));
+        }
+        for (var runner : result) {
+            runner.close();
+        }
+
+        // Windowed analysis
+        final WindowedPatternRunner windowed = new WindowedPatternRunner(result.size(), pattern.getWindow());
+        for (var std : subtrees)
+            windowed.update(std);
+        var matches = windowed.getResults();
+
+        time += System.currentTimeMillis();
+
+        System.out.println("Visited " + appended.size() + " new index entries in " + time + " ms (" +
+                reused[0] + " reused).");
+
+        return createResult(result, matches);
+    }
+
+    /**
+     * Creates the execution of all conditions without touching their enabled
+     * flags, so a pattern may be scanned while it is used elsewhere.
+     */
+    private TransformedPattern.ExecutableConfiguration allConditions() {
+        final BitSet enabled = new BitSet();
+        enabled.set(0, pattern.collectConditions().size());
+        return pattern.createExecution(enabled);
+    }
+
+    private static List<ConditionRunner> createRunners(PrimaryIndexImpl tree,
+                                                       List<TransformedPattern.ExecutableCondition> conditions) {
+        List<ConditionRunner> result = new ArrayList<>();
+        for (var c : conditions)
+            result.add(new ConditionRunner(tree.getSchema(), c));
+        return result;
+    }
+
+    private static SubTreeDescription describe(HistogramAccess e, List<ConditionRunner> runners) {
+        List<ConditionInfo> cis = new ArrayList<>();
+        for (var runner : runners)
+            cis.add(runner.update(e));
+        return new SubTreeDescription(e.getIndex(), e.getCoveredTimeInterval(), e.getEventCount(), cis);
+    }
+
+    private static String[] aggregatedAttributes(List<TransformedPattern.ExecutableCondition> conditions) {
+        return conditions.stream()
+                .map(TransformedPattern.ExecutableCondition::getRange)
+                .filter(r -> !(r instanceof StringAttributeRange))
+                .map(AttributeRange::getName)
+                .distinct()
+                .toArray(String[]::new);
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, int partitions, IntFunction<T> task) {
+        List<Callable<T>> tasks = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            tasks.add(() -> task.apply(partition));
+        }
+        List<T> result = new ArrayList<>(partitions);
+        try {
+            for (Future<T> f : pool.invokeAll(tasks))
+                result.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBRuntimeException("Interrupted while scanning the histogram.", e);
+        } catch (ExecutionException e) {
+            throw new DBRuntimeException("Could not scan histogram partition.", e.getCause());
+        }
+        return result;
+    }
+
+    private PatternStats createResult(List<ConditionRunner> runners, List<MatchCandidate> matches) {
         var stats = new ArrayList<PatternStats.ConditionStats>();
 
-        var spri = result.iterator();
+        var spri = runners.iterator();
 
-        for (int i = 0; i < config.getConditions().size(); i++) {
+        for (int i = 0; i < runners.size(); i++) {
             final int idx = i;
             List<ConditionCandidates> spcs = matches.stream().map(x -> x.getInfos().get(idx)).collect(Collectors.toList());
             stats.add(new ConditionStatsImpl(spri.next(), spcs));
         }
+        return new HistogramScanResult(matches, stats);
+    }
 
-        time += System.currentTimeMillis();
+    /**
+     * The state of a scan of one level: the descriptions of its sealed
+     * sub-trees, i.e., all but the last one, which is still filled by the
+     * appender, and the condition statistics collected on them. A snapshot
+     * belongs to a single pattern and must not be shared between threads.
+     */
+    public static class Snapshot {
 
-        System.out.println("Visited " + counter[0] + " index entries in " + time + " ms.");
+        private final List<SubTreeDescription> sealed = new ArrayList<>();
 
-        return new HistogramScanResult(matches, stats);
+        private List<ConditionRunner> runners;
+
+        private int level;
+
+        private void reset(int level, List<ConditionRunner> runners) {
+            this.level = level;
+            this.runners = runners;
+            this.sealed.clear();
+        }
+
+        /**
+         * @return the number of sub-trees whose statistics are kept
+         */
+        public int getSealedCount() {
+            return sealed.size();
+        }
+    }
+
+    /**
+     * A copy of an index entry, holding the aggregates of the attributes
+     * referenced by the conditions.
+     */
+    private static class LevelEntry implements HistogramAccess {
+
+        private final long index;
+        private final TimeInterval interval;
+        private final long eventCount;
+        private final String[] attributes;
+        private final Aggregation[] aggregates;
+
+        LevelEntry(HistogramAccess source, String[] attributes) {
+            this.index = source.getIndex();
+            this.interval = source.getCoveredTimeInterval();
+            this.eventCount = source.getEventCount();
+            this.attributes = attributes;
+            this.aggregates = new Aggregation[attributes.length];
+            for (int i = 0; i < attributes.length; i++)
+                aggregates[i] = source.getAggregates(attributes[i]);
+        }
+
+        @Override
+        public long getIndex() {
+            return index;
+        }
+
+        @Override
+        public Aggregation getAggregates(String attribute) {
+            for (int i = 0; i < attributes.length; i++) {
+                if (attributes[i].equals(attribute))
+                    return aggregates[i];
+            }
+            throw new IllegalArgumentException("No aggregates copied for attribute: " + attribute);
+        }
+
+        @Override
+        public TimeInterval getCoveredTimeInterval() {
+            return interval;
+        }
+
+        @Override
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        @Override
+        public boolean intersects(List<? extends AttributeRange<? extends Number>> ranges) {
+            return ranges.stream().allMatch(this::intersects);
+        }
+
+        @Override
+        public boolean intersects(AttributeRange<? extends Number> range) {
+            var idxRange = new DoubleAttributeRange(range.getName(), getMin(range.getName()),
+                    getMax(range.getName()), true, true);
+            var givenRange = new DoubleAttributeRange(range.getName(), range.getLower().doubleValue(),
+                    range.getUpper().doubleValue(), range.isLowerInclusive(), range.isUpperInclusive());
+            return givenRange.intersects(idxRange);
+        }
     }
 
     private static class HistogramScanResult implements PatternStats {
@@ -0,0 +1,304 @@
+package sigmod2021.pattern.cost.selection;
+
+import sigmod2021.common.IncompatibleTypeException;
+import sigmod2021.db.core.primaryindex.impl.PrimaryIndexImpl;
+import sigmod2021.db.core.secondaryindex.SecondaryTimeIndex;
+import sigmod2021.db.util.TimeInterval;
+import sigmod2021.esp.api.epa.PatternMatcher;
+import sigmod2021.esp.ql.TranslatorException;
+import sigmod2021.event.Event;
+import sigmod2021.pattern.cost.execution.ExecutionStrategy;
+import sigmod2021.pattern.cost.transform.TransformedPattern;
+import sigmod2021.pattern.util.Util;
+import xxl.core.cursors.Cursor;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the plans of repeated pattern queries on a primary index. A plan
+ * consists of the statistics gathered by a {@link HistogramScanner} and the
+ * execution strategy selected on them. Plans are keyed by the pattern
+ * definition and remain valid as long as the number of events and the covered
+ * time interval of the index do not change.
+ * <p>
+ * If events were added, the plan is extended: the histogram scan resumes from
+ * the snapshot kept with the plan, evaluating the conditions only on the
+ * sub-trees sealed since, and the strategy is selected anew on the updated
+ * statistics. Sub-trees modified by out-of-order inserts invalidate the
+ * snapshot, causing a full scan.
+ * <p>
+ * The cache holds the plans of at most <tt>capacity</tt> patterns, evicting
+ * the least recently used one. Each plan selects its strategy on a pattern of
+ * its own, since the selection toggles the conditions of the pattern; the
+ * pattern kept for scanning is never modified.
+ */
+public class PlanCache {
+
+    /** The default number of cached plans */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final PrimaryIndexImpl primary;
+
+    private final List<? extends SecondaryTimeIndex<?>> secondaries;
+
+    private final IndexSelectionStrategyFactory factory;
+
+    /** The level of the primary index scanned for statistics */
+    private final int level;
+
+    /** The number of regions replayed concurrently by {@link #execute(PatternMatcher)} */
+    private final int parallelism;
+
+    /** The entries in access order, guarded by itself */
+    private final Map<PatternMatcher, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong extensions = new AtomicLong();
+
+    /**
+     * Creates a new PlanCache instance, holding up to {@link #DEFAULT_CAPACITY}
+     * plans executed sequentially
+     *
+     * @param primary     the primary index
+     * @param secondaries the secondary indexes available to the strategies
+     * @param factory     the factory of the strategy selection
+     * @param level       the level of the primary index to scan for statistics
+     */
+    public PlanCache(PrimaryIndexImpl primary, List<? extends SecondaryTimeIndex<?>> secondaries,
+                     IndexSelectionStrategyFactory factory, int level) {
+        this(primary, secondaries, factory, level, DEFAULT_CAPACITY, 1);
+    }
+
+    /**
+     * Creates a new PlanCache instance
+     *
+     * @param primary     the primary index
+     * @param secondaries the secondary indexes available to the strategies
+     * @param factory     the factory of the strategy selection
+     * @param level       the level of the primary index to scan for statistics
+     * @param capacity    the maximum number of cached plans
+     * @param parallelism the number of regions replayed concurrently, 1 for sequential replay
+     */
+    public PlanCache(PrimaryIndexImpl primary, List<? extends SecondaryTimeIndex<?>> secondaries,
+                     IndexSelectionStrategyFactory factory, int level, int capacity, int parallelism) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        this.primary = primary;
+        this.secondaries = secondaries;
+        this.factory = factory;
+        this.level = level;
+        this.parallelism = parallelism;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PatternMatcher, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Executes the given pattern with its cached plan, planning it if
+     * necessary.
+     *
+     * @param def the pattern definition
+     * @return the matches of the pattern
+     * @throws TranslatorException       if the pattern cannot be translated
+     * @throws IncompatibleTypeException if the pattern does not fit the schema of the index
+     */
+    public Cursor<Event> execute(PatternMatcher def) throws TranslatorException, IncompatibleTypeException {
+        return getPlan(def).getStrategy().withParallelism(parallelism).execute();
+    }
+
+    /**
+     * Returns the plan of the given pattern, reflecting the current contents
+     * of the primary index.
+     *
+     * @param def the pattern definition
+     * @return the plan
+     */
+    public Plan getPlan(PatternMatcher def) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(def, d -> new Entry(Util.transformPattern(d, primary.getSchema())));
+        }
+        synchronized (entry) {
+            // Read the version before scanning, so appends during the scan cause an extension
+            final long eventCount = primary.getNumberOfEvents();
+            final TimeInterval covered = primary.getCoveredTimeInterval();
+            Plan plan = entry.plan;
+            if (plan != null && plan.eventCount == eventCount && plan.coveredTimeInterval.equals(covered)) {
+                hits.incrementAndGet();
+                return plan;
+            }
+            if (plan == null)
+                misses.incrementAndGet();
+            else
+                extensions.incrementAndGet();
+
+            final PatternStats stats = new HistogramScanner(entry.pattern).estimate(primary, level, entry.snapshot);
+            final TransformedPattern pattern = Util.transformPattern(def, primary.getSchema());
+            final IndexSelectionStrategy.Result result =
+                    factory.create(primary, secondaries, pattern, stats).selectIndexes();
+            plan = new Plan(pattern, stats, result, eventCount, covered);
+            entry.plan = plan;
+            return plan;
+        }
+    }
+
+    /**
+     * Drops the plan of the given pattern.
+     *
+     * @param def the pattern definition
+     */
+    public void invalidate(PatternMatcher def) {
+        synchronized (entries) {
+            entries.remove(def);
+        }
+    }
+
+    /**
+     * Drops all plans.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of plans
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of requests served by a valid plan
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of requests planned from scratch
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of regions replayed concurrently by {@link #execute(PatternMatcher)}
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the number of requests extending a plan to newly added events
+     */
+    public long getExtensions() {
+        return extensions.get();
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("PlanCache [plans: %d, hits: %d, misses: %d, extensions: %d]", size(), getHits(),
+                getMisses(), getExtensions());
+    }
+
+    private static class Entry {
+
+        final TransformedPattern pattern;
+
+        final HistogramScanner.Snapshot snapshot = new HistogramScanner.Snapshot();
+
+        Plan plan;
+
+        Entry(TransformedPattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * A cached plan, along with the version of the data it was created on.
+     */
+    public static class Plan {
+
+        private final TransformedPattern pattern;
+
+        private final PatternStats stats;
+
+        private final IndexSelectionStrategy.Result result;
+
+        private final long eventCount;
+
+        private final TimeInterval coveredTimeInterval;
+
+        Plan(TransformedPattern pattern, PatternStats stats, IndexSelectionStrategy.Result result, long eventCount,
+             TimeInterval coveredTimeInterval) {
+            this.pattern = pattern;
+            this.stats = stats;
+            this.result = result;
+            this.eventCount = eventCount;
+            this.coveredTimeInterval = coveredTimeInterval;
+        }
+
+        /**
+         * @return the transformed pattern
+         */
+        public TransformedPattern getPattern() {
+            return this.pattern;
+        }
+
+        /**
+         * @return the statistics of the pattern
+         */
+        public PatternStats getStats() {
+            return this.stats;
+        }
+
+        /**
+         * @return the result of the strategy selection
+         */
+        public IndexSelectionStrategy.Result getResult() {
+            return this.result;
+        }
+
+        /**
+         * @return the selected strategy
+         */
+        public ExecutionStrategy getStrategy() {
+            return this.result.getStrategy();
+        }
+
+        /**
+         * @return the number of events the plan was created on
+         */
+        public long getEventCount() {
+            return this.eventCount;
+        }
+
+        /**
+         * @return the time interval covered by the index when the plan was created
+         */
+        public TimeInterval getCoveredTimeInterval() {
+            return this.coveredTimeInterval;
+        }
+    }
+}
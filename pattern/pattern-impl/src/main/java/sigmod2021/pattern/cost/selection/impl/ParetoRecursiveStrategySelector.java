@@ -8,13 +8,13 @@ import sigmod2021.pattern.cost.selection.CostEstimator;
 import sigmod2021.pattern.cost.selection.IndexSelectionStrategy;
 import sigmod2021.pattern.cost.selection.PatternStats;
 import sigmod2021.pattern.cost.selection.SelSubPattern;
-import sigmod2021.pattern.cost.transform.SubPatternCondition;
 import sigmod2021.pattern.cost.transform.TransformedPattern;
 import sigmod2021.pattern.util.MultiIterator;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -95,13 +95,14 @@ public class ParetoRecursiveStrategySelector implements IndexSelectionStrategy {
         private List<List<ExecutionStrategy>> solutions;
 
         public Component(SelSubPattern ssp) {
-            pattern.disableAll();
             this.maxK = ssp.getMaxSymbols();
             this.solutions = new ArrayList<>(this.maxK + 1);
             this.solutions.add(Collections.singletonList(lw));
-            for (int i = 1; i <= this.maxK; i++) {
-                ssp.setExecConfig(i);
-                solutions.add(List.of(estimator.createSecondaryStrategy(pattern.createExecution())));
+            // The i most selective conditions of the sub-pattern
+            BitSet conditions = new BitSet();
+            for (int i = 0; i < this.maxK; i++) {
+                conditions.set(pattern.indexOf(ssp.getConditions().get(i).getCondition().getId()));
+                solutions.add(List.of(estimator.createSecondaryStrategy(pattern.createExecution(conditions))));
             }
         }
 
@@ -115,61 +116,54 @@ public class ParetoRecursiveStrategySelector implements IndexSelectionStrategy {
 
             int maxK = this.maxK + other.maxK;
 
-            List<List<ExecutionStrategy>> result = new ArrayList<>();
+            List<List<ExecutionStrategy>> result = new ArrayList<>(maxK + 1);
             result.add(Collections.singletonList(lw));
 
-            for (int k = 1; k <= maxK; k++) {
-
-                List<ExecutionStrategy> paretoResult = new ArrayList<>();
-
-                // TODO: May be optimized
-                for (int left = k, right = 0; left >= 0; left--, right++) {
-                    if (left > this.maxK || right > other.maxK)
-                        continue;
-
-                    List<ExecutionStrategy> ls = solutions.get(left);
-                    List<ExecutionStrategy> rs = other.solutions.get(right);
-
-                    for (ExecutionStrategy l : ls) {
-                        rightLoop:
-                        for (ExecutionStrategy r : rs) {
-
-                            combinationCounter.incrementAndGet();
-
-                            pattern.disableAll();
-                            for (var c : l.getConfig().getConditions()) {
-                                pattern.getSubPatterns().stream()
-                                        .flatMap(x -> x.getConditions().stream())
-                                        .filter(sc -> sc.getId().equals(c.getId()))
-                                        .findFirst().ifPresent(SubPatternCondition::enable);
-                            }
-                            for (var c : r.getConfig().getConditions()) {
-                                pattern.getSubPatterns().stream()
-                                        .flatMap(x -> x.getConditions().stream())
-                                        .filter(sc -> sc.getId().equals(c.getId()))
-                                        .findFirst().ifPresent(SubPatternCondition::enable);
-                            }
-
-                            ExecutionStrategy s = estimator.createSecondaryStrategy(pattern.createExecution());
-
-                            ListIterator<ExecutionStrategy> lIter = paretoResult.listIterator();
-
-                            while (lIter.hasNext()) {
-                                ExecutionStrategy check = lIter.next();
-                                // Current solution is not part of pareto front
-                                if (check.dominates(s))
-                                    continue rightLoop;
-                                    // Current solution dominates another one
-                                else if (s.dominates(check))
-                                    lIter.remove();
-                            }
-                            paretoResult.add(s);
+            // The fronts for distinct k are independent of each other
+            result.addAll(IntStream.rangeClosed(1, maxK).parallel()
+                    .mapToObj(k -> paretoFront(other, k, combinationCounter))
+                    .collect(Collectors.toList()));
+
+            return new Component(maxK, result);
+        }
+
+        private List<ExecutionStrategy> paretoFront(Component other, int k, AtomicLong combinationCounter) {
+            List<ExecutionStrategy> paretoResult = new ArrayList<>();
+
+            for (int left = k, right = 0; left >= 0; left--, right++) {
+                if (left > this.maxK || right > other.maxK)
+                    continue;
+
+                List<ExecutionStrategy> ls = solutions.get(left);
+                List<ExecutionStrategy> rs = other.solutions.get(right);
+
+                for (ExecutionStrategy l : ls) {
+                    rightLoop:
+                    for (ExecutionStrategy r : rs) {
+
+                        combinationCounter.incrementAndGet();
+
+                        BitSet conditions = l.getConfig().getEnabledConditions();
+                        conditions.or(r.getConfig().getEnabledConditions());
+
+                        ExecutionStrategy s = estimator.createSecondaryStrategy(pattern.createExecution(conditions));
+
+                        ListIterator<ExecutionStrategy> lIter = paretoResult.listIterator();
+
+                        while (lIter.hasNext()) {
+                            ExecutionStrategy check = lIter.next();
+                            // Current solution is not part of pareto front
+                            if (check.dominates(s))
+                                continue rightLoop;
+                                // Current solution dominates another one
+                            else if (s.dominates(check))
+                                lIter.remove();
                         }
+                        paretoResult.add(s);
                     }
                 }
-                result.add(paretoResult);
             }
-            return new Component(maxK, result);
+            return paretoResult;
         }
     }
 }
@@ -6,8 +6,11 @@ import sigmod2021.esp.api.epa.PatternMatcher;
 import sigmod2021.pattern.cost.selection.PatternStats;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public class TransformedPattern {
 
@@ -19,6 +22,8 @@ public class TransformedPattern {
     private final ExtendMode lwMode;
     private final long lwHead;
     private final long lwTail;
+    /** The position of each condition in {@link #collectConditions()} */
+    private final Map<SubPatternCondition.ConditionId, Integer> conditionIndexes = new HashMap<>();
 
     /**
      * Creates a new TransformedPattern instance
@@ -32,6 +37,8 @@ public class TransformedPattern {
         this.exactPossible = false;
 
         var conditions = collectConditions();
+        for (int i = 0; i < conditions.size(); i++)
+            conditionIndexes.put(conditions.get(i).getId(), i);
 
         if (exactPossible) {
             lwMode = ExtendMode.EXACT;
@@ -131,10 +138,41 @@ public class TransformedPattern {
         return this.sps;
     }
 
+    /**
+     * @param id the id of a condition
+     * @return the position of the condition in {@link #collectConditions()}
+     */
+    public int indexOf(SubPatternCondition.ConditionId id) {
+        return conditionIndexes.get(id);
+    }
+
     public ExecutableConfiguration createExecution() {
+        BitSet enabled = new BitSet();
+        int index = 0;
+        for (var sp : sps) {
+            for (var c : sp.getConditions()) {
+                if (c.isEnabled())
+                    enabled.set(index);
+                index++;
+            }
+        }
+        return createExecution(enabled);
+    }
+
+    /**
+     * Creates the execution of the given conditions, regardless of the
+     * conditions' enabled flags. Thus, configurations may be created
+     * concurrently.
+     *
+     * @param enabled bit <tt>i</tt> enables the <tt>i</tt>-th condition of
+     *                {@link #collectConditions()}
+     * @return the execution
+     */
+    public ExecutableConfiguration createExecution(BitSet enabled) {
         boolean exact = exactPossible;
         List<ExecutableSubPattern> result = new ArrayList<>();
         long minDist = 0;
+        int index = 0;
 
 
         for (int i = 0; i < sps.size(); i++) {
@@ -144,7 +182,7 @@ public class TransformedPattern {
             long offset = 0;
             boolean fst = true;
             for (var c : sp.getConditions()) {
-                if (!c.isEnabled()) {
+                if (!enabled.get(index++)) {
                     exact = false;
                     continue;
                 }
@@ -163,7 +201,7 @@ public class TransformedPattern {
 
             minDist = (fst) ? minDist + sp.getLength() : (sp.getLength() - offset);
         }
-        return new ExecutableConfiguration(result, exact);
+        return new ExecutableConfiguration(result, exact, (BitSet) enabled.clone());
     }
 
     /**
@@ -394,8 +432,12 @@ public class TransformedPattern {
 
         private final int minCandidateLength;
 
-        private ExecutableConfiguration(List<ExecutableSubPattern> subPatterns, boolean exact) {
+        /** The enabled conditions */
+        private final BitSet enabled;
+
+        private ExecutableConfiguration(List<ExecutableSubPattern> subPatterns, boolean exact, BitSet enabled) {
             this.subPatterns = subPatterns;
+            this.enabled = enabled;
 
             // Exact
             if (exact) {
@@ -466,6 +508,14 @@ public class TransformedPattern {
             return subPatterns;
         }
 
+        /**
+         * @return the enabled conditions, bit <tt>i</tt> referring to the
+         * <tt>i</tt>-th condition of {@link TransformedPattern#collectConditions()}
+         */
+        public BitSet getEnabledConditions() {
+            return (BitSet) enabled.clone();
+        }
+
         public List<ExecutableCondition> getConditions() {
             List<ExecutableCondition> result = new ArrayList<>();
             for (var sp : subPatterns) {
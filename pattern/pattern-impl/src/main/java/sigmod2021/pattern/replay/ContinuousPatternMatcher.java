@@ -0,0 +1,132 @@
+package sigmod2021.pattern.replay;
+
+import sigmod2021.common.EPException;
+import sigmod2021.common.IncompatibleTypeException;
+import sigmod2021.db.DBRuntimeException;
+import sigmod2021.db.core.primaryindex.PrimaryIndex;
+import sigmod2021.db.event.PersistentEvent;
+import sigmod2021.esp.api.bridge.EventChannel;
+import sigmod2021.esp.api.epa.EPA;
+import sigmod2021.esp.api.epa.PatternMatcher;
+import sigmod2021.esp.bridges.nat.epa.NativeOperator;
+import sigmod2021.esp.bridges.nat.epa.impl.pattern.NativePatternMatcher;
+import sigmod2021.esp.ql.TranslatorException;
+import sigmod2021.event.Event;
+import sigmod2021.pattern.util.Input;
+import sigmod2021.pattern.util.NativeOperatorWrapper;
+import xxl.core.cursors.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A standing pattern query on a primary index. Each {@link #refresh()} feeds
+ * the events appended since the previous refresh into a pattern matcher, which
+ * is kept across refreshes. Thus, partial matches open at the end of a refresh
+ * are continued by the next one, and the history is never replayed again.
+ * <p>
+ * The progress is tracked by the start timestamp of the last processed event
+ * and the number of processed events sharing it. Events inserted out-of-order
+ * before that timestamp are not seen by the query.
+ */
+public class ContinuousPatternMatcher {
+
+    private final PrimaryIndex tree;
+
+    private final NativePatternMatcher matcher;
+
+    private final NativeOperatorWrapper epa;
+
+    private final Input<NativeOperatorWrapper> input;
+
+    /** The matches reported during the current refresh */
+    private final List<Event> results = new ArrayList<>();
+
+    /** The start timestamp of the last processed event */
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /** The number of processed events starting at {@link #lastTimestamp} */
+    private long processedAtLast = 0L;
+
+    private long processed = 0L;
+
+    /**
+     * Creates a new standing query for the given pattern definition. No
+     * events are processed before the first refresh.
+     *
+     * @param tree the primary index
+     * @param def  the pattern definition
+     * @throws TranslatorException
+     * @throws IncompatibleTypeException
+     */
+    public ContinuousPatternMatcher(PrimaryIndex tree, PatternMatcher def) throws TranslatorException, IncompatibleTypeException {
+        this.tree = tree;
+        this.epa = new NativeOperatorWrapper(new NativeOperatorWrapper.OperatorFactory() {
+
+            @Override
+            public EPA getDefinition() {
+                return def;
+            }
+
+            @Override
+            public NativeOperator create(EventChannel... inputChannels) {
+                return matcher;
+            }
+        });
+        this.input = new Input<>(tree.getSchema(), epa);
+        this.matcher = new NativePatternMatcher(def, input);
+        this.epa.setCallback(results::add);
+        try {
+            this.epa.initialize(input);
+        } catch (EPException e) {
+            throw new DBRuntimeException("Could not initialize pattern matcher.", e);
+        }
+    }
+
+    /**
+     * Processes the events appended since the last refresh.
+     *
+     * @return the matches completed by these events
+     */
+    public synchronized List<Event> refresh() {
+        long skip = processedAtLast;
+        final Cursor<PersistentEvent> events = tree.query(lastTimestamp, Long.MAX_VALUE);
+        try {
+            events.open();
+            while (events.hasNext()) {
+                final PersistentEvent event = events.next();
+                if (event.getT1() == lastTimestamp && skip > 0) {
+                    // Processed by the last refresh
+                    skip--;
+                    continue;
+                }
+                if (event.getT1() != lastTimestamp) {
+                    lastTimestamp = event.getT1();
+                    processedAtLast = 0L;
+                }
+                processedAtLast++;
+                processed++;
+                epa.process(input, event);
+            }
+        } finally {
+            events.close();
+        }
+        final List<Event> result = new ArrayList<>(results);
+        results.clear();
+        return result;
+    }
+
+    /**
+     * @return the start timestamp of the last processed event
+     */
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the number of events processed by all refreshes
+     */
+    public synchronized long getProcessedEvents() {
+        return processed;
+    }
+}
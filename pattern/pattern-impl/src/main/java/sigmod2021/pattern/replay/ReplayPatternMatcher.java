@@ -2,6 +2,7 @@ package sigmod2021.pattern.replay;
 
 
 import sigmod2021.common.IncompatibleTypeException;
+import sigmod2021.db.DBRuntimeException;
 import sigmod2021.db.core.primaryindex.PrimaryIndex;
 import sigmod2021.db.event.PersistentEvent;
 import sigmod2021.db.util.TimeInterval;
@@ -16,13 +17,58 @@ import xxl.core.cursor.MinimalCursor;
 import xxl.core.cursors.Cursor;
 import xxl.core.cursors.sources.EmptyCursor;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Step-wise pattern matcher for EventStore.
  */
 public class ReplayPatternMatcher extends NativeReplayOperator<PatternMatcher> {
 
+    /**
+     * The number of regions in flight per worker ahead of the consumer.
+     */
+    private static final int READ_AHEAD_PER_WORKER = 2;
+
+    /**
+     * The number of events or matches handed from one thread to another at once.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The number of chunks of events, and of matches, buffered per region.
+     */
+    private static final int CHUNKS_PER_REGION = 4;
+
+    /**
+     * The interval in which blocked threads check whether the cursor was closed.
+     */
+    private static final long POLL_MILLIS = 50L;
+
+    /**
+     * Ends the events or matches of a region.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final List END = Collections.emptyList();
+
+    /**
+     * Follows the last region in flight.
+     */
+    private static final Region LAST = new Region();
+
+    private final PatternMatcher definition;
+
+    private final int parallelism;
+
     /**
      * Creates a new pattern matcher for the given pattern definition.
      *
@@ -31,10 +77,39 @@ public class ReplayPatternMatcher extends NativeReplayOperator<PatternMatcher> {
      * @throws TranslatorException
      */
     public ReplayPatternMatcher(PrimaryIndex tree, PatternMatcher pm) throws TranslatorException, IncompatibleTypeException {
+        this(tree, pm, 1);
+    }
+
+    /**
+     * Creates a new pattern matcher for the given pattern definition, which
+     * replays multiple regions in parallel.
+     *
+     * @param pm          the pattern definition
+     * @param parallelism the number of regions replayed concurrently, 1 for sequential replay
+     * @throws IncompatibleTypeException
+     * @throws TranslatorException
+     */
+    public ReplayPatternMatcher(PrimaryIndex tree, PatternMatcher pm, int parallelism) throws TranslatorException, IncompatibleTypeException {
         super(tree, pm, new Fact());
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        this.definition = pm;
+        this.parallelism = parallelism;
     }
 
+    /**
+     * Replays the given regions, which must be disjoint and ordered by time.
+     * The results are returned region by region. With a parallelism greater
+     * than 1, the regions are replayed by a pool of workers, each using its
+     * own pattern matcher, while the results keep the order of the regions.
+     *
+     * @param intervals the regions to replay
+     * @return the matches of all regions
+     */
     public Cursor<Event> executeMultiRegions(final Cursor<TimeInterval> intervals) {
+        if (parallelism > 1)
+            return new ParallelReplayCursor(intervals);
+
         final Cursor<Cursor<PersistentEvent>> regions = tree.query(intervals);
         return new MinimalCursor<Event>() {
 
@@ -85,6 +160,313 @@ public class ReplayPatternMatcher extends NativeReplayOperator<PatternMatcher> {
         };
     }
 
+    /**
+     * Replays regions by a pool of workers. A reader thread reads the regions
+     * through a single multi-interval query, so the tree is accessed by one
+     * thread only and its leaves are read ahead as configured by the primary
+     * index. The reader streams the events of each region in chunks to a
+     * worker, which matches them by its own pattern matcher and streams its
+     * matches back in chunks. All queues are bounded: each region buffers up
+     * to {@link #CHUNKS_PER_REGION} chunks of events and of matches, and up to
+     * {@link #READ_AHEAD_PER_WORKER} regions per worker are in flight ahead of
+     * the consumer. The consumer reads the matches region by region.
+     * <p>
+     * Threads blocked on a queue wake up periodically to check whether the
+     * cursor was closed, since interrupting the reader could close the channels
+     * of the index.
+     */
+    private class ParallelReplayCursor implements MinimalCursor<Event> {
+
+        private final Cursor<Cursor<PersistentEvent>> regions;
+
+        /** The regions in flight, in the order of their intervals */
+        private final BlockingQueue<Region> inFlight = new ArrayBlockingQueue<>(parallelism * READ_AHEAD_PER_WORKER);
+
+        private ExecutorService workers;
+
+        private Thread reader;
+
+        private ThreadLocal<ReplayPatternMatcher> matchers;
+
+        private Region currentRegion;
+
+        private Iterator<Event> currentResults = Collections.emptyIterator();
+
+        private volatile boolean closed;
+
+        /** The first failure of the reader or a worker */
+        private volatile Throwable failure;
+
+        private long intervalCount = 0L;
+
+        private Event next;
+
+        ParallelReplayCursor(final Cursor<TimeInterval> intervals) {
+            this.regions = tree.query(intervals);
+        }
+
+        @Override
+        public void open() {
+            final AtomicInteger threadCount = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "replay-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            // One matcher per worker, reused across the regions it replays
+            matchers = ThreadLocal.withInitial(() -> {
+                try {
+                    return new ReplayPatternMatcher(tree, definition);
+                } catch (TranslatorException | IncompatibleTypeException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            reader = new Thread(this::read, "replay-reader");
+            reader.setDaemon(true);
+            reader.start();
+            next = computeNext();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            if (reader != null) {
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (workers != null)
+                workers.shutdown();
+            System.out.println("Intervals: " + intervalCount);
+        }
+
+        @Override
+        public boolean hasNext() throws IllegalStateException {
+            return next != null;
+        }
+
+        @Override
+        public Event next() throws IllegalStateException, NoSuchElementException {
+            Event result = next;
+            next = computeNext();
+            return result;
+        }
+
+        /**
+         * Reads the regions and streams their events to the workers. Runs on
+         * the reader thread, which opens, reads and closes all cursors of the
+         * query.
+         */
+        private void read() {
+            Region region = null;
+            try {
+                regions.open();
+                while (!closed && regions.hasNext()) {
+                    final Cursor<PersistentEvent> events = regions.next();
+                    region = new Region();
+                    if (!put(inFlight, region))
+                        break;
+                    final Region r = region;
+                    workers.execute(() -> replay(r));
+                    events.open();
+                    try {
+                        List<PersistentEvent> chunk = new ArrayList<>(CHUNK_SIZE);
+                        while (events.hasNext()) {
+                            chunk.add(events.next());
+                            if (chunk.size() == CHUNK_SIZE) {
+                                if (!put(region.events, chunk))
+                                    break;
+                                chunk = new ArrayList<>(CHUNK_SIZE);
+                            }
+                        }
+                        if (!chunk.isEmpty())
+                            put(region.events, chunk);
+                    } finally {
+                        events.close();
+                    }
+                    put(region.events, END);
+                    region = null;
+                    intervalCount++;
+                }
+            } catch (RuntimeException | Error e) {
+                fail(e);
+                // Let the worker of the interrupted region finish
+                if (region != null)
+                    put(region.events, END);
+            } finally {
+                try {
+                    regions.close();
+                } finally {
+                    put(inFlight, LAST);
+                }
+            }
+        }
+
+        /**
+         * Matches the events of the given region and streams the matches to
+         * the consumer. Runs on a worker.
+         */
+        private void replay(Region region) {
+            final RegionEvents input = new RegionEvents(region);
+            try {
+                final Cursor<Event> c = matchers.get().executeDirect(input);
+                c.open();
+                try {
+                    List<Event> chunk = new ArrayList<>(CHUNK_SIZE);
+                    while (c.hasNext()) {
+                        chunk.add(c.next());
+                        if (chunk.size() == CHUNK_SIZE) {
+                            if (!put(region.matches, chunk))
+                                return;
+                            chunk = new ArrayList<>(CHUNK_SIZE);
+                        }
+                    }
+                    if (!chunk.isEmpty())
+                        put(region.matches, chunk);
+                } finally {
+                    c.close();
+                }
+            } catch (RuntimeException | Error e) {
+                fail(e);
+                // Unblock the reader, which may still be streaming events
+                while (!input.done && !closed)
+                    input.nextChunk();
+            } finally {
+                put(region.matches, END);
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (failure == null)
+                failure = t;
+        }
+
+        /**
+         * Puts the given element into the given queue, waiting for space unless
+         * the cursor is closed.
+         *
+         * @return true if the element was put, false if the cursor was closed
+         */
+        private <T> boolean put(BlockingQueue<T> queue, T element) {
+            try {
+                while (!closed) {
+                    if (queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                        return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        /**
+         * Takes the head of the given queue, waiting for an element unless the
+         * cursor is closed.
+         *
+         * @return the head, or null if the cursor was closed
+         */
+        private <T> T take(BlockingQueue<T> queue) {
+            try {
+                while (!closed) {
+                    final T result = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (result != null)
+                        return result;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBRuntimeException("Interrupted while waiting for replay results.", e);
+            }
+            return null;
+        }
+
+        private Event computeNext() {
+            while (!currentResults.hasNext()) {
+                if (currentRegion == null) {
+                    currentRegion = take(inFlight);
+                    if (currentRegion == null || currentRegion == LAST) {
+                        currentRegion = null;
+                        checkFailure();
+                        return null;
+                    }
+                }
+                final List<Event> chunk = take(currentRegion.matches);
+                if (chunk == null)
+                    return null;
+                if (chunk == END) {
+                    currentRegion = null;
+                    // A failure of any region ends the replay
+                    checkFailure();
+                }
+                currentResults = chunk.iterator();
+            }
+            return currentResults.next();
+        }
+
+        private void checkFailure() {
+            if (failure != null)
+                throw new DBRuntimeException("Could not replay region.", failure);
+        }
+
+        /**
+         * The events of a region, as streamed by the reader.
+         */
+        private class RegionEvents implements MinimalCursor<PersistentEvent> {
+
+            private final Region region;
+
+            private Iterator<PersistentEvent> chunk = Collections.emptyIterator();
+
+            private boolean done;
+
+            RegionEvents(Region region) {
+                this.region = region;
+            }
+
+            @Override
+            public void open() {
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!chunk.hasNext() && !done)
+                    nextChunk();
+                return chunk.hasNext();
+            }
+
+            @Override
+            public PersistentEvent next() throws NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return chunk.next();
+            }
+
+            void nextChunk() {
+                final List<PersistentEvent> events = take(region.events);
+                if (events == null || events == END)
+                    done = true;
+                else
+                    chunk = events.iterator();
+            }
+        }
+    }
+
+    /**
+     * A region in flight, with the chunks of its events and of its matches.
+     * An empty chunk ends each stream.
+     */
+    private static class Region {
+
+        final BlockingQueue<List<PersistentEvent>> events = new ArrayBlockingQueue<>(CHUNKS_PER_REGION);
+
+        final BlockingQueue<List<Event>> matches = new ArrayBlockingQueue<>(CHUNKS_PER_REGION);
+    }
+
     static class Fact implements NativeOperatorFactory<PatternMatcher> {
 
         private NativePatternMatcher instance;
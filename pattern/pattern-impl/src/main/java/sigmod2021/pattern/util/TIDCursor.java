@@ -1,6 +1,8 @@
 package sigmod2021.pattern.util;
 
 import sigmod2021.db.core.secondaryindex.EventID;
+import sigmod2021.db.core.secondaryindex.EventIDBatch;
+import sigmod2021.db.core.secondaryindex.SecondaryTimeIndex;
 import xxl.core.cursors.AbstractCursor;
 import xxl.core.cursors.Cursor;
 import xxl.core.util.Pair;
@@ -23,6 +25,36 @@ public class TIDCursor extends AbstractCursor<EventID> {
         this.siQueryResult = siQueryResult;
     }
 
+    /**
+     * Reads the event ids of a range query on the given index into a batch,
+     * sorted by sequence id. This yields the same order as a TIDCursor. The
+     * ids are kept in primitive arrays and sorted without boxing, but reading
+     * the index still decodes an entry object per event id.
+     *
+     * @param index  the secondary index
+     * @param minKey the minimum key
+     * @param maxKey the maximum key
+     * @return the sorted event ids
+     */
+    public static <K extends Comparable<K>> EventIDBatch readBatch(SecondaryTimeIndex<K> index, K minKey, K maxKey) {
+        long time = -System.nanoTime();
+        EventIDBatch result = index.rangeQueryIDBatch(minKey, maxKey);
+        time += System.nanoTime();
+
+        if (PMTiming.DO_TIMING) {
+            PMTiming.getCurrentTiming().addSecondaryReadNanos(time);
+        }
+
+        time = -System.nanoTime();
+        result.sortBySequenceId();
+        time += System.nanoTime();
+
+        if (PMTiming.DO_TIMING) {
+            PMTiming.getCurrentTiming().addSecondarySortNanos(time);
+        }
+        return result;
+    }
+
     /**
      * @{inheritDoc}
      */
@@ -2552,22 +2552,17 @@ public class BPlusTree extends Tree {
                 if(currentNode.level() == 0){
                 	leafs++;
                 }
-               for (int i = 0; i < currentNode.number(); i++) {
-                    lastIndex = index;
-                    index = i;
-                    if (separator(((Node) currentNode).getEntry(i)).isRightOf(
-                            ((KeyRange) queryRegion).minBound())) {
-                    	break;
-                    }
-                    if (index == currentNode.number() - 1
-                            && ((Node) currentNode).nextNeighbor != null) {
-                        nodeChangeOver();
-                        i =  - 1;     
-                    }
-                    if (index == currentNode.number() - 1
-                            && ((Node) currentNode).nextNeighbor == null) {   
-                    	return false; 
-                    }
+                // binary search for the first entry right of the min bound
+                int first = firstRightOf((Node) currentNode, ((KeyRange) queryRegion).minBound());
+                while (first == currentNode.number() && currentNode.number() > 0) {
+                    if (((Node) currentNode).nextNeighbor == null)
+                        return false;
+                    nodeChangeOver();
+                    first = firstRightOf((Node) currentNode, ((KeyRange) queryRegion).minBound());
+                }
+                if (currentNode.number() > 0) {
+                    lastIndex = first == 0 ? index : first - 1;
+                    index = first;
                 }
             }
             if (index == -1) return false;
@@ -2580,6 +2575,29 @@ public class BPlusTree extends Tree {
             return separator(((Node) currentNode).getEntry(index)).sepValue()
             .compareTo(((KeyRange) queryRegion).maxBound()) <= 0;
         }
+        /**
+         * Returns the index of the first entry of the given <tt>Node</tt>
+         * whose separator is right of the given key, using binary search.
+         * 
+         * @param node
+         *            the <tt>Node</tt> to search in
+         * @param key
+         *            the key
+         * @return the index of the first entry right of the key, or the
+         *         number of entries if there is none
+         */
+        protected int firstRightOf(Node node, Comparable key) {
+            int low = 0;
+            int high = node.number();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (separator(node.getEntry(mid)).isRightOf(key))
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            return low;
+        }
         /**
          * Computes the next element of the <tt>QueryCursor</tt>.
          * 
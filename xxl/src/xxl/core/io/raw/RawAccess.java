@@ -65,6 +65,23 @@ public interface RawAccess {
 	 */
 	public void read(byte[] block, long sector) throws RawAccessException;
 
+	/**
+	 * Reads several sectors from the file/device. The i-th array is filled
+	 * starting at sector <tt>sectors[i]</tt>, so it may span several sectors.
+	 * Implementations may combine the reads of neighbouring sectors if the
+	 * sector numbers are sorted ascending. This default implementation reads
+	 * the arrays one by one.
+	 *
+	 * @param blocks byte arrays the sectors will be read into
+	 * @param sectors numbers of the first sectors to be read into the arrays
+	 * @param count number of arrays to be read
+	 * @exception RawAccessException a specialized RuntimeException
+	 */
+	public default void read(byte[][] blocks, long[] sectors, int count) throws RawAccessException {
+		for (int i = 0; i < count; i++)
+			read(blocks[i], sectors[i]);
+	}
+
 	/**
 	 * Returns the amount of sectors in the file/device.
 	 *